@@ -4,14 +4,23 @@
 -- 1. DROP TABLES , useful for rebuilding the schema)
 -- ===================================================================================
 -- Ensure tables are dropped in the correct order to avoid foreign key issues
+DROP TABLE IF EXISTS market_index_constituents;
+DROP TABLE IF EXISTS market_indices;
+DROP TABLE IF EXISTS price_alerts;
 DROP TABLE IF EXISTS user_activity_logs;
 DROP TABLE IF EXISTS trade_cancellations;
 DROP TABLE IF EXISTS stock_price_history;
 DROP TABLE IF EXISTS transactions;
 DROP TABLE IF EXISTS portfolios;
+DROP TABLE IF EXISTS trading_halts;
 DROP TABLE IF EXISTS stock_suspensions;
 DROP TABLE IF EXISTS stocks;
 DROP TABLE IF EXISTS users;
+DROP TABLE IF EXISTS replication_heartbeat;
+DROP TABLE IF EXISTS shard_map;
+DROP TABLE IF EXISTS user_directory;
+DROP TABLE IF EXISTS cache_invalidations;
+DROP TABLE IF EXISTS cluster_nodes;
 
 -- ===================================================================================
 -- 2. CREATE TABLES
@@ -77,8 +86,22 @@ CREATE TABLE transactions (
     created_at          TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     completed_at        TIMESTAMP NULL,
 
+    -- Resting orders (stop-loss, take-profit, trailing stop) wait as PENDING
+    -- until their trigger price is crossed; triggered_at is set when they fire
+    order_type          VARCHAR(13) DEFAULT 'MARKET' NOT NULL
+                        CONSTRAINT chk_order_type
+                        CHECK (order_type IN ('MARKET', 'STOP_LOSS', 'TAKE_PROFIT', 'TRAILING_STOP')),
+    trigger_price       DECIMAL(15, 2) NULL,
+    trail_amount        DECIMAL(15, 2) NULL,
+    triggered_at        TIMESTAMP NULL,
+
+    -- Cluster node that queued the order; a PENDING order of a node that
+    -- has left the cluster is failed by the remaining nodes
+    node_id             VARCHAR(64) NULL,
+
     FOREIGN KEY (user_id) REFERENCES users(id),
-    FOREIGN KEY (stock_id) REFERENCES stocks(id)
+    FOREIGN KEY (stock_id) REFERENCES stocks(id),
+    INDEX idx_transactions_resting (status, order_type)
 );
 
 -- COMMENT='Historical record of all buy and sell actions by users.';
@@ -90,7 +113,8 @@ CREATE TABLE stock_price_history (
     price       DECIMAL(15, 2) NOT NULL,
     recorded_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
 
-    FOREIGN KEY (stock_id) REFERENCES stocks(id)
+    FOREIGN KEY (stock_id) REFERENCES stocks(id),
+    INDEX idx_price_history_recorded (recorded_at)
 );
 
 -- Table to track trade cancellations and rollbacks
@@ -107,6 +131,8 @@ CREATE TABLE trade_cancellations (
 );
 
 -- Table to track user activity (login, logout, trades, admin actions)
+-- New logs go to monthly tables user_activity_logs_YYYYMM, which the application
+-- creates on demand; this table only holds rows written before partitioning.
 CREATE TABLE user_activity_logs (
     id              INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
     user_id         INT NOT NULL,
@@ -132,6 +158,100 @@ CREATE TABLE stock_suspensions (
     FOREIGN KEY (admin_id) REFERENCES users(id)
 );
 
+-- Scheduled trading halt windows; each node loads them at startup and arms its own timers
+CREATE TABLE trading_halts (
+    id              INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    stock_id        INT NOT NULL,
+    admin_id        INT NOT NULL,
+    reason          VARCHAR(255) NOT NULL,
+    starts_at       TIMESTAMP NOT NULL,
+    ends_at         TIMESTAMP NOT NULL,
+    is_cancelled    BOOLEAN DEFAULT FALSE NOT NULL,
+
+    FOREIGN KEY (stock_id) REFERENCES stocks(id),
+    FOREIGN KEY (admin_id) REFERENCES users(id),
+    INDEX idx_trading_halts_ends (ends_at)
+);
+
+-- User price alerts; kept on the primary next to the stocks, also when users are sharded
+CREATE TABLE price_alerts (
+    id              INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    user_id         INT NOT NULL,
+    stock_id        INT NOT NULL,
+    direction       VARCHAR(5) NOT NULL
+                    CONSTRAINT chk_alert_direction
+                    CHECK (direction IN ('ABOVE', 'BELOW')),
+    threshold       DECIMAL(15, 2) NOT NULL,
+    created_at      TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    triggered_at    TIMESTAMP NULL,
+    triggered_price DECIMAL(15, 2) NULL,
+
+    FOREIGN KEY (stock_id) REFERENCES stocks(id),
+    INDEX idx_price_alerts_user (user_id),
+    INDEX idx_price_alerts_triggered (triggered_at)
+);
+
+-- Composite market indices: value = SUM(units * price) / divisor. Price-weighted
+-- indices hold one unit of every constituent, cap-weighted ones its shares
+-- outstanding. A NULL divisor is set on first load so the index starts at base_value.
+CREATE TABLE market_indices (
+    id              INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    symbol          VARCHAR(10) UNIQUE NOT NULL,
+    name            VARCHAR(100) NOT NULL,
+    weighting       VARCHAR(5) NOT NULL
+                    CONSTRAINT chk_index_weighting
+                    CHECK (weighting IN ('PRICE', 'CAP')),
+    base_value      DECIMAL(15, 2) DEFAULT 1000.00 NOT NULL,
+    divisor         DOUBLE NULL,
+    created_at      TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE market_index_constituents (
+    index_id        INT NOT NULL,
+    stock_id        INT NOT NULL,
+    units           BIGINT DEFAULT 1 NOT NULL,
+
+    PRIMARY KEY (index_id, stock_id),
+    FOREIGN KEY (index_id) REFERENCES market_indices(id) ON DELETE CASCADE,
+    FOREIGN KEY (stock_id) REFERENCES stocks(id)
+);
+
+
+-- Heartbeat row written by the primary; replicas' copies show how far they have applied
+CREATE TABLE replication_heartbeat (
+    id              INT NOT NULL PRIMARY KEY,
+    beat_at         BIGINT NOT NULL
+);
+
+-- Bucket (user id mod 1024) -> shard holding that bucket's users; filled on first sharded start
+CREATE TABLE shard_map (
+    bucket          INT NOT NULL PRIMARY KEY,
+    shard           INT NOT NULL
+);
+
+-- Allocates user ids and maps usernames to ids when users are sharded
+CREATE TABLE user_directory (
+    id              INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    username        VARCHAR(50) UNIQUE NOT NULL
+);
+
+-- Cache invalidation events between application nodes; rows are purged after a minute
+CREATE TABLE cache_invalidations (
+    id              BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    node_id         VARCHAR(64) NOT NULL,
+    kind            VARCHAR(16) NOT NULL,
+    entity_id       INT NOT NULL,
+    created_at      BIGINT NOT NULL,
+    INDEX idx_cache_invalidations_created (created_at)
+);
+
+-- Live trading nodes and their order RPC addresses; symbols are spread over them by consistent hashing
+CREATE TABLE cluster_nodes (
+    node_id         VARCHAR(64) NOT NULL PRIMARY KEY,
+    address         VARCHAR(255) NOT NULL,
+    heartbeat_at    BIGINT NOT NULL
+);
+
 
 -- Insert a starting stock
 INSERT INTO stocks (symbol, name, price, is_suspended)
@@ -141,6 +261,13 @@ VALUES ('UITU', 'UIT UNI STOCK', 150.00, FALSE);
 INSERT INTO stocks (symbol, name, price, is_suspended)
 VALUES ('AAPL', 'Apple Inc.', 180.50, FALSE);
 
+-- A price-weighted index over the starting stocks
+INSERT INTO market_indices (symbol, name, weighting, base_value)
+VALUES ('UITX', 'UIT Composite', 'PRICE', 1000.00);
+
+INSERT INTO market_index_constituents (index_id, stock_id, units)
+SELECT i.id, s.id, 1 FROM market_indices i CROSS JOIN stocks s WHERE i.symbol = 'UITX';
+
 -- Insert admin user
 INSERT INTO users (username, password, role, is_active, balance)
 VALUES ('admin', 'admin123', 'ADMIN', TRUE, 1000000.00);
@@ -3,9 +3,11 @@ package com.stockapp;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @ComponentScan(basePackages = { "com.stockapp", "stockapp.src" })
+@EnableScheduling
 public class StockTradingApplication {
 
     public static void main(String[] args) {
@@ -1,33 +1,61 @@
 package com.stockapp.controllers;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stockapp.dto.ActivityRow;
+import com.stockapp.dto.AdminTransactionRow;
+import com.stockapp.dto.JsonRows;
+import com.stockapp.services.ActivitySearchService;
 import com.stockapp.services.AuthService;
+import com.stockapp.services.BulkImportService;
+import com.stockapp.services.BulkRollbackService;
+import com.stockapp.services.MarketIndexService;
+import com.stockapp.services.TradingHaltService;
+import com.stockapp.services.TransactionExportService;
+import com.stockapp.services.ValueAtRiskService;
+
+import jakarta.servlet.http.HttpServletRequest;
 
 import stockapp.src.dao.StockDAO;
+import stockapp.src.dao.StockSuspensionDAO;
 import stockapp.src.dao.TransactionDAO;
 import stockapp.src.dao.UserActivityLogDAO;
 import stockapp.src.dao.UserDAO;
+import stockapp.src.analytics.PriceHistoryRecorder;
+import stockapp.src.cache.CompositeIndices;
+import stockapp.src.journal.TradeJournal;
+import stockapp.src.models.BulkImportReport;
+import stockapp.src.models.BulkRollbackReport;
+import stockapp.src.models.RollbackFilter;
 import stockapp.src.models.Stock;
+import stockapp.src.models.TradingHalt;
 import stockapp.src.models.Transaction;
-import stockapp.src.models.TransactionStatus;
 import stockapp.src.models.User;
 import stockapp.src.models.UserActivityLog;
 import stockapp.src.models.UserRole;
@@ -41,6 +69,8 @@ public class AdminController {
 
     private StockDAO stockDAO = new StockDAO();
 
+    private StockSuspensionDAO suspensionDAO = new StockSuspensionDAO();
+
     private TransactionDAO transactionDAO = new TransactionDAO();
 
     private UserActivityLogDAO activityLogDAO = new UserActivityLogDAO();
@@ -48,6 +78,30 @@ public class AdminController {
     @Autowired
     private AuthService authService;
 
+    @Autowired
+    private BulkImportService bulkImportService;
+
+    @Autowired
+    private TransactionExportService exportService;
+
+    @Autowired
+    private ActivitySearchService activitySearchService;
+
+    @Autowired
+    private BulkRollbackService bulkRollbackService;
+
+    @Autowired
+    private TradingHaltService tradingHaltService;
+
+    @Autowired
+    private MarketIndexService marketIndexService;
+
+    @Autowired
+    private ValueAtRiskService valueAtRiskService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     // ================== USER MANAGEMENT ==================
 
     @PostMapping("/users/create")
@@ -81,6 +135,35 @@ public class AdminController {
         }
     }
 
+    /**
+     * Bulk import users (and optional opening positions) from a CSV or NDJSON
+     * request body. Rows are written in JDBC batches, one transaction per batch.
+     * Pass the returned lastCommittedLine as resumeFrom to continue an interrupted import.
+     */
+    @PostMapping("/users/import")
+    public ResponseEntity<?> importUsers(
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "1000") int batchSize,
+            @RequestParam(defaultValue = "0") long resumeFrom,
+            @RequestHeader("Authorization") String authHeader,
+            HttpServletRequest request) {
+        try {
+            if (!isAdmin(authHeader)) {
+                return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
+            }
+
+            BulkImportReport report = bulkImportService.importUsers(request.getInputStream(), format, batchSize, resumeFrom);
+
+            logActivity("ADMIN_ACTION", "Bulk imported " + report.getUsersImported() + " users ("
+                    + report.getRowsFailed() + " rows rejected)");
+
+            return ResponseEntity.ok(report);
+
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
     @GetMapping("/users/list")
     public ResponseEntity<?> listAllUsers(@RequestHeader("Authorization") String authHeader) {
         try {
@@ -139,6 +222,7 @@ public class AdminController {
             if (isActive != null) user.setActive(isActive);
 
             userDAO.updateUser(user);
+            activitySearchService.updateUsername(user.getId(), user.getUsername());
 
             logActivity("ADMIN_ACTION", "Edited user: " + user.getUsername());
 
@@ -175,6 +259,8 @@ public class AdminController {
             stock.setPrice(newPriceBD);
             stock.setChangePercent(changePercent);
             stockDAO.updateStock(stock);
+            TradeJournal.getInstance().recordPrice(stockId, newPriceBD);
+            PriceHistoryRecorder.getInstance().record(stockId, newPriceBD);
 
             logActivity("ADMIN_ACTION", "Updated stock price for " + stock.getSymbol() + 
                                       " from " + oldPrice + " to " + newPrice + ". Reason: " + reason);
@@ -195,13 +281,179 @@ public class AdminController {
 
             int stockId = ((Number) request.get("stockId")).intValue();
             boolean suspend = (boolean) request.get("suspend");
+            String reason = request.get("reason") != null ? (String) request.get("reason") : "Suspended by admin";
 
             Stock stock = stockDAO.getStockById(stockId);
-            stock.setSuspended(suspend);
-            stockDAO.updateStock(stock);
+            if (stock == null) {
+                return ResponseEntity.badRequest().body(Map.of("message", "Stock not found"));
+            }
+            if (suspend) {
+                User admin = authService.getUserFromToken(authHeader.substring(7));
+                suspensionDAO.suspendStock(stockId, admin.getId(), reason);
+            } else {
+                suspensionDAO.resumeStock(stockId);
+            }
 
             logActivity("ADMIN_ACTION", (suspend ? "Suspended" : "Resumed") + " stock: " + stock.getSymbol());
 
+            return ResponseEntity.ok(Map.of("success", true, "suspended", suspensionDAO.isStockSuspended(stockId)));
+
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Schedule a trading halt window for a stock.
+     * Body: stockId, endsAt, optional startsAt (ISO date-times; default now) and reason.
+     */
+    @PostMapping("/stocks/halts")
+    public ResponseEntity<?> scheduleHalt(@RequestBody Map<String, Object> request, @RequestHeader("Authorization") String authHeader) {
+        try {
+            if (!isAdmin(authHeader)) {
+                return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
+            }
+
+            int stockId = ((Number) request.get("stockId")).intValue();
+            Stock stock = stockDAO.getStockById(stockId);
+            if (stock == null) {
+                return ResponseEntity.badRequest().body(Map.of("message", "Stock not found"));
+            }
+            LocalDateTime startsAt = request.get("startsAt") != null
+                    ? LocalDateTime.parse(request.get("startsAt").toString()) : null;
+            LocalDateTime endsAt = request.get("endsAt") != null
+                    ? LocalDateTime.parse(request.get("endsAt").toString()) : null;
+            String reason = request.get("reason") != null ? (String) request.get("reason") : "Scheduled halt";
+
+            User admin = authService.getUserFromToken(authHeader.substring(7));
+            TradingHalt halt = tradingHaltService.schedule(stockId, admin.getId(), reason, startsAt, endsAt);
+
+            logActivity("ADMIN_ACTION", "Scheduled trading halt #" + halt.getId() + " for " + stock.getSymbol() +
+                                      " from " + halt.getStartsAt() + " to " + halt.getEndsAt() + ". Reason: " + reason);
+
+            return ResponseEntity.ok(halt);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/stocks/halts")
+    public ResponseEntity<?> getHalts(@RequestHeader("Authorization") String authHeader) {
+        try {
+            if (!isAdmin(authHeader)) {
+                return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
+            }
+
+            return ResponseEntity.ok(tradingHaltService.getHalts());
+
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    @DeleteMapping("/stocks/halts/{haltId}")
+    public ResponseEntity<?> cancelHalt(@PathVariable int haltId, @RequestHeader("Authorization") String authHeader) {
+        try {
+            if (!isAdmin(authHeader)) {
+                return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
+            }
+
+            TradingHalt halt = tradingHaltService.cancel(haltId);
+            if (halt == null) {
+                return ResponseEntity.status(404).body(Map.of("message", "Halt not found"));
+            }
+
+            logActivity("ADMIN_ACTION", "Cancelled trading halt #" + haltId);
+
+            return ResponseEntity.ok(halt);
+
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    // ================== MARKET INDICES ==================
+
+    /**
+     * Create a composite market index.
+     * Body: symbol, name, weighting (PRICE or CAP), optional baseValue (default 1000)
+     * and constituents, a list of {stockId, units}; units are ignored for PRICE.
+     */
+    @PostMapping("/indices")
+    public ResponseEntity<?> createIndex(@RequestBody Map<String, Object> request, @RequestHeader("Authorization") String authHeader) {
+        try {
+            if (!isAdmin(authHeader)) {
+                return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
+            }
+
+            String weighting = request.get("weighting") != null ? request.get("weighting").toString() : "PRICE";
+            BigDecimal baseValue = request.get("baseValue") != null
+                    ? new BigDecimal(request.get("baseValue").toString()) : null;
+            CompositeIndices.Quote index = marketIndexService.createIndex((String) request.get("symbol"),
+                    (String) request.get("name"), weighting, baseValue, parseConstituents(request.get("constituents")));
+
+            logActivity("ADMIN_ACTION", "Created market index " + index.getSymbol() + " with "
+                                      + index.getConstituents() + " constituents");
+
+            return ResponseEntity.ok(index);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(503).body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Replace the constituents of a market index without moving its value.
+     * Body: constituents, a list of {stockId, units}.
+     */
+    @PutMapping("/indices/{indexId}/constituents")
+    public ResponseEntity<?> setIndexConstituents(@PathVariable int indexId, @RequestBody Map<String, Object> request,
+            @RequestHeader("Authorization") String authHeader) {
+        try {
+            if (!isAdmin(authHeader)) {
+                return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
+            }
+
+            CompositeIndices.Quote index = marketIndexService.setConstituents(indexId,
+                    parseConstituents(request.get("constituents")));
+            if (index == null) {
+                return ResponseEntity.status(404).body(Map.of("message", "Index not found"));
+            }
+
+            logActivity("ADMIN_ACTION", "Rebalanced market index " + index.getSymbol() + " to "
+                                      + index.getConstituents() + " constituents");
+
+            return ResponseEntity.ok(index);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(503).body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    @DeleteMapping("/indices/{indexId}")
+    public ResponseEntity<?> deleteIndex(@PathVariable int indexId, @RequestHeader("Authorization") String authHeader) {
+        try {
+            if (!isAdmin(authHeader)) {
+                return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
+            }
+
+            if (!marketIndexService.deleteIndex(indexId)) {
+                return ResponseEntity.status(404).body(Map.of("message", "Index not found"));
+            }
+
+            logActivity("ADMIN_ACTION", "Deleted market index #" + indexId);
+
             return ResponseEntity.ok(Map.of("success", true));
 
         } catch (Exception e) {
@@ -209,6 +461,35 @@ public class AdminController {
         }
     }
 
+    // ================== RISK ==================
+
+    /**
+     * One-day value at risk and expected shortfall of the firm's holdings,
+     * or of one user's with userId
+     */
+    @GetMapping("/risk/var")
+    public ResponseEntity<?> getValueAtRisk(@RequestHeader("Authorization") String authHeader,
+            @RequestParam(required = false) Integer userId) {
+        try {
+            if (!isAdmin(authHeader)) {
+                return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
+            }
+
+            if (userId != null) {
+                if (userDAO.getUserById(userId) == null) {
+                    return ResponseEntity.status(404).body(Map.of("message", "User not found"));
+                }
+                return ResponseEntity.ok(valueAtRiskService.getUserValueAtRisk(userId));
+            }
+            return ResponseEntity.ok(valueAtRiskService.getFirmValueAtRisk());
+
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(503).body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
     // ================== TRANSACTION MANAGEMENT ==================
 
     @GetMapping("/transactions/all")
@@ -219,27 +500,45 @@ public class AdminController {
             }
 
             List<Transaction> transactions = transactionDAO.getAllTransactions();
-            List<Map<String, Object>> result = new ArrayList<>();
-            
-            for (Transaction t : transactions) {
-                User user = userDAO.getUserById(t.getUserId());
-                Stock stock = stockDAO.getStockById(t.getStockId());
-                
-                Map<String, Object> item = new HashMap<>();
-                item.put("id", t.getId());
-                item.put("userId", t.getUserId());
-                item.put("username", user.getUsername());
-                item.put("stockId", t.getStockId());
-                item.put("stockSymbol", stock.getSymbol());
-                item.put("quantity", t.getQuantity());
-                item.put("price", t.getPrice().doubleValue());
-                item.put("createdAt", t.getCreatedAt());
-                item.put("type", t.getType());
-                item.put("status", t.getStatus());
-                result.add(item);
-            }
-
-            return ResponseEntity.ok(result);
+            Map<Integer, String> usernames = new HashMap<>();
+
+            StreamingResponseBody body = JsonRows.stream(objectMapper, transactions,
+                    t -> AdminTransactionRow.of(t, usernames.computeIfAbsent(t.getUserId(), this::resolveUsername),
+                            stockDAO.getStockById(t.getStockId()).getSymbol()));
+
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Export a user's full transaction statement (compliance requests).
+     */
+    @GetMapping("/transactions/export/{userId}")
+    public ResponseEntity<?> exportUserTransactions(
+            @PathVariable int userId,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            @RequestHeader("Authorization") String authHeader) {
+        try {
+            if (!isAdmin(authHeader)) {
+                return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
+            }
+            if (!TransactionExportService.isSupportedFormat(format)) {
+                return ResponseEntity.badRequest().body(Map.of("message", "Unsupported format: " + format));
+            }
+
+            logActivity("ADMIN_ACTION", "Exported transaction history for user #" + userId);
+
+            StreamingResponseBody body = out -> exportService.export(userId, format, gzip, out);
+
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(TransactionExportService.contentType(format, gzip)))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\""
+                            + TransactionExportService.fileName(userId, format, gzip) + "\"")
+                    .body(body);
 
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
@@ -253,26 +552,95 @@ public class AdminController {
                 return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
             }
 
-            Transaction transaction = transactionDAO.getTransactionById(transactionId);
-            
-            if (transaction == null) {
-                return ResponseEntity.badRequest().body(Map.of("message", "Transaction not found"));
+            RollbackFilter filter = new RollbackFilter();
+            filter.setTransactionIds(Set.of(transactionId));
+            BulkRollbackReport report = bulkRollbackService.rollback(filter, "Admin rollback of transaction #" + transactionId);
+
+            if (report.getError() != null) {
+                return ResponseEntity.badRequest().body(Map.of("message", "Error: " + report.getError()));
+            }
+            if (report.getTransactionsSkipped() > 0) {
+                return ResponseEntity.badRequest().body(Map.of("message",
+                        "Cannot roll back transaction " + report.getSkipped().get(0)));
+            }
+            if (report.getTransactionsRolledBack() == 0) {
+                return ResponseEntity.badRequest().body(Map.of("message", "Transaction not found or not completed"));
             }
 
-            // Update transaction status
-            transaction.setStatus(TransactionStatus.CANCELLED);
-            transactionDAO.updateTransaction(transaction);
+            logActivity("ADMIN_ACTION", "Rolled back transaction #" + transactionId +
+                                      ". Compensation: " + report.getNetCompensation());
 
-            // Return funds to user
-            User user = userDAO.getUserById(transaction.getUserId());
-            BigDecimal compensationAmount = transaction.getPrice().multiply(new BigDecimal(transaction.getQuantity()));
-            user.setBalance(user.getBalance().add(compensationAmount));
-            userDAO.updateUser(user);
+            return ResponseEntity.ok(Map.of("success", true));
 
-            logActivity("ADMIN_ACTION", "Rolled back transaction #" + transactionId + " for user " + user.getUsername() + 
-                                      ". Compensation: " + compensationAmount);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
 
-            return ResponseEntity.ok(Map.of("success", true));
+    /**
+     * Roll back every completed transaction matching a filter, in chunks.
+     * Body: stockId, from, to (ISO date-times, to is exclusive), userIds, reason,
+     * and optionally dryRun, chunkSize and beforeId (to resume from a report's
+     * lastTransactionId). Runs in the background; poll the returned jobId.
+     */
+    @PostMapping("/transactions/rollback/bulk")
+    public ResponseEntity<?> bulkRollback(@RequestBody Map<String, Object> request, @RequestHeader("Authorization") String authHeader) {
+        try {
+            if (!isAdmin(authHeader)) {
+                return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
+            }
+
+            RollbackFilter filter = new RollbackFilter();
+            if (request.get("stockId") != null) {
+                filter.setStockId(((Number) request.get("stockId")).intValue());
+            }
+            if (request.get("from") != null) {
+                filter.setFrom(Timestamp.valueOf(LocalDateTime.parse(request.get("from").toString())));
+            }
+            if (request.get("to") != null) {
+                filter.setTo(Timestamp.valueOf(LocalDateTime.parse(request.get("to").toString())));
+            }
+            if (request.get("userIds") instanceof List<?> userIds) {
+                Set<Integer> ids = new HashSet<>();
+                for (Object id : userIds) {
+                    ids.add(((Number) id).intValue());
+                }
+                filter.setUserIds(ids);
+            }
+            String reason = (String) request.get("reason");
+            boolean dryRun = Boolean.TRUE.equals(request.get("dryRun"));
+            int chunkSize = request.get("chunkSize") != null ? ((Number) request.get("chunkSize")).intValue()
+                    : BulkRollbackService.DEFAULT_CHUNK_SIZE;
+            int beforeId = request.get("beforeId") != null ? ((Number) request.get("beforeId")).intValue()
+                    : Integer.MAX_VALUE;
+
+            BulkRollbackReport report = bulkRollbackService.start(filter, reason, dryRun, chunkSize, beforeId);
+
+            logActivity("ADMIN_ACTION", (dryRun ? "Started bulk rollback dry run #" : "Started bulk rollback #")
+                    + report.getJobId() + " (" + report.getFilter() + "): " + reason);
+
+            return ResponseEntity.accepted().body(report);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/transactions/rollback/bulk/{jobId}")
+    public ResponseEntity<?> getBulkRollback(@PathVariable int jobId, @RequestHeader("Authorization") String authHeader) {
+        try {
+            if (!isAdmin(authHeader)) {
+                return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
+            }
+
+            BulkRollbackReport report = bulkRollbackService.getJob(jobId);
+            if (report == null) {
+                return ResponseEntity.status(404).body(Map.of("message", "Rollback job not found"));
+            }
+
+            return ResponseEntity.ok(report);
 
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
@@ -289,21 +657,12 @@ public class AdminController {
             }
 
             List<UserActivityLog> logs = activityLogDAO.getAllActivities();
-            List<Map<String, Object>> result = new ArrayList<>();
-            
-            for (UserActivityLog log : logs) {
-                User user = userDAO.getUserById(log.getUserId());
-                Map<String, Object> item = new HashMap<>();
-                item.put("id", log.getId());
-                item.put("userId", log.getUserId());
-                item.put("username", user != null ? user.getUsername() : "Unknown");
-                item.put("actionType", log.getActionType());
-                item.put("details", log.getDetails());
-                item.put("loggedAt", log.getTimestamp());
-                result.add(item);
-            }
+            Map<Integer, String> usernames = new HashMap<>();
 
-            return ResponseEntity.ok(result);
+            StreamingResponseBody body = JsonRows.stream(objectMapper, logs,
+                    log -> ActivityRow.of(log, usernames.computeIfAbsent(log.getUserId(), this::resolveUsername)));
+
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
 
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
@@ -314,28 +673,50 @@ public class AdminController {
     public ResponseEntity<?> searchActivities(
             @RequestParam(required = false) String username,
             @RequestParam(required = false) String actionType,
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
             @RequestHeader("Authorization") String authHeader) {
         try {
             if (!isAdmin(authHeader)) {
                 return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
             }
 
-            List<UserActivityLog> logs = activityLogDAO.searchActivities(username, actionType);
-            List<Map<String, Object>> result = new ArrayList<>();
-            
-            for (UserActivityLog log : logs) {
-                User user = userDAO.getUserById(log.getUserId());
-                Map<String, Object> item = new HashMap<>();
-                item.put("id", log.getId());
-                item.put("userId", log.getUserId());
-                item.put("username", user != null ? user.getUsername() : "Unknown");
-                item.put("actionType", log.getActionType());
-                item.put("details", log.getDetails());
-                item.put("loggedAt", log.getTimestamp());
-                result.add(item);
+            LocalDateTime fromTime = from != null && !from.isBlank() ? LocalDateTime.parse(from) : null;
+            LocalDateTime toTime = to != null && !to.isBlank() ? LocalDateTime.parse(to) : null;
+
+            List<UserActivityLog> logs = activitySearchService.search(username, actionType, q, fromTime, toTime);
+            Map<Integer, String> usernames = new HashMap<>();
+
+            StreamingResponseBody body = JsonRows.stream(objectMapper, logs,
+                    log -> ActivityRow.of(log, usernames.computeIfAbsent(log.getUserId(), this::resolveUsername)));
+
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Remove activity logs older than the given number of days.
+     * Whole monthly partitions are dropped; the boundary month is trimmed in chunks.
+     */
+    @PostMapping("/activities/retention")
+    public ResponseEntity<?> applyActivityRetention(@RequestParam int days, @RequestHeader("Authorization") String authHeader) {
+        try {
+            if (!isAdmin(authHeader)) {
+                return ResponseEntity.status(403).body(Map.of("message", "Unauthorized"));
+            }
+            if (days < 1) {
+                return ResponseEntity.badRequest().body(Map.of("message", "Retention must be at least 1 day"));
             }
 
-            return ResponseEntity.ok(result);
+            int deleted = activitySearchService.applyRetention(days);
+
+            logActivity("ADMIN_ACTION", "Applied activity log retention of " + days + " days");
+
+            return ResponseEntity.ok(Map.of("success", true, "rowsDeleted", deleted));
 
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
@@ -357,6 +738,38 @@ public class AdminController {
         }
     }
 
+    /**
+     * Constituents of a market index from a request body: a list of
+     * {stockId, units}, in the given order.
+     */
+    private Map<Integer, Long> parseConstituents(Object constituents) {
+        if (!(constituents instanceof List<?> list)) {
+            throw new IllegalArgumentException("constituents must be a list of {stockId, units}");
+        }
+        Map<Integer, Long> units = new LinkedHashMap<>();
+        for (Object item : list) {
+            if (!(item instanceof Map<?, ?> entry) || !(entry.get("stockId") instanceof Number stockId)) {
+                throw new IllegalArgumentException("constituents must be a list of {stockId, units}");
+            }
+            Object count = entry.get("units");
+            units.put(stockId.intValue(), count instanceof Number n ? n.longValue() : 1L);
+        }
+        return units;
+    }
+
+    /**
+     * Username for a list row: the search index first, the database only on a miss.
+     * Callers memoize per request, so each user is resolved once per response.
+     */
+    private String resolveUsername(int userId) {
+        String username = activitySearchService.getUsername(userId);
+        if (username == null) {
+            User user = userDAO.getUserById(userId);
+            username = user != null ? user.getUsername() : "Unknown";
+        }
+        return username;
+    }
+
     private void logActivity(String actionType, String details) {
         try {
             UserActivityLog log = new UserActivityLog();
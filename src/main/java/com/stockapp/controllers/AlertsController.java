@@ -0,0 +1,127 @@
+package com.stockapp.controllers;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.stockapp.dto.PriceAlertRow;
+import com.stockapp.services.AuthService;
+import com.stockapp.services.PriceAlertService;
+
+import stockapp.src.dao.StockDAO;
+import stockapp.src.models.PriceAlert;
+import stockapp.src.models.Stock;
+import stockapp.src.models.User;
+
+@RestController
+@RequestMapping("/api/alerts")
+@CrossOrigin(origins = "*")
+public class AlertsController {
+
+    private StockDAO stockDAO = new StockDAO();
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private PriceAlertService alertService;
+
+    /**
+     * The calling user's price alerts, newest first. Fired alerts also show
+     * up in the activity log as PRICE_ALERT.
+     */
+    @GetMapping
+    public ResponseEntity<?> getAlerts(@RequestHeader("Authorization") String authHeader) {
+        try {
+            User user = authService.getUserFromToken(authHeader.substring(7));
+
+            if (user == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+            }
+
+            List<PriceAlertRow> result = new ArrayList<>();
+            for (PriceAlert alert : alertService.getAlerts(user.getId())) {
+                result.add(row(alert));
+            }
+
+            return ResponseEntity.ok(result);
+
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Create a price alert.
+     * Body: {"stockId": 1, "direction": "ABOVE", "price": 150.00}
+     */
+    @PostMapping
+    public ResponseEntity<?> createAlert(@RequestBody Map<String, Object> request,
+            @RequestHeader("Authorization") String authHeader) {
+        try {
+            User user = authService.getUserFromToken(authHeader.substring(7));
+
+            if (user == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+            }
+
+            int stockId = ((Number) request.get("stockId")).intValue();
+            Object direction = request.get("direction");
+            BigDecimal price = new BigDecimal(request.get("price").toString());
+
+            PriceAlert alert = alertService.createAlert(user.getId(), stockId,
+                    direction != null ? direction.toString() : "", price);
+
+            return ResponseEntity.ok(row(alert));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Delete one of the calling user's price alerts.
+     */
+    @DeleteMapping("/{alertId}")
+    public ResponseEntity<?> deleteAlert(@PathVariable int alertId,
+            @RequestHeader("Authorization") String authHeader) {
+        try {
+            User user = authService.getUserFromToken(authHeader.substring(7));
+
+            if (user == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+            }
+
+            if (!alertService.deleteAlert(user.getId(), alertId)) {
+                return ResponseEntity.status(404).body(Map.of("message", "Alert not found"));
+            }
+
+            return ResponseEntity.ok(Map.of("success", true));
+
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    // ================== UTILITY METHODS ==================
+
+    private PriceAlertRow row(PriceAlert alert) {
+        Stock stock = stockDAO.getStockById(alert.getStockId());
+        return PriceAlertRow.of(alert, stock != null ? stock.getSymbol() : null);
+    }
+}
@@ -0,0 +1,59 @@
+package com.stockapp.controllers;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.stockapp.services.AnalyticsService;
+import com.stockapp.services.AuthService;
+
+import stockapp.src.models.User;
+
+@RestController
+@RequestMapping("/api/analytics")
+@CrossOrigin(origins = "*")
+public class AnalyticsController {
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    /**
+     * Annualized volatility and beta of every stock, and their correlation
+     * matrix, over the last days of price history at the given interval
+     * (5m, 15m, 1h, 4h or 1d). benchmark is a stock symbol; without it beta
+     * is against the equal-weighted market.
+     */
+    @GetMapping("/risk")
+    public ResponseEntity<?> getRisk(@RequestHeader("Authorization") String authHeader,
+            @RequestParam(defaultValue = "30") int days,
+            @RequestParam(defaultValue = "1h") String interval,
+            @RequestParam(required = false) String benchmark,
+            @RequestParam(defaultValue = "true") boolean correlations) {
+        try {
+            User user = authService.getUserFromToken(authHeader.substring(7));
+
+            if (user == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+            }
+
+            return ResponseEntity.ok(analyticsService.getRiskReport(days, interval, benchmark, correlations));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(503).body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+}
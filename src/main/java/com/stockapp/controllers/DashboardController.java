@@ -2,7 +2,6 @@ package com.stockapp.controllers;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -12,10 +11,17 @@ import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.stockapp.dto.DashboardSummary;
+import com.stockapp.dto.RecentTransactionRow;
 import com.stockapp.services.AuthService;
+import com.stockapp.services.LeaderboardService;
+import com.stockapp.services.MarketMoversService;
+import com.stockapp.services.ValueAtRiskService;
 
+import stockapp.src.cache.TradingStateCache;
 import stockapp.src.dao.PortfolioDAO;
 import stockapp.src.dao.StockDAO;
 import stockapp.src.dao.TransactionDAO;
@@ -23,7 +29,6 @@ import stockapp.src.dao.UserDAO;
 import stockapp.src.models.Portfolio;
 import stockapp.src.models.Stock;
 import stockapp.src.models.Transaction;
-import stockapp.src.models.TransactionStatus;
 import stockapp.src.models.User;
 
 @RestController
@@ -42,6 +47,15 @@ public class DashboardController {
     @Autowired
     private AuthService authService;
 
+    @Autowired
+    private MarketMoversService marketMoversService;
+
+    @Autowired
+    private LeaderboardService leaderboardService;
+
+    @Autowired
+    private ValueAtRiskService valueAtRiskService;
+
     /**
      * Get Dashboard Summary
      */
@@ -54,26 +68,17 @@ public class DashboardController {
                 return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
 
-            Map<String, Object> summary = new HashMap<>();
-
-            // Get balance
-            summary.put("totalBalance", user.getBalance());
-
             // Get portfolio value
             List<Portfolio> portfolio = portfolioDAO.getUserPortfolio(user.getId());
             BigDecimal portfolioValue = calculatePortfolioValue(portfolio);
-            summary.put("portfolioValue", portfolioValue);
 
             // Get profit/loss
-            BigDecimal profitLoss = portfolioValue.add(calculateCompletedTransactionValue(user.getId()))
+            TradingStateCache.TransactionAggregates aggregates = transactionDAO.getUserAggregates(user.getId());
+            BigDecimal profitLoss = portfolioValue.add(aggregates.getCompletedValue())
                     .subtract(user.getBalance());
-            summary.put("profitLoss", profitLoss);
-
-            // Get transaction count
-            summary.put("totalTransactions", transactionDAO.getUserTransactionCount(user.getId()));
 
             // Get portfolio distribution
-            List<Map<String, Object>> portfolioData = new ArrayList<>();
+            List<DashboardSummary.PortfolioItem> portfolioData = new ArrayList<>(portfolio.size());
             for (Portfolio p : portfolio) {
                 Stock stock = stockDAO.getStockById(p.getStockID());
                 BigDecimal currentPrice = stock.getPrice();
@@ -81,56 +86,39 @@ public class DashboardController {
                 BigDecimal costBasis = new BigDecimal(p.getAvgPrice()).multiply(new BigDecimal(p.getQuantity()));
                 BigDecimal itemProfitLoss = currentValue.subtract(costBasis);
 
-                Map<String, Object> item = new HashMap<>();
-                item.put("symbol", stock.getSymbol());
-                item.put("quantity", p.getQuantity());
-                item.put("averagePrice", p.getAvgPrice());
-                item.put("currentPrice", currentPrice.doubleValue());
-                item.put("totalValue", currentValue.doubleValue());
-                item.put("profitLoss", itemProfitLoss.doubleValue());
-                item.put("stockId", p.getStockID());
-                portfolioData.add(item);
+                portfolioData.add(new DashboardSummary.PortfolioItem(stock.getSymbol(), p.getQuantity(),
+                        p.getAvgPrice(), currentPrice.doubleValue(), currentValue.doubleValue(),
+                        itemProfitLoss.doubleValue(), p.getStockID()));
             }
-            summary.put("portfolio", portfolioData);
-
-            // Get stock prices (for chart)
-            List<Stock> allStocks = stockDAO.getAllStocks();
-            List<Map<String, Object>> stockPrices = new ArrayList<>();
-            for (Stock stock : allStocks.stream().limit(5).toList()) {
-                Map<String, Object> item = new HashMap<>();
-                item.put("symbol", stock.getSymbol());
-                item.put("price", stock.getPrice().doubleValue());
-                stockPrices.add(item);
+
+            // Get stock prices of the most active stocks (for chart)
+            List<DashboardSummary.StockPrice> stockPrices = new ArrayList<>(5);
+            for (MarketMoversService.Mover mover : marketMoversService.getMostActive(5)) {
+                stockPrices.add(new DashboardSummary.StockPrice(mover.getSymbol(), mover.getPrice().doubleValue()));
             }
-            summary.put("stockPrices", stockPrices);
 
             // Get trading activity
-            Map<String, Object> tradingActivity = new HashMap<>();
-            List<String> dates = new ArrayList<>();
-            List<Integer> buyOrders = new ArrayList<>();
-            List<Integer> sellOrders = new ArrayList<>();
+            List<String> dates = new ArrayList<>(7);
+            int[] buyOrders = new int[7];
+            int[] sellOrders = new int[7];
             
             for (int i = 6; i >= 0; i--) {
                 dates.add("Day -" + i);
-                buyOrders.add((int)(Math.random() * 10));
-                sellOrders.add((int)(Math.random() * 10));
+                buyOrders[6 - i] = (int)(Math.random() * 10);
+                sellOrders[6 - i] = (int)(Math.random() * 10);
             }
-            
-            tradingActivity.put("dates", dates);
-            tradingActivity.put("buyOrders", buyOrders);
-            tradingActivity.put("sellOrders", sellOrders);
-            summary.put("tradingActivity", tradingActivity);
 
             // Get balance history
-            List<Map<String, Object>> balanceHistory = new ArrayList<>();
+            List<DashboardSummary.BalancePoint> balanceHistory = new ArrayList<>(7);
             BigDecimal currentBalance = user.getBalance();
             for (int i = 6; i >= 0; i--) {
-                Map<String, Object> item = new HashMap<>();
-                item.put("date", "Day -" + i);
-                item.put("balance", currentBalance.subtract(new BigDecimal(i * 100)));
-                balanceHistory.add(item);
+                balanceHistory.add(new DashboardSummary.BalancePoint("Day -" + i,
+                        currentBalance.subtract(new BigDecimal(i * 100))));
             }
-            summary.put("balanceHistory", balanceHistory);
+
+            DashboardSummary summary = new DashboardSummary(user.getBalance(), portfolioValue, profitLoss,
+                    aggregates.getTransactionCount(), portfolioData, stockPrices,
+                    new DashboardSummary.TradingActivity(dates, buyOrders, sellOrders), balanceHistory);
 
             return ResponseEntity.ok(summary);
 
@@ -153,18 +141,10 @@ public class DashboardController {
 
             List<Transaction> transactions = transactionDAO.getUserTransactions(user.getId());
             
-            List<Map<String, Object>> result = new ArrayList<>();
+            List<RecentTransactionRow> result = new ArrayList<>();
             for (Transaction t : transactions.stream().limit(10).toList()) {
                 Stock stock = stockDAO.getStockById(t.getStockId());
-                Map<String, Object> item = new HashMap<>();
-                item.put("id", t.getId());
-                item.put("stockSymbol", stock.getSymbol());
-                item.put("type", t.getType());
-                item.put("quantity", t.getQuantity());
-                item.put("price", t.getPrice().doubleValue());
-                item.put("status", t.getStatus());
-                item.put("createdAt", t.getCreatedAt());
-                result.add(item);
+                result.add(RecentTransactionRow.of(t, stock.getSymbol()));
             }
 
             return ResponseEntity.ok(result);
@@ -174,6 +154,49 @@ public class DashboardController {
         }
     }
 
+    /**
+     * Get the traders with the highest equity (balance plus positions at
+     * current prices), and the caller's own rank and percentile
+     */
+    @GetMapping("/leaderboard")
+    public ResponseEntity<?> getLeaderboard(@RequestHeader("Authorization") String authHeader,
+            @RequestParam(defaultValue = "10") int limit) {
+        try {
+            User user = authService.getUserFromToken(authHeader.substring(7));
+
+            if (user == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+            }
+
+            return ResponseEntity.ok(leaderboardService.getLeaderboard(user, limit));
+
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Get the one-day value at risk and expected shortfall of the caller's
+     * holdings
+     */
+    @GetMapping("/var")
+    public ResponseEntity<?> getValueAtRisk(@RequestHeader("Authorization") String authHeader) {
+        try {
+            User user = authService.getUserFromToken(authHeader.substring(7));
+
+            if (user == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+            }
+
+            return ResponseEntity.ok(valueAtRiskService.getUserValueAtRisk(user.getId()));
+
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(503).body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
     // ================== UTILITY METHODS ==================
 
     private BigDecimal calculatePortfolioValue(List<Portfolio> portfolio) {
@@ -188,19 +211,4 @@ public class DashboardController {
         }
         return total;
     }
-
-    private BigDecimal calculateCompletedTransactionValue(int userId) {
-        try {
-            List<Transaction> transactions = transactionDAO.getUserTransactions(userId);
-            BigDecimal total = BigDecimal.ZERO;
-            for (Transaction t : transactions) {
-                if (t.getStatus() == TransactionStatus.COMPLETED) {
-                    total = total.add(t.getPrice().multiply(new BigDecimal(t.getQuantity())));
-                }
-            }
-            return total;
-        } catch (Exception e) {
-            return BigDecimal.ZERO;
-        }
-    }
 }
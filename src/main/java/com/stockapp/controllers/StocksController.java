@@ -1,9 +1,19 @@
 package com.stockapp.controllers;
 
 import stockapp.src.models.Stock;
+import stockapp.src.cache.CompositeIndices;
 import stockapp.src.dao.StockDAO;
+import com.stockapp.dto.IndexCandles;
+import com.stockapp.dto.IndexTicks;
 import com.stockapp.services.AuthService;
+import com.stockapp.services.MarketIndexService;
+import com.stockapp.services.MarketMoversService;
+import com.stockapp.services.QuoteService;
+import com.stockapp.services.StockSearchService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import java.util.*;
@@ -18,13 +28,133 @@ public class StocksController {
     @Autowired
     private AuthService authService;
 
+    @Autowired
+    private QuoteService quoteService;
+
+    @Autowired
+    private MarketMoversService marketMoversService;
+
+    @Autowired
+    private StockSearchService stockSearchService;
+
+    @Autowired
+    private MarketIndexService marketIndexService;
+
     /**
      * Get All Stocks
+     * Answers 304 when If-None-Match carries the current universe ETag.
      */
     @GetMapping("/all")
-    public ResponseEntity<?> getAllStocks(@RequestHeader(value = "Authorization", required = false) String authHeader) {
+    public ResponseEntity<?> getAllStocks(@RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        try {
+            String etag = quoteService.universeEtag();
+            if (QuoteService.matches(ifNoneMatch, etag)) {
+                return notModified(etag);
+            }
+            QuoteService.SerializedUniverse universe = quoteService.getUniverse();
+            return ResponseEntity.ok()
+                    .eTag(universe.getEtag())
+                    .cacheControl(CacheControl.noCache())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(universe.getJson());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Get the stocks whose quote changed since a cursor from an earlier call.
+     * Falls back to the full list when the cursor is missing or too old.
+     */
+    @GetMapping("/changes")
+    public ResponseEntity<?> getStockChanges(@RequestParam(required = false) String since) {
+        try {
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache())
+                    .body(quoteService.getChanges(since));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Get top gainers, top losers and most active stocks (by shares traded today)
+     */
+    @GetMapping("/movers")
+    public ResponseEntity<?> getMovers(@RequestParam(defaultValue = "5") int limit) {
+        try {
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache())
+                    .body(marketMoversService.getMovers(limit));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Search stocks by symbol or company name prefix (autocomplete)
+     */
+    @GetMapping("/search")
+    public ResponseEntity<?> searchStocks(@RequestParam(defaultValue = "") String q,
+            @RequestParam(defaultValue = "10") int limit) {
+        try {
+            return ResponseEntity.ok(stockSearchService.search(q, limit));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Get the current value of every composite market index
+     */
+    @GetMapping("/indices")
+    public ResponseEntity<?> getIndices() {
         try {
-            return ResponseEntity.ok(stockDAO.getAllStocks());
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache())
+                    .body(marketIndexService.getQuotes());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Get the latest ticks of a market index, oldest first
+     */
+    @GetMapping("/indices/{symbol}/ticks")
+    public ResponseEntity<?> getIndexTicks(@PathVariable String symbol,
+            @RequestParam(defaultValue = "100") int limit) {
+        try {
+            List<CompositeIndices.Tick> ticks = marketIndexService.getTicks(symbol, limit);
+            if (ticks == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache())
+                    .body(new IndexTicks(marketIndexService.getQuote(symbol), ticks));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Get OHLC candles of a market index (interval 1m, 5m, 15m, 30m, 1h, 4h or 1d)
+     */
+    @GetMapping("/indices/{symbol}/candles")
+    public ResponseEntity<?> getIndexCandles(@PathVariable String symbol,
+            @RequestParam(defaultValue = "1m") String interval,
+            @RequestParam(defaultValue = "60") int limit) {
+        try {
+            List<CompositeIndices.Candle> candles = marketIndexService.getCandles(symbol, interval, limit);
+            if (candles == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache())
+                    .body(new IndexCandles(marketIndexService.getQuote(symbol), interval, candles));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
         }
@@ -34,13 +164,18 @@ public class StocksController {
      * Get Stock by ID
      */
     @GetMapping("/{id}")
-    public ResponseEntity<?> getStock(@PathVariable int id) {
+    public ResponseEntity<?> getStock(@PathVariable int id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
+            String etag = quoteService.stockEtag(id);
+            if (QuoteService.matches(ifNoneMatch, etag)) {
+                return notModified(etag);
+            }
             Stock stock = stockDAO.getStockById(id);
             if (stock == null) {
                 return ResponseEntity.notFound().build();
             }
-            return ResponseEntity.ok(stock);
+            return withEtag(stock, etag);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
         }
@@ -50,15 +185,38 @@ public class StocksController {
      * Get Stock by Symbol
      */
     @GetMapping("/symbol/{symbol}")
-    public ResponseEntity<?> getStockBySymbol(@PathVariable String symbol) {
+    public ResponseEntity<?> getStockBySymbol(@PathVariable String symbol,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
             Stock stock = stockDAO.getStockBySymbol(symbol);
             if (stock == null) {
                 return ResponseEntity.notFound().build();
             }
-            return ResponseEntity.ok(stock);
+            String etag = quoteService.stockEtag(stock.getId());
+            if (QuoteService.matches(ifNoneMatch, etag)) {
+                return notModified(etag);
+            }
+            // Re-read after the ETag so the body is at least as new as it (a cache hit)
+            return withEtag(stockDAO.getStockById(stock.getId()), etag);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
         }
     }
+
+    // ================== UTILITY METHODS ==================
+
+    private ResponseEntity<?> notModified(String etag) {
+        return ResponseEntity.status(304).eTag(etag).cacheControl(CacheControl.noCache()).build();
+    }
+
+    /**
+     * The ETag is only sent when it was read before the stock was, so it
+     * never claims a newer version than the body.
+     */
+    private ResponseEntity<?> withEtag(Stock stock, String etag) {
+        if (etag == null) {
+            return ResponseEntity.ok(stock);
+        }
+        return ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache()).body(stock);
+    }
 }
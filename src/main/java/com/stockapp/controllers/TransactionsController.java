@@ -1,53 +1,70 @@
 package com.stockapp.controllers;
 
 import java.math.BigDecimal;
-import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stockapp.dto.JsonRows;
+import com.stockapp.dto.RecentTransactionRow;
+import com.stockapp.dto.RestingOrderRow;
+import com.stockapp.dto.TransactionRow;
 import com.stockapp.services.AuthService;
+import com.stockapp.services.BasketOrderService;
+import com.stockapp.services.OrderRouter;
+import com.stockapp.services.OrderService;
+import com.stockapp.services.RestingOrderService;
+import com.stockapp.services.TransactionExportService;
 
-import stockapp.src.dao.PortfolioDAO;
 import stockapp.src.dao.StockDAO;
 import stockapp.src.dao.TransactionDAO;
-import stockapp.src.dao.UserActivityLogDAO;
-import stockapp.src.dao.UserDAO;
-import stockapp.src.models.Portfolio;
+import stockapp.src.models.BasketLeg;
 import stockapp.src.models.Stock;
 import stockapp.src.models.Transaction;
-import stockapp.src.models.TransactionStatus;
 import stockapp.src.models.User;
-import stockapp.src.models.UserActivityLog;
 
 @RestController
 @RequestMapping("/api/transactions")
 @CrossOrigin(origins = "*")
 public class TransactionsController {
 
-    private TransactionDAO transactionDAO = new TransactionDAO();
+    private static final int LIST_PAGE_SIZE = 1000;
 
-    private UserDAO userDAO = new UserDAO();
+    private TransactionDAO transactionDAO = new TransactionDAO();
 
     private StockDAO stockDAO = new StockDAO();
 
-    private PortfolioDAO portfolioDAO = new PortfolioDAO();
+    @Autowired
+    private AuthService authService;
 
-    private UserActivityLogDAO activityLogDAO = new UserActivityLogDAO();
+    @Autowired
+    private TransactionExportService exportService;
 
     @Autowired
-    private AuthService authService;
+    private OrderRouter orderRouter;
+
+    @Autowired
+    private RestingOrderService restingOrderService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
 
     /**
      * Get Recent Transactions for User
@@ -63,18 +80,10 @@ public class TransactionsController {
 
             List<Transaction> transactions = transactionDAO.getUserTransactions(user.getId());
             
-            List<Map<String, Object>> result = new ArrayList<>();
+            List<RecentTransactionRow> result = new ArrayList<>();
             for (Transaction t : transactions.stream().limit(10).toList()) {
                 Stock stock = stockDAO.getStockById(t.getStockId());
-                Map<String, Object> item = new HashMap<>();
-                item.put("id", t.getId());
-                item.put("stockSymbol", stock.getSymbol());
-                item.put("type", t.getType());
-                item.put("quantity", t.getQuantity());
-                item.put("price", t.getPrice().doubleValue());
-                item.put("status", t.getStatus());
-                item.put("createdAt", t.getCreatedAt());
-                result.add(item);
+                result.add(RecentTransactionRow.of(t, stock.getSymbol()));
             }
 
             return ResponseEntity.ok(result);
@@ -86,6 +95,7 @@ public class TransactionsController {
 
     /**
      * Get All Transactions for User
+     * Rows are read and streamed a page at a time, newest first.
      */
     @GetMapping("/list")
     public ResponseEntity<?> getUserTransactions(@RequestHeader("Authorization") String authHeader) {
@@ -96,24 +106,48 @@ public class TransactionsController {
                 return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
 
-            List<Transaction> transactions = transactionDAO.getUserTransactions(user.getId());
-            
-            List<Map<String, Object>> result = new ArrayList<>();
-            for (Transaction t : transactions) {
-                Stock stock = stockDAO.getStockById(t.getStockId());
-                Map<String, Object> item = new HashMap<>();
-                item.put("id", t.getId());
-                item.put("stockSymbol", stock.getSymbol());
-                item.put("type", t.getType());
-                item.put("quantity", t.getQuantity());
-                item.put("price", t.getPrice().doubleValue());
-                item.put("total", t.getPrice().multiply(BigDecimal.valueOf(t.getQuantity())).doubleValue());
-                item.put("status", t.getStatus().toString());
-                item.put("timestamp", t.getCreatedAt());
-                result.add(item);
+            int userId = user.getId();
+            List<Transaction> firstPage = transactionDAO.getUserTransactionsPage(userId, Integer.MAX_VALUE,
+                    LIST_PAGE_SIZE);
+
+            StreamingResponseBody body = JsonRows.streamPages(objectMapper, firstPage, LIST_PAGE_SIZE,
+                    last -> transactionDAO.getUserTransactionsPage(userId, last.getId(), LIST_PAGE_SIZE),
+                    t -> TransactionRow.of(t, symbolOf(t.getStockId())));
+
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Export the user's full transaction history as CSV or NDJSON, optionally gzipped.
+     * The body is streamed page by page, so history length does not affect memory.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<?> exportTransactions(
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            @RequestHeader("Authorization") String authHeader) {
+        try {
+            User user = authService.getUserFromToken(authHeader.substring(7));
+
+            if (user == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+            }
+            if (!TransactionExportService.isSupportedFormat(format)) {
+                return ResponseEntity.badRequest().body(Map.of("message", "Unsupported format: " + format));
             }
 
-            return ResponseEntity.ok(result);
+            int userId = user.getId();
+            StreamingResponseBody body = out -> exportService.export(userId, format, gzip, out);
+
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(TransactionExportService.contentType(format, gzip)))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\""
+                            + TransactionExportService.fileName(userId, format, gzip) + "\"")
+                    .body(body);
 
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
@@ -122,145 +156,180 @@ public class TransactionsController {
 
     /**
      * Buy Stock
+     * With async=true the order is queued and acknowledged with 202 and its
+     * id; poll /orders/{orderId} for the outcome.
      */
     @PostMapping("/buy")
-    public ResponseEntity<?> buyStock(@RequestBody Map<String, Object> request, @RequestHeader("Authorization") String authHeader) {
+    public ResponseEntity<?> buyStock(@RequestBody Map<String, Object> request,
+            @RequestParam(defaultValue = "false") boolean async,
+            @RequestHeader("Authorization") String authHeader) {
+        return placeOrder("BUY", request, async, authHeader);
+    }
+
+    /**
+     * Sell Stock
+     * With async=true the order is queued and acknowledged with 202 and its
+     * id; poll /orders/{orderId} for the outcome.
+     */
+    @PostMapping("/sell")
+    public ResponseEntity<?> sellStock(@RequestBody Map<String, Object> request,
+            @RequestParam(defaultValue = "false") boolean async,
+            @RequestHeader("Authorization") String authHeader) {
+        return placeOrder("SELL", request, async, authHeader);
+    }
+
+    /**
+     * Status of an order placed by the calling user.
+     * With waitMs the call waits (up to 30 seconds) for a pending order to finish.
+     */
+    @GetMapping("/orders/{orderId}")
+    public ResponseEntity<?> getOrder(@PathVariable int orderId,
+            @RequestParam(defaultValue = "0") long waitMs,
+            @RequestHeader("Authorization") String authHeader) {
         try {
             User user = authService.getUserFromToken(authHeader.substring(7));
-            
+
             if (user == null) {
                 return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
 
-            int stockId = ((Number) request.get("stockId")).intValue();
-            int quantity = ((Number) request.get("quantity")).intValue();
-
-            Stock stock = stockDAO.getStockById(stockId);
-            
-            if (stock.isSuspended()) {
-                return ResponseEntity.badRequest().body(Map.of("message", "Stock is suspended"));
+            OrderService.Order order = orderRouter.getOrder(orderId, user.getId(), waitMs);
+            if (order == null) {
+                return ResponseEntity.status(404).body(Map.of("message", "Order not found"));
             }
 
-            BigDecimal totalCost = stock.getPrice().multiply(new BigDecimal(quantity));
+            return ResponseEntity.ok(order);
 
-            if (user.getBalance().compareTo(totalCost) < 0) {
-                return ResponseEntity.badRequest().body(Map.of("message", "Insufficient balance"));
-            }
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
 
-            // Deduct from balance
-            user.setBalance(user.getBalance().subtract(totalCost));
-            userDAO.updateUser(user);
-
-            // Create transaction
-            Transaction transaction = new Transaction();
-            transaction.setUserId(user.getId());
-            transaction.setStockId(stockId);
-            transaction.setQuantity(quantity);
-            transaction.setPrice(stock.getPrice());
-            transaction.setType("BUY");
-            transaction.setStatus(TransactionStatus.COMPLETED);
-            transaction.setCreatedAt(new Timestamp(System.currentTimeMillis()));
-
-            int transactionId = transactionDAO.createTransaction(transaction);
-
-            // Update portfolio
-            Portfolio portfolio = portfolioDAO.getPortfolioItem(user.getId(), stockId);
-            if (portfolio == null) {
-                // Create new portfolio item with current stock price as average price
-                portfolio = new Portfolio(user.getId(), stockId, quantity, 0, stock.getPrice().doubleValue());
-                portfolioDAO.createPortfolioItem(portfolio);
-            } else {
-                // Recalculate weighted average price
-                double currentTotalValue = portfolio.getAvgPrice() * portfolio.getQuantity();
-                double newTotalValue = stock.getPrice().doubleValue() * quantity;
-                double totalQuantity = portfolio.getQuantity() + quantity;
-                double newAvgPrice = (currentTotalValue + newTotalValue) / totalQuantity;
-                portfolio.setAvgPrice(newAvgPrice);
-                portfolio.setQuantity(portfolio.getQuantity() + quantity);
-                portfolioDAO.updatePortfolioItem(portfolio);
+    /**
+     * Execute a basket of buy and sell legs atomically.
+     * Body: {"legs": [{"stockId": 1, "type": "BUY", "quantity": 10}, ...]}
+     * Either every leg is filled or none is. In a cluster every leg must be
+     * a stock traded on the node that receives the basket.
+     */
+    @PostMapping("/basket")
+    public ResponseEntity<?> executeBasket(@RequestBody Map<String, Object> request, @RequestHeader("Authorization") String authHeader) {
+        try {
+            User user = authService.getUserFromToken(authHeader.substring(7));
+
+            if (user == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
 
-            // Adjust stock price based on supply/demand (buy increases price)
-            BigDecimal priceChange = stock.getPrice().multiply(new BigDecimal("0.0001")).multiply(new BigDecimal(quantity));
-            stock.setPrice(stock.getPrice().add(priceChange));
-            stockDAO.updateStock(stock);
+            List<BasketLeg> legs = new ArrayList<>();
+            if (request.get("legs") instanceof List<?> items) {
+                for (Object item : items) {
+                    if (!(item instanceof Map<?, ?> leg)) {
+                        return ResponseEntity.badRequest().body(Map.of("message", "Each leg must be an object"));
+                    }
+                    Object type = leg.get("type") != null ? leg.get("type") : leg.get("side");
+                    legs.add(new BasketLeg(((Number) leg.get("stockId")).intValue(),
+                            type != null ? type.toString().toUpperCase() : null,
+                            ((Number) leg.get("quantity")).intValue()));
+                }
+            }
 
-            // Log activity
-            logActivity(user.getId(), "BUY_STOCK", "Bought " + quantity + " shares of " + stock.getSymbol());
+            BasketOrderService.BasketResult result = orderRouter.executeBasket(user, legs);
 
-            return ResponseEntity.ok(Map.of("success", true, "transactionId", transactionId));
+            return ResponseEntity.ok(Map.of("success", true, "legs", result.getLegs(), "balance", result.getBalance()));
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(503).body(Map.of("message", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
         }
     }
 
     /**
-     * Sell Stock
+     * Place a resting order, filled at the market once its trigger is crossed.
+     * Body: {"stockId": 1, "type": "SELL", "quantity": 10, "orderType": "STOP_LOSS", "triggerPrice": 140.00}
+     * orderType is STOP_LOSS, TAKE_PROFIT or TRAILING_STOP; a trailing stop
+     * takes "trailAmount" instead of "triggerPrice". The order's outcome is
+     * reported by /orders/{orderId} like an asynchronous order.
      */
-    @PostMapping("/sell")
-    public ResponseEntity<?> sellStock(@RequestBody Map<String, Object> request, @RequestHeader("Authorization") String authHeader) {
+    @PostMapping("/resting")
+    public ResponseEntity<?> placeRestingOrder(@RequestBody Map<String, Object> request,
+            @RequestHeader("Authorization") String authHeader) {
         try {
             User user = authService.getUserFromToken(authHeader.substring(7));
-            
+
             if (user == null) {
                 return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
 
             int stockId = ((Number) request.get("stockId")).intValue();
             int quantity = ((Number) request.get("quantity")).intValue();
+            Object type = request.get("type");
+            Object orderType = request.get("orderType");
+            Object triggerPrice = request.get("triggerPrice");
+            Object trailAmount = request.get("trailAmount");
+
+            Transaction order = restingOrderService.place(user,
+                    type != null ? type.toString().toUpperCase() : "SELL", stockId, quantity,
+                    orderType != null ? orderType.toString() : null,
+                    triggerPrice != null ? new BigDecimal(triggerPrice.toString()) : null,
+                    trailAmount != null ? new BigDecimal(trailAmount.toString()) : null);
+
+            return ResponseEntity.ok(RestingOrderRow.of(order, stockDAO.getStockById(stockId).getSymbol()));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(503).body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
 
-            Stock stock = stockDAO.getStockById(stockId);
-            
-            if (stock.isSuspended()) {
-                return ResponseEntity.badRequest().body(Map.of("message", "Stock is suspended"));
-            }
-
-            Portfolio portfolio = portfolioDAO.getPortfolioItem(user.getId(), stockId);
+    /**
+     * The user's resting orders that have not fired yet
+     */
+    @GetMapping("/resting")
+    public ResponseEntity<?> getRestingOrders(@RequestHeader("Authorization") String authHeader) {
+        try {
+            User user = authService.getUserFromToken(authHeader.substring(7));
 
-            if (portfolio == null || portfolio.getQuantity() < quantity) {
-                return ResponseEntity.badRequest().body(Map.of("message", "Insufficient shares"));
+            if (user == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
 
-            BigDecimal totalRevenue = stock.getPrice().multiply(new BigDecimal(quantity));
-
-            // Add to balance
-            user.setBalance(user.getBalance().add(totalRevenue));
-            userDAO.updateUser(user);
-
-            // Create transaction
-            Transaction transaction = new Transaction();
-            transaction.setUserId(user.getId());
-            transaction.setStockId(stockId);
-            transaction.setQuantity(quantity);
-            transaction.setPrice(stock.getPrice());
-            transaction.setType("SELL");
-            transaction.setStatus(TransactionStatus.COMPLETED);
-            transaction.setCreatedAt(new Timestamp(System.currentTimeMillis()));
-
-            int transactionId = transactionDAO.createTransaction(transaction);
-
-            // Update portfolio
-            portfolio.setQuantity(portfolio.getQuantity() - quantity);
-            if (portfolio.getQuantity() <= 0) {
-                portfolioDAO.deletePortfolioItem(portfolio.getId());
-            } else {
-                portfolioDAO.updatePortfolioItem(portfolio);
+            List<RestingOrderRow> result = new ArrayList<>();
+            for (Transaction order : restingOrderService.getRestingOrders(user.getId())) {
+                Stock stock = stockDAO.getStockById(order.getStockId());
+                result.add(RestingOrderRow.of(order, stock != null ? stock.getSymbol() : null));
             }
 
-            // Adjust stock price based on supply/demand (sell decreases price)
-            BigDecimal priceChange = stock.getPrice().multiply(new BigDecimal("0.0001")).multiply(new BigDecimal(quantity));
-            stock.setPrice(stock.getPrice().subtract(priceChange));
-            // Ensure price doesn't go below 0.01
-            if (stock.getPrice().compareTo(new BigDecimal("0.01")) < 0) {
-                stock.setPrice(new BigDecimal("0.01"));
+            return ResponseEntity.ok(result);
+
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Cancel a resting order that has not fired yet
+     */
+    @DeleteMapping("/resting/{orderId}")
+    public ResponseEntity<?> cancelRestingOrder(@PathVariable int orderId,
+            @RequestHeader("Authorization") String authHeader) {
+        try {
+            User user = authService.getUserFromToken(authHeader.substring(7));
+
+            if (user == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
             }
-            stockDAO.updateStock(stock);
 
-            // Log activity
-            logActivity(user.getId(), "SELL_STOCK", "Sold " + quantity + " shares of " + stock.getSymbol());
+            if (!restingOrderService.cancel(user.getId(), orderId)) {
+                return ResponseEntity.status(404).body(Map.of("message", "No resting order " + orderId));
+            }
 
-            return ResponseEntity.ok(Map.of("success", true, "transactionId", transactionId));
+            return ResponseEntity.ok(Map.of("success", true));
 
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
@@ -269,16 +338,38 @@ public class TransactionsController {
 
     // ================== UTILITY METHODS ==================
 
-    private void logActivity(int userId, String actionType, String details) {
+    private String symbolOf(int stockId) {
+        Stock stock = stockDAO.getStockById(stockId);
+        return stock != null ? stock.getSymbol() : null;
+    }
+
+    private ResponseEntity<?> placeOrder(String type, Map<String, Object> request, boolean async, String authHeader) {
         try {
-            UserActivityLog log = new UserActivityLog();
-            log.setUserId(userId);
-            log.setActionType(actionType);
-            log.setDetails(details);
-            log.setLoggedAt(new Timestamp(System.currentTimeMillis()).toLocalDateTime());
-            activityLogDAO.createActivityLog(log);
+            User user = authService.getUserFromToken(authHeader.substring(7));
+            
+            if (user == null) {
+                return ResponseEntity.status(401).body(Map.of("message", "Unauthorized"));
+            }
+
+            int stockId = ((Number) request.get("stockId")).intValue();
+            int quantity = ((Number) request.get("quantity")).intValue();
+
+            if (async) {
+                OrderService.Order order = orderRouter.submit(user, type, stockId, quantity);
+                return ResponseEntity.accepted().body(Map.of("success", true, "orderId", order.getOrderId(),
+                        "status", order.getStatus()));
+            }
+
+            int transactionId = orderRouter.execute(user, type, stockId, quantity);
+
+            return ResponseEntity.ok(Map.of("success", true, "transactionId", transactionId));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(503).body(Map.of("message", e.getMessage()));
         } catch (Exception e) {
-            // Silently fail logging
+            return ResponseEntity.badRequest().body(Map.of("message", "Error: " + e.getMessage()));
         }
     }
 }
@@ -0,0 +1,33 @@
+package com.stockapp.dto;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import stockapp.src.models.UserActivityLog;
+
+/**
+ * A row of the admin activity log views (/api/admin/activities/...).
+ */
+public record ActivityRow(int id, int userId, String username, String actionType, String details,
+        LocalDateTime loggedAt) implements JsonRow {
+
+    public static ActivityRow of(UserActivityLog log, String username) {
+        return new ActivityRow(log.getId(), log.getUserId(), username, log.getActionType(), log.getDetails(),
+                log.getTimestamp());
+    }
+
+    @Override
+    public void writeTo(JsonGenerator g) throws IOException {
+        g.writeStartObject();
+        g.writeNumberField("id", id);
+        g.writeNumberField("userId", userId);
+        g.writeStringField("username", username);
+        g.writeStringField("actionType", actionType);
+        g.writeStringField("details", details);
+        g.writeFieldName("loggedAt");
+        g.writeObject(loggedAt);
+        g.writeEndObject();
+    }
+}
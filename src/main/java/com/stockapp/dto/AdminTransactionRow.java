@@ -0,0 +1,38 @@
+package com.stockapp.dto;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import stockapp.src.models.Transaction;
+import stockapp.src.models.TransactionStatus;
+
+/**
+ * A row of the admin transaction list (/api/admin/transactions/all).
+ */
+public record AdminTransactionRow(int id, int userId, String username, int stockId, String stockSymbol,
+        int quantity, double price, Timestamp createdAt, String type, TransactionStatus status) implements JsonRow {
+
+    public static AdminTransactionRow of(Transaction t, String username, String stockSymbol) {
+        return new AdminTransactionRow(t.getId(), t.getUserId(), username, t.getStockId(), stockSymbol,
+                t.getQuantity(), t.getPrice().doubleValue(), t.getCreatedAt(), t.getType(), t.getStatus());
+    }
+
+    @Override
+    public void writeTo(JsonGenerator g) throws IOException {
+        g.writeStartObject();
+        g.writeNumberField("id", id);
+        g.writeNumberField("userId", userId);
+        g.writeStringField("username", username);
+        g.writeNumberField("stockId", stockId);
+        g.writeStringField("stockSymbol", stockSymbol);
+        g.writeNumberField("quantity", quantity);
+        g.writeNumberField("price", price);
+        g.writeFieldName("createdAt");
+        g.writeObject(createdAt);
+        g.writeStringField("type", type);
+        g.writeStringField("status", status != null ? status.name() : null);
+        g.writeEndObject();
+    }
+}
@@ -0,0 +1,25 @@
+package com.stockapp.dto;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Body of /api/dashboard/summary.
+ */
+public record DashboardSummary(BigDecimal totalBalance, BigDecimal portfolioValue, BigDecimal profitLoss,
+        int totalTransactions, List<PortfolioItem> portfolio, List<StockPrice> stockPrices,
+        TradingActivity tradingActivity, List<BalancePoint> balanceHistory) {
+
+    public record PortfolioItem(String symbol, int quantity, double averagePrice, double currentPrice,
+            double totalValue, double profitLoss, int stockId) {
+    }
+
+    public record StockPrice(String symbol, double price) {
+    }
+
+    public record TradingActivity(List<String> dates, int[] buyOrders, int[] sellOrders) {
+    }
+
+    public record BalancePoint(String date, BigDecimal balance) {
+    }
+}
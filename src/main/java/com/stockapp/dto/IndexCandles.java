@@ -0,0 +1,12 @@
+package com.stockapp.dto;
+
+import java.util.List;
+
+import stockapp.src.cache.CompositeIndices;
+
+/**
+ * Body of /api/stocks/indices/{symbol}/candles: OHLC candles of an index,
+ * oldest first. start is the epoch millisecond the candle begins at.
+ */
+public record IndexCandles(CompositeIndices.Quote index, String interval, List<CompositeIndices.Candle> candles) {
+}
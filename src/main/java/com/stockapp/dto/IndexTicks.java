@@ -0,0 +1,12 @@
+package com.stockapp.dto;
+
+import java.util.List;
+
+import stockapp.src.cache.CompositeIndices;
+
+/**
+ * Body of /api/stocks/indices/{symbol}/ticks: the latest values of an
+ * index, oldest first.
+ */
+public record IndexTicks(CompositeIndices.Quote index, List<CompositeIndices.Tick> ticks) {
+}
@@ -0,0 +1,17 @@
+package com.stockapp.dto;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * A response row that can write itself to a JsonGenerator.
+ *
+ * Implementations write exactly the fields Jackson would produce for the
+ * record, so a row looks the same whether it is returned as part of a
+ * ResponseEntity body or streamed through JsonRows.
+ */
+public interface JsonRow {
+
+    void writeTo(JsonGenerator generator) throws IOException;
+}
@@ -0,0 +1,92 @@
+package com.stockapp.dto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Function;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Streams a list of rows as a JSON array straight to the response.
+ *
+ * Each source element is converted to its row and written immediately, so
+ * no per-row maps or result list are built. Values that need Jackson's
+ * configured formatting (timestamps) are written through the mapper, which
+ * keeps the output identical to a regular ResponseEntity body.
+ *
+ * The generator does not close an array left open by a failure, so a
+ * response cut short by an error is never mistaken for a complete list.
+ */
+public final class JsonRows {
+
+    private JsonRows() {
+    }
+
+    /**
+     * Reads the page that follows the last row of the previous one.
+     */
+    @FunctionalInterface
+    public interface NextPage<T> {
+        List<T> after(T last) throws SQLException;
+    }
+
+    public static <T> StreamingResponseBody stream(ObjectMapper objectMapper, Iterable<T> source,
+            Function<? super T, ? extends JsonRow> toRow) {
+        return out -> write(objectMapper, out, source, toRow);
+    }
+
+    public static <T> void write(ObjectMapper objectMapper, OutputStream out, Iterable<T> source,
+            Function<? super T, ? extends JsonRow> toRow) throws IOException {
+        try (JsonGenerator generator = open(objectMapper, out)) {
+            generator.writeStartArray();
+            for (T item : source) {
+                toRow.apply(item).writeTo(generator);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Streams rows a page at a time, reading the next page only once the
+     * previous one is written. The caller reads the first page before
+     * returning the body, so a database that cannot be read still gets an
+     * error response; a later page that fails aborts the response.
+     */
+    public static <T> StreamingResponseBody streamPages(ObjectMapper objectMapper, List<T> firstPage, int pageSize,
+            NextPage<T> nextPage, Function<? super T, ? extends JsonRow> toRow) {
+        return out -> {
+            try (JsonGenerator generator = open(objectMapper, out)) {
+                generator.writeStartArray();
+                List<T> page = firstPage;
+                while (true) {
+                    for (T item : page) {
+                        toRow.apply(item).writeTo(generator);
+                    }
+                    if (page.size() < pageSize) {
+                        break;
+                    }
+                    generator.flush();
+                    page = nextPage.after(page.get(page.size() - 1));
+                }
+                generator.writeEndArray();
+            } catch (SQLException e) {
+                // Headers are already on the wire, so the best we can do is cut the stream short
+                System.err.println("ERROR: Failed to read the next page of rows: " + e.getMessage());
+                throw new IOException("Failed to read the next page of rows", e);
+            }
+        };
+    }
+
+    private static JsonGenerator open(ObjectMapper objectMapper, OutputStream out) throws IOException {
+        // The container owns the response stream; only flush it
+        return objectMapper.createGenerator(out, JsonEncoding.UTF8)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+    }
+}
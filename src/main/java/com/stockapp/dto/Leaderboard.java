@@ -0,0 +1,15 @@
+package com.stockapp.dto;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Body of /api/dashboard/leaderboard. you is null for users who are not
+ * ranked (admins). percentile is the share of traders ranked at or below
+ * the entry.
+ */
+public record Leaderboard(int traders, List<Entry> top, Entry you) {
+
+    public record Entry(int rank, int userId, String username, BigDecimal equity, double percentile) {
+    }
+}
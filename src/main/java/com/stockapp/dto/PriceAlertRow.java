@@ -0,0 +1,19 @@
+package com.stockapp.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import stockapp.src.models.PriceAlert;
+
+/**
+ * A row of /api/alerts. triggeredAt and triggeredPrice are null until the
+ * alert fires.
+ */
+public record PriceAlertRow(int id, int stockId, String symbol, String direction, BigDecimal price,
+        LocalDateTime createdAt, LocalDateTime triggeredAt, BigDecimal triggeredPrice) {
+
+    public static PriceAlertRow of(PriceAlert alert, String symbol) {
+        return new PriceAlertRow(alert.getId(), alert.getStockId(), symbol, alert.getDirection().name(),
+                alert.getThreshold(), alert.getCreatedAt(), alert.getTriggeredAt(), alert.getTriggeredPrice());
+    }
+}
@@ -0,0 +1,18 @@
+package com.stockapp.dto;
+
+import java.sql.Timestamp;
+
+import stockapp.src.models.Transaction;
+import stockapp.src.models.TransactionStatus;
+
+/**
+ * A row of the "recent transactions" widgets on the dashboard.
+ */
+public record RecentTransactionRow(int id, String stockSymbol, String type, int quantity, double price,
+        TransactionStatus status, Timestamp createdAt) {
+
+    public static RecentTransactionRow of(Transaction t, String stockSymbol) {
+        return new RecentTransactionRow(t.getId(), stockSymbol, t.getType(), t.getQuantity(),
+                t.getPrice().doubleValue(), t.getStatus(), t.getCreatedAt());
+    }
+}
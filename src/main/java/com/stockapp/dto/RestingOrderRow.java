@@ -0,0 +1,20 @@
+package com.stockapp.dto;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import stockapp.src.models.Transaction;
+
+/**
+ * A resting order that has not fired (/api/transactions/resting).
+ * trailAmount is null unless the order is a trailing stop, whose
+ * triggerPrice is where the stop stands now.
+ */
+public record RestingOrderRow(int orderId, int stockId, String stockSymbol, String type, String orderType,
+        int quantity, BigDecimal triggerPrice, BigDecimal trailAmount, Timestamp timestamp) {
+
+    public static RestingOrderRow of(Transaction t, String stockSymbol) {
+        return new RestingOrderRow(t.getId(), t.getStockId(), stockSymbol, t.getType(), t.getOrderType().name(),
+                t.getQuantity(), t.getTriggerPrice(), t.getTrailAmount(), t.getCreatedAt());
+    }
+}
@@ -0,0 +1,16 @@
+package com.stockapp.dto;
+
+import java.util.List;
+
+/**
+ * Body of /api/analytics/risk. Volatility is annualized; beta is against
+ * benchmark, the equal-weighted market when that is null. correlations[i][j]
+ * belongs to stocks i and j of the list, and is null when not asked for.
+ * kernels says whether the SIMD or the scalar loops computed it.
+ */
+public record RiskReport(long computedAt, int days, String interval, int returns, String benchmark, String kernels,
+        long computeMillis, List<Entry> stocks, double[][] correlations) {
+
+    public record Entry(int stockId, String symbol, int samples, double volatility, double beta) {
+    }
+}
@@ -0,0 +1,38 @@
+package com.stockapp.dto;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import stockapp.src.models.Transaction;
+
+/**
+ * A row of the user's transaction history (/api/transactions/list).
+ */
+public record TransactionRow(int id, String stockSymbol, String type, int quantity, double price, double total,
+        String status, Timestamp timestamp) implements JsonRow {
+
+    public static TransactionRow of(Transaction t, String stockSymbol) {
+        BigDecimal price = t.getPrice();
+        return new TransactionRow(t.getId(), stockSymbol, t.getType(), t.getQuantity(), price.doubleValue(),
+                price.multiply(BigDecimal.valueOf(t.getQuantity())).doubleValue(),
+                t.getStatus() != null ? t.getStatus().toString() : null, t.getCreatedAt());
+    }
+
+    @Override
+    public void writeTo(JsonGenerator g) throws IOException {
+        g.writeStartObject();
+        g.writeNumberField("id", id);
+        g.writeStringField("stockSymbol", stockSymbol);
+        g.writeStringField("type", type);
+        g.writeNumberField("quantity", quantity);
+        g.writeNumberField("price", price);
+        g.writeNumberField("total", total);
+        g.writeStringField("status", status);
+        g.writeFieldName("timestamp");
+        g.writeObject(timestamp);
+        g.writeEndObject();
+    }
+}
@@ -0,0 +1,13 @@
+package com.stockapp.dto;
+
+/**
+ * Body of /api/dashboard/var and /api/admin/risk/var: one-day value at risk
+ * and expected shortfall of a portfolio at current prices, from Monte Carlo
+ * scenarios. userId is null for the firm-wide figures. The throughput
+ * figures are those of the run that drew the scenarios and of the one that
+ * priced this portfolio in them.
+ */
+public record ValueAtRisk(String scope, Integer userId, long computedAt, int horizonDays, double confidence,
+        int positions, double portfolioValue, double valueAtRisk, double expectedShortfall, int scenarios,
+        int modelStocks, long modelBuiltAt, long generationScenariosPerSecond, long evaluationScenariosPerSecond) {
+}
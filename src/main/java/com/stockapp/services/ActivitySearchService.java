@@ -0,0 +1,74 @@
+package com.stockapp.services;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import stockapp.src.dao.UserActivityLogDAO;
+import stockapp.src.index.ActivityLogIndex;
+import stockapp.src.models.UserActivityLog;
+
+/**
+ * Admin activity search backed by the in-memory ActivityLogIndex.
+ * The index is rebuilt in the background at startup; until it is ready,
+ * searches fall back to the database query.
+ */
+@Service
+public class ActivitySearchService {
+
+    public static final int MAX_RESULTS = 1000;
+
+    private UserActivityLogDAO activityLogDAO = new UserActivityLogDAO();
+
+    private final ActivityLogIndex index = ActivityLogIndex.getInstance();
+
+    @PostConstruct
+    public void init() {
+        Thread rebuild = new Thread(() -> index.rebuild(activityLogDAO), "activity-index-rebuild");
+        rebuild.setDaemon(true);
+        rebuild.start();
+    }
+
+    /**
+     * Search logs by username substring, exact action type, details substring
+     * and logged_at range [from, to). Any filter may be null.
+     */
+    public List<UserActivityLog> search(String username, String actionType, String text,
+            LocalDateTime from, LocalDateTime to) {
+        if (index.isReady()) {
+            long fromMillis = from != null ? Timestamp.valueOf(from).getTime() : Long.MIN_VALUE;
+            long toMillis = to != null ? Timestamp.valueOf(to).getTime() : Long.MAX_VALUE;
+            return index.search(username, actionType, text, fromMillis, toMillis, MAX_RESULTS);
+        }
+        List<UserActivityLog> logs = activityLogDAO.searchActivities(username, actionType, from, to);
+        if (text != null && !text.isBlank()) {
+            String needle = text.trim().toLowerCase();
+            logs.removeIf(log -> log.getDetails() == null || !log.getDetails().toLowerCase().contains(needle));
+        }
+        return logs;
+    }
+
+    /**
+     * Username for a log row, served from the index when possible.
+     */
+    public String getUsername(int userId) {
+        return index.getUsername(userId);
+    }
+
+    public void updateUsername(int userId, String username) {
+        index.updateUsername(userId, username);
+    }
+
+    /**
+     * Applies log retention and rebuilds the index in the background so
+     * removed logs stop showing up in searches.
+     */
+    public int applyRetention(int daysOld) {
+        int deleted = activityLogDAO.deleteOldLogs(daysOld);
+        init();
+        return deleted;
+    }
+}
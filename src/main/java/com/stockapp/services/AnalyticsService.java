@@ -0,0 +1,152 @@
+package com.stockapp.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.springframework.stereotype.Service;
+
+import com.stockapp.dto.RiskReport;
+
+import stockapp.src.analytics.Kernels;
+import stockapp.src.analytics.PriceGrid;
+import stockapp.src.analytics.RiskAnalytics;
+import stockapp.src.dao.PriceHistoryDAO;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.models.Stock;
+
+/**
+ * Volatility, beta and the correlation matrix of every stock over a
+ * trailing window of stock_price_history.
+ *
+ * The window is read in one streaming pass onto a PriceGrid of primitive
+ * arrays, turned into log returns per interval and handed to
+ * RiskAnalytics on the common fork-join pool, with the Vector API kernels
+ * when the JVM loaded them. The simulated market trades around the clock,
+ * so volatility is annualized over 365 days. A report is reused for
+ * stockapp.analytics.cache-ms (default 60000) per set of parameters, and
+ * only one is computed at a time.
+ */
+@Service
+public class AnalyticsService {
+
+    public static final int MAX_DAYS = 365;
+
+    private static final long MINUTE_MILLIS = 60_000;
+    private static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+
+    private static final Map<String, Long> INTERVALS = Map.of(
+            "5m", 5 * MINUTE_MILLIS, "15m", 15 * MINUTE_MILLIS, "1h", 60 * MINUTE_MILLIS,
+            "4h", 240 * MINUTE_MILLIS, "1d", DAY_MILLIS);
+
+    private final long cacheMillis = Long.getLong("stockapp.analytics.cache-ms", 60_000);
+    private final int maxReturns = Integer.getInteger("stockapp.analytics.max-returns", 10_000);
+
+    private final PriceHistoryDAO historyDAO = new PriceHistoryDAO();
+
+    private final StockDAO stockDAO = new StockDAO();
+
+    private final Map<String, RiskReport> reports = new ConcurrentHashMap<>();
+
+    /**
+     * @param days           length of the window, 1 to MAX_DAYS
+     * @param interval       5m, 15m, 1h, 4h or 1d
+     * @param benchmark      symbol of the stock to compute beta against, or
+     *                       null for the equal-weighted market
+     * @param withCorrelations whether to include the correlation matrix
+     * @throws IllegalArgumentException if the parameters are rejected
+     * @throws IllegalStateException if the history could not be read
+     */
+    public RiskReport getRiskReport(int days, String interval, String benchmark, boolean withCorrelations) {
+        if (days < 1 || days > MAX_DAYS) {
+            throw new IllegalArgumentException("days must be between 1 and " + MAX_DAYS);
+        }
+        String parsedInterval = interval != null ? interval.trim().toLowerCase(Locale.ROOT) : "";
+        Long intervalMillis = INTERVALS.get(parsedInterval);
+        if (intervalMillis == null) {
+            throw new IllegalArgumentException("interval must be one of 5m, 15m, 1h, 4h, 1d");
+        }
+        int returns = (int) (days * DAY_MILLIS / intervalMillis);
+        if (returns < 2 || returns > maxReturns) {
+            throw new IllegalArgumentException("A window of " + days + " days at " + parsedInterval + " has "
+                    + returns + " returns; between 2 and " + maxReturns + " are supported");
+        }
+        String parsedBenchmark = benchmark != null && !benchmark.isBlank()
+                ? benchmark.trim().toUpperCase(Locale.ROOT) : null;
+
+        String key = days + "/" + parsedInterval + "/" + parsedBenchmark + "/" + withCorrelations;
+        RiskReport cached = reports.get(key);
+        if (cached != null && System.currentTimeMillis() - cached.computedAt() < cacheMillis) {
+            return cached;
+        }
+        synchronized (this) {
+            cached = reports.get(key);
+            if (cached != null && System.currentTimeMillis() - cached.computedAt() < cacheMillis) {
+                return cached;
+            }
+            RiskReport report = compute(days, parsedInterval, intervalMillis, returns, parsedBenchmark,
+                    withCorrelations);
+            reports.values().removeIf(r -> report.computedAt() - r.computedAt() >= cacheMillis);
+            reports.put(key, report);
+            return report;
+        }
+    }
+
+    private RiskReport compute(int days, String interval, long intervalMillis, int returns, String benchmark,
+            boolean withCorrelations) {
+        long started = System.currentTimeMillis();
+        List<Stock> stocks = stockDAO.getAllStocks();
+        int[] stockIds = new int[stocks.size()];
+        double[] currentPrices = new double[stocks.size()];
+        int benchmarkRow = -1;
+        for (int row = 0; row < stocks.size(); row++) {
+            Stock stock = stocks.get(row);
+            stockIds[row] = stock.getId();
+            currentPrices[row] = stock.getPrice().doubleValue();
+            if (stock.getSymbol().equals(benchmark)) {
+                benchmarkRow = row;
+            }
+        }
+        if (benchmark != null && benchmarkRow < 0) {
+            throw new IllegalArgumentException("Stock " + benchmark + " not found");
+        }
+
+        // The last bucket is the one now falls in
+        long start = (started / intervalMillis - returns) * intervalMillis;
+        PriceGrid grid = new PriceGrid(stockIds, start, intervalMillis, returns + 1);
+        if (!historyDAO.forEachSampleSince(start, grid::add)) {
+            throw new IllegalStateException("Could not read price history");
+        }
+        double[][] logReturns = grid.logReturns(currentPrices);
+
+        Kernels kernels = Kernels.best();
+        RiskAnalytics.Result result = RiskAnalytics.compute(logReturns,
+                benchmarkRow >= 0 ? logReturns[benchmarkRow] : null, (double) (365 * DAY_MILLIS) / intervalMillis,
+                withCorrelations, kernels, ForkJoinPool.commonPool());
+
+        List<RiskReport.Entry> entries = new ArrayList<>(stocks.size());
+        for (int row = 0; row < stocks.size(); row++) {
+            entries.add(new RiskReport.Entry(stockIds[row], stocks.get(row).getSymbol(), grid.getSamples(row),
+                    round(result.getVolatility()[row]), round(result.getBeta()[row])));
+        }
+        double[][] correlations = result.getCorrelations();
+        if (correlations != null) {
+            for (double[] row : correlations) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = round(row[j]);
+                }
+            }
+        }
+        long finished = System.currentTimeMillis();
+        return new RiskReport(finished, days, interval, returns, benchmark, kernels.name(), finished - started,
+                entries, correlations);
+    }
+
+    // Four decimals keep a 2,000-stock matrix to a few tens of megabytes of JSON
+    private static double round(double value) {
+        return Math.round(value * 10_000) / 10_000.0;
+    }
+}
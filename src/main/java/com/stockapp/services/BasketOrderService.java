@@ -0,0 +1,367 @@
+package com.stockapp.services;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import stockapp.src.DatabaseConnection;
+import stockapp.src.ReplicaRouter;
+import stockapp.src.ShardRouter;
+import stockapp.src.analytics.PriceHistoryRecorder;
+import stockapp.src.cache.InvalidationBus;
+import stockapp.src.cache.MarketMovers;
+import stockapp.src.cache.TradingHalts;
+import stockapp.src.cache.TradingStateCache;
+import stockapp.src.dao.PortfolioDAO;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.dao.TransactionDAO;
+import stockapp.src.dao.UserActivityLogDAO;
+import stockapp.src.dao.UserDAO;
+import stockapp.src.journal.TradeJournal;
+import stockapp.src.models.BasketLeg;
+import stockapp.src.models.Portfolio;
+import stockapp.src.models.Stock;
+import stockapp.src.models.Transaction;
+import stockapp.src.models.TransactionStatus;
+import stockapp.src.models.UserActivityLog;
+
+/**
+ * Executes a basket of buy and sell legs for one user as a single database
+ * transaction: either every leg is filled or none is.
+ *
+ * The user's balance and positions are read with row locks, the whole basket
+ * is checked against them, and the writes (balance, transactions, positions,
+ * prices) go out as one JDBC batch per table before a single commit. Sell
+ * legs are executed before buy legs, so sale proceeds can fund purchases in
+ * the same basket. Each leg fills at the current price and moves it the same
+ * way a single /buy or /sell would. The basket holds the symbol locks of
+ * all its stocks from reading their prices until the new prices are
+ * published, so it cannot overwrite a move made by a concurrent fill.
+ *
+ * Caches, the trade journal and the activity log are only updated after the
+ * commit succeeds.
+ */
+@Service
+public class BasketOrderService {
+
+    public static final int MAX_LEGS = 100;
+
+    private static final BigDecimal PRICE_IMPACT = new BigDecimal("0.0001");
+    private static final BigDecimal MIN_PRICE = new BigDecimal("0.01");
+
+    private final UserDAO userDAO = new UserDAO();
+
+    private final StockDAO stockDAO = new StockDAO();
+
+    private final PortfolioDAO portfolioDAO = new PortfolioDAO();
+
+    private final TransactionDAO transactionDAO = new TransactionDAO();
+
+    private final UserActivityLogDAO activityLogDAO = new UserActivityLogDAO();
+
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private final MarketMovers movers = MarketMovers.getInstance();
+
+    private final TradeJournal journal = TradeJournal.getInstance();
+
+    private final PriceHistoryRecorder priceHistory = PriceHistoryRecorder.getInstance();
+
+    private final TradingHalts halts = TradingHalts.getInstance();
+
+    private final InvalidationBus bus = InvalidationBus.getInstance();
+
+    @Autowired
+    private OrderService orderService;
+
+    /**
+     * Outcome of an executed basket.
+     */
+    public static class BasketResult {
+        private final List<BasketLeg> legs;
+        private final BigDecimal balance;
+
+        BasketResult(List<BasketLeg> legs, BigDecimal balance) {
+            this.legs = legs;
+            this.balance = balance;
+        }
+
+        public List<BasketLeg> getLegs() { return legs; }
+        public BigDecimal getBalance() { return balance; }
+    }
+
+    // State after one leg, in execution order, for the trade journal
+    private record Fill(BigDecimal balanceAfter, int positionAfter, double avgPriceAfter) {
+    }
+
+    /**
+     * Executes the basket for the given user.
+     *
+     * @throws IllegalArgumentException if the basket is malformed or cannot be
+     *         filled (suspended or halted stock, insufficient balance or shares); nothing
+     *         is written in that case
+     * @throws SQLException if the database write fails; the transaction is
+     *         rolled back
+     */
+    public BasketResult execute(int userId, List<BasketLeg> legs) throws SQLException {
+        validate(legs);
+
+        // Sells first, each group in request order
+        List<BasketLeg> ordered = new ArrayList<>(legs.size());
+        for (BasketLeg leg : legs) {
+            if (!leg.isBuy()) {
+                ordered.add(leg);
+            }
+        }
+        for (BasketLeg leg : legs) {
+            if (leg.isBuy()) {
+                ordered.add(leg);
+            }
+        }
+
+        Set<Integer> stockIds = new LinkedHashSet<>();
+        for (BasketLeg leg : ordered) {
+            stockIds.add(leg.getStockId());
+        }
+        return orderService.withSymbolLocks(stockIds, () -> executeLocked(userId, legs, ordered));
+    }
+
+    private BasketResult executeLocked(int userId, List<BasketLeg> legs, List<BasketLeg> ordered)
+            throws SQLException {
+        // Read under the symbol locks, so each leg moves the price from where the last fill left it
+        Map<Integer, Stock> stocks = new LinkedHashMap<>();
+        for (BasketLeg leg : ordered) {
+            if (!stocks.containsKey(leg.getStockId())) {
+                Stock stock = stockDAO.getStockById(leg.getStockId());
+                if (stock == null) {
+                    throw new IllegalArgumentException("Unknown stock: " + leg.getStockId());
+                }
+                if (halts.isHalted(stock.getId())) {
+                    throw new IllegalArgumentException((halts.isSuspended(stock.getId())
+                            ? "Stock is suspended: " : "Trading is halted: ") + stock.getSymbol());
+                }
+                stocks.put(stock.getId(), stock);
+            }
+        }
+
+        // The user's rows live on their shard; stock prices only on the primary
+        boolean pricesOnUserShard = ShardRouter.getInstance().shardOf(userId) == 0;
+        Connection conn = DatabaseConnection.getUserConnection(userId);
+        if (conn == null) {
+            throw new IllegalStateException("Database connection unavailable");
+        }
+
+        BigDecimal balance;
+        Map<Integer, Portfolio> positions = new HashMap<>();
+        List<Transaction> transactions = new ArrayList<>(ordered.size());
+        List<Fill> fills = new ArrayList<>(ordered.size());
+        try {
+            conn.setAutoCommit(false);
+
+            balance = userDAO.lockBalance(conn, userId);
+            if (balance == null) {
+                throw new IllegalArgumentException("User not found");
+            }
+            for (Portfolio p : portfolioDAO.lockUserPortfolio(conn, userId)) {
+                positions.put(p.getStockID(), p);
+            }
+            Map<Integer, Portfolio> original = new HashMap<>();
+            for (Portfolio p : positions.values()) {
+                original.put(p.getStockID(), new Portfolio(p.getUserID(), p.getStockID(), p.getQuantity(), p.getId(),
+                        p.getAvgPrice()));
+            }
+
+            for (BasketLeg leg : ordered) {
+                Stock stock = stocks.get(leg.getStockId());
+                BigDecimal price = stock.getPrice();
+                BigDecimal value = price.multiply(new BigDecimal(leg.getQuantity()));
+                Portfolio position = positions.get(leg.getStockId());
+
+                if (leg.isBuy()) {
+                    balance = balance.subtract(value);
+                    if (position == null) {
+                        position = new Portfolio(userId, leg.getStockId(), 0, 0, 0.0);
+                        positions.put(leg.getStockId(), position);
+                    }
+                    // Recalculate weighted average price
+                    double totalQuantity = position.getQuantity() + leg.getQuantity();
+                    position.setAvgPrice((position.getAvgPrice() * position.getQuantity()
+                            + price.doubleValue() * leg.getQuantity()) / totalQuantity);
+                    position.setQuantity(position.getQuantity() + leg.getQuantity());
+                    stock.setPrice(price.add(price.multiply(PRICE_IMPACT).multiply(new BigDecimal(leg.getQuantity()))));
+                } else {
+                    if (position == null || position.getQuantity() < leg.getQuantity()) {
+                        throw new IllegalArgumentException("Insufficient shares of " + stock.getSymbol());
+                    }
+                    balance = balance.add(value);
+                    position.setQuantity(position.getQuantity() - leg.getQuantity());
+                    BigDecimal newPrice = price.subtract(price.multiply(PRICE_IMPACT).multiply(new BigDecimal(leg.getQuantity())));
+                    stock.setPrice(newPrice.compareTo(MIN_PRICE) < 0 ? MIN_PRICE : newPrice);
+                }
+
+                leg.setSymbol(stock.getSymbol());
+                leg.setPrice(price);
+
+                Transaction transaction = new Transaction();
+                transaction.setUserId(userId);
+                transaction.setStockId(leg.getStockId());
+                transaction.setQuantity(leg.getQuantity());
+                transaction.setPrice(price);
+                transaction.setType(leg.getType());
+                transaction.setStatus(TransactionStatus.COMPLETED);
+                transaction.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+                transactions.add(transaction);
+                fills.add(new Fill(balance, position.getQuantity(), position.getAvgPrice()));
+            }
+
+            // Sells come first and only add to the balance, so the final balance is the low point
+            if (balance.signum() < 0) {
+                throw new IllegalArgumentException("Insufficient balance");
+            }
+
+            List<Portfolio> inserts = new ArrayList<>();
+            List<Portfolio> updates = new ArrayList<>();
+            List<Integer> deletes = new ArrayList<>();
+            for (Portfolio p : positions.values()) {
+                Portfolio before = original.get(p.getStockID());
+                if (p.getId() == 0) {
+                    inserts.add(p);
+                } else if (p.getQuantity() <= 0) {
+                    deletes.add(p.getId());
+                } else if (p.getQuantity() != before.getQuantity() || p.getAvgPrice() != before.getAvgPrice()) {
+                    updates.add(p);
+                }
+            }
+
+            userDAO.setBalance(conn, userId, balance);
+            transactionDAO.insertTransactionsBatch(conn, transactions);
+            if (!inserts.isEmpty()) {
+                portfolioDAO.insertPortfolioBatch(conn, inserts);
+            }
+            if (!updates.isEmpty()) {
+                portfolioDAO.updatePortfolioBatch(conn, updates);
+            }
+            if (!deletes.isEmpty()) {
+                portfolioDAO.deletePortfolioBatch(conn, deletes);
+            }
+            if (pricesOnUserShard) {
+                stockDAO.updatePricesBatch(conn, stocks.values());
+            }
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackError) {
+                // Connection is closed right after
+            }
+            throw e;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                // Connection is closed right after
+            }
+            DatabaseConnection.closeConnection(conn);
+        }
+        if (!pricesOnUserShard) {
+            updatePrices(stocks.values());
+        }
+
+        publish(userId, ordered, transactions, fills, stocks, balance);
+        return new BasketResult(legs, balance);
+    }
+
+    /**
+     * Brings caches, journal and activity log in line with a committed basket.
+     */
+    private void publish(int userId, List<BasketLeg> ordered, List<Transaction> transactions, List<Fill> fills,
+            Map<Integer, Stock> stocks, BigDecimal balance) {
+        cache.putBalance(userId, balance);
+        cache.invalidatePositions(userId);
+        DatabaseConnection.recordWrite(userId);
+        DatabaseConnection.recordWrite(ReplicaRouter.QUOTES);
+        for (Stock stock : stocks.values()) {
+            cache.applyPrice(stock.getId(), stock.getPrice());
+            bus.publishStock(stock.getId());
+        }
+
+        for (int i = 0; i < ordered.size(); i++) {
+            BasketLeg leg = ordered.get(i);
+            Transaction transaction = transactions.get(i);
+            Fill fill = fills.get(i);
+            byte side = leg.isBuy() ? TradeJournal.SIDE_BUY : TradeJournal.SIDE_SELL;
+
+            leg.setTransactionId(transaction.getId());
+            cache.recordTransaction(userId, true, leg.getPrice().multiply(BigDecimal.valueOf(leg.getQuantity())));
+            journal.recordOrder(side, userId, leg.getStockId(), leg.getQuantity(), leg.getPrice());
+            journal.recordFill(side, userId, leg.getStockId(), transaction.getId(), leg.getQuantity(), leg.getPrice(),
+                    fill.balanceAfter(), Math.max(fill.positionAfter(), 0), fill.avgPriceAfter());
+            movers.recordFill(leg.getStockId(), leg.getQuantity());
+        }
+        for (Stock stock : stocks.values()) {
+            journal.recordPrice(stock.getId(), stock.getPrice());
+            priceHistory.record(stock.getId(), stock.getPrice());
+        }
+
+        try {
+            UserActivityLog log = new UserActivityLog();
+            log.setUserId(userId);
+            log.setActionType("BASKET_ORDER");
+            log.setDetails("Executed basket of " + ordered.size() + " legs across " + stocks.size() + " stocks");
+            log.setLoggedAt(java.time.LocalDateTime.now());
+            activityLogDAO.createActivityLog(log);
+        } catch (Exception e) {
+            // Silently fail logging
+        }
+    }
+
+    /**
+     * Writes the basket's price impact on the primary once the user's shard
+     * has committed. The two databases cannot share a transaction, so a
+     * failure here leaves the fills in place and only loses the price move.
+     */
+    private void updatePrices(Collection<Stock> changed) {
+        Connection conn = DatabaseConnection.getConnection();
+        if (conn == null) {
+            System.err.println("ERROR: Basket price update skipped, database connection unavailable");
+            return;
+        }
+        try {
+            stockDAO.updatePricesBatch(conn, changed);
+        } catch (SQLException e) {
+            System.err.println("ERROR: Basket price update failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            DatabaseConnection.closeConnection(conn);
+        }
+    }
+
+    private static void validate(List<BasketLeg> legs) {
+        if (legs == null || legs.isEmpty()) {
+            throw new IllegalArgumentException("Basket has no legs");
+        }
+        if (legs.size() > MAX_LEGS) {
+            throw new IllegalArgumentException("Basket has more than " + MAX_LEGS + " legs");
+        }
+        for (BasketLeg leg : legs) {
+            if (!"BUY".equals(leg.getType()) && !"SELL".equals(leg.getType())) {
+                throw new IllegalArgumentException("Leg type must be BUY or SELL");
+            }
+            if (leg.getQuantity() <= 0) {
+                throw new IllegalArgumentException("Leg quantity must be positive");
+            }
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package com.stockapp.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import stockapp.src.DatabaseConnection;
+import stockapp.src.ShardRouter;
+import stockapp.src.cache.EquityLeaderboard;
+import stockapp.src.dao.PortfolioDAO;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.dao.UserDAO;
+import stockapp.src.models.BulkImportReport;
+import stockapp.src.models.Portfolio;
+import stockapp.src.models.Stock;
+import stockapp.src.models.User;
+import stockapp.src.models.UserRole;
+
+/**
+ * Streams users (with optional opening balances and positions) from CSV or
+ * NDJSON into the database using JDBC batches, one transaction per chunk.
+ *
+ * CSV input needs a header row naming its columns: username, password and
+ * optionally balance, role and positions. Positions are written as
+ * SYMBOL:QUANTITY[:AVERAGE_PRICE] entries separated by ';'.
+ * NDJSON input has one object per line with the same fields, where
+ * positions is an array of {symbol, quantity, averagePrice} objects.
+ *
+ * Line numbers in the report are physical input lines (the CSV header is
+ * line 1), so a report's lastCommittedLine can be passed back as resumeFrom.
+ *
+ * With sharded users a chunk reserves its user ids in the directory on the
+ * primary and writes each user on their shard; the primary commits first,
+ * then the shards.
+ */
+@Service
+public class BulkImportService {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int MAX_BATCH_SIZE = 10000;
+
+    private static final BigDecimal DEFAULT_BALANCE = new BigDecimal("100000.00");
+
+    private final UserDAO userDAO = new UserDAO();
+
+    private final PortfolioDAO portfolioDAO = new PortfolioDAO();
+
+    private final StockDAO stockDAO = new StockDAO();
+
+    private final EquityLeaderboard leaderboard = EquityLeaderboard.getInstance();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AuthService authService;
+
+    public BulkImportService(AuthService authService) {
+        this.authService = authService;
+    }
+
+    /**
+     * Imports users from the given stream.
+     *
+     * @param in         CSV or NDJSON input, UTF-8 encoded
+     * @param format     "csv" or "ndjson"
+     * @param batchSize  rows per JDBC batch and per transaction
+     * @param resumeFrom rows on or before this line are skipped (0 imports everything)
+     */
+    public BulkImportReport importUsers(InputStream in, String format, int batchSize, long resumeFrom) throws IOException {
+        boolean ndjson = "ndjson".equalsIgnoreCase(format) || "jsonl".equalsIgnoreCase(format);
+        if (!ndjson && !"csv".equalsIgnoreCase(format)) {
+            throw new IllegalArgumentException("Unsupported import format: " + format);
+        }
+        int chunkSize = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+
+        BulkImportReport report = new BulkImportReport();
+        report.setLastCommittedLine(resumeFrom);
+        long startedAt = System.currentTimeMillis();
+
+        Map<String, Stock> stocksBySymbol = new HashMap<>();
+        for (Stock stock : stockDAO.getAllStocks()) {
+            stocksBySymbol.put(stock.getSymbol().toUpperCase(), stock);
+        }
+
+        Connection conn = DatabaseConnection.getConnection();
+        if (conn == null) {
+            throw new IllegalStateException("Database connection unavailable");
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            conn.setAutoCommit(false);
+
+            Map<String, Integer> columns = null;
+            Set<String> seenUsernames = new HashSet<>();
+            List<ImportRow> chunk = new ArrayList<>(chunkSize);
+            long lineNumber = 0;
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (!ndjson && columns == null) {
+                    columns = parseHeader(line);
+                    continue;
+                }
+                if (lineNumber <= resumeFrom) {
+                    report.incrementRowsSkipped();
+                    continue;
+                }
+
+                report.incrementRowsRead();
+                try {
+                    ImportRow row = ndjson
+                            ? parseJsonRow(lineNumber, line, stocksBySymbol)
+                            : parseCsvRow(lineNumber, line, columns, stocksBySymbol);
+                    if (!seenUsernames.add(row.user.getUsername())) {
+                        throw new IllegalArgumentException("Duplicate username in input: " + row.user.getUsername());
+                    }
+                    chunk.add(row);
+                } catch (IllegalArgumentException e) {
+                    report.addError(lineNumber, e.getMessage());
+                }
+
+                if (chunk.size() >= chunkSize) {
+                    flushChunk(conn, chunk, report);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                flushChunk(conn, chunk, report);
+            }
+            // Trailing rejected rows don't need to be re-sent either
+            if (lineNumber > report.getLastCommittedLine()) {
+                report.setLastCommittedLine(lineNumber);
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Bulk import aborted: " + e.getMessage());
+            e.printStackTrace();
+            report.addError(report.getLastCommittedLine() + 1, "Import aborted: " + e.getMessage());
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                // Connection is closed right after
+            }
+            DatabaseConnection.closeConnection(conn);
+            report.setElapsedMillis(System.currentTimeMillis() - startedAt);
+        }
+        return report;
+    }
+
+    // ================== CHUNK WRITING ==================
+
+    /**
+     * Writes and commits one chunk. If the batch fails as a whole the chunk
+     * is replayed row by row so the offending rows can be reported.
+     */
+    private void flushChunk(Connection conn, List<ImportRow> chunk, BulkImportReport report) throws SQLException {
+        try {
+            commitRows(conn, chunk, report);
+        } catch (SQLException batchError) {
+            conn.rollback();
+            for (ImportRow row : chunk) {
+                try {
+                    commitRows(conn, List.of(row), report);
+                } catch (SQLException rowError) {
+                    conn.rollback();
+                    report.addError(row.line, "Database error: " + rowError.getMessage());
+                }
+            }
+        }
+        report.setLastCommittedLine(chunk.get(chunk.size() - 1).line);
+    }
+
+    /**
+     * Inserts the given rows and commits. Counts and errors are only added to
+     * the report once the commit succeeds, so a retried chunk is not counted twice.
+     */
+    private void commitRows(Connection conn, List<ImportRow> rows, BulkImportReport report) throws SQLException {
+        Map<String, ImportRow> byUsername = new LinkedHashMap<>();
+        for (ImportRow row : rows) {
+            byUsername.put(row.user.getUsername(), row);
+        }
+
+        List<ImportRow> rejected = new ArrayList<>();
+        for (String existing : userDAO.findExistingUsernames(conn, byUsername.keySet())) {
+            rejected.add(byUsername.remove(existing));
+        }
+
+        int[] written;
+        List<Connection> shardConnections = new ArrayList<>();
+        try {
+            if (byUsername.isEmpty()) {
+                written = new int[] { 0, 0 };
+            } else if (ShardRouter.getInstance().isSharded()) {
+                written = writeShardedRows(conn, byUsername, shardConnections);
+            } else {
+                written = writeRows(conn, byUsername);
+            }
+            conn.commit();
+            // The directory entries are committed; the users on their shards follow
+            for (Connection shardConnection : shardConnections) {
+                shardConnection.commit();
+            }
+        } catch (SQLException e) {
+            for (Connection shardConnection : shardConnections) {
+                shardConnection.rollback();
+            }
+            throw e;
+        } finally {
+            for (Connection shardConnection : shardConnections) {
+                DatabaseConnection.closeConnection(shardConnection);
+            }
+        }
+        for (ImportRow row : byUsername.values()) {
+            if (!row.positions.isEmpty()) {
+                DatabaseConnection.recordWrite(row.positions.get(0).getUserID());
+            }
+        }
+        if (written[0] > 0) {
+            // Imported users without positions have no id here to announce
+            leaderboard.requestRebuild();
+        }
+
+        report.addUsersImported(written[0]);
+        report.addPositionsImported(written[1]);
+        for (ImportRow row : rejected) {
+            report.addError(row.line, "Username already exists: " + row.user.getUsername());
+        }
+    }
+
+    /**
+     * Batch-inserts users and their opening positions without committing.
+     *
+     * @return {users written, positions written}
+     */
+    private int[] writeRows(Connection conn, Map<String, ImportRow> byUsername) throws SQLException {
+
+        List<User> users = new ArrayList<>(byUsername.size());
+        Set<String> withPositions = new HashSet<>();
+        for (ImportRow row : byUsername.values()) {
+            users.add(row.user);
+            if (!row.positions.isEmpty()) {
+                withPositions.add(row.user.getUsername());
+            }
+        }
+        userDAO.insertUsersBatch(conn, users);
+
+        int positionCount = 0;
+        if (!withPositions.isEmpty()) {
+            Map<String, Integer> ids = userDAO.findUserIdsByUsername(conn, withPositions);
+            List<Portfolio> items = new ArrayList<>();
+            for (String username : withPositions) {
+                int userId = ids.get(username);
+                for (Portfolio position : byUsername.get(username).positions) {
+                    position.setUserID(userId);
+                    items.add(position);
+                }
+            }
+            portfolioDAO.insertPortfolioBatch(conn, items);
+            positionCount = items.size();
+        }
+        return new int[] { users.size(), positionCount };
+    }
+
+    /**
+     * Sharded variant of writeRows: reserves user ids in the directory on
+     * the primary connection, then batch-inserts each shard's users and
+     * positions on a connection of that shard. Nothing is committed; the
+     * shard connections are added to the list for the caller to commit
+     * after the primary.
+     *
+     * @return {users written, positions written}
+     */
+    private int[] writeShardedRows(Connection conn, Map<String, ImportRow> byUsername, List<Connection> shardConnections)
+            throws SQLException {
+        List<User> users = new ArrayList<>(byUsername.size());
+        for (ImportRow row : byUsername.values()) {
+            users.add(row.user);
+        }
+        userDAO.allocateUserIds(conn, users);
+
+        Map<Integer, List<ImportRow>> byShard = new HashMap<>();
+        for (ImportRow row : byUsername.values()) {
+            byShard.computeIfAbsent(ShardRouter.getInstance().shardOf(row.user.getId()), k -> new ArrayList<>()).add(row);
+        }
+
+        int positionCount = 0;
+        for (Map.Entry<Integer, List<ImportRow>> entry : byShard.entrySet()) {
+            Connection shardConnection = DatabaseConnection.getShardConnection(entry.getKey());
+            if (shardConnection == null) {
+                throw new SQLException("Shard " + entry.getKey() + " unavailable");
+            }
+            shardConnections.add(shardConnection);
+            shardConnection.setAutoCommit(false);
+
+            List<User> shardUsers = new ArrayList<>(entry.getValue().size());
+            List<Portfolio> items = new ArrayList<>();
+            for (ImportRow row : entry.getValue()) {
+                shardUsers.add(row.user);
+                for (Portfolio position : row.positions) {
+                    position.setUserID(row.user.getId());
+                    items.add(position);
+                }
+            }
+            userDAO.insertUsersWithIdsBatch(shardConnection, shardUsers);
+            if (!items.isEmpty()) {
+                portfolioDAO.insertPortfolioBatch(shardConnection, items);
+                positionCount += items.size();
+            }
+        }
+        return new int[] { users.size(), positionCount };
+    }
+
+    // ================== PARSING ==================
+
+    private Map<String, Integer> parseHeader(String line) {
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = splitCsv(line);
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim().toLowerCase(), i);
+        }
+        if (!columns.containsKey("username") || !columns.containsKey("password")) {
+            throw new IllegalArgumentException("CSV header must contain username and password columns");
+        }
+        return columns;
+    }
+
+    private ImportRow parseCsvRow(long line, String text, Map<String, Integer> columns, Map<String, Stock> stocks) {
+        List<String> fields = splitCsv(text);
+        String username = field(fields, columns, "username");
+        String password = field(fields, columns, "password");
+        String balance = field(fields, columns, "balance");
+        String role = field(fields, columns, "role");
+        String positions = field(fields, columns, "positions");
+
+        ImportRow row = new ImportRow(line, buildUser(username, password, balance, role));
+        if (positions != null && !positions.isBlank()) {
+            for (String entry : positions.split(";")) {
+                if (entry.isBlank()) {
+                    continue;
+                }
+                String[] parts = entry.trim().split(":");
+                if (parts.length < 2) {
+                    throw new IllegalArgumentException("Invalid position '" + entry + "', expected SYMBOL:QUANTITY[:PRICE]");
+                }
+                row.positions.add(buildPosition(parts[0], parts[1], parts.length > 2 ? parts[2] : null, stocks));
+            }
+        }
+        return row;
+    }
+
+    private ImportRow parseJsonRow(long line, String text, Map<String, Stock> stocks) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(text);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed JSON: " + e.getMessage());
+        }
+        if (node == null || !node.isObject()) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+
+        ImportRow row = new ImportRow(line, buildUser(text(node, "username"), text(node, "password"),
+                text(node, "balance"), text(node, "role")));
+        JsonNode positions = node.get("positions");
+        if (positions != null && positions.isArray()) {
+            for (JsonNode position : positions) {
+                row.positions.add(buildPosition(text(position, "symbol"), text(position, "quantity"),
+                        text(position, "averagePrice"), stocks));
+            }
+        }
+        return row;
+    }
+
+    private User buildUser(String username, String password, String balance, String role) {
+        if (username == null || username.isBlank()) {
+            throw new IllegalArgumentException("Username is required");
+        }
+        username = username.trim();
+        if (username.length() > 50) {
+            throw new IllegalArgumentException("Username longer than 50 characters: " + username);
+        }
+        if (password == null || password.isBlank()) {
+            throw new IllegalArgumentException("Password is required for " + username);
+        }
+
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword(authService.hashPassword(password));
+        user.setBalance(DEFAULT_BALANCE);
+        if (balance != null && !balance.isBlank()) {
+            BigDecimal parsed = parseDecimal(balance, "balance");
+            if (parsed.signum() < 0) {
+                throw new IllegalArgumentException("Balance must not be negative");
+            }
+            user.setBalance(parsed);
+        }
+        if (role != null && !role.isBlank()) {
+            try {
+                user.setRole(UserRole.valueOf(role.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown role: " + role);
+            }
+        }
+        user.setActive(true);
+        return user;
+    }
+
+    private Portfolio buildPosition(String symbol, String quantity, String averagePrice, Map<String, Stock> stocks) {
+        if (symbol == null || symbol.isBlank()) {
+            throw new IllegalArgumentException("Position symbol is required");
+        }
+        Stock stock = stocks.get(symbol.trim().toUpperCase());
+        if (stock == null) {
+            throw new IllegalArgumentException("Unknown stock symbol: " + symbol);
+        }
+
+        int qty;
+        try {
+            qty = Integer.parseInt(quantity == null ? "" : quantity.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid quantity for " + symbol + ": " + quantity);
+        }
+        if (qty <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive for " + symbol);
+        }
+
+        double avgPrice = stock.getPrice().doubleValue();
+        if (averagePrice != null && !averagePrice.isBlank()) {
+            avgPrice = parseDecimal(averagePrice, "average price").doubleValue();
+            if (avgPrice <= 0) {
+                throw new IllegalArgumentException("Average price must be positive for " + symbol);
+            }
+        }
+        return new Portfolio(0, stock.getId(), qty, 0, avgPrice);
+    }
+
+    private static BigDecimal parseDecimal(String value, String fieldName) {
+        try {
+            return new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + fieldName + ": " + value);
+        }
+    }
+
+    private static String field(List<String> fields, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        return index != null && index < fields.size() ? fields.get(index) : null;
+    }
+
+    private static String text(JsonNode node, String name) {
+        JsonNode value = node.get(name);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    /**
+     * Splits one CSV line, honouring double-quoted fields and "" escapes.
+     * Quoted fields may not span lines.
+     */
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        current.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+
+    /**
+     * A validated input row waiting to be written.
+     */
+    private static class ImportRow {
+        final long line;
+        final User user;
+        final List<Portfolio> positions = new ArrayList<>();
+
+        ImportRow(long line, User user) {
+            this.line = line;
+            this.user = user;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.stockapp.services;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import stockapp.src.DatabaseConnection;
+import stockapp.src.cache.TradingStateCache;
+import stockapp.src.dao.PortfolioDAO;
+import stockapp.src.dao.TradeCancellationDAO;
+import stockapp.src.dao.TransactionDAO;
+import stockapp.src.dao.UserDAO;
+import stockapp.src.journal.TradeJournal;
+import stockapp.src.models.BulkRollbackReport;
+import stockapp.src.models.Portfolio;
+import stockapp.src.models.RollbackFilter;
+import stockapp.src.models.TradeCancellation;
+import stockapp.src.models.Transaction;
+
+/**
+ * Rolls back every COMPLETED transaction matching a filter (stock, time
+ * window, users, ids) in one pass over the transactions table.
+ *
+ * Matching transactions are read newest first, one chunk at a time, and
+ * locked after their users' rows (see reverseChunk()). Undoing later trades
+ * first means a BUY is reached only after the SELLs of the same shares that
+ * followed it have returned them. For each chunk the compensations are computed in memory and
+ * applied with set-based or batched SQL inside one database transaction:
+ * <ul>
+ * <li>a BUY is reversed by refunding price * quantity and removing the shares</li>
+ * <li>a SELL is reversed by charging back the proceeds and returning the shares</li>
+ * </ul>
+ * The transactions are marked CANCELLED and a trade_cancellations record is
+ * written for each. A BUY whose shares are no longer all held, and a SELL
+ * whose chargeback would leave the balance negative, are skipped: they
+ * stay COMPLETED and are listed in the report for manual review.
+ *
+ * Caches and the trade journal are updated after each chunk commits. A dry
+ * run computes the same chunks and rolls them back instead.
+ *
+ * With sharded users each shard is processed in turn; a user's transactions
+ * and positions share a shard, so every chunk stays a local transaction.
+ *
+ * Background jobs run one at a time; their reports can be polled by job id.
+ */
+@Service
+public class BulkRollbackService {
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    public static final int MAX_CHUNK_SIZE = 5000;
+
+    private static final int MAX_REASON_LENGTH = 255;
+
+    private final TransactionDAO transactionDAO = new TransactionDAO();
+
+    private final UserDAO userDAO = new UserDAO();
+
+    private final PortfolioDAO portfolioDAO = new PortfolioDAO();
+
+    private final TradeCancellationDAO cancellationDAO = new TradeCancellationDAO();
+
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private final TradeJournal journal = TradeJournal.getInstance();
+
+    private final AtomicInteger nextJobId = new AtomicInteger();
+
+    private final Map<Integer, BulkRollbackReport> jobs = new ConcurrentHashMap<>();
+
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bulk-rollback");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * What one chunk changed, kept for publishing after the commit.
+     */
+    private static class ChunkResult {
+        final List<Transaction> transactions;
+        final Map<Integer, BigDecimal> balances;
+        final Map<Long, Portfolio> positions;
+        final BigDecimal compensation;
+        final List<String> skipped;
+
+        ChunkResult(List<Transaction> transactions, Map<Integer, BigDecimal> balances, Map<Long, Portfolio> positions,
+                BigDecimal compensation, List<String> skipped) {
+            this.transactions = transactions;
+            this.balances = balances;
+            this.positions = positions;
+            this.compensation = compensation;
+            this.skipped = skipped;
+        }
+    }
+
+    /**
+     * Starts a rollback in the background.
+     *
+     * @return the job's report, updated as chunks commit
+     */
+    public BulkRollbackReport start(RollbackFilter filter, String reason, boolean dryRun, int chunkSize,
+            int beforeId) {
+        BulkRollbackReport report = newReport(filter, reason, dryRun);
+        runner.execute(() -> run(report, filter, reason, dryRun, chunkSize, beforeId));
+        return report;
+    }
+
+    /**
+     * Runs a rollback on the calling thread.
+     */
+    public BulkRollbackReport rollback(RollbackFilter filter, String reason) {
+        BulkRollbackReport report = newReport(filter, reason, false);
+        run(report, filter, reason, false, DEFAULT_CHUNK_SIZE, Integer.MAX_VALUE);
+        return report;
+    }
+
+    public BulkRollbackReport getJob(int jobId) {
+        return jobs.get(jobId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+
+    private BulkRollbackReport newReport(RollbackFilter filter, String reason, boolean dryRun) {
+        if (filter == null || filter.isEmpty()) {
+            throw new IllegalArgumentException("A rollback needs at least one filter (stock, time window, users or ids)");
+        }
+        if (reason == null || reason.isBlank()) {
+            throw new IllegalArgumentException("A rollback needs a reason");
+        }
+        BulkRollbackReport report = new BulkRollbackReport(nextJobId.incrementAndGet(), filter.toString(), dryRun);
+        jobs.put(report.getJobId(), report);
+        return report;
+    }
+
+    // ================== EXECUTION ==================
+
+    private void run(BulkRollbackReport report, RollbackFilter filter, String reason, boolean dryRun, int chunkSize,
+            int beforeId) {
+        long startedAt = System.currentTimeMillis();
+        int limit = Math.max(1, Math.min(chunkSize, MAX_CHUNK_SIZE));
+        String storedReason = reason.length() > MAX_REASON_LENGTH ? reason.substring(0, MAX_REASON_LENGTH) : reason;
+        Set<Integer> users = new HashSet<>();
+
+        try {
+            // Transactions live on their user's shard; each shard is rolled back on its own
+            for (int shard = 0; shard < DatabaseConnection.shardCount() && report.getError() == null; shard++) {
+                runShard(shard, report, filter, storedReason, dryRun, limit, beforeId, users);
+            }
+        } finally {
+            report.setElapsedMillis(System.currentTimeMillis() - startedAt);
+            report.setDone(true);
+        }
+    }
+
+    private void runShard(int shard, BulkRollbackReport report, RollbackFilter filter, String reason, boolean dryRun,
+            int limit, int beforeId, Set<Integer> users) {
+        Connection conn = DatabaseConnection.getShardConnection(shard);
+        if (conn == null) {
+            report.setError("Database connection unavailable");
+            return;
+        }
+
+        try {
+            conn.setAutoCommit(false);
+            int lastId = beforeId;
+            while (true) {
+                List<Transaction> page = transactionDAO.findRollbackCandidates(conn, filter, lastId, limit);
+                if (page.isEmpty()) {
+                    conn.rollback();
+                    break;
+                }
+                ChunkResult result = reverseChunk(conn, page, reason);
+                lastId = page.get(page.size() - 1).getId();
+                if (dryRun) {
+                    conn.rollback();
+                } else {
+                    conn.commit();
+                    publish(result);
+                }
+
+                users.addAll(result.balances.keySet());
+                report.setUsersAffected(users.size());
+                report.addChunk(result.transactions.size(), result.compensation, result.skipped, lastId);
+                if (page.size() < limit) {
+                    break;
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackError) {
+                // Connection is closed right after
+            }
+            System.err.println("ERROR: Bulk rollback #" + report.getJobId() + " aborted: " + e.getMessage());
+            e.printStackTrace();
+            report.setError(e.getMessage());
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                // Connection is closed right after
+            }
+            DatabaseConnection.closeConnection(conn);
+        }
+    }
+
+    /**
+     * Reverses one page of transactions without committing. Rows are locked
+     * users first, in ascending id order, then transactions, then
+     * portfolios: fills lock a user before their portfolio too, so the two
+     * cannot deadlock. Transactions no longer COMPLETED once locked are
+     * left out.
+     */
+    private ChunkResult reverseChunk(Connection conn, List<Transaction> page, String reason) throws SQLException {
+        Set<Integer> pageUsers = new TreeSet<>();
+        List<Integer> pageIds = new ArrayList<>(page.size());
+        for (Transaction t : page) {
+            pageUsers.add(t.getUserId());
+            pageIds.add(t.getId());
+        }
+        Map<Integer, BigDecimal> balances = userDAO.lockBalances(conn, pageUsers);
+        List<Transaction> chunk = transactionDAO.lockCompletedTransactions(conn, pageIds);
+        // Locked in ascending id order, reversed newest first
+        Collections.reverse(chunk);
+
+        Map<Long, Portfolio> existing = new HashMap<>();
+        for (Portfolio p : portfolioDAO.lockPortfoliosForUsers(conn, pageUsers)) {
+            existing.put(positionKey(p.getUserID(), p.getStockID()), p);
+        }
+
+        // Applied newest first against running balances and positions, so each
+        // reversal sees what undoing the later trades left
+        Map<Long, Portfolio> positions = new LinkedHashMap<>();
+        Map<Integer, BigDecimal> deltas = new LinkedHashMap<>();
+        List<Transaction> reversed = new ArrayList<>(chunk.size());
+        List<Integer> ids = new ArrayList<>(chunk.size());
+        List<TradeCancellation> cancellations = new ArrayList<>(chunk.size());
+        List<String> skipped = new ArrayList<>();
+        BigDecimal compensation = BigDecimal.ZERO;
+
+        for (Transaction t : chunk) {
+            long key = positionKey(t.getUserId(), t.getStockId());
+            Portfolio position = positions.get(key);
+            if (position == null) {
+                Portfolio p = existing.get(key);
+                position = new Portfolio(t.getUserId(), t.getStockId(), p != null ? p.getQuantity() : 0,
+                        p != null ? p.getId() : 0, p != null ? p.getAvgPrice() : 0.0);
+            }
+            BigDecimal balance = balances.get(t.getUserId());
+            if (balance == null) {
+                skipped.add("#" + t.getId() + ": user not found");
+                continue;
+            }
+            BigDecimal value = t.getPrice().multiply(BigDecimal.valueOf(t.getQuantity()));
+            boolean buy = "BUY".equalsIgnoreCase(t.getType());
+
+            if (buy) {
+                // The refund pays for the shares; without them it would pay twice
+                if (position.getQuantity() < t.getQuantity()) {
+                    skipped.add("#" + t.getId() + ": only " + position.getQuantity() + " of " + t.getQuantity()
+                            + " shares still held");
+                    continue;
+                }
+                position.setQuantity(position.getQuantity() - t.getQuantity());
+            } else {
+                if (balance.compareTo(value) < 0) {
+                    skipped.add("#" + t.getId() + ": balance " + balance + " cannot cover the chargeback of " + value);
+                    continue;
+                }
+                // Returned shares come back at the price they were sold for
+                int quantity = position.getQuantity() + t.getQuantity();
+                position.setAvgPrice((position.getAvgPrice() * position.getQuantity()
+                        + t.getPrice().doubleValue() * t.getQuantity()) / quantity);
+                position.setQuantity(quantity);
+            }
+            BigDecimal delta = buy ? value : value.negate();
+            balances.put(t.getUserId(), balance.add(delta));
+            deltas.merge(t.getUserId(), delta, BigDecimal::add);
+            compensation = compensation.add(delta);
+            positions.put(key, position);
+            reversed.add(t);
+            ids.add(t.getId());
+            cancellations.add(new TradeCancellation(t.getId(), t.getUserId(), reason));
+        }
+
+        List<Portfolio> inserts = new ArrayList<>();
+        List<Portfolio> updates = new ArrayList<>();
+        List<Integer> deletes = new ArrayList<>();
+        for (Map.Entry<Long, Portfolio> entry : positions.entrySet()) {
+            Portfolio position = entry.getValue();
+            Portfolio p = existing.get(entry.getKey());
+            if (p == null) {
+                if (position.getQuantity() > 0) {
+                    inserts.add(position);
+                }
+            } else if (position.getQuantity() == 0) {
+                deletes.add(p.getId());
+            } else {
+                updates.add(position);
+            }
+        }
+
+        int cancelled = transactionDAO.cancelTransactions(conn, ids);
+        if (cancelled != ids.size()) {
+            throw new SQLException("Expected to cancel " + ids.size() + " transactions but cancelled " + cancelled);
+        }
+        if (!deltas.isEmpty()) {
+            userDAO.adjustBalancesBatch(conn, deltas);
+        }
+        if (!inserts.isEmpty()) {
+            portfolioDAO.insertPortfolioBatch(conn, inserts);
+        }
+        if (!updates.isEmpty()) {
+            portfolioDAO.updatePortfolioBatch(conn, updates);
+        }
+        if (!deletes.isEmpty()) {
+            portfolioDAO.deletePortfolioBatch(conn, deletes);
+        }
+        if (!cancellations.isEmpty()) {
+            cancellationDAO.insertExecutedCancellationsBatch(conn, cancellations);
+        }
+
+        balances.keySet().retainAll(deltas.keySet());
+        return new ChunkResult(reversed, balances, positions, compensation, skipped);
+    }
+
+    /**
+     * Brings caches and the trade journal in line with a committed chunk.
+     */
+    private void publish(ChunkResult result) {
+        for (Map.Entry<Integer, BigDecimal> balance : result.balances.entrySet()) {
+            cache.putBalance(balance.getKey(), balance.getValue());
+            cache.invalidatePositions(balance.getKey());
+            cache.invalidateAggregates(balance.getKey());
+            DatabaseConnection.recordWrite(balance.getKey());
+        }
+        for (Transaction t : result.transactions) {
+            Portfolio position = result.positions.get(positionKey(t.getUserId(), t.getStockId()));
+            journal.recordRollback(t.getUserId(), t.getStockId(), t.getId(), t.getQuantity(), t.getPrice(),
+                    result.balances.get(t.getUserId()), position.getQuantity(), position.getAvgPrice());
+        }
+    }
+
+    private static long positionKey(int userId, int stockId) {
+        return ((long) userId << 32) | (stockId & 0xffffffffL);
+    }
+}
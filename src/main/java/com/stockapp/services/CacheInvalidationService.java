@@ -0,0 +1,31 @@
+package com.stockapp.services;
+
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import stockapp.src.cache.InvalidationBus;
+
+/**
+ * Runs the cache invalidation bus for the lifetime of the application, so
+ * this node hears about other nodes' writes even before it writes anything
+ * itself. Does nothing unless stockapp.cache.bus is set.
+ */
+@Service
+public class CacheInvalidationService {
+
+    private final InvalidationBus bus = InvalidationBus.getInstance();
+
+    @PostConstruct
+    public void init() {
+        if (bus.isEnabled()) {
+            bus.start();
+            System.out.println("Cache invalidation bus started as node " + bus.getNodeId());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        bus.stop();
+    }
+}
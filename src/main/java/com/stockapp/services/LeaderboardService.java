@@ -0,0 +1,154 @@
+package com.stockapp.services;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Service;
+
+import com.stockapp.dto.Leaderboard;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import stockapp.src.cache.EquityLeaderboard;
+import stockapp.src.cache.TradingStateCache;
+import stockapp.src.dao.PortfolioDAO;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.dao.UserDAO;
+import stockapp.src.models.Portfolio;
+import stockapp.src.models.Stock;
+import stockapp.src.models.User;
+import stockapp.src.models.UserRole;
+
+/**
+ * Keeps EquityLeaderboard current and answers leaderboard reads.
+ *
+ * The ranking is built from all users and positions at startup. After that
+ * only the users marked dirty are reloaded (one user row, positions from
+ * TradingStateCache) and pending prices are applied, on a background thread
+ * every stockapp.leaderboard.refresh-ms (default 1000). Reads only take the
+ * ranking's read lock, so they cost the same however busy trading is, and
+ * are at most one refresh behind. Admins are not ranked.
+ */
+@Service
+public class LeaderboardService {
+
+    public static final int MAX_LIMIT = 100;
+
+    private final EquityLeaderboard board = EquityLeaderboard.getInstance();
+
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private final UserDAO userDAO = new UserDAO();
+
+    private final PortfolioDAO portfolioDAO = new PortfolioDAO();
+
+    private final StockDAO stockDAO = new StockDAO();
+
+    private final long refreshMillis = Math.max(50, Long.getLong("stockapp.leaderboard.refresh-ms", 1000));
+
+    private ScheduledExecutorService refresher;
+
+    @PostConstruct
+    public void init() {
+        refresh();
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "leaderboard-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (RuntimeException e) {
+                System.err.println("ERROR: Leaderboard refresh failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * The limit richest traders and the given user's own standing, as of the
+     * last refresh.
+     */
+    public Leaderboard getLeaderboard(User user, int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        int traders = board.size();
+        List<Leaderboard.Entry> top = new ArrayList<>(limit);
+        for (EquityLeaderboard.Standing standing : board.top(limit)) {
+            top.add(entry(standing, traders));
+        }
+        EquityLeaderboard.Standing own = board.standingOf(user.getId());
+        return new Leaderboard(traders, top, own != null ? entry(own, traders) : null);
+    }
+
+    /**
+     * Brings the ranking up to date with the writes and prices noted since
+     * the last call. Runs on the refresh thread (and once at startup), never
+     * on a read.
+     */
+    public synchronized void refresh() {
+        if (board.takeRebuildRequest()) {
+            rebuild();
+        }
+        if (!cache.isQuotesLoaded()) {
+            // Quotes dropped by the invalidation bus come back with their new prices
+            stockDAO.loadAllStocksFromDatabase();
+        }
+        for (Integer userId : board.takeDirtyUsers()) {
+            User user = userDAO.getUserById(userId);
+            if (user == null || user.getRole() == UserRole.ADMIN) {
+                board.removeAccount(userId);
+            } else {
+                board.putAccount(userId, user.getUsername(), user.getBalance().doubleValue(),
+                        portfolioDAO.getPortfolioByUser(userId));
+            }
+        }
+        board.applyPrices();
+    }
+
+    private void rebuild() {
+        long startedAt = System.currentTimeMillis();
+        Map<Integer, Double> prices = new HashMap<>();
+        for (Stock stock : stockDAO.loadAllStocksFromDatabase()) {
+            prices.put(stock.getId(), stock.getPrice().doubleValue());
+        }
+        Map<Integer, String> usernames = new HashMap<>();
+        Map<Integer, Double> balances = new HashMap<>();
+        for (User user : userDAO.getAllUsers()) {
+            if (user.getRole() != UserRole.ADMIN) {
+                usernames.put(user.getId(), user.getUsername());
+                balances.put(user.getId(), user.getBalance().doubleValue());
+            }
+        }
+        Map<Integer, List<Portfolio>> positions = new HashMap<>();
+        for (Portfolio p : portfolioDAO.getAllPortfolios()) {
+            positions.computeIfAbsent(p.getUserID(), id -> new ArrayList<>()).add(p);
+        }
+        board.rebuild(usernames, balances, positions, prices);
+        System.out.println("Leaderboard ranked " + usernames.size() + " traders in "
+                + (System.currentTimeMillis() - startedAt) + " ms");
+    }
+
+    private static Leaderboard.Entry entry(EquityLeaderboard.Standing standing, int traders) {
+        double percentile = traders > 0 ? 100.0 * (traders - standing.getRank() + 1) / traders : 0.0;
+        return new Leaderboard.Entry(standing.getRank(), standing.getUserId(), standing.getUsername(),
+                BigDecimal.valueOf(standing.getEquity()).setScale(2, RoundingMode.HALF_UP),
+                Math.round(percentile * 100) / 100.0);
+    }
+}
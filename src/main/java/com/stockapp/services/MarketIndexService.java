@@ -0,0 +1,293 @@
+package com.stockapp.services;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import stockapp.src.cache.CompositeIndices;
+import stockapp.src.cache.InvalidationBus;
+import stockapp.src.dao.MarketIndexDAO;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.models.MarketIndex;
+import stockapp.src.models.Stock;
+
+/**
+ * Creates, rebalances and deletes composite market indices and keeps
+ * CompositeIndices in step with the stored definitions.
+ *
+ * A new index gets the divisor that values it at its base value. When the
+ * constituents change, the divisor is recomputed as the new market value
+ * over the current index value, so the index carries on from where it
+ * stood. The seeded indices have no divisor until a node first values
+ * them; the first node to store one wins and the others use it.
+ *
+ * Definitions changed on another node arrive through InvalidationBus and
+ * are reloaded every second.
+ */
+@Service
+public class MarketIndexService {
+
+    public static final int MAX_TICKS = 1000;
+    public static final int MAX_CANDLES = 1440;
+
+    private static final long MAX_UNITS = 1_000_000_000_000L;
+
+    private static final Map<String, Integer> INTERVALS = Map.of(
+            "1m", 1, "5m", 5, "15m", 15, "30m", 30, "1h", 60, "4h", 240, "1d", 1440);
+
+    private final CompositeIndices indices = CompositeIndices.getInstance();
+
+    private final MarketIndexDAO indexDAO = new MarketIndexDAO();
+
+    private final StockDAO stockDAO = new StockDAO();
+
+    @PostConstruct
+    public void init() {
+        for (MarketIndex index : indexDAO.getAllIndices()) {
+            install(index);
+        }
+    }
+
+    // ================== READS ==================
+
+    public List<CompositeIndices.Quote> getQuotes() {
+        return indices.getQuotes();
+    }
+
+    /**
+     * @return null if there is no such index
+     */
+    public CompositeIndices.Quote getQuote(String symbol) {
+        return indices.getQuote(normalize(symbol));
+    }
+
+    /**
+     * @return null if there is no such index
+     */
+    public List<CompositeIndices.Tick> getTicks(String symbol, int limit) {
+        return indices.getTicks(normalize(symbol), Math.max(1, Math.min(limit, MAX_TICKS)));
+    }
+
+    /**
+     * @param interval 1m, 5m, 15m, 30m, 1h, 4h or 1d
+     * @return null if there is no such index
+     */
+    public List<CompositeIndices.Candle> getCandles(String symbol, String interval, int limit) {
+        Integer minutes = interval != null ? INTERVALS.get(interval.trim().toLowerCase(Locale.ROOT)) : null;
+        if (minutes == null) {
+            throw new IllegalArgumentException("interval must be one of 1m, 5m, 15m, 30m, 1h, 4h, 1d");
+        }
+        return indices.getCandles(normalize(symbol), minutes, Math.max(1, Math.min(limit, MAX_CANDLES)));
+    }
+
+    // ================== ADMINISTRATION ==================
+
+    /**
+     * Creates an index valued at baseValue. A price-weighted index holds
+     * one unit of every stock in units and ignores the counts; a
+     * cap-weighted one needs each stock's shares outstanding.
+     *
+     * @throws IllegalArgumentException if the definition is rejected
+     * @throws IllegalStateException if it could not be stored
+     */
+    public CompositeIndices.Quote createIndex(String symbol, String name, String weighting, BigDecimal baseValue,
+            Map<Integer, Long> units) {
+        String parsedSymbol = normalize(symbol);
+        if (parsedSymbol == null || parsedSymbol.isEmpty() || parsedSymbol.length() > 10) {
+            throw new IllegalArgumentException("symbol must be 1 to 10 characters");
+        }
+        if (name == null || name.isBlank() || name.trim().length() > 100) {
+            throw new IllegalArgumentException("name must be 1 to 100 characters");
+        }
+        MarketIndex.Weighting parsedWeighting;
+        try {
+            parsedWeighting = MarketIndex.Weighting.valueOf(weighting.trim().toUpperCase(Locale.ROOT));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("weighting must be PRICE or CAP");
+        }
+        BigDecimal base = baseValue != null ? baseValue.setScale(2, RoundingMode.HALF_UP) : new BigDecimal("1000.00");
+        if (base.signum() <= 0) {
+            throw new IllegalArgumentException("baseValue must be positive");
+        }
+        if (indices.getQuote(parsedSymbol) != null) {
+            throw new IllegalArgumentException("Index " + parsedSymbol + " already exists");
+        }
+
+        MarketIndex index = new MarketIndex(parsedSymbol, name.trim(), parsedWeighting, base);
+        index.setUnits(validUnits(parsedWeighting, units));
+        double marketValue = marketValue(index.getUnits(), prices(index.getUnits()));
+        if (marketValue <= 0) {
+            throw new IllegalArgumentException("The constituents have no market value");
+        }
+        index.setDivisor(marketValue / base.doubleValue());
+
+        if (!indexDAO.createIndex(index)) {
+            throw new IllegalStateException("Could not store index");
+        }
+        install(index);
+        InvalidationBus.getInstance().publishIndex(index.getId());
+        return indices.getQuote(index.getId());
+    }
+
+    /**
+     * Replaces the constituents of an index without moving its value.
+     *
+     * @return null if there is no such index
+     * @throws IllegalArgumentException if the constituents are rejected
+     * @throws IllegalStateException if they could not be stored
+     */
+    public CompositeIndices.Quote setConstituents(int indexId, Map<Integer, Long> units) {
+        MarketIndex index = indexDAO.getIndexById(indexId);
+        if (index == null) {
+            return null;
+        }
+        Map<Integer, Long> parsed = validUnits(index.getWeighting(), units);
+        double marketValue = marketValue(parsed, prices(parsed));
+        if (marketValue <= 0) {
+            throw new IllegalArgumentException("The constituents have no market value");
+        }
+        Double current = indices.getValue(indexId);
+        double value = current != null && current > 0 ? current : index.getBaseValue().doubleValue();
+        double divisor = marketValue / value;
+
+        if (!indexDAO.replaceConstituents(indexId, parsed, divisor)) {
+            throw new IllegalStateException("Could not store constituents");
+        }
+        index.setUnits(parsed);
+        index.setDivisor(divisor);
+        install(index);
+        InvalidationBus.getInstance().publishIndex(indexId);
+        return indices.getQuote(indexId);
+    }
+
+    /**
+     * @return false if there is no such index
+     */
+    public boolean deleteIndex(int indexId) {
+        if (!indexDAO.deleteIndex(indexId)) {
+            return false;
+        }
+        indices.remove(indexId);
+        InvalidationBus.getInstance().publishIndex(indexId);
+        return true;
+    }
+
+    /**
+     * Reloads the indices other nodes changed.
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void reloadStale() {
+        List<Integer> stale = indices.takeStale();
+        if (stale.isEmpty()) {
+            return;
+        }
+        if (stale.contains(0)) {
+            Set<Integer> known = new HashSet<>();
+            for (CompositeIndices.Quote quote : indices.getQuotes()) {
+                known.add(quote.getId());
+            }
+            for (MarketIndex index : indexDAO.getAllIndices()) {
+                known.remove(index.getId());
+                install(index);
+            }
+            for (Integer gone : known) {
+                indices.remove(gone);
+            }
+            return;
+        }
+        for (Integer indexId : stale) {
+            MarketIndex index = indexDAO.getIndexById(indexId);
+            if (index == null) {
+                indices.remove(indexId);
+            } else {
+                install(index);
+            }
+        }
+    }
+
+    // ================== UTILITY METHODS ==================
+
+    private void install(MarketIndex index) {
+        Map<Integer, BigDecimal> prices = prices(index.getUnits());
+        Double divisor = index.getDivisor();
+        if (divisor == null) {
+            double marketValue = marketValue(index.getUnits(), prices);
+            if (marketValue <= 0) {
+                System.err.println("ERROR: Market index " + index.getSymbol() + " has no market value");
+                return;
+            }
+            divisor = marketValue / index.getBaseValue().doubleValue();
+            if (!indexDAO.initializeDivisor(index.getId(), divisor)) {
+                // Another node valued it first
+                MarketIndex stored = indexDAO.getIndexById(index.getId());
+                if (stored == null || stored.getDivisor() == null) {
+                    return;
+                }
+                index = stored;
+                divisor = stored.getDivisor();
+            }
+        }
+        indices.install(index, divisor, prices);
+        // Prices may have moved while the index was being installed
+        for (Integer stockId : index.getUnits().keySet()) {
+            Stock stock = stockDAO.getStockById(stockId);
+            if (stock != null) {
+                indices.onPrice(stockId, stock.getPrice());
+            }
+        }
+    }
+
+    private Map<Integer, Long> validUnits(MarketIndex.Weighting weighting, Map<Integer, Long> units) {
+        if (units == null || units.isEmpty()) {
+            throw new IllegalArgumentException("An index needs at least one constituent");
+        }
+        Map<Integer, Long> valid = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Long> e : units.entrySet()) {
+            if (stockDAO.getStockById(e.getKey()) == null) {
+                throw new IllegalArgumentException("Stock " + e.getKey() + " not found");
+            }
+            long count = weighting == MarketIndex.Weighting.PRICE ? 1 : e.getValue() != null ? e.getValue() : 0;
+            if (count <= 0 || count > MAX_UNITS) {
+                throw new IllegalArgumentException("Units of stock " + e.getKey() + " must be between 1 and " + MAX_UNITS);
+            }
+            valid.put(e.getKey(), count);
+        }
+        return valid;
+    }
+
+    private Map<Integer, BigDecimal> prices(Map<Integer, Long> units) {
+        Map<Integer, BigDecimal> prices = new HashMap<>();
+        for (Integer stockId : units.keySet()) {
+            Stock stock = stockDAO.getStockById(stockId);
+            if (stock != null) {
+                prices.put(stockId, stock.getPrice());
+            }
+        }
+        return prices;
+    }
+
+    private static double marketValue(Map<Integer, Long> units, Map<Integer, BigDecimal> prices) {
+        double value = 0;
+        for (Map.Entry<Integer, Long> e : units.entrySet()) {
+            BigDecimal price = prices.get(e.getKey());
+            if (price != null) {
+                value += e.getValue() * price.setScale(2, RoundingMode.HALF_UP).doubleValue();
+            }
+        }
+        return value;
+    }
+
+    private static String normalize(String symbol) {
+        return symbol != null ? symbol.trim().toUpperCase(Locale.ROOT) : null;
+    }
+}
@@ -0,0 +1,161 @@
+package com.stockapp.services;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import stockapp.src.cache.InvalidationBus;
+import stockapp.src.cache.MarketMovers;
+import stockapp.src.cache.TradingStateCache;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.dao.TransactionDAO;
+import stockapp.src.models.Stock;
+
+/**
+ * Top gainers, top losers and most active stocks, read off the rankings in
+ * MarketMovers. A request only touches the k stocks it returns.
+ *
+ * At startup the universe is loaded (which ranks every stock) and today's
+ * volume is read from the transactions, so a restarted node does not start
+ * the day over. When several nodes share the database (stockapp.cache.bus)
+ * each records only its own fills, so the day's volumes are read again
+ * every stockapp.movers.volume-refresh-ms (default 10000) and replace what
+ * this node counted.
+ */
+@Service
+public class MarketMoversService {
+
+    public static final int MAX_LIMIT = 50;
+
+    private static final long DAY_MILLIS = 1000L * 60 * 60 * 24;
+
+    private final MarketMovers movers = MarketMovers.getInstance();
+
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private final StockDAO stockDAO = new StockDAO();
+
+    private final TransactionDAO transactionDAO = new TransactionDAO();
+
+    /**
+     * One ranked stock.
+     */
+    public static class Mover {
+        private final int stockId;
+        private final String symbol;
+        private final String name;
+        private final BigDecimal price;
+        private final double changePercent;
+        private final long volume;
+
+        Mover(Stock stock, MarketMovers.Entry entry) {
+            this.stockId = stock.getId();
+            this.symbol = stock.getSymbol();
+            this.name = stock.getName();
+            this.price = stock.getPrice();
+            this.changePercent = entry.getChangePercent();
+            this.volume = entry.getVolume();
+        }
+
+        public int getStockId() { return stockId; }
+        public String getSymbol() { return symbol; }
+        public String getName() { return name; }
+        public BigDecimal getPrice() { return price; }
+        public double getChangePercent() { return changePercent; }
+        public long getVolume() { return volume; }
+    }
+
+    public static class Movers {
+        private final List<Mover> gainers;
+        private final List<Mover> losers;
+        private final List<Mover> mostActive;
+
+        Movers(List<Mover> gainers, List<Mover> losers, List<Mover> mostActive) {
+            this.gainers = gainers;
+            this.losers = losers;
+            this.mostActive = mostActive;
+        }
+
+        public List<Mover> getGainers() { return gainers; }
+        public List<Mover> getLosers() { return losers; }
+        public List<Mover> getMostActive() { return mostActive; }
+    }
+
+    @PostConstruct
+    public void init() {
+        ensureRanked();
+        long startOfDay = StockDAO.simulationDay() * DAY_MILLIS;
+        Map<Integer, Long> volumes = transactionDAO.getCompletedVolumesSince(new Timestamp(startOfDay));
+        if (volumes == null) {
+            System.err.println("ERROR: Market movers start without today's volume");
+            return;
+        }
+        movers.addVolumes(volumes);
+        System.out.println("Market movers ranking " + movers.size() + " stocks, " + volumes.size()
+                + " traded today");
+    }
+
+    /**
+     * Replaces the volumes with every node's fills of the day. A single node
+     * records all fills itself and skips this.
+     */
+    @Scheduled(fixedDelayString = "${stockapp.movers.volume-refresh-ms:10000}",
+            initialDelayString = "${stockapp.movers.volume-refresh-ms:10000}")
+    public void refreshVolumes() {
+        if (!InvalidationBus.getInstance().isEnabled()) {
+            return;
+        }
+        long day = StockDAO.simulationDay();
+        Map<Integer, Long> volumes = transactionDAO.getCompletedVolumesSince(new Timestamp(day * DAY_MILLIS));
+        if (volumes != null) {
+            movers.replaceVolumes(day, volumes);
+        }
+    }
+
+    /**
+     * The limit best stocks of each ranking.
+     */
+    public Movers getMovers(int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        ensureRanked();
+        return new Movers(resolve(movers.topGainers(limit)), resolve(movers.topLosers(limit)),
+                resolve(movers.mostActive(limit)));
+    }
+
+    /**
+     * The limit most active stocks.
+     */
+    public List<Mover> getMostActive(int limit) {
+        ensureRanked();
+        return resolve(movers.mostActive(limit));
+    }
+
+    /**
+     * Loads the universe if the cache dropped it, since only cached quotes
+     * are ranked.
+     */
+    private void ensureRanked() {
+        if (!cache.isQuotesLoaded()) {
+            stockDAO.loadAllStocksFromDatabase();
+        }
+    }
+
+    private List<Mover> resolve(List<MarketMovers.Entry> entries) {
+        List<Mover> result = new ArrayList<>(entries.size());
+        for (MarketMovers.Entry entry : entries) {
+            Stock stock = cache.getStock(entry.getStockId());
+            if (stock != null) {
+                result.add(new Mover(stock, entry));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,301 @@
+package com.stockapp.services;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import stockapp.src.ReplicaRouter;
+import stockapp.src.cache.TradingStateCache;
+import stockapp.src.cluster.ClusterMembership;
+import stockapp.src.cluster.OrderRpc;
+import stockapp.src.cluster.OrderRpcClient;
+import stockapp.src.cluster.OrderRpcServer;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.dao.TransactionDAO;
+import stockapp.src.dao.UserDAO;
+import stockapp.src.models.BasketLeg;
+import stockapp.src.models.Stock;
+import stockapp.src.models.Transaction;
+import stockapp.src.models.TransactionStatus;
+import stockapp.src.models.User;
+
+/**
+ * Sends each order to the node that owns its symbol.
+ *
+ * With clustering off (see ClusterMembership) every order goes straight to
+ * the local OrderService. With it on, an order for a symbol owned by another
+ * node is forwarded over the order RPC and the owner's answer is returned as
+ * if the order had been filled here: rejections still surface as
+ * IllegalArgumentException and an overloaded or unreachable owner as
+ * IllegalStateException. Symbols are spread over the nodes by consistent
+ * hashing, so adding nodes adds order workers and each symbol's price walk
+ * stays on one node.
+ *
+ * Order status is asked of the node that queued the order, which keeps it
+ * in memory and can wait for it. A basket must be filled in one database
+ * transaction, so it is not split up: with clustering on, it runs here only
+ * if this node owns every symbol in it, and is rejected otherwise.
+ */
+@Service
+public class OrderRouter {
+
+    private final ClusterMembership membership = ClusterMembership.getInstance();
+
+    private final StockDAO stockDAO = new StockDAO();
+
+    private final UserDAO userDAO = new UserDAO();
+
+    private final TransactionDAO transactionDAO = new TransactionDAO();
+
+    private final OrderRpcClient client = new OrderRpcClient();
+
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private OrderRpcServer server;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private BasketOrderService basketOrderService;
+
+    public OrderRouter() {
+    }
+
+    /**
+     * For running a node outside Spring (see ClusterThroughputCheck).
+     */
+    public OrderRouter(OrderService orderService) {
+        this.orderService = orderService;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!membership.isEnabled()) {
+            return;
+        }
+        server = new OrderRpcServer(membership.getHost(), membership.getPort(), this::handle);
+        server.start();
+        membership.start();
+        System.out.println("Cluster node " + membership.getNodeId() + " taking orders on " + membership.getAddress()
+                + ", " + membership.getRing().getNodes().size() + " nodes live");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (server == null) {
+            return;
+        }
+        membership.stop();
+        server.stop();
+        client.close();
+    }
+
+    // ================== ORDERS ==================
+
+    /**
+     * Fills an order on its symbol's owner and waits for it.
+     *
+     * @return the transaction id
+     * @see OrderService#execute(int, String, int, int)
+     */
+    public int execute(User user, String type, int stockId, int quantity) throws Exception {
+        String owner = remoteOwner(stockId);
+        if (owner == null) {
+            return orderService.execute(user.getId(), type, stockId, quantity);
+        }
+        OrderRpc.Reply reply = forward(owner, new OrderRpc.Request(OrderRpc.EXECUTE, true, user.getId(), type,
+                stockId, quantity, 0, 0));
+        changedRemotely(user.getId());
+        return reply.id();
+    }
+
+    /**
+     * Queues an order on its symbol's owner.
+     *
+     * @see OrderService#submit(User, String, int, int)
+     */
+    public OrderService.Order submit(User user, String type, int stockId, int quantity) {
+        String owner = remoteOwner(stockId);
+        if (owner == null) {
+            return orderService.submit(user, type, stockId, quantity);
+        }
+        OrderRpc.Reply reply = forward(owner, new OrderRpc.Request(OrderRpc.SUBMIT, true, user.getId(), type,
+                stockId, quantity, 0, 0));
+        changedRemotely(user.getId());
+        return OrderService.Order.of(reply.id(), user.getId(), type, stockId, quantity,
+                TransactionStatus.valueOf(reply.status()), reply.price(), reply.message());
+    }
+
+    /**
+     * Queues a claimed resting order on its symbol's owner.
+     *
+     * @see OrderService#trigger(Transaction)
+     */
+    public void trigger(Transaction resting) {
+        String owner = remoteOwner(resting.getStockId());
+        if (owner == null) {
+            orderService.trigger(resting);
+            return;
+        }
+        forward(owner, new OrderRpc.Request(OrderRpc.TRIGGER, true, resting.getUserId(), resting.getType(),
+                resting.getStockId(), resting.getQuantity(), resting.getId(), 0));
+    }
+
+    /**
+     * Fills a basket here, on the user's worker, if this node owns the
+     * symbol of every leg.
+     *
+     * @throws IllegalArgumentException if a leg's symbol is owned by another node
+     * @see BasketOrderService#execute(int, List)
+     */
+    public BasketOrderService.BasketResult executeBasket(User user, List<BasketLeg> legs) throws Exception {
+        if (legs != null) {
+            for (BasketLeg leg : legs) {
+                if (remoteOwner(leg.getStockId()) != null) {
+                    throw new IllegalArgumentException("Stock " + leg.getStockId()
+                            + " trades on another node; a basket can only hold stocks traded on one node."
+                            + " Place it as separate orders");
+                }
+            }
+        }
+        return orderService.callOnUserWorker(user.getId(), () -> basketOrderService.execute(user.getId(), legs));
+    }
+
+    /**
+     * Status of an order, asked of the node holding it.
+     *
+     * @see OrderService#getOrder(int, int, long)
+     */
+    public OrderService.Order getOrder(int orderId, int userId, long waitMillis) throws InterruptedException {
+        if (!membership.isEnabled() || orderService.isTracked(orderId)) {
+            return orderService.getOrder(orderId, userId, waitMillis);
+        }
+        Transaction transaction = transactionDAO.getTransactionById(orderId);
+        if (transaction == null || transaction.getUserId() != userId) {
+            return null;
+        }
+        String owner = remoteOwner(transaction.getStockId());
+        if (owner == null || transaction.getStatus() != TransactionStatus.PENDING) {
+            return orderService.getOrder(orderId, userId, waitMillis);
+        }
+        OrderRpc.Reply reply = forward(owner, new OrderRpc.Request(OrderRpc.STATUS, true, userId, null,
+                transaction.getStockId(), 0, orderId, waitMillis));
+        if (reply == null) {
+            return null;
+        }
+        return OrderService.Order.of(orderId, userId, transaction.getType(), transaction.getStockId(),
+                transaction.getQuantity(), TransactionStatus.valueOf(reply.status()), reply.price(), reply.message());
+    }
+
+    /**
+     * The owner of a stock's symbol if that is another node, or null to
+     * handle the order here (also when the stock does not exist, so the
+     * local checks reject it).
+     */
+    private String remoteOwner(int stockId) {
+        if (!membership.isEnabled()) {
+            return null;
+        }
+        Stock stock = stockDAO.getStockById(stockId);
+        if (stock == null) {
+            return null;
+        }
+        String owner = membership.ownerOf(stock.getSymbol());
+        return owner.equals(membership.getNodeId()) ? null : owner;
+    }
+
+    /**
+     * Drops what this node caches for a user whose rows the owner just
+     * wrote, and sends the user's next reads to the primary, so the caller
+     * sees its own order without waiting for the invalidation bus.
+     */
+    private void changedRemotely(int userId) {
+        cache.invalidateUser(userId);
+        ReplicaRouter.getInstance().recordWrite(userId);
+    }
+
+    private OrderRpc.Reply forward(String owner, OrderRpc.Request request) {
+        String address = membership.addressOf(owner);
+        if (address == null) {
+            throw new IllegalStateException("Order routing failed, try again");
+        }
+        try {
+            return client.call(address, request).unwrap();
+        } catch (IOException e) {
+            // The owner may have acted on it before the connection broke
+            System.err.println("ERROR: Could not forward order to " + owner + " at " + address + ": " + e.getMessage());
+            throw new IllegalStateException("Order forwarding failed; check your transactions before retrying");
+        }
+    }
+
+    // ================== RPC SERVER ==================
+
+    /**
+     * Serves a request from another node, or from a front end that leaves
+     * routing to the cluster (forwarded = false).
+     */
+    private OrderRpc.Reply handle(OrderRpc.Request request) {
+        try {
+            return switch (request.op()) {
+                case OrderRpc.EXECUTE -> {
+                    int transactionId = request.forwarded()
+                            ? orderService.execute(request.userId(), request.type(), request.stockId(), request.quantity())
+                            : execute(loadUser(request.userId()), request.type(), request.stockId(), request.quantity());
+                    yield OrderRpc.Reply.ok(transactionId, null, null, null);
+                }
+                case OrderRpc.SUBMIT -> {
+                    User user = loadUser(request.userId());
+                    OrderService.Order order = request.forwarded()
+                            ? orderService.submit(user, request.type(), request.stockId(), request.quantity())
+                            : submit(user, request.type(), request.stockId(), request.quantity());
+                    yield reply(order);
+                }
+                case OrderRpc.STATUS -> {
+                    OrderService.Order order = request.forwarded()
+                            ? orderService.getOrder(request.orderId(), request.userId(), request.waitMillis())
+                            : getOrder(request.orderId(), request.userId(), request.waitMillis());
+                    yield order != null ? reply(order) : OrderRpc.Reply.error(OrderRpc.NOT_FOUND, "Order not found");
+                }
+                case OrderRpc.TRIGGER -> {
+                    Transaction resting = transactionDAO.getTransactionById(request.orderId());
+                    if (resting == null || resting.getUserId() != request.userId()
+                            || resting.getStatus() != TransactionStatus.PENDING) {
+                        yield OrderRpc.Reply.error(OrderRpc.NOT_FOUND, "Order not found");
+                    }
+                    if (request.forwarded()) {
+                        yield reply(orderService.trigger(resting));
+                    }
+                    trigger(resting);
+                    yield OrderRpc.Reply.ok(resting.getId(), TransactionStatus.PENDING.name(), null, null);
+                }
+                default -> OrderRpc.Reply.error(OrderRpc.FAILED, "Unknown operation " + request.op());
+            };
+        } catch (IllegalArgumentException e) {
+            return OrderRpc.Reply.error(OrderRpc.REJECTED, e.getMessage());
+        } catch (IllegalStateException e) {
+            return OrderRpc.Reply.error(OrderRpc.UNAVAILABLE, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return OrderRpc.Reply.error(OrderRpc.UNAVAILABLE, "Node is shutting down");
+        } catch (Exception e) {
+            return OrderRpc.Reply.error(OrderRpc.FAILED, e.getMessage());
+        }
+    }
+
+    private User loadUser(int userId) {
+        User user = userDAO.getUserById(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found");
+        }
+        return user;
+    }
+
+    private static OrderRpc.Reply reply(OrderService.Order order) {
+        return OrderRpc.Reply.ok(order.getOrderId(), order.getStatus().name(), order.getPrice(), order.getMessage());
+    }
+}
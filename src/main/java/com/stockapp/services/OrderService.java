@@ -0,0 +1,644 @@
+package com.stockapp.services;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import stockapp.src.DatabaseConnection;
+import stockapp.src.analytics.PriceHistoryRecorder;
+import stockapp.src.cache.MarketMovers;
+import stockapp.src.cache.TradingHalts;
+import stockapp.src.cache.TradingStateCache;
+import stockapp.src.cluster.ClusterMembership;
+import stockapp.src.dao.PortfolioDAO;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.dao.TransactionDAO;
+import stockapp.src.dao.UserActivityLogDAO;
+import stockapp.src.dao.UserDAO;
+import stockapp.src.journal.TradeJournal;
+import stockapp.src.models.Portfolio;
+import stockapp.src.models.Stock;
+import stockapp.src.models.Transaction;
+import stockapp.src.models.TransactionStatus;
+import stockapp.src.models.User;
+import stockapp.src.models.UserActivityLog;
+
+/**
+ * Executes buy and sell orders on a pool of partitioned worker threads.
+ *
+ * Orders are partitioned by user, and each partition has a single worker, so
+ * one user's orders run one at a time and in submission order, while
+ * different users' orders run in parallel. Synchronous /buy and /sell calls
+ * run on the same workers and wait for the result, so they cannot race an
+ * asynchronous order of the same user for the balance.
+ *
+ * An asynchronous order is checked up front, stored as a PENDING transaction
+ * and acknowledged with its id. The worker then fills it and moves it to
+ * COMPLETED, or to FAILED with a reason. Status is kept in memory for
+ * RETENTION_MILLIS after the order finishes; older orders are answered from
+ * the transactions table.
+ *
+ * The pool size is read from stockapp.orders.workers (default 4) and each
+ * partition queues at most stockapp.orders.queue-capacity orders (default 1000).
+ *
+ * A resting order (stop-loss, take-profit, trailing stop) waits as a
+ * PENDING transaction until RestingOrderService sees its trigger fire; it
+ * is then queued like an asynchronous order and filled at the market.
+ *
+ * Fills of one symbol are serialized on top of that (see fill()), so the
+ * price walk has a single writer per node. In a cluster, OrderRouter sends
+ * each order to the node owning its symbol before it gets here.
+ */
+@Service
+public class OrderService {
+
+    public static final long MAX_WAIT_MILLIS = 30_000;
+
+    public static final String QUEUE_FULL_MESSAGE = "Order queue is full, try again later";
+
+    public static final String STILL_RUNNING_MESSAGE = "Order is taking too long; check your transactions before retrying";
+
+    private static final long RETENTION_MILLIS = 10L * 60 * 1000;
+
+    private static final long ORPHAN_GRACE_MILLIS = 30_000;
+
+    private static final BigDecimal PRICE_IMPACT = new BigDecimal("0.0001");
+    private static final BigDecimal MIN_PRICE = new BigDecimal("0.01");
+
+    private final long callTimeoutMillis = Math.max(1, Long.getLong("stockapp.orders.call-timeout-ms", 30_000));
+
+    private final UserDAO userDAO = new UserDAO();
+
+    private final StockDAO stockDAO = new StockDAO();
+
+    private final PortfolioDAO portfolioDAO = new PortfolioDAO();
+
+    private final TransactionDAO transactionDAO = new TransactionDAO();
+
+    private final UserActivityLogDAO activityLogDAO = new UserActivityLogDAO();
+
+    private final TradeJournal journal = TradeJournal.getInstance();
+
+    private final PriceHistoryRecorder priceHistory = PriceHistoryRecorder.getInstance();
+
+    private final TradingHalts halts = TradingHalts.getInstance();
+
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private final MarketMovers movers = MarketMovers.getInstance();
+
+    // Fills of stocks sharing a lock run one at a time; see fill()
+    private final Object[] symbolLocks = new Object[64];
+
+    private final ConcurrentHashMap<Integer, Order> orders = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor[] partitions;
+
+    /**
+     * State of one order, as reported to the client.
+     */
+    public static class Order {
+        private final int orderId;
+        private final int userId;
+        private final String type;
+        private final int stockId;
+        private final int quantity;
+        private volatile TransactionStatus status = TransactionStatus.PENDING;
+        private volatile BigDecimal price;
+        private volatile String message;
+        private volatile long finishedAt;
+        private final CompletableFuture<Order> done = new CompletableFuture<>();
+
+        Order(int orderId, int userId, String type, int stockId, int quantity) {
+            this.orderId = orderId;
+            this.userId = userId;
+            this.type = type;
+            this.stockId = stockId;
+            this.quantity = quantity;
+        }
+
+        /**
+         * An order as reported by another node or read from the database.
+         */
+        static Order of(int orderId, int userId, String type, int stockId, int quantity, TransactionStatus status,
+                BigDecimal price, String message) {
+            Order order = new Order(orderId, userId, type, stockId, quantity);
+            order.status = status;
+            order.price = price;
+            order.message = message;
+            return order;
+        }
+
+        void finish(TransactionStatus status, BigDecimal price, String message) {
+            this.status = status;
+            this.price = price;
+            this.message = message;
+            this.finishedAt = System.currentTimeMillis();
+            done.complete(this);
+        }
+
+        public int getOrderId() { return orderId; }
+        public int getUserId() { return userId; }
+        public String getType() { return type; }
+        public int getStockId() { return stockId; }
+        public int getQuantity() { return quantity; }
+        public TransactionStatus getStatus() { return status; }
+        public BigDecimal getPrice() { return price; }
+        public String getMessage() { return message; }
+    }
+
+    @PostConstruct
+    public void init() {
+        int workers = Math.max(1, Integer.getInteger("stockapp.orders.workers", 4));
+        int capacity = Math.max(1, Integer.getInteger("stockapp.orders.queue-capacity", 1000));
+
+        for (int i = 0; i < symbolLocks.length; i++) {
+            symbolLocks[i] = new Object();
+        }
+        partitions = new ThreadPoolExecutor[workers];
+        for (int i = 0; i < workers; i++) {
+            String name = "order-worker-" + i;
+            partitions[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(capacity), runnable -> {
+                        Thread thread = new Thread(runnable, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+
+        // Orders queued by a previous run are gone with its workers. In a
+        // cluster the other PENDING rows may belong to nodes that are still
+        // running; those of nodes that are not are failed by failOrphanedOrders().
+        ClusterMembership membership = ClusterMembership.getInstance();
+        try {
+            int abandoned = membership.isEnabled()
+                    ? transactionDAO.failPendingTransactions(membership.getNodeId())
+                    : transactionDAO.failPendingTransactions();
+            if (abandoned > 0) {
+                System.out.println("Marked " + abandoned + " pending orders from the previous run as FAILED");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("ERROR: Could not fail pending orders from the previous run: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ThreadPoolExecutor partition : partitions) {
+            partition.shutdown();
+        }
+        for (ThreadPoolExecutor partition : partitions) {
+            try {
+                partition.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // ================== SYNCHRONOUS ORDERS ==================
+
+    /**
+     * Fills an order on the user's worker and waits for it.
+     *
+     * @return the transaction id
+     * @throws IllegalArgumentException if the order is rejected (suspended stock,
+     *         insufficient balance or shares)
+     * @throws IllegalStateException if the user's order queue is full or the
+     *         fill did not finish in time
+     */
+    public int execute(int userId, String type, int stockId, int quantity) throws Exception {
+        return callOnUserWorker(userId, () -> fill(userId, type, stockId, quantity, null));
+    }
+
+    /**
+     * Runs a task on the user's worker and waits for it, so it does not
+     * interleave with that user's orders. Exceptions thrown by the task are
+     * rethrown as they are. The wait is bounded by
+     * stockapp.orders.call-timeout-ms (default 30000).
+     *
+     * @throws IllegalStateException if the user's order queue is full or
+     *         the task did not finish in time
+     */
+    public <T> T callOnUserWorker(int userId, Callable<T> task) throws Exception {
+        Future<T> result;
+        try {
+            result = partition(userId).submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException(QUEUE_FULL_MESSAGE);
+        }
+        try {
+            return result.get(callTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Not started yet: it never will be. Started: it may still complete.
+            if (result.cancel(false)) {
+                throw new IllegalStateException(QUEUE_FULL_MESSAGE);
+            }
+            throw new IllegalStateException(STILL_RUNNING_MESSAGE);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // ================== ASYNCHRONOUS ORDERS ==================
+
+    /**
+     * Checks an order, stores it as PENDING and queues it on the user's worker.
+     * The checks are repeated when the order is filled, since the balance,
+     * holdings or suspension may change while it waits.
+     *
+     * @throws IllegalArgumentException if the order is rejected up front
+     * @throws IllegalStateException if the user's order queue is full
+     */
+    public Order submit(User user, String type, int stockId, int quantity) {
+        Stock stock = checkOrder(user, type, stockId, quantity);
+
+        Transaction transaction = new Transaction();
+        transaction.setUserId(user.getId());
+        transaction.setStockId(stockId);
+        transaction.setQuantity(quantity);
+        transaction.setPrice(stock.getPrice());
+        transaction.setType(type);
+        transaction.setStatus(TransactionStatus.PENDING);
+        transaction.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+
+        int orderId = transactionDAO.createTransaction(transaction);
+        if (orderId < 0) {
+            throw new IllegalStateException("Could not store order");
+        }
+        transaction.setId(orderId);
+
+        Order order = new Order(orderId, user.getId(), type, stockId, quantity);
+        orders.put(orderId, order);
+        try {
+            partition(user.getId()).execute(() -> run(order, transaction));
+        } catch (RejectedExecutionException e) {
+            transactionDAO.completeTransaction(orderId, user.getId(), TransactionStatus.FAILED, stock.getPrice());
+            order.finish(TransactionStatus.FAILED, null, QUEUE_FULL_MESSAGE);
+            throw new IllegalStateException(QUEUE_FULL_MESSAGE);
+        }
+        return order;
+    }
+
+    /**
+     * Queues a resting order whose trigger fired, to be filled at the price
+     * current when its turn comes. The order must have been claimed (see
+     * TransactionDAO.claimRestingOrders), so it is queued on one node only.
+     * If the user's queue is full the order fails.
+     */
+    public Order trigger(Transaction resting) {
+        Order order = new Order(resting.getId(), resting.getUserId(), resting.getType(), resting.getStockId(),
+                resting.getQuantity());
+        orders.put(order.getOrderId(), order);
+        try {
+            partition(resting.getUserId()).execute(() -> run(order, resting));
+        } catch (RejectedExecutionException e) {
+            transactionDAO.completeTransaction(order.getOrderId(), order.getUserId(), TransactionStatus.FAILED,
+                    resting.getPrice());
+            order.finish(TransactionStatus.FAILED, null, QUEUE_FULL_MESSAGE);
+        }
+        return order;
+    }
+
+    /**
+     * Status of an order owned by userId, optionally waiting up to waitMillis
+     * for it to finish.
+     *
+     * @return the order, or null if there is no such order for this user
+     */
+    public Order getOrder(int orderId, int userId, long waitMillis) throws InterruptedException {
+        Order order = orders.get(orderId);
+        if (order == null) {
+            Transaction transaction = transactionDAO.getTransactionById(orderId);
+            if (transaction == null || transaction.getUserId() != userId) {
+                return null;
+            }
+            order = new Order(orderId, userId, transaction.getType(), transaction.getStockId(), transaction.getQuantity());
+            order.finish(transaction.getStatus(), transaction.getPrice(), null);
+            return order;
+        }
+        if (order.getUserId() != userId) {
+            return null;
+        }
+        if (waitMillis > 0 && order.getStatus() == TransactionStatus.PENDING) {
+            try {
+                order.done.get(Math.min(waitMillis, MAX_WAIT_MILLIS), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                // Still pending; report as is
+            }
+        }
+        return order;
+    }
+
+    /**
+     * True if the order was queued on this node and is still held in memory.
+     */
+    public boolean isTracked(int orderId) {
+        return orders.containsKey(orderId);
+    }
+
+    /**
+     * Drops finished orders from memory once their retention has passed.
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void evictFinishedOrders() {
+        long cutoff = System.currentTimeMillis() - RETENTION_MILLIS;
+        orders.values().removeIf(order -> order.finishedAt != 0 && order.finishedAt < cutoff);
+    }
+
+    /**
+     * In a cluster, fails the queued orders of nodes that have left it, once
+     * they are older than ORPHAN_GRACE_MILLIS, so a node that has only just
+     * joined is not mistaken for a dead one. Should such a node still be
+     * filling one of them, the fill rolls back as the order is no longer
+     * PENDING.
+     */
+    @Scheduled(fixedDelay = 10_000)
+    public void failOrphanedOrders() {
+        ClusterMembership membership = ClusterMembership.getInstance();
+        Set<String> live = membership.getLiveNodeIds();
+        if (!membership.isEnabled() || !live.contains(membership.getNodeId())) {
+            return;
+        }
+        long grace = Math.max(ORPHAN_GRACE_MILLIS, 2 * membership.getNodeTimeoutMillis());
+        int failed = transactionDAO.failOrphanedTransactions(live,
+                new Timestamp(System.currentTimeMillis() - grace));
+        if (failed > 0) {
+            System.out.println("Marked " + failed + " pending orders of departed nodes as FAILED");
+        }
+    }
+
+    private void run(Order order, Transaction pending) {
+        try {
+            fill(order.getUserId(), order.getType(), order.getStockId(), order.getQuantity(), pending);
+            order.finish(TransactionStatus.COMPLETED, pending.getPrice(), null);
+        } catch (RuntimeException e) {
+            if (pending.getStatus() == TransactionStatus.COMPLETED) {
+                // Filled and settled; only a follow-up step (portfolio, price, log) failed
+                order.finish(TransactionStatus.COMPLETED, pending.getPrice(), "Error after fill: " + e.getMessage());
+                return;
+            }
+            String message = e instanceof IllegalArgumentException ? e.getMessage() : "Error: " + e.getMessage();
+            transactionDAO.completeTransaction(order.getOrderId(), order.getUserId(), TransactionStatus.FAILED,
+                    pending.getPrice());
+            order.finish(TransactionStatus.FAILED, null, message);
+        }
+    }
+
+    // ================== EXECUTION ==================
+
+    private ThreadPoolExecutor partition(int userId) {
+        return partitions[Math.floorMod(userId, partitions.length)];
+    }
+
+    private Stock checkOrder(User user, String type, int stockId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        if (halts.isHalted(stockId)) {
+            throw new IllegalArgumentException(halts.isSuspended(stockId) ? "Stock is suspended" : "Trading is halted");
+        }
+        Stock stock = stockDAO.getStockById(stockId);
+        if (stock == null) {
+            throw new IllegalArgumentException("Stock not found");
+        }
+        if ("BUY".equals(type)) {
+            BigDecimal totalCost = stock.getPrice().multiply(new BigDecimal(quantity));
+            if (user.getBalance().compareTo(totalCost) < 0) {
+                throw new IllegalArgumentException("Insufficient balance");
+            }
+        } else {
+            Portfolio portfolio = portfolioDAO.getPortfolioItem(user.getId(), stockId);
+            if (portfolio == null || portfolio.getQuantity() < quantity) {
+                throw new IllegalArgumentException("Insufficient shares");
+            }
+        }
+        return stock;
+    }
+
+    /**
+     * Work run while holding symbol locks.
+     */
+    @FunctionalInterface
+    interface SymbolLockedWork<T> {
+        T run() throws SQLException;
+    }
+
+    /**
+     * Runs work holding the locks fill() takes for each of the stocks. They
+     * are taken in index order, so callers locking overlapping sets of
+     * stocks cannot deadlock each other.
+     */
+    <T> T withSymbolLocks(Collection<Integer> stockIds, SymbolLockedWork<T> work) throws SQLException {
+        TreeSet<Integer> indices = new TreeSet<>();
+        for (int stockId : stockIds) {
+            indices.add(Math.floorMod(stockId, symbolLocks.length));
+        }
+        return lockInOrder(indices.stream().mapToInt(Integer::intValue).toArray(), 0, work);
+    }
+
+    private <T> T lockInOrder(int[] indices, int from, SymbolLockedWork<T> work) throws SQLException {
+        if (from == indices.length) {
+            return work.run();
+        }
+        synchronized (symbolLocks[indices[from]]) {
+            return lockInOrder(indices, from + 1, work);
+        }
+    }
+
+    /**
+     * Fills one order. Runs on the user's worker only, and holds the lock of
+     * the order's symbol, so fills of one symbol on this node follow each
+     * other and each one moves the price from where the last one left it.
+     *
+     * Balance and position are changed in one database transaction that
+     * locks the user's rows, because in a cluster the same user's orders for
+     * other symbols are filled on other nodes at the same time. A PENDING
+     * order is settled in that same transaction, so it cannot be left
+     * PENDING after the money has moved.
+     *
+     * @param pending the PENDING transaction of an asynchronous order, or null
+     *        to create a COMPLETED transaction
+     * @return the transaction id
+     */
+    private int fill(int userId, String type, int stockId, int quantity, Transaction pending) {
+        synchronized (symbolLocks[Math.floorMod(stockId, symbolLocks.length)]) {
+            try {
+                return fillLocked(userId, type, stockId, quantity, pending);
+            } catch (SQLException e) {
+                throw new RuntimeException("Database error: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private int fillLocked(int userId, String type, int stockId, int quantity, Transaction pending)
+            throws SQLException {
+        User user = userDAO.getUserById(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found");
+        }
+        // Cheap early rejection from cached state; the locked rows below decide
+        Stock stock = checkOrder(user, type, stockId, quantity);
+        boolean buy = "BUY".equals(type);
+        byte side = buy ? TradeJournal.SIDE_BUY : TradeJournal.SIDE_SELL;
+        BigDecimal price = stock.getPrice();
+        BigDecimal value = price.multiply(new BigDecimal(quantity));
+
+        Connection conn = DatabaseConnection.getUserConnection(userId);
+        if (conn == null) {
+            throw new IllegalStateException("Database connection unavailable");
+        }
+        BigDecimal balance;
+        Portfolio portfolio = null;
+        Transaction transaction = null;
+        try {
+            conn.setAutoCommit(false);
+
+            balance = userDAO.lockBalance(conn, userId);
+            if (balance == null) {
+                throw new IllegalArgumentException("User not found");
+            }
+            for (Portfolio p : portfolioDAO.lockUserPortfolio(conn, userId)) {
+                if (p.getStockID() == stockId) {
+                    portfolio = p;
+                }
+            }
+
+            // Adjust balance and portfolio
+            if (buy) {
+                balance = balance.subtract(value);
+                if (balance.signum() < 0) {
+                    throw new IllegalArgumentException("Insufficient balance");
+                }
+                if (portfolio == null) {
+                    // Create new portfolio item with current stock price as average price
+                    portfolio = new Portfolio(userId, stockId, quantity, 0, price.doubleValue());
+                    portfolioDAO.insertPortfolioBatch(conn, List.of(portfolio));
+                } else {
+                    // Recalculate weighted average price
+                    double currentTotalValue = portfolio.getAvgPrice() * portfolio.getQuantity();
+                    double newTotalValue = price.doubleValue() * quantity;
+                    double totalQuantity = portfolio.getQuantity() + quantity;
+                    portfolio.setAvgPrice((currentTotalValue + newTotalValue) / totalQuantity);
+                    portfolio.setQuantity(portfolio.getQuantity() + quantity);
+                    portfolioDAO.updatePortfolioBatch(conn, List.of(portfolio));
+                }
+            } else {
+                if (portfolio == null || portfolio.getQuantity() < quantity) {
+                    throw new IllegalArgumentException("Insufficient shares");
+                }
+                balance = balance.add(value);
+                portfolio.setQuantity(portfolio.getQuantity() - quantity);
+                if (portfolio.getQuantity() <= 0) {
+                    portfolioDAO.deletePortfolioBatch(conn, List.of(portfolio.getId()));
+                } else {
+                    portfolioDAO.updatePortfolioBatch(conn, List.of(portfolio));
+                }
+            }
+            userDAO.setBalance(conn, userId, balance);
+
+            if (pending == null) {
+                transaction = new Transaction();
+                transaction.setUserId(userId);
+                transaction.setStockId(stockId);
+                transaction.setQuantity(quantity);
+                transaction.setPrice(price);
+                transaction.setType(type);
+                transaction.setStatus(TransactionStatus.COMPLETED);
+                transaction.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+                transactionDAO.insertTransactionsBatch(conn, List.of(transaction));
+            } else if (transactionDAO.completeTransaction(conn, pending.getId(), TransactionStatus.COMPLETED,
+                    price) != 1) {
+                // Failed meanwhile, e.g. by another node that took this one for dead
+                throw new IllegalStateException("Order is no longer pending");
+            }
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackError) {
+                // Connection is closed right after
+            }
+            throw e;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                // Connection is closed right after
+            }
+            DatabaseConnection.closeConnection(conn);
+        }
+
+        cache.putBalance(userId, balance);
+        cache.invalidatePositions(userId);
+        DatabaseConnection.recordWrite(userId);
+
+        int transactionId;
+        if (pending == null) {
+            transactionId = transaction.getId();
+            cache.recordTransaction(userId, true, value);
+        } else {
+            transactionId = pending.getId();
+            pending.setPrice(price);
+            pending.setStatus(TransactionStatus.COMPLETED);
+            cache.invalidateAggregates(userId);
+        }
+        // Journaled once committed, so the journal holds no order that was rejected or rolled back
+        journal.recordOrder(side, userId, stockId, quantity, price);
+        journal.recordFill(side, userId, stockId, transactionId, quantity, price, balance,
+                Math.max(portfolio.getQuantity(), 0), portfolio.getAvgPrice());
+        movers.recordFill(stockId, quantity);
+
+        // Adjust stock price based on supply/demand (buy increases price, sell decreases it)
+        BigDecimal priceChange = price.multiply(PRICE_IMPACT).multiply(new BigDecimal(quantity));
+        BigDecimal newPrice = buy ? price.add(priceChange) : price.subtract(priceChange);
+        // Ensure price doesn't go below 0.01
+        stock.setPrice(newPrice.compareTo(MIN_PRICE) < 0 ? MIN_PRICE : newPrice);
+        stockDAO.updateStock(stock);
+        journal.recordPrice(stockId, stock.getPrice());
+        priceHistory.record(stockId, stock.getPrice());
+
+        // Log activity
+        logActivity(userId, buy ? "BUY_STOCK" : "SELL_STOCK",
+                (buy ? "Bought " : "Sold ") + quantity + " shares of " + stock.getSymbol());
+
+        return transactionId;
+    }
+
+    private void logActivity(int userId, String actionType, String details) {
+        try {
+            UserActivityLog log = new UserActivityLog();
+            log.setUserId(userId);
+            log.setActionType(actionType);
+            log.setDetails(details);
+            log.setLoggedAt(new Timestamp(System.currentTimeMillis()).toLocalDateTime());
+            activityLogDAO.createActivityLog(log);
+        } catch (Exception e) {
+            // Silently fail logging
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.stockapp.services;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import stockapp.src.cache.PriceAlertEngine;
+import stockapp.src.dao.PriceAlertDAO;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.dao.UserActivityLogDAO;
+import stockapp.src.models.PriceAlert;
+import stockapp.src.models.Stock;
+
+/**
+ * Creates and deletes price alerts and delivers the ones that fire.
+ *
+ * The alerts that have not fired are armed in PriceAlertEngine at startup
+ * and whenever one is created, so a new price is checked against them in
+ * memory. A delivery thread takes fired alerts off the engine, marks them
+ * triggered and logs a PRICE_ALERT activity for the owner. Marking only
+ * succeeds once per alert, so a node that fires an alert another node
+ * already delivered logs nothing.
+ */
+@Service
+public class PriceAlertService {
+
+    public static final String ACTIVITY_TYPE = "PRICE_ALERT";
+
+    private final PriceAlertEngine engine = PriceAlertEngine.getInstance();
+
+    private final PriceAlertDAO alertDAO = new PriceAlertDAO();
+
+    private final StockDAO stockDAO = new StockDAO();
+
+    private final UserActivityLogDAO activityLogDAO = new UserActivityLogDAO();
+
+    private final int maxPerUser = Integer.getInteger("stockapp.alerts.max-per-user", 100);
+
+    private Thread deliverer;
+
+    @PostConstruct
+    public void init() {
+        alertDAO.forEachActiveAlert(this::arm);
+        // Prices that crossed a threshold while the node was down fire now
+        for (Stock stock : stockDAO.getAllStocks()) {
+            engine.onPrice(stock.getId(), stock.getPrice());
+        }
+        deliverer = new Thread(this::deliverLoop, "price-alert-delivery");
+        deliverer.setDaemon(true);
+        deliverer.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (deliverer != null) {
+            deliverer.interrupt();
+        }
+    }
+
+    /**
+     * Creates an alert on a stock. direction is ABOVE or BELOW; the price
+     * must not have crossed the threshold already.
+     */
+    public PriceAlert createAlert(int userId, int stockId, String direction, BigDecimal threshold) {
+        PriceAlert.Direction parsed;
+        try {
+            parsed = PriceAlert.Direction.valueOf(direction.trim().toUpperCase(Locale.ROOT));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("direction must be ABOVE or BELOW");
+        }
+        if (threshold == null || threshold.signum() <= 0) {
+            throw new IllegalArgumentException("price must be positive");
+        }
+        BigDecimal scaled = threshold.setScale(2, RoundingMode.HALF_UP);
+
+        Stock stock = stockDAO.getStockById(stockId);
+        if (stock == null) {
+            throw new IllegalArgumentException("Stock not found");
+        }
+        int crossed = scaled.compareTo(stock.getPrice());
+        if (parsed == PriceAlert.Direction.ABOVE ? crossed <= 0 : crossed >= 0) {
+            throw new IllegalArgumentException("Price is already " + parsed.name().toLowerCase(Locale.ROOT) + " "
+                    + scaled.toPlainString());
+        }
+        if (alertDAO.countActiveAlerts(userId) >= maxPerUser) {
+            throw new IllegalArgumentException("At most " + maxPerUser + " active alerts per user");
+        }
+
+        PriceAlert alert = new PriceAlert(userId, stockId, parsed, scaled);
+        if (!alertDAO.createAlert(alert)) {
+            throw new IllegalStateException("Failed to create alert");
+        }
+        arm(alert);
+        // The price may have moved past the threshold since it was checked
+        engine.onPrice(stockId, stockDAO.getStockById(stockId).getPrice());
+        return alert;
+    }
+
+    public List<PriceAlert> getAlerts(int userId) {
+        return alertDAO.getAlertsByUser(userId);
+    }
+
+    /**
+     * Deletes one of a user's alerts.
+     *
+     * @return false if the user has no such alert
+     */
+    public boolean deleteAlert(int userId, int alertId) {
+        if (!alertDAO.deleteAlert(alertId, userId)) {
+            return false;
+        }
+        engine.disarm(alertId);
+        return true;
+    }
+
+    private void arm(PriceAlert alert) {
+        engine.arm(alert.getId(), alert.getUserId(), alert.getStockId(),
+                alert.getDirection() == PriceAlert.Direction.ABOVE, alert.getThreshold());
+    }
+
+    // ================== DELIVERY ==================
+
+    private void deliverLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                PriceAlertEngine.Fired fired = engine.takeFired(1, TimeUnit.SECONDS);
+                if (fired != null) {
+                    deliver(fired);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                System.err.println("ERROR: Price alert delivery failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void deliver(PriceAlertEngine.Fired fired) {
+        if (!alertDAO.markTriggered(fired.getAlertId(), fired.getPrice())) {
+            // Deleted meanwhile, or delivered by another node
+            return;
+        }
+        Stock stock = stockDAO.getStockById(fired.getStockId());
+        String symbol = stock != null ? stock.getSymbol() : "#" + fired.getStockId();
+        activityLogDAO.logActivity(fired.getUserId(), ACTIVITY_TYPE, symbol + " is at " + fired.getPrice().toPlainString()
+                + ", " + (fired.isAbove() ? "above" : "below") + " your alert at " + fired.getThreshold().toPlainString());
+    }
+}
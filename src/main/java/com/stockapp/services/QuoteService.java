@@ -0,0 +1,206 @@
+package com.stockapp.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import stockapp.src.cache.CompositeIndices;
+import stockapp.src.cache.TradingStateCache;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.models.Stock;
+
+/**
+ * Versioned quote reads for the public stock endpoints.
+ *
+ * ETags are derived from the version counters in TradingStateCache, so
+ * checking If-None-Match needs neither the database nor Jackson. The
+ * serialized universe is kept for the version it was built at and reused
+ * until any quote changes.
+ *
+ * The delta feed hands out a cursor (epoch, version and day) with every
+ * response; passing it back returns only the quotes changed since. Every
+ * response also carries the current value of each market index.
+ */
+@Service
+public class QuoteService {
+
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private final CompositeIndices indices = CompositeIndices.getInstance();
+
+    private StockDAO stockDAO = new StockDAO();
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private volatile SerializedUniverse serialized;
+
+    /**
+     * The universe serialized at one version.
+     */
+    public static class SerializedUniverse {
+        private final String etag;
+        private final byte[] json;
+
+        SerializedUniverse(String etag, byte[] json) {
+            this.etag = etag;
+            this.json = json;
+        }
+
+        public String getEtag() { return etag; }
+        public byte[] getJson() { return json; }
+    }
+
+    /**
+     * Strong ETag for the whole universe. The day is part of it because
+     * getAllStocks simulates a change percent seeded by the day.
+     */
+    public String universeEtag() {
+        long day = currentDay();
+        return "\"u-" + Long.toHexString(cache.getEpoch()) + "-" + cache.getUniverseVersion() + "-" + day + "\"";
+    }
+
+    /**
+     * Strong ETag for one stock, or null if the stock is not cached yet.
+     */
+    public String stockEtag(int stockId) {
+        long version = cache.getQuoteVersion(stockId);
+        if (version < 0) {
+            return null;
+        }
+        return "\"s-" + Long.toHexString(cache.getEpoch()) + "-" + version + "\"";
+    }
+
+    /**
+     * The universe as JSON, reusing the last serialization if nothing changed.
+     */
+    public SerializedUniverse getUniverse() throws JsonProcessingException {
+        // The ETag is taken before reading, so the body is never older than it claims
+        String etag = universeEtag();
+        SerializedUniverse current = serialized;
+        if (current != null && current.etag.equals(etag)) {
+            return current;
+        }
+        List<Stock> stocks = stockDAO.getAllStocks();
+        SerializedUniverse built = new SerializedUniverse(etag, objectMapper.writeValueAsBytes(stocks));
+        if (cache.isQuotesLoaded()) {
+            serialized = built;
+        }
+        return built;
+    }
+
+    /**
+     * Quotes changed since a cursor, or the full universe when the cursor is
+     * missing, from another process or day, or older than the change log.
+     */
+    public static class QuoteChanges {
+        private final boolean full;
+        private final long version;
+        private final String cursor;
+        private final List<Stock> stocks;
+        private final List<Integer> removed;
+        private final List<CompositeIndices.Quote> indices;
+
+        QuoteChanges(boolean full, long version, String cursor, List<Stock> stocks, List<Integer> removed,
+                List<CompositeIndices.Quote> indices) {
+            this.full = full;
+            this.version = version;
+            this.cursor = cursor;
+            this.stocks = stocks;
+            this.removed = removed;
+            this.indices = indices;
+        }
+
+        public boolean isFull() { return full; }
+        public long getVersion() { return version; }
+        public String getCursor() { return cursor; }
+        public List<Stock> getStocks() { return stocks; }
+        public List<Integer> getRemoved() { return removed; }
+        public List<CompositeIndices.Quote> getIndices() { return indices; }
+    }
+
+    /**
+     * @param since a cursor from an earlier response, a bare version number
+     *              (taken to be from this process and day), or null
+     */
+    public QuoteChanges getChanges(String since) {
+        long day = currentDay();
+        long version = cache.getUniverseVersion();
+        String cursor = Long.toHexString(cache.getEpoch()) + "-" + version + "-" + day;
+
+        long sinceVersion = parseCursor(since, day);
+        Set<Integer> changed = sinceVersion >= 0 && cache.isQuotesLoaded() ? cache.changedSince(sinceVersion) : null;
+        if (changed == null) {
+            return new QuoteChanges(true, version, cursor, stockDAO.getAllStocks(), List.of(), indices.getQuotes());
+        }
+
+        List<Stock> stocks = new ArrayList<>(changed.size());
+        List<Integer> removed = new ArrayList<>();
+        for (Integer stockId : changed) {
+            Stock stock = cache.getStock(stockId);
+            if (stock != null) {
+                stocks.add(stock);
+            } else {
+                removed.add(stockId);
+            }
+        }
+        stocks.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        return new QuoteChanges(false, version, cursor, stockDAO.simulateChangePercent(stocks), removed,
+                indices.getQuotes());
+    }
+
+    /**
+     * The version in a cursor, or -1 if it cannot be used for a delta.
+     */
+    private long parseCursor(String since, long day) {
+        if (since == null || since.isBlank()) {
+            return -1;
+        }
+        try {
+            String[] parts = since.trim().split("-");
+            if (parts.length == 1) {
+                return Long.parseLong(parts[0]);
+            }
+            if (parts.length != 3 || Long.parseLong(parts[0], 16) != cache.getEpoch()
+                    || Long.parseLong(parts[2]) != day) {
+                return -1;
+            }
+            return Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long currentDay() {
+        return System.currentTimeMillis() / (1000 * 60 * 60 * 24);
+    }
+
+    /**
+     * Whether an If-None-Match header matches the given ETag. Uses the weak
+     * comparison RFC 9110 prescribes for If-None-Match.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,267 @@
+package com.stockapp.services;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import stockapp.src.cache.TriggerIndex;
+import stockapp.src.dao.PortfolioDAO;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.dao.TransactionDAO;
+import stockapp.src.models.OrderType;
+import stockapp.src.models.Portfolio;
+import stockapp.src.models.Stock;
+import stockapp.src.models.Transaction;
+import stockapp.src.models.TransactionStatus;
+import stockapp.src.models.User;
+
+/**
+ * Places and cancels resting orders (stop-loss, take-profit, trailing stop)
+ * and hands the ones that fire to OrderService.
+ *
+ * A resting order is stored as a PENDING transaction with its order type,
+ * trigger and trail, and armed in TriggerIndex, which sees every price
+ * change. The orders that have not fired are armed again at startup. A
+ * dispatch thread takes fired orders off the index in batches, claims each
+ * user's orders in one database transaction and queues the claimed ones
+ * through OrderRouter on the node owning the symbol, where they fill
+ * through the normal trade path at the market price. A claim succeeds once
+ * per order, so an order armed on several nodes fills once. A claimed order
+ * that cannot be handed to its owner fails.
+ *
+ * Trailing stops follow the price in memory only. After a restart a stop
+ * resumes from its stored trigger, or from the current price if that gives
+ * a tighter stop. Each user may have stockapp.orders.max-resting resting
+ * orders (default 100).
+ */
+@Service
+public class RestingOrderService {
+
+    private final TriggerIndex triggers = TriggerIndex.getInstance();
+
+    private final TransactionDAO transactionDAO = new TransactionDAO();
+
+    private final StockDAO stockDAO = new StockDAO();
+
+    private final PortfolioDAO portfolioDAO = new PortfolioDAO();
+
+    private final int maxPerUser = Integer.getInteger("stockapp.orders.max-resting", 100);
+
+    @Autowired
+    private OrderRouter orderRouter;
+
+    private Thread dispatcher;
+
+    @PostConstruct
+    public void init() {
+        transactionDAO.forEachRestingOrder(this::arm);
+        // Prices that crossed a trigger while the node was down fire now
+        for (Stock stock : stockDAO.getAllStocks()) {
+            triggers.onPrice(stock.getId(), stock.getPrice());
+        }
+        dispatcher = new Thread(this::dispatchLoop, "resting-order-dispatch");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+    }
+
+    /**
+     * Places a resting order. A stop-loss or take-profit needs a trigger
+     * price the market has not reached yet; a trailing stop needs a trail
+     * amount and starts that far from the current price.
+     *
+     * @throws IllegalArgumentException if the order is rejected
+     * @throws IllegalStateException if it could not be stored
+     */
+    public Transaction place(User user, String type, int stockId, int quantity, String orderType,
+            BigDecimal triggerPrice, BigDecimal trailAmount) {
+        if (!"BUY".equals(type) && !"SELL".equals(type)) {
+            throw new IllegalArgumentException("type must be BUY or SELL");
+        }
+        boolean buy = "BUY".equals(type);
+        OrderType parsed;
+        try {
+            parsed = OrderType.fromString(orderType != null ? orderType.trim().toUpperCase(Locale.ROOT) : null);
+        } catch (IllegalArgumentException e) {
+            parsed = OrderType.MARKET;
+        }
+        if (parsed == OrderType.MARKET) {
+            throw new IllegalArgumentException("orderType must be STOP_LOSS, TAKE_PROFIT or TRAILING_STOP");
+        }
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        Stock stock = stockDAO.getStockById(stockId);
+        if (stock == null) {
+            throw new IllegalArgumentException("Stock not found");
+        }
+        if (!buy) {
+            Portfolio portfolio = portfolioDAO.getPortfolioItem(user.getId(), stockId);
+            if (portfolio == null || portfolio.getQuantity() < quantity) {
+                throw new IllegalArgumentException("Insufficient shares");
+            }
+        }
+
+        BigDecimal price = stock.getPrice();
+        BigDecimal trigger;
+        BigDecimal trail = null;
+        if (parsed == OrderType.TRAILING_STOP) {
+            if (trailAmount == null || trailAmount.signum() <= 0) {
+                throw new IllegalArgumentException("trailAmount must be positive");
+            }
+            trail = trailAmount.setScale(2, RoundingMode.HALF_UP);
+            trigger = buy ? price.add(trail) : price.subtract(trail);
+            if (trigger.signum() <= 0) {
+                throw new IllegalArgumentException("trailAmount must be below the current price");
+            }
+        } else {
+            if (triggerPrice == null || triggerPrice.signum() <= 0) {
+                throw new IllegalArgumentException("triggerPrice must be positive");
+            }
+            trigger = triggerPrice.setScale(2, RoundingMode.HALF_UP);
+            boolean rising = parsed.triggersOnRise(buy);
+            if (rising ? trigger.compareTo(price) <= 0 : trigger.compareTo(price) >= 0) {
+                throw new IllegalArgumentException("triggerPrice must be " + (rising ? "above" : "below")
+                        + " the current price " + price.toPlainString());
+            }
+        }
+        if (transactionDAO.countRestingOrders(user.getId()) >= maxPerUser) {
+            throw new IllegalArgumentException("At most " + maxPerUser + " resting orders per user");
+        }
+
+        Transaction order = new Transaction();
+        order.setUserId(user.getId());
+        order.setStockId(stockId);
+        order.setQuantity(quantity);
+        order.setPrice(price);
+        order.setType(type);
+        order.setStatus(TransactionStatus.PENDING);
+        order.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+        order.setOrderType(parsed);
+        order.setTriggerPrice(trigger);
+        order.setTrailAmount(trail);
+
+        if (transactionDAO.createRestingOrder(order) < 0) {
+            throw new IllegalStateException("Could not store order");
+        }
+        arm(order);
+        // The price may have moved past the trigger since it was checked
+        triggers.onPrice(stockId, stockDAO.getStockById(stockId).getPrice());
+        return order;
+    }
+
+    /**
+     * A user's resting orders that have not fired, newest first, with the
+     * trigger of trailing stops where it stands now.
+     */
+    public List<Transaction> getRestingOrders(int userId) {
+        List<Transaction> orders = transactionDAO.getRestingOrdersByUser(userId);
+        for (Transaction order : orders) {
+            BigDecimal trigger = triggers.triggerOf(order.getId());
+            if (trigger != null) {
+                order.setTriggerPrice(trigger);
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Cancels one of a user's resting orders.
+     *
+     * @return false if the user has no such order, or it has fired already
+     */
+    public boolean cancel(int userId, int orderId) {
+        if (!transactionDAO.cancelRestingOrder(orderId, userId)) {
+            return false;
+        }
+        triggers.disarm(orderId);
+        return true;
+    }
+
+    private void arm(Transaction order) {
+        boolean buy = "BUY".equals(order.getType());
+        if (order.getOrderType() != OrderType.TRAILING_STOP) {
+            triggers.armStop(order.getId(), order.getUserId(), order.getStockId(), buy, order.getQuantity(),
+                    order.getOrderType().triggersOnRise(buy), order.getTriggerPrice());
+            return;
+        }
+        Stock stock = stockDAO.getStockById(order.getStockId());
+        if (stock != null) {
+            triggers.armTrailing(order.getId(), order.getUserId(), order.getStockId(), buy, order.getQuantity(),
+                    order.getTrailAmount(), order.getTriggerPrice(), stock.getPrice());
+        }
+    }
+
+    // ================== DISPATCH ==================
+
+    private void dispatchLoop() {
+        List<TriggerIndex.Fired> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                TriggerIndex.Fired first = triggers.takeFired(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                triggers.drainFired(batch);
+                dispatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                System.err.println("ERROR: Resting order dispatch failed: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Claims a batch of fired orders, one database transaction per user,
+     * and queues the claimed ones for filling.
+     */
+    private void dispatch(List<TriggerIndex.Fired> batch) {
+        Map<Integer, Map<Integer, TriggerIndex.Fired>> byUser = new LinkedHashMap<>();
+        for (TriggerIndex.Fired fired : batch) {
+            byUser.computeIfAbsent(fired.getUserId(), id -> new LinkedHashMap<>()).put(fired.getOrderId(), fired);
+        }
+        for (Map.Entry<Integer, Map<Integer, TriggerIndex.Fired>> e : byUser.entrySet()) {
+            Map<Integer, TriggerIndex.Fired> fired = e.getValue();
+            for (Integer orderId : transactionDAO.claimRestingOrders(e.getKey(), new ArrayList<>(fired.keySet()))) {
+                TriggerIndex.Fired f = fired.get(orderId);
+                Transaction order = new Transaction();
+                order.setId(orderId);
+                order.setUserId(f.getUserId());
+                order.setStockId(f.getStockId());
+                order.setQuantity(f.getQuantity());
+                order.setPrice(f.getPrice());
+                order.setType(f.isBuy() ? "BUY" : "SELL");
+                order.setStatus(TransactionStatus.PENDING);
+                try {
+                    orderRouter.trigger(order);
+                } catch (RuntimeException ex) {
+                    System.err.println("ERROR: Could not queue resting order " + orderId + ": " + ex.getMessage());
+                    transactionDAO.completeTransaction(orderId, order.getUserId(), TransactionStatus.FAILED,
+                            order.getPrice());
+                }
+            }
+        }
+    }
+}
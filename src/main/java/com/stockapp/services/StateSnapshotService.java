@@ -0,0 +1,137 @@
+package com.stockapp.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import stockapp.src.cache.StateSnapshot;
+import stockapp.src.cache.TradingStateCache;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.dao.UserDAO;
+import stockapp.src.journal.JournalReader;
+import stockapp.src.journal.JournalRecord;
+import stockapp.src.journal.TradeJournal;
+
+/**
+ * Warm start for TradingStateCache.
+ *
+ * At startup the newest snapshot is loaded from disk and the trade journal
+ * is replayed from the snapshot's sequence, so hot reads are served from
+ * memory before the database has been touched. A background pass then
+ * reconciles quotes and balances with the database, which also picks up
+ * changes that are not journaled (suspensions, admin balance edits).
+ *
+ * Snapshots are written periodically and on shutdown. Snapshots older than
+ * stockapp.snapshot.max-age-ms (default one day) are ignored.
+ */
+@Service
+public class StateSnapshotService {
+
+    private static final long DEFAULT_MAX_AGE_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private StockDAO stockDAO = new StockDAO();
+
+    private UserDAO userDAO = new UserDAO();
+
+    private final File directory = StateSnapshot.defaultDirectory();
+
+    @PostConstruct
+    public void init() {
+        long start = System.nanoTime();
+        long maxAge = Long.getLong("stockapp.snapshot.max-age-ms", DEFAULT_MAX_AGE_MILLIS);
+
+        StateSnapshot.LoadResult loaded = StateSnapshot.loadLatest(cache, directory);
+        if (loaded != null && System.currentTimeMillis() - loaded.getCreatedAtMillis() > maxAge) {
+            System.out.println("Ignoring stale state snapshot " + loaded.getFile().getName());
+            cache.clear();
+            loaded = null;
+        }
+
+        if (loaded != null) {
+            long replayed = catchUpFromJournal(loaded.getJournalSequence());
+            System.out.printf("Warm start from %s: %d quotes, %d accounts, %d journal records replayed in %.1f ms%n",
+                    loaded.getFile().getName(), loaded.getQuotes(), loaded.getAccounts(), replayed,
+                    (System.nanoTime() - start) / 1e6);
+        }
+
+        Thread reconcile = new Thread(this::reconcile, "state-reconcile");
+        reconcile.setDaemon(true);
+        reconcile.start();
+    }
+
+    /**
+     * Writes a snapshot every stockapp.snapshot.interval-ms (default one minute).
+     */
+    @Scheduled(fixedDelayString = "${stockapp.snapshot.interval-ms:60000}",
+            initialDelayString = "${stockapp.snapshot.interval-ms:60000}")
+    public void writeSnapshot() {
+        try {
+            // Taken before the cache is read: records appended meanwhile are
+            // replayed again on load, which is harmless as they carry absolute values
+            long journalSequence = TradeJournal.getInstance().getNextSequence() - 1;
+            StateSnapshot.write(cache, directory, journalSequence);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("ERROR: Failed to write state snapshot: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writeSnapshot();
+        TradeJournal.getInstance().sync();
+    }
+
+    /**
+     * Applies journal records written after the snapshot. Prices and
+     * balances are absolute and applied directly; a fill invalidates the
+     * user's positions and aggregates, which reload on next read.
+     */
+    private long catchUpFromJournal(long afterSequence) {
+        long[] count = new long[1];
+        try {
+            JournalReader.replay(TradeJournal.defaultDirectory(), afterSequence, (JournalRecord record) -> {
+                count[0]++;
+                switch (record.getType()) {
+                    case TradeJournal.TYPE_PRICE -> cache.applyPrice(record.getStockId(), record.getPrice());
+                    case TradeJournal.TYPE_FILL, TradeJournal.TYPE_ROLLBACK -> {
+                        cache.putBalance(record.getUserId(), record.getBalanceAfter());
+                        cache.invalidatePositions(record.getUserId());
+                        cache.invalidateAggregates(record.getUserId());
+                    }
+                    default -> {
+                    }
+                }
+            });
+        } catch (IOException e) {
+            // Without the journal the snapshot cannot be trusted
+            System.err.println("ERROR: Journal catch-up failed, discarding snapshot: " + e.getMessage());
+            cache.clear();
+        }
+        return count[0];
+    }
+
+    /**
+     * Refreshes quotes and balances from the database in the background.
+     */
+    private void reconcile() {
+        try {
+            long start = System.nanoTime();
+            stockDAO.loadAllStocksFromDatabase();
+
+            long generation = cache.balanceGeneration();
+            Map<Integer, BigDecimal> balances = userDAO.getAllBalances();
+            cache.cacheLoadedBalances(balances, generation);
+            System.out.printf("Trading state reconciled with database in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        } catch (RuntimeException e) {
+            System.err.println("ERROR: Trading state reconcile failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.stockapp.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.springframework.stereotype.Service;
+
+import stockapp.src.cache.MarketMovers;
+import stockapp.src.cache.TradingStateCache;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.index.StockSearchIndex;
+import stockapp.src.models.Stock;
+
+/**
+ * Symbol and company name autocomplete over StockSearchIndex.
+ *
+ * Matches are ranked by how they matched (whole symbol, symbol prefix, then
+ * name words), then by shares traded today (see MarketMovers), then by
+ * symbol. Only the best limit matches are kept while ranking.
+ */
+@Service
+public class StockSearchService {
+
+    public static final int MAX_LIMIT = 50;
+
+    private final StockSearchIndex index = StockSearchIndex.getInstance();
+
+    private final MarketMovers movers = MarketMovers.getInstance();
+
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private final StockDAO stockDAO = new StockDAO();
+
+    private record Match(int stockId, int kind, long volume, String symbol) {
+    }
+
+    private static final Comparator<Match> BEST_FIRST = Comparator.comparingInt(Match::kind)
+            .thenComparing(Comparator.comparingLong(Match::volume).reversed())
+            .thenComparing(Match::symbol);
+
+    public List<Stock> search(String query, int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        if (!cache.isQuotesLoaded() && index.size() == 0) {
+            // Nothing indexed before the universe is first loaded
+            stockDAO.loadAllStocksFromDatabase();
+        }
+
+        // Worst of the kept matches on top, so it is the one replaced
+        PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, BEST_FIRST.reversed());
+        for (Map.Entry<Integer, Integer> e : index.search(query).entrySet()) {
+            Stock stock = cache.getStock(e.getKey());
+            String symbol = stock != null ? stock.getSymbol() : "";
+            best.add(new Match(e.getKey(), e.getValue(), movers.volumeOf(e.getKey()), symbol));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+
+        List<Match> ranked = new ArrayList<>(best);
+        ranked.sort(BEST_FIRST);
+        List<Stock> result = new ArrayList<>(ranked.size());
+        for (Match match : ranked) {
+            Stock stock = stockDAO.getStockById(match.stockId());
+            if (stock != null) {
+                result.add(stock);
+            }
+        }
+        return stockDAO.simulateChangePercent(result);
+    }
+}
@@ -0,0 +1,363 @@
+package com.stockapp.services;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import stockapp.src.cache.InvalidationBus;
+import stockapp.src.cache.TradingHalts;
+import stockapp.src.dao.StockSuspensionDAO;
+import stockapp.src.dao.TradingHaltDAO;
+import stockapp.src.models.TradingHalt;
+
+/**
+ * Seeds the suspension bitmap at startup and runs scheduled trading halts.
+ *
+ * A halt window sets the stock's scheduled-halt bit in TradingHalts when it
+ * starts and clears it when it ends; overlapping windows on one stock keep
+ * the bit set until the last one ends. Window boundaries are kept in a
+ * hashed timer wheel that a single thread advances every tick
+ * (stockapp.halts.tick-ms, default 100), so a boundary fires at most one
+ * tick late and scheduling or cancelling a window is constant time.
+ *
+ * Windows are stored in trading_halts and loaded at startup, so they
+ * survive a restart and every node arms its own timers for them. Scheduling
+ * or cancelling a window is announced over the InvalidationBus; other nodes
+ * reload the window on their next tick. Only cancellation is stored;
+ * whether a window is active or finished follows from the clock.
+ */
+@Service
+public class TradingHaltService {
+
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static final long RETENTION_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final StockSuspensionDAO suspensionDAO = new StockSuspensionDAO();
+
+    private final TradingHaltDAO haltDAO = new TradingHaltDAO();
+
+    private final TradingHalts halts = TradingHalts.getInstance();
+
+    private final InvalidationBus bus = InvalidationBus.getInstance();
+
+    private final Map<Integer, TradingHalt> windows = new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private final Map<Integer, Integer> activeCounts = new HashMap<>();
+
+    private TimerWheel wheel;
+
+    private ScheduledExecutorService ticker;
+
+    /**
+     * A window boundary waiting in the wheel.
+     */
+    private static final class Timeout {
+        final TradingHalt halt;
+        final boolean start;
+        final long deadline;
+        long tick;
+
+        Timeout(TradingHalt halt, boolean start, long deadline) {
+            this.halt = halt;
+            this.start = start;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Hashed timer wheel: a timeout due at tick t sits in slot t mod
+     * WHEEL_SIZE, so each tick only looks at one slot. Timeouts more than
+     * one revolution away share the slot and are skipped until their tick.
+     */
+    private static final class TimerWheel {
+        private final long tickMillis;
+        private final long origin;
+        private final List<List<Timeout>> slots = new ArrayList<>(WHEEL_SIZE);
+        private long processedTick;
+
+        TimerWheel(long tickMillis, long origin) {
+            this.tickMillis = tickMillis;
+            this.origin = origin;
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                slots.add(new ArrayList<>());
+            }
+        }
+
+        synchronized void schedule(Timeout timeout) {
+            long tick = Math.floorDiv(timeout.deadline - origin + tickMillis - 1, tickMillis);
+            timeout.tick = Math.max(tick, processedTick + 1);
+            slots.get((int) (timeout.tick & WHEEL_MASK)).add(timeout);
+        }
+
+        /**
+         * Advances to the current time and returns what fell due, in deadline order.
+         */
+        synchronized List<Timeout> advance(long now) {
+            long target = Math.floorDiv(now - origin, tickMillis);
+            List<Timeout> due = new ArrayList<>();
+            if (target <= processedTick) {
+                return due;
+            }
+            // After a stall longer than a revolution every slot is visited once
+            long steps = Math.min(target - processedTick, WHEEL_SIZE);
+            for (long i = 1; i <= steps; i++) {
+                Iterator<Timeout> it = slots.get((int) ((processedTick + i) & WHEEL_MASK)).iterator();
+                while (it.hasNext()) {
+                    Timeout timeout = it.next();
+                    if (timeout.tick <= target) {
+                        it.remove();
+                        due.add(timeout);
+                    }
+                }
+            }
+            processedTick = target;
+            due.sort(Comparator.comparingLong((Timeout timeout) -> timeout.deadline)
+                    .thenComparing(timeout -> !timeout.start));
+            return due;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            halts.replaceSuspended(suspensionDAO.getSuspendedStockIds());
+        } catch (RuntimeException e) {
+            System.err.println("ERROR: Could not load stock suspensions: " + e.getMessage());
+        }
+
+        long tickMillis = Math.max(1, Long.getLong("stockapp.halts.tick-ms", 100));
+        wheel = new TimerWheel(tickMillis, System.currentTimeMillis());
+        try {
+            for (TradingHalt halt : haltDAO.getHaltsEndingAfter(retentionCutoff())) {
+                arm(halt);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("ERROR: Could not load trading halts: " + e.getMessage());
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "trading-halts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    /**
+     * Schedules a halt window for a stock.
+     *
+     * @param startsAt when trading stops, or null for now
+     * @param endsAt when trading resumes
+     * @throws IllegalArgumentException if the window is empty or already over
+     * @throws IllegalStateException if the window could not be stored
+     */
+    public TradingHalt schedule(int stockId, int adminId, String reason, LocalDateTime startsAt, LocalDateTime endsAt) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime start = startsAt != null ? startsAt : now;
+        if (endsAt == null) {
+            throw new IllegalArgumentException("A halt needs an end time");
+        }
+        if (!endsAt.isAfter(start)) {
+            throw new IllegalArgumentException("A halt must end after it starts");
+        }
+        if (!endsAt.isAfter(now)) {
+            throw new IllegalArgumentException("A halt must end in the future");
+        }
+
+        TradingHalt halt = haltDAO.createHalt(stockId, adminId, reason, start, endsAt);
+        if (halt == null) {
+            throw new IllegalStateException("Could not store the halt");
+        }
+        arm(halt);
+        bus.publishHalt(halt.getId());
+        return halt;
+    }
+
+    /**
+     * Cancels a window; an active one lifts its halt immediately.
+     *
+     * @return the cancelled window, or null if there is none with that id
+     * @throws IllegalStateException if the cancellation could not be stored
+     */
+    public TradingHalt cancel(int haltId) {
+        TradingHalt halt = windows.get(haltId);
+        if (halt == null) {
+            // Scheduled elsewhere and not announced here yet
+            TradingHalt stored = haltDAO.getHalt(haltId);
+            if (stored == null) {
+                return null;
+            }
+            arm(stored);
+            halt = windows.get(haltId);
+        }
+        if (TradingHalt.FINISHED.equals(halt.getStatus())) {
+            return halt;
+        }
+        if (!haltDAO.cancelHalt(haltId)) {
+            throw new IllegalStateException("Could not cancel halt " + haltId);
+        }
+        cancelLocally(halt);
+        bus.publishHalt(haltId);
+        return halt;
+    }
+
+    public TradingHalt getHalt(int haltId) {
+        return windows.get(haltId);
+    }
+
+    /**
+     * All windows still in memory, earliest start first.
+     */
+    public List<TradingHalt> getHalts() {
+        List<TradingHalt> list = new ArrayList<>(windows.values());
+        list.sort(Comparator.comparing(TradingHalt::getStartsAt).thenComparingInt(TradingHalt::getId));
+        return list;
+    }
+
+    /**
+     * Drops finished and cancelled windows once their retention has passed.
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void evictFinishedHalts() {
+        LocalDateTime cutoff = retentionCutoff();
+        windows.values().removeIf(halt -> (TradingHalt.FINISHED.equals(halt.getStatus())
+                || TradingHalt.CANCELLED.equals(halt.getStatus())) && halt.getEndsAt().isBefore(cutoff));
+    }
+
+    // ================== TIMER ==================
+
+    private void tick() {
+        try {
+            reloadChangedWindows();
+            for (Timeout timeout : wheel.advance(System.currentTimeMillis())) {
+                fire(timeout);
+            }
+        } catch (RuntimeException e) {
+            // Keep the ticker alive; a failed tick must not stop later boundaries
+            System.err.println("ERROR: Trading halt tick failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Puts a stored window in memory and arms its boundaries, unless it is
+     * there already.
+     */
+    private void arm(TradingHalt halt) {
+        if (windows.putIfAbsent(halt.getId(), halt) != null
+                || TradingHalt.CANCELLED.equals(halt.getStatus())) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long start = toMillis(halt.getStartsAt());
+        long end = toMillis(halt.getEndsAt());
+        if (end <= now) {
+            halt.setStatus(TradingHalt.FINISHED);
+            return;
+        }
+        Timeout begin = new Timeout(halt, true, start);
+        if (start > now) {
+            wheel.schedule(begin);
+        } else {
+            fire(begin);
+        }
+        wheel.schedule(new Timeout(halt, false, end));
+    }
+
+    // Its boundaries stay in the wheel and are ignored when they fall due
+    private synchronized void cancelLocally(TradingHalt halt) {
+        if (TradingHalt.ACTIVE.equals(halt.getStatus())) {
+            release(halt.getStockId());
+        }
+        if (!TradingHalt.FINISHED.equals(halt.getStatus())) {
+            halt.setStatus(TradingHalt.CANCELLED);
+        }
+    }
+
+    /**
+     * Picks up windows other nodes scheduled or cancelled since the last tick.
+     */
+    private void reloadChangedWindows() {
+        List<Integer> changed = halts.takeChangedWindows();
+        if (changed.isEmpty()) {
+            return;
+        }
+        List<TradingHalt> stored = new ArrayList<>();
+        if (changed.contains(0)) {
+            stored.addAll(haltDAO.getHaltsEndingAfter(retentionCutoff()));
+        } else {
+            for (int haltId : changed) {
+                TradingHalt halt = haltDAO.getHalt(haltId);
+                if (halt != null) {
+                    stored.add(halt);
+                }
+            }
+        }
+        for (TradingHalt halt : stored) {
+            TradingHalt known = windows.get(halt.getId());
+            if (known == null) {
+                arm(halt);
+            } else if (TradingHalt.CANCELLED.equals(halt.getStatus())) {
+                cancelLocally(known);
+            }
+        }
+    }
+
+    private synchronized void fire(Timeout timeout) {
+        TradingHalt halt = timeout.halt;
+        String status = halt.getStatus();
+        if (timeout.start) {
+            if (TradingHalt.SCHEDULED.equals(status)) {
+                activeCounts.merge(halt.getStockId(), 1, Integer::sum);
+                halts.setScheduledHalt(halt.getStockId(), true);
+                halt.setStatus(TradingHalt.ACTIVE);
+            }
+        } else if (TradingHalt.ACTIVE.equals(status)) {
+            release(halt.getStockId());
+            halt.setStatus(TradingHalt.FINISHED);
+        } else if (TradingHalt.SCHEDULED.equals(status)) {
+            halt.setStatus(TradingHalt.FINISHED);
+        }
+    }
+
+    // Callers hold the lock
+    private void release(int stockId) {
+        Integer remaining = activeCounts.merge(stockId, -1, Integer::sum);
+        if (remaining == null || remaining <= 0) {
+            activeCounts.remove(stockId);
+            halts.setScheduledHalt(stockId, false);
+        }
+    }
+
+    private static LocalDateTime retentionCutoff() {
+        return LocalDateTime.now().minus(Duration.ofMillis(RETENTION_MILLIS));
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,192 @@
+package com.stockapp.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.stereotype.Service;
+
+import stockapp.src.dao.TransactionDAO;
+
+/**
+ * Streams a user's full transaction history as CSV or NDJSON.
+ *
+ * Rows are read in keyset pages of PAGE_SIZE. Each page is encoded into a
+ * reusable buffer while the connection is open, the connection is released,
+ * and only then is the buffer written to the client. Memory stays bounded by
+ * one page regardless of history length, and a slow client never pins a
+ * database connection.
+ */
+@Service
+public class TransactionExportService {
+
+    public static final int PAGE_SIZE = 1000;
+
+    private static final String CSV_HEADER = "id,created_at,symbol,type,quantity,price,total,status\n";
+
+    private TransactionDAO transactionDAO = new TransactionDAO();
+
+    public static boolean isSupportedFormat(String format) {
+        return "csv".equalsIgnoreCase(format) || "ndjson".equalsIgnoreCase(format);
+    }
+
+    public static String contentType(String format, boolean gzip) {
+        if (gzip) {
+            return "application/gzip";
+        }
+        return "ndjson".equalsIgnoreCase(format) ? "application/x-ndjson" : "text/csv";
+    }
+
+    public static String fileName(int userId, String format, boolean gzip) {
+        return "transactions-" + userId + "." + format.toLowerCase() + (gzip ? ".gz" : "");
+    }
+
+    /**
+     * Writes the whole history of the user to out. Does not close out.
+     */
+    public void export(int userId, String format, boolean gzip, OutputStream out) throws IOException {
+        boolean ndjson = "ndjson".equalsIgnoreCase(format);
+        OutputStream target = gzip ? new GZIPOutputStream(out, 8192) : out;
+
+        ByteArrayOutputStream page = new ByteArrayOutputStream(128 * PAGE_SIZE);
+        Writer writer = new OutputStreamWriter(page, StandardCharsets.UTF_8);
+        RowEncoder encoder = new RowEncoder(writer, ndjson);
+
+        if (!ndjson) {
+            writer.write(CSV_HEADER);
+        }
+
+        int beforeId = Integer.MAX_VALUE;
+        try {
+            while (true) {
+                int lastId = transactionDAO.exportTransactionsPage(userId, beforeId, PAGE_SIZE, encoder);
+                writer.flush();
+                page.writeTo(target);
+                page.reset();
+                if (lastId < 0) {
+                    break;
+                }
+                target.flush();
+                beforeId = lastId;
+            }
+        } catch (SQLException e) {
+            // Headers are already on the wire, so the best we can do is cut the stream short
+            System.err.println("ERROR: Transaction export failed for user " + userId + ": " + e.getMessage());
+            throw new IOException("Transaction export failed", e);
+        }
+
+        if (gzip) {
+            ((GZIPOutputStream) target).finish();
+        }
+        target.flush();
+    }
+
+    /**
+     * Encodes rows straight from the ResultSet columns into the page writer.
+     */
+    private static class RowEncoder implements TransactionDAO.ExportRowHandler {
+        private final Writer out;
+        private final boolean ndjson;
+
+        RowEncoder(Writer out, boolean ndjson) {
+            this.out = out;
+            this.ndjson = ndjson;
+        }
+
+        @Override
+        public void row(int id, Timestamp createdAt, String symbol, String type, int quantity,
+                BigDecimal price, String status) throws IOException {
+            String total = price.multiply(BigDecimal.valueOf(quantity)).toPlainString();
+            if (ndjson) {
+                out.write("{\"id\":");
+                out.write(Integer.toString(id));
+                out.write(",\"createdAt\":");
+                if (createdAt == null) {
+                    out.write("null");
+                } else {
+                    out.write('"');
+                    out.write(createdAt.toLocalDateTime().toString());
+                    out.write('"');
+                }
+                out.write(",\"symbol\":");
+                writeJsonString(symbol);
+                out.write(",\"type\":");
+                writeJsonString(type);
+                out.write(",\"quantity\":");
+                out.write(Integer.toString(quantity));
+                out.write(",\"price\":");
+                out.write(price.toPlainString());
+                out.write(",\"total\":");
+                out.write(total);
+                out.write(",\"status\":");
+                writeJsonString(status);
+                out.write("}\n");
+            } else {
+                out.write(Integer.toString(id));
+                out.write(',');
+                if (createdAt != null) {
+                    out.write(createdAt.toLocalDateTime().toString());
+                }
+                out.write(',');
+                writeCsvField(symbol);
+                out.write(',');
+                writeCsvField(type);
+                out.write(',');
+                out.write(Integer.toString(quantity));
+                out.write(',');
+                out.write(price.toPlainString());
+                out.write(',');
+                out.write(total);
+                out.write(',');
+                writeCsvField(status);
+                out.write('\n');
+            }
+        }
+
+        private void writeCsvField(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    out.write('"');
+                }
+                out.write(c);
+            }
+            out.write('"');
+        }
+
+        private void writeJsonString(String value) throws IOException {
+            if (value == null) {
+                out.write("null");
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.write('\\');
+                    out.write(c);
+                } else if (c < 0x20) {
+                    out.write(String.format("\\u%04x", (int) c));
+                } else {
+                    out.write(c);
+                }
+            }
+            out.write('"');
+        }
+    }
+}
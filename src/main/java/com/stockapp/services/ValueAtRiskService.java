@@ -0,0 +1,333 @@
+package com.stockapp.services;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.stockapp.dto.ValueAtRisk;
+
+import stockapp.src.analytics.Kernels;
+import stockapp.src.analytics.MonteCarloVaR;
+import stockapp.src.analytics.PriceGrid;
+import stockapp.src.analytics.RiskAnalytics;
+import stockapp.src.dao.PortfolioDAO;
+import stockapp.src.dao.PriceHistoryDAO;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.models.Portfolio;
+import stockapp.src.models.Stock;
+
+/**
+ * One-day value at risk and expected shortfall of each user's holdings and
+ * of the firm's, from Monte Carlo scenarios.
+ *
+ * The scenario set covers every stock held anywhere. Volatilities and
+ * correlations come from the last stockapp.var.history-days (default 30)
+ * of stock_price_history at hourly returns; a stock with fewer than
+ * MIN_SAMPLES samples in that window gets stockapp.var.default-volatility-pct
+ * (default 30) percent a year and no correlation with the others.
+ * stockapp.var.scenarios (default 10000) scenarios are drawn, fewer if
+ * scenarios x stocks would pass MonteCarloVaR.MAX_CELLS. Once a set is
+ * stockapp.var.model-ms (default 600000) old it is redrawn in the
+ * background, and requests keep using it until the new one is published;
+ * a request waits for a draw only when there is no set yet or someone
+ * holds a stock the set lacks.
+ *
+ * A result is reused until the portfolio's positions change, any of its
+ * prices moves by more than stockapp.var.tolerance-bp (default 100) basis
+ * points, or the scenarios are redrawn. Firm-wide positions are read from
+ * every shard, at most once per stockapp.var.firm-positions-ms (default
+ * 60000). Confidence is stockapp.var.confidence-bp (default 9900) basis
+ * points.
+ */
+@Service
+public class ValueAtRiskService {
+
+    public static final int HORIZON_DAYS = 1;
+
+    private static final int MIN_SAMPLES = 24;
+
+    private static final long HOUR_MILLIS = 60 * 60_000L;
+
+    private static final long MODEL_CHECK_MILLIS = 10_000;
+
+    private final int scenarios = Math.max(100, Integer.getInteger("stockapp.var.scenarios", 10_000));
+    private final int historyDays = Math.max(1, Integer.getInteger("stockapp.var.history-days", 30));
+    private final double defaultVolatility = Integer.getInteger("stockapp.var.default-volatility-pct", 30) / 100.0;
+    private final long modelMillis = Long.getLong("stockapp.var.model-ms", 600_000);
+    private final long firmPositionsMillis = Long.getLong("stockapp.var.firm-positions-ms", 60_000);
+    private final double tolerance = Integer.getInteger("stockapp.var.tolerance-bp", 100) / 10_000.0;
+    private final double confidence = Math.min(9_999, Math.max(5_000,
+            Integer.getInteger("stockapp.var.confidence-bp", 9_900))) / 10_000.0;
+
+    private final PortfolioDAO portfolioDAO = new PortfolioDAO();
+
+    private final PriceHistoryDAO historyDAO = new PriceHistoryDAO();
+
+    private final StockDAO stockDAO = new StockDAO();
+
+    private volatile MonteCarloVaR.ScenarioSet scenarioSet;
+
+    private volatile Holdings firmHoldings;
+
+    private volatile Estimate firmEstimate;
+
+    private final Map<Integer, Estimate> userEstimates = new ConcurrentHashMap<>();
+
+    /**
+     * Positions of a portfolio, by ascending stock id.
+     */
+    private static final class Holdings {
+        final int[] stockIds;
+        final long[] quantities;
+        final long readAt;
+
+        Holdings(int[] stockIds, long[] quantities) {
+            this.stockIds = stockIds;
+            this.quantities = quantities;
+            this.readAt = System.currentTimeMillis();
+        }
+
+        boolean samePositions(Holdings other) {
+            return Arrays.equals(stockIds, other.stockIds) && Arrays.equals(quantities, other.quantities);
+        }
+    }
+
+    /**
+     * A result and what it was computed from.
+     */
+    private static final class Estimate {
+        final MonteCarloVaR.ScenarioSet set;
+        final Holdings holdings;
+        final double[] prices;
+        final ValueAtRisk result;
+
+        Estimate(MonteCarloVaR.ScenarioSet set, Holdings holdings, double[] prices, ValueAtRisk result) {
+            this.set = set;
+            this.holdings = holdings;
+            this.prices = prices;
+            this.result = result;
+        }
+    }
+
+    // ================== ESTIMATES ==================
+
+    /**
+     * @throws IllegalStateException if the price history could not be read
+     */
+    public ValueAtRisk getUserValueAtRisk(int userId) {
+        Holdings holdings = holdings(portfolioDAO.getPortfolioByUser(userId));
+        Estimate estimate = estimate("USER", userId, holdings, userEstimates.get(userId));
+        userEstimates.put(userId, estimate);
+        return estimate.result;
+    }
+
+    /**
+     * @throws IllegalStateException if the price history could not be read
+     */
+    public ValueAtRisk getFirmValueAtRisk() {
+        Estimate estimate = estimate("FIRM", null, firmHoldings(), firmEstimate);
+        firmEstimate = estimate;
+        return estimate.result;
+    }
+
+    private Estimate estimate(String scope, Integer userId, Holdings holdings, Estimate previous) {
+        if (holdings.stockIds.length == 0) {
+            // Nothing held, nothing at risk
+            return new Estimate(null, holdings, new double[0], new ValueAtRisk(scope, userId,
+                    System.currentTimeMillis(), HORIZON_DAYS, confidence, 0, 0, 0, 0, 0, 0, 0, 0, 0));
+        }
+        double[] prices = new double[holdings.stockIds.length];
+        for (int k = 0; k < prices.length; k++) {
+            Stock stock = stockDAO.getStockById(holdings.stockIds[k]);
+            prices[k] = stock != null ? stock.getPrice().doubleValue() : 0.0;
+        }
+        MonteCarloVaR.ScenarioSet set = scenarioSet(holdings.stockIds);
+        if (previous != null && previous.set == set && previous.holdings.samePositions(holdings)
+                && withinTolerance(previous.prices, prices)) {
+            return previous;
+        }
+
+        double[] exposures = new double[prices.length];
+        for (int k = 0; k < prices.length; k++) {
+            exposures[k] = holdings.quantities[k] * prices[k];
+        }
+        MonteCarloVaR.Estimate estimate = MonteCarloVaR.evaluate(set, holdings.stockIds, exposures, confidence,
+                ForkJoinPool.commonPool());
+        ValueAtRisk result = new ValueAtRisk(scope, userId, System.currentTimeMillis(), HORIZON_DAYS, confidence,
+                holdings.stockIds.length, round(estimate.getValue()), round(estimate.getValueAtRisk()),
+                round(estimate.getExpectedShortfall()), set.getScenarios(), set.getStockCount(), set.getBuiltAt(),
+                perSecond(set.getScenarios(), set.getGenerationNanos()),
+                perSecond(set.getScenarios(), estimate.getEvaluationNanos()));
+        return new Estimate(set, holdings, prices, result);
+    }
+
+    private boolean withinTolerance(double[] then, double[] now) {
+        for (int k = 0; k < now.length; k++) {
+            if (Math.abs(now[k] - then[k]) > tolerance * Math.abs(then[k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ================== SCENARIOS ==================
+
+    /**
+     * The current scenario set, however old; drawn first if there is none
+     * or it lacks a stock.
+     */
+    private MonteCarloVaR.ScenarioSet scenarioSet(int[] required) {
+        MonteCarloVaR.ScenarioSet set = scenarioSet;
+        if (covers(set, required)) {
+            return set;
+        }
+        synchronized (this) {
+            set = scenarioSet;
+            if (covers(set, required)) {
+                return set;
+            }
+            return redraw(required);
+        }
+    }
+
+    /**
+     * Redraws the scenario set once it is modelMillis old, off the request
+     * path. A failed draw leaves the previous set in use.
+     */
+    @Scheduled(fixedDelay = MODEL_CHECK_MILLIS, initialDelay = MODEL_CHECK_MILLIS)
+    public void refreshScenarios() {
+        MonteCarloVaR.ScenarioSet set = scenarioSet;
+        if (set == null || System.currentTimeMillis() - set.getBuiltAt() < modelMillis) {
+            return;
+        }
+        try {
+            synchronized (this) {
+                if (scenarioSet == set) {
+                    redraw(new int[0]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("ERROR: Failed to redraw VaR scenarios: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Draws a set covering every stock held anywhere and the required ones,
+     * and publishes it. Caller holds the monitor.
+     */
+    private MonteCarloVaR.ScenarioSet redraw(int[] required) {
+        TreeSet<Integer> stockIds = new TreeSet<>();
+        for (int stockId : firmHoldings().stockIds) {
+            stockIds.add(stockId);
+        }
+        for (int stockId : required) {
+            stockIds.add(stockId);
+        }
+        MonteCarloVaR.ScenarioSet set = drawScenarios(stockIds.stream().mapToInt(Integer::intValue).toArray());
+        scenarioSet = set;
+        // Results priced in the old set are stale now
+        userEstimates.clear();
+        return set;
+    }
+
+    private static boolean covers(MonteCarloVaR.ScenarioSet set, int[] required) {
+        if (set == null) {
+            return false;
+        }
+        for (int stockId : required) {
+            if (!set.contains(stockId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private MonteCarloVaR.ScenarioSet drawScenarios(int[] stockIds) {
+        int m = stockIds.length;
+        double[] currentPrices = new double[m];
+        for (int k = 0; k < m; k++) {
+            Stock stock = stockDAO.getStockById(stockIds[k]);
+            currentPrices[k] = stock != null ? stock.getPrice().doubleValue() : 1.0;
+        }
+
+        int returns = historyDays * 24;
+        long start = (System.currentTimeMillis() / HOUR_MILLIS - returns) * HOUR_MILLIS;
+        PriceGrid grid = new PriceGrid(stockIds, start, HOUR_MILLIS, returns + 1);
+        if (!historyDAO.forEachSampleSince(start, grid::add)) {
+            throw new IllegalStateException("Could not read price history");
+        }
+        RiskAnalytics.Result result = RiskAnalytics.compute(grid.logReturns(currentPrices), null, 365.0 * 24, true,
+                Kernels.best(), ForkJoinPool.commonPool());
+
+        double[] dailyVolatility = new double[m];
+        boolean[] estimated = new boolean[m];
+        for (int k = 0; k < m; k++) {
+            double volatility = result.getVolatility()[k];
+            estimated[k] = grid.getSamples(k) >= MIN_SAMPLES && volatility > 0 && !Double.isNaN(volatility);
+            dailyVolatility[k] = (estimated[k] ? volatility : defaultVolatility) / Math.sqrt(365);
+        }
+        double[] correlation = new double[m * m];
+        double[][] correlations = result.getCorrelations();
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < m; j++) {
+                double c = i == j ? 1.0 : estimated[i] && estimated[j] ? correlations[i][j] : 0.0;
+                correlation[i * m + j] = Double.isNaN(c) ? 0.0 : c;
+            }
+        }
+        // A set has at most MAX_CELLS returns, so a very wide universe gets fewer scenarios
+        int drawn = (int) Math.min(scenarios, MonteCarloVaR.MAX_CELLS / Math.max(1, m));
+        if (drawn < scenarios) {
+            System.err.println("ERROR: Drawing " + drawn + " VaR scenarios instead of " + scenarios + " for "
+                    + m + " stocks");
+        }
+        return MonteCarloVaR.generate(stockIds, dailyVolatility, correlation, drawn, System.nanoTime(),
+                ForkJoinPool.commonPool());
+    }
+
+    // ================== UTILITY METHODS ==================
+
+    /**
+     * Firm-wide positions, read again once they are firmPositionsMillis old.
+     */
+    private Holdings firmHoldings() {
+        Holdings holdings = firmHoldings;
+        if (holdings == null || System.currentTimeMillis() - holdings.readAt >= firmPositionsMillis) {
+            holdings = holdings(portfolioDAO.getAllPortfolios());
+            firmHoldings = holdings;
+        }
+        return holdings;
+    }
+
+    private static Holdings holdings(List<Portfolio> portfolio) {
+        Map<Integer, Long> quantities = new TreeMap<>();
+        for (Portfolio p : portfolio) {
+            if (p.getQuantity() > 0) {
+                quantities.merge(p.getStockID(), (long) p.getQuantity(), Long::sum);
+            }
+        }
+        int[] stockIds = new int[quantities.size()];
+        long[] counts = new long[quantities.size()];
+        int k = 0;
+        for (Map.Entry<Integer, Long> e : quantities.entrySet()) {
+            stockIds[k] = e.getKey();
+            counts[k++] = e.getValue();
+        }
+        return new Holdings(stockIds, counts);
+    }
+
+    private static long perSecond(int count, long nanos) {
+        return nanos > 0 ? Math.round(count * 1e9 / nanos) : 0;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,58 @@
+package com.stockapp.tools;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import com.stockapp.services.AuthService;
+import com.stockapp.services.BulkImportService;
+
+import stockapp.src.models.BulkImportReport;
+
+/**
+ * Command line entry point for bulk user imports, for migrations that are
+ * too large to push through the admin HTTP endpoint.
+ *
+ * Usage: BulkImportTool <file> [--format csv|ndjson] [--batch-size N] [--resume-from LINE]
+ */
+public class BulkImportTool {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: BulkImportTool <file> [--format csv|ndjson] [--batch-size N] [--resume-from LINE]");
+            System.exit(1);
+        }
+
+        String file = args[0];
+        String format = file.endsWith(".ndjson") || file.endsWith(".jsonl") ? "ndjson" : "csv";
+        int batchSize = BulkImportService.DEFAULT_BATCH_SIZE;
+        long resumeFrom = 0;
+
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--format" -> format = args[i + 1];
+                case "--batch-size" -> batchSize = Integer.parseInt(args[i + 1]);
+                case "--resume-from" -> resumeFrom = Long.parseLong(args[i + 1]);
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+        }
+
+        BulkImportService importService = new BulkImportService(new AuthService());
+        BulkImportReport report;
+        try (InputStream in = new FileInputStream(file)) {
+            report = importService.importUsers(in, format, batchSize, resumeFrom);
+        }
+
+        System.out.println(report);
+        System.out.printf("Throughput: %.0f rows/s%n", report.getRowsPerSecond());
+        for (BulkImportReport.RowError error : report.getErrors()) {
+            System.out.println("  line " + error.getLine() + ": " + error.getMessage());
+        }
+        if (report.getRowsFailed() > report.getErrors().size()) {
+            System.out.println("  ... " + (report.getRowsFailed() - report.getErrors().size()) + " more errors not shown");
+        }
+        System.out.println("Resume with --resume-from " + report.getLastCommittedLine());
+    }
+}
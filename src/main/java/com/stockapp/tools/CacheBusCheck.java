@@ -0,0 +1,286 @@
+package com.stockapp.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+
+import stockapp.src.cache.InvalidationBus;
+import stockapp.src.dao.PortfolioDAO;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.models.Portfolio;
+import stockapp.src.models.Stock;
+
+/**
+ * Checks that the cache invalidation bus keeps several application nodes
+ * consistent. Starts --nodes separate JVMs (default 3) that share one
+ * file-based H2 database, each with its own TradingStateCache, and drives
+ * them over stdin/stdout:
+ * <ol>
+ * <li>every node caches a quote and a user's positions</li>
+ * <li>one node changes the price, or buys a share for the user</li>
+ * <li>the other nodes are read until they return the new value</li>
+ * </ol>
+ * The writer rotates between nodes each round. The time until every node
+ * has the new value is reported per round; the run fails if a node still
+ * serves the old value after --timeout-ms. Needs no MySQL server (stop it,
+ * or the nodes would share that instead) and no broker.
+ *
+ * Usage: CacheBusCheck [--nodes N] [--rounds N] [--poll-ms N] [--timeout-ms N] [--verbose]
+ */
+public class CacheBusCheck {
+
+    private static final int STOCK_ID = 1;
+    private static final int USER_ID = 2;
+    private static final String REPLY = "@ ";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--node")) {
+            runNode();
+            return;
+        }
+
+        int nodeCount = 3;
+        int rounds = 10;
+        long pollMillis = 100;
+        long timeoutMillis = 10_000;
+        boolean verbose = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--nodes" -> nodeCount = Integer.parseInt(args[++i]);
+                case "--rounds" -> rounds = Integer.parseInt(args[++i]);
+                case "--poll-ms" -> pollMillis = Long.parseLong(args[++i]);
+                case "--timeout-ms" -> timeoutMillis = Long.parseLong(args[++i]);
+                case "--verbose" -> verbose = true;
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+        }
+        if (nodeCount < 2) {
+            System.err.println("Need at least two nodes");
+            System.exit(1);
+        }
+
+        File directory = Files.createTempDirectory("stockapp-cache-bus").toFile();
+        String url = "jdbc:h2:file:" + new File(directory, "stockapp").getAbsolutePath().replace('\\', '/')
+                + ";AUTO_SERVER=TRUE";
+
+        // Holding a connection keeps this process the database server while the nodes come and go
+        Connection keepAlive = DriverManager.getConnection(url, "sa", "");
+        List<Node> nodes = new ArrayList<>();
+        boolean passed = true;
+        try {
+            for (int i = 0; i < nodeCount; i++) {
+                nodes.add(Node.start("node-" + i, url, pollMillis, verbose));
+            }
+            for (Node node : nodes) {
+                node.call("ready");
+            }
+            System.out.println(nodeCount + " nodes up, polling every " + pollMillis + " ms");
+
+            long worstPrice = 0;
+            long worstPositions = 0;
+            for (int round = 1; round <= rounds; round++) {
+                Node writer = nodes.get(round % nodeCount);
+                for (Node node : nodes) {
+                    node.call("price " + STOCK_ID);
+                    node.call("positions " + USER_ID);
+                }
+
+                String price = writer.call("setprice " + STOCK_ID + " " + (100 + round) + ".00");
+                long priceLag = awaitAll(nodes, writer, "price " + STOCK_ID, price, timeoutMillis);
+
+                String positions = writer.call("buy " + USER_ID + " " + STOCK_ID + " " + price);
+                long positionsLag = awaitAll(nodes, writer, "positions " + USER_ID, positions, timeoutMillis);
+
+                System.out.println("Round " + round + ": " + writer.name + " set price " + price + " -> all nodes in "
+                        + describe(priceLag) + "; bought to " + positions + " shares -> all nodes in "
+                        + describe(positionsLag));
+                if (priceLag < 0 || positionsLag < 0) {
+                    passed = false;
+                    break;
+                }
+                worstPrice = Math.max(worstPrice, priceLag);
+                worstPositions = Math.max(worstPositions, positionsLag);
+            }
+            if (passed) {
+                System.out.println("Worst propagation: prices " + worstPrice + " ms, positions " + worstPositions + " ms");
+            }
+        } finally {
+            for (Node node : nodes) {
+                node.stop();
+            }
+            keepAlive.close();
+        }
+        System.out.println(passed ? "PASS" : "FAIL");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Reads every node but the writer until it answers expected.
+     *
+     * @return milliseconds until the last node did, or -1 on timeout
+     */
+    private static long awaitAll(List<Node> nodes, Node writer, String command, String expected, long timeoutMillis)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + timeoutMillis * 1_000_000;
+        for (Node node : nodes) {
+            if (node == writer) {
+                continue;
+            }
+            String value;
+            while (!(value = node.call(command)).equals(expected)) {
+                if (System.nanoTime() > deadline) {
+                    System.out.println("  " + node.name + " still answers " + value + " to '" + command
+                            + "', expected " + expected);
+                    return -1;
+                }
+                Thread.sleep(5);
+            }
+        }
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static String describe(long lag) {
+        return lag < 0 ? "TIMEOUT" : lag + " ms";
+    }
+
+    // ================== NODE PROCESS ==================
+
+    /**
+     * A node JVM and its command pipe.
+     */
+    private static final class Node {
+        final String name;
+        final Process process;
+        final PrintWriter in;
+        final BufferedReader out;
+
+        private Node(String name, Process process) {
+            this.name = name;
+            this.process = process;
+            this.in = new PrintWriter(process.getOutputStream(), true, StandardCharsets.UTF_8);
+            this.out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        static Node start(String name, String url, long pollMillis, boolean verbose) throws IOException {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            ProcessBuilder builder = new ProcessBuilder(java,
+                    "-cp", System.getProperty("java.class.path"),
+                    "-Dstockapp.db.h2-url=" + url,
+                    "-Dstockapp.cache.bus=true",
+                    "-Dstockapp.cache.bus.poll-ms=" + pollMillis,
+                    "-Dstockapp.node.id=" + name,
+                    CacheBusCheck.class.getName(), "--node");
+            // Every connection attempt logs the MySQL fallback on stderr
+            builder.redirectError(verbose ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.DISCARD);
+            return new Node(name, builder.start());
+        }
+
+        /**
+         * Sends one command and returns the reply, skipping the node's log output.
+         */
+        String call(String command) throws IOException {
+            in.println(command);
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.startsWith(REPLY)) {
+                    String reply = line.substring(REPLY.length());
+                    if (reply.startsWith("error")) {
+                        throw new IOException(name + ": " + reply);
+                    }
+                    return reply;
+                }
+            }
+            throw new IOException(name + " exited");
+        }
+
+        void stop() {
+            in.println("quit");
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Node side: answers commands on stdin with lines starting with "@ ".
+     */
+    private static void runNode() throws IOException {
+        InvalidationBus bus = InvalidationBus.getInstance();
+        bus.start();
+        StockDAO stockDAO = new StockDAO();
+        PortfolioDAO portfolioDAO = new PortfolioDAO();
+
+        BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = commands.readLine()) != null) {
+            String[] words = line.trim().split(" ");
+            String reply;
+            try {
+                reply = switch (words[0]) {
+                    case "ready" -> bus.getNodeId();
+                    case "price" -> {
+                        Stock stock = stockDAO.getStockById(Integer.parseInt(words[1]));
+                        yield stock != null ? stock.getPrice().toPlainString() : "none";
+                    }
+                    case "setprice" -> {
+                        Stock stock = stockDAO.getStockById(Integer.parseInt(words[1]));
+                        stock.setPrice(new BigDecimal(words[2]));
+                        stockDAO.updateStock(stock);
+                        yield stockDAO.getStockById(stock.getId()).getPrice().toPlainString();
+                    }
+                    case "positions" -> {
+                        int shares = 0;
+                        for (Portfolio p : portfolioDAO.getPortfolioByUser(Integer.parseInt(words[1]))) {
+                            shares += p.getQuantity();
+                        }
+                        yield Integer.toString(shares);
+                    }
+                    case "buy" -> {
+                        int userId = Integer.parseInt(words[1]);
+                        int stockId = Integer.parseInt(words[2]);
+                        double price = Double.parseDouble(words[3]);
+                        Portfolio item = portfolioDAO.getPortfolioItem(userId, stockId);
+                        if (item == null) {
+                            portfolioDAO.addToPortfolio(userId, stockId, 1, price);
+                        } else {
+                            item.setQuantity(item.getQuantity() + 1);
+                            portfolioDAO.updatePortfolioItem(item);
+                        }
+                        int shares = 0;
+                        for (Portfolio p : portfolioDAO.getPortfolioByUser(userId)) {
+                            shares += p.getQuantity();
+                        }
+                        yield Integer.toString(shares);
+                    }
+                    case "quit" -> null;
+                    default -> "error unknown command " + words[0];
+                };
+            } catch (RuntimeException e) {
+                reply = "error " + e;
+            }
+            if (reply == null) {
+                break;
+            }
+            System.out.println(REPLY + reply);
+            System.out.flush();
+        }
+        bus.stop();
+        System.exit(0);
+    }
+}
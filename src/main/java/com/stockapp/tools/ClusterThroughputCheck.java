@@ -0,0 +1,352 @@
+package com.stockapp.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.stockapp.services.OrderRouter;
+import com.stockapp.services.OrderService;
+
+import stockapp.src.DatabaseConnection;
+import stockapp.src.cache.InvalidationBus;
+import stockapp.src.cluster.HashRing;
+import stockapp.src.cluster.OrderRpc;
+import stockapp.src.cluster.OrderRpcClient;
+
+/**
+ * Measures order throughput of a local cluster as nodes are added.
+ *
+ * For each cluster size in --sizes (default 1,2,4) the tool starts that many
+ * node JVMs, each running OrderService and OrderRouter without the web
+ * layer, and sends --orders buy orders (default 4000) from --clients
+ * concurrent callers (default 32). Every order goes to a random node, as a
+ * load balancer would send it, and that node forwards it to the owner of the
+ * symbol. Orders per second and the speedup over the first size are printed,
+ * together with how many of --symbols symbols (default 64) moved when the
+ * ring grew.
+ *
+ * All nodes share one file-based H2 database served from this process, so
+ * the database caps the speedup long before the order workers do; run it
+ * with MySQL stopped so the nodes do not use that instead.
+ *
+ * Usage: ClusterThroughputCheck [--sizes 1,2,4] [--orders N] [--clients N] [--symbols N] [--users N]
+ *        [--port N] [--verbose]
+ */
+public class ClusterThroughputCheck {
+
+    private static final String REPLY = "@ ";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--node")) {
+            runNode();
+            return;
+        }
+
+        int[] sizes = { 1, 2, 4 };
+        int orderCount = 4000;
+        int clientCount = 32;
+        int symbolCount = 64;
+        int userCount = 64;
+        int basePort = 17100;
+        boolean verbose = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes" -> {
+                    String[] parts = args[++i].split(",");
+                    sizes = new int[parts.length];
+                    for (int j = 0; j < parts.length; j++) {
+                        sizes[j] = Integer.parseInt(parts[j].trim());
+                    }
+                }
+                case "--orders" -> orderCount = Integer.parseInt(args[++i]);
+                case "--clients" -> clientCount = Integer.parseInt(args[++i]);
+                case "--symbols" -> symbolCount = Integer.parseInt(args[++i]);
+                case "--users" -> userCount = Integer.parseInt(args[++i]);
+                case "--port" -> basePort = Integer.parseInt(args[++i]);
+                case "--verbose" -> verbose = true;
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+        }
+
+        File directory = Files.createTempDirectory("stockapp-cluster").toFile();
+        String url = "jdbc:h2:file:" + new File(directory, "stockapp").getAbsolutePath().replace('\\', '/')
+                + ";AUTO_SERVER=TRUE";
+        // Must be set before the first connection
+        System.setProperty("stockapp.db.h2-url", url);
+
+        // Holding a connection keeps this process the database server while the nodes come and go
+        Connection keepAlive = DatabaseConnection.getConnection();
+        if (keepAlive == null) {
+            System.err.println("No database available");
+            System.exit(1);
+        }
+        if (!keepAlive.getMetaData().getDatabaseProductName().toUpperCase().contains("H2")) {
+            System.err.println("The database is not H2; stop MySQL and run again");
+            System.exit(1);
+        }
+        List<Integer> stockIds = seedStocks(keepAlive, symbolCount);
+        List<Integer> userIds = seedUsers(keepAlive, userCount);
+
+        double baseline = 0;
+        HashRing previous = null;
+        List<String> symbols = symbols(symbolCount);
+        for (int size : sizes) {
+            List<Node> nodes = new ArrayList<>();
+            try {
+                for (int i = 0; i < size; i++) {
+                    nodes.add(Node.start("node-" + i, url, basePort + i, verbose));
+                }
+                for (Node node : nodes) {
+                    node.await("ready");
+                }
+                awaitMembers(keepAlive, size);
+
+                List<String> nodeIds = new ArrayList<>();
+                for (Node node : nodes) {
+                    nodeIds.add(node.name);
+                }
+                HashRing ring = new HashRing(nodeIds, Integer.getInteger("stockapp.cluster.vnodes", 128));
+                String moved = previous != null
+                        ? ", " + movedSymbols(previous, ring, symbols) + " of " + symbolCount + " symbols moved"
+                        : "";
+                previous = ring;
+
+                long start = System.nanoTime();
+                int[] outcome = sendOrders(nodes, orderCount, clientCount, stockIds, userIds);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                double rate = outcome[0] / seconds;
+                if (baseline == 0) {
+                    baseline = rate;
+                }
+                System.out.printf("%d node(s): %d filled, %d failed in %.2f s, %.0f orders/s, speedup %.2fx%s%n",
+                        size, outcome[0], outcome[1], seconds, rate, rate / baseline, moved);
+            } finally {
+                for (Node node : nodes) {
+                    node.stop();
+                }
+            }
+        }
+        keepAlive.close();
+        System.exit(0);
+    }
+
+    /**
+     * Sends the orders from clientCount threads, each to a random node.
+     *
+     * @return filled and failed counts
+     */
+    private static int[] sendOrders(List<Node> nodes, int orderCount, int clientCount, List<Integer> stockIds,
+            List<Integer> userIds) throws InterruptedException {
+        OrderRpcClient client = new OrderRpcClient();
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger filled = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clientCount; c++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (next.getAndIncrement() < orderCount) {
+                    Node node = nodes.get(random.nextInt(nodes.size()));
+                    OrderRpc.Request request = new OrderRpc.Request(OrderRpc.EXECUTE, false,
+                            userIds.get(random.nextInt(userIds.size())), "BUY",
+                            stockIds.get(random.nextInt(stockIds.size())), 1, 0, 0);
+                    try {
+                        if (client.call(node.address, request).code() == OrderRpc.OK) {
+                            filled.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        client.close();
+        return new int[] { filled.get(), failed.get() };
+    }
+
+    private static int movedSymbols(HashRing before, HashRing after, List<String> symbols) {
+        int moved = 0;
+        for (String symbol : symbols) {
+            if (!before.nodeFor(symbol).equals(after.nodeFor(symbol))) {
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Waits until the nodes see each other, i.e. every one has heartbeated.
+     */
+    private static void awaitMembers(Connection conn, int size) throws Exception {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM cluster_nodes WHERE heartbeat_at >= ?")) {
+                stmt.setLong(1, System.currentTimeMillis() - 3000);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next() && rs.getInt(1) >= size) {
+                        // One more heartbeat, so every node has read the full membership
+                        Thread.sleep(2 * Long.getLong("stockapp.cluster.heartbeat-ms", 500));
+                        return;
+                    }
+                }
+            }
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException("Nodes did not join within 30 s");
+    }
+
+    // ================== SEED DATA ==================
+
+    private static List<String> symbols(int count) {
+        List<String> symbols = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            symbols.add("CL" + i);
+        }
+        return symbols;
+    }
+
+    private static List<Integer> seedStocks(Connection conn, int count) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO stocks (symbol, name, price) VALUES (?, ?, 100.00)", Statement.RETURN_GENERATED_KEYS)) {
+            for (String symbol : symbols(count)) {
+                insert.setString(1, symbol);
+                insert.setString(2, "Cluster test " + symbol);
+                insert.executeUpdate();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    keys.next();
+                    ids.add(keys.getInt(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static List<Integer> seedUsers(Connection conn, int count) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO users (username, password, balance) VALUES (?, 'demo', 1000000000.00)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            for (int i = 0; i < count; i++) {
+                insert.setString(1, "cluster_user_" + i);
+                insert.executeUpdate();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    keys.next();
+                    ids.add(keys.getInt(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    // ================== NODE PROCESS ==================
+
+    /**
+     * A node JVM and its control pipe.
+     */
+    private static final class Node {
+        final String name;
+        final String address;
+        final Process process;
+        final PrintWriter in;
+        final BufferedReader out;
+
+        private Node(String name, String address, Process process) {
+            this.name = name;
+            this.address = address;
+            this.process = process;
+            this.in = new PrintWriter(process.getOutputStream(), true, StandardCharsets.UTF_8);
+            this.out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        static Node start(String name, String url, int port, boolean verbose) throws IOException {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            List<String> command = new ArrayList<>(List.of(java,
+                    "-cp", System.getProperty("java.class.path"),
+                    "-Dstockapp.db.h2-url=" + url,
+                    "-Dstockapp.cache.bus=true",
+                    "-Dstockapp.cache.bus.poll-ms=100",
+                    "-Dstockapp.node.id=" + name,
+                    "-Dstockapp.cluster.rpc-port=" + port));
+            for (String property : List.of("stockapp.cluster.vnodes", "stockapp.cluster.heartbeat-ms",
+                    "stockapp.orders.workers")) {
+                if (System.getProperty(property) != null) {
+                    command.add("-D" + property + "=" + System.getProperty(property));
+                }
+            }
+            command.add(ClusterThroughputCheck.class.getName());
+            command.add("--node");
+            ProcessBuilder builder = new ProcessBuilder(command);
+            // Every connection attempt logs the MySQL fallback on stderr
+            builder.redirectError(verbose ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.DISCARD);
+            return new Node(name, "127.0.0.1:" + port, builder.start());
+        }
+
+        /**
+         * Reads the node's output until it reports the given state.
+         */
+        void await(String state) throws IOException {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.startsWith(REPLY + state)) {
+                    return;
+                }
+            }
+            throw new IOException(name + " exited");
+        }
+
+        void stop() {
+            in.println("quit");
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Node side: runs the order workers and the order RPC until told to quit.
+     */
+    private static void runNode() throws IOException {
+        OrderService orderService = new OrderService();
+        orderService.init();
+        OrderRouter router = new OrderRouter(orderService);
+        router.init();
+        System.out.println(REPLY + "ready");
+        System.out.flush();
+
+        BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = commands.readLine()) != null && !line.trim().equals("quit")) {
+            // Only quit is understood
+        }
+        router.shutdown();
+        orderService.shutdown();
+        InvalidationBus.getInstance().stop();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,145 @@
+package com.stockapp.tools;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import stockapp.src.analytics.Kernels;
+import stockapp.src.analytics.RiskAnalytics;
+
+/**
+ * Compares the Vector API kernels with plain scalar loops on synthetic
+ * returns: first the dot product alone on one thread, then the whole risk
+ * computation (volatility, beta and the full correlation matrix) on a
+ * fork-join pool. The returns follow a one-factor model, so correlations
+ * are spread out rather than all near zero. Reports the best time of the
+ * measured iterations and the largest difference between the two
+ * matrices; no database is needed.
+ *
+ * Must run with --add-modules jdk.incubator.vector, or only the scalar
+ * loops are measured.
+ *
+ * Usage: CorrelationBenchmark [--symbols N] [--returns N] [--iterations N] [--threads N]
+ */
+public class CorrelationBenchmark {
+
+    public static void main(String[] args) {
+        int symbols = 2000;
+        int length = 720;
+        int iterations = 5;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--symbols" -> symbols = Integer.parseInt(args[i + 1]);
+                case "--returns" -> length = Integer.parseInt(args[i + 1]);
+                case "--iterations" -> iterations = Integer.parseInt(args[i + 1]);
+                case "--threads" -> threads = Integer.parseInt(args[i + 1]);
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+        }
+
+        double[][] returns = syntheticReturns(symbols, length, new Random(42));
+        Kernels scalar = Kernels.scalar();
+        Kernels vector = Kernels.vectorAvailable() ? Kernels.vector() : null;
+        if (vector == null) {
+            System.out.println("jdk.incubator.vector is not loaded; measuring the scalar loops only");
+        }
+
+        System.out.printf("%d symbols x %d returns, %d threads%n", symbols, length, threads);
+
+        // Kernel alone: every pair of the first 256 rows, one thread
+        int rows = Math.min(256, symbols);
+        long scalarDot = bestDotNanos(scalar, returns, rows, length, iterations);
+        System.out.printf("dot, scalar: %8.1f ns per pair%n", scalarDot / (double) pairs(rows));
+        if (vector != null) {
+            long vectorDot = bestDotNanos(vector, returns, rows, length, iterations);
+            System.out.printf("dot, vector: %8.1f ns per pair (%.1fx)%n", vectorDot / (double) pairs(rows),
+                    scalarDot / (double) vectorDot);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            RiskAnalytics.Result[] last = new RiskAnalytics.Result[1];
+            long scalarFull = bestFullNanos(scalar, returns, pool, iterations, last);
+            double[][] scalarMatrix = last[0].getCorrelations();
+            System.out.printf("full matrix, scalar: %8.1f ms%n", scalarFull / 1e6);
+            if (vector != null) {
+                long vectorFull = bestFullNanos(vector, returns, pool, iterations, last);
+                System.out.printf("full matrix, vector: %8.1f ms (%.1fx)%n", vectorFull / 1e6,
+                        scalarFull / (double) vectorFull);
+                System.out.printf("largest difference: %.3g%n", maxDifference(scalarMatrix, last[0].getCorrelations()));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static long bestDotNanos(Kernels kernels, double[][] returns, int rows, int length, int iterations) {
+        long best = Long.MAX_VALUE;
+        double sink = 0;
+        // First round warms up
+        for (int round = -1; round < iterations; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < rows; i++) {
+                for (int j = i + 1; j < rows; j++) {
+                    sink += kernels.dot(returns[i], returns[j], length);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round >= 0) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        if (sink == 42.4242) {
+            System.out.println();
+        }
+        return best;
+    }
+
+    private static long bestFullNanos(Kernels kernels, double[][] returns, ForkJoinPool pool, int iterations,
+            RiskAnalytics.Result[] last) {
+        long best = Long.MAX_VALUE;
+        for (int round = -1; round < iterations; round++) {
+            long start = System.nanoTime();
+            last[0] = RiskAnalytics.compute(returns, null, 365.0 * 24, true, kernels, pool);
+            long elapsed = System.nanoTime() - start;
+            if (round >= 0) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        return best;
+    }
+
+    private static long pairs(int rows) {
+        return (long) rows * (rows - 1) / 2;
+    }
+
+    private static double maxDifference(double[][] a, double[][] b) {
+        double max = 0;
+        for (int i = 0; i < a.length; i++) {
+            for (int j = 0; j < a.length; j++) {
+                max = Math.max(max, Math.abs(a[i][j] - b[i][j]));
+            }
+        }
+        return max;
+    }
+
+    private static double[][] syntheticReturns(int symbols, int length, Random random) {
+        double[] market = new double[length];
+        for (int t = 0; t < length; t++) {
+            market[t] = random.nextGaussian() * 0.01;
+        }
+        double[][] returns = new double[symbols][length];
+        for (int i = 0; i < symbols; i++) {
+            double beta = 0.2 + random.nextDouble() * 1.6;
+            double noise = 0.005 + random.nextDouble() * 0.02;
+            for (int t = 0; t < length; t++) {
+                returns[i][t] = beta * market[t] + random.nextGaussian() * noise;
+            }
+        }
+        return returns;
+    }
+}
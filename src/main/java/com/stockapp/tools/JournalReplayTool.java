@@ -0,0 +1,152 @@
+package com.stockapp.tools;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import stockapp.src.dao.PortfolioDAO;
+import stockapp.src.dao.StockDAO;
+import stockapp.src.dao.UserDAO;
+import stockapp.src.journal.JournalReader;
+import stockapp.src.journal.JournalRecord;
+import stockapp.src.journal.TradeJournal;
+import stockapp.src.models.Portfolio;
+import stockapp.src.models.Stock;
+
+/**
+ * Rebuilds balances, positions and prices by replaying the trade journal,
+ * for recovery and audit without touching the live tables.
+ *
+ * By default the rebuilt state is only printed. With --apply it is written
+ * back through the DAOs, which repairs the database after a crash that left
+ * it behind the journal.
+ *
+ * Usage: JournalReplayTool [--dir DIR] [--after SEQ] [--apply] [--verbose]
+ */
+public class JournalReplayTool {
+
+    public static void main(String[] args) throws Exception {
+        File dir = TradeJournal.defaultDirectory();
+        long after = 0;
+        boolean apply = false;
+        boolean verbose = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dir" -> dir = new File(args[++i]);
+                case "--after" -> after = Long.parseLong(args[++i]);
+                case "--apply" -> apply = true;
+                case "--verbose" -> verbose = true;
+                default -> {
+                    System.err.println("Usage: JournalReplayTool [--dir DIR] [--after SEQ] [--apply] [--verbose]");
+                    System.exit(1);
+                }
+            }
+        }
+
+        ReplayState state = new ReplayState(verbose);
+        long start = System.nanoTime();
+        long last = JournalReader.replay(dir, after, state);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Replayed %d records (sequence %d..%d) in %.3fs%n",
+                state.records, after + 1, last, seconds);
+        System.out.println("Users: " + state.balances.size()
+                + ", positions: " + state.positions.size()
+                + ", stocks: " + state.prices.size());
+        for (Map.Entry<Integer, BigDecimal> e : state.balances.entrySet()) {
+            System.out.println("  user " + e.getKey() + " balance " + e.getValue().toPlainString());
+        }
+        for (Map.Entry<Integer, BigDecimal> e : state.prices.entrySet()) {
+            System.out.println("  stock " + e.getKey() + " price " + e.getValue().toPlainString());
+        }
+
+        if (apply) {
+            state.apply();
+        }
+    }
+
+    /**
+     * Latest balance, position and price seen per key. Records carry
+     * absolute values, so the last one wins.
+     */
+    private static class ReplayState implements JournalReader.RecordHandler {
+        private final boolean verbose;
+        private final TreeMap<Integer, BigDecimal> balances = new TreeMap<>();
+        private final TreeMap<Integer, BigDecimal> prices = new TreeMap<>();
+        // key: userId << 32 | stockId, value: {quantity, scaled avg price}
+        private final Map<Long, long[]> positions = new HashMap<>();
+        private long records;
+
+        ReplayState(boolean verbose) {
+            this.verbose = verbose;
+        }
+
+        @Override
+        public void onRecord(JournalRecord record) {
+            records++;
+            if (verbose) {
+                System.out.println(record);
+            }
+            switch (record.getType()) {
+                case TradeJournal.TYPE_FILL -> {
+                    balances.put(record.getUserId(), record.getBalanceAfter());
+                    long key = ((long) record.getUserId() << 32) | (record.getStockId() & 0xffffffffL);
+                    positions.put(key, new long[] { record.getPositionAfter(), record.getScaledAvgPriceAfter() });
+                }
+                case TradeJournal.TYPE_ROLLBACK -> {
+                    balances.put(record.getUserId(), record.getBalanceAfter());
+                    if (record.getPositionAfter() >= 0) {
+                        long key = ((long) record.getUserId() << 32) | (record.getStockId() & 0xffffffffL);
+                        positions.put(key, new long[] { record.getPositionAfter(), record.getScaledAvgPriceAfter() });
+                    }
+                }
+                case TradeJournal.TYPE_PRICE -> prices.put(record.getStockId(), record.getPrice());
+                default -> {
+                    // Orders are informational; fills carry the resulting state
+                }
+            }
+        }
+
+        void apply() {
+            UserDAO userDAO = new UserDAO();
+            PortfolioDAO portfolioDAO = new PortfolioDAO();
+            StockDAO stockDAO = new StockDAO();
+
+            for (Map.Entry<Integer, BigDecimal> e : balances.entrySet()) {
+                userDAO.updateUserBalance(e.getKey(), e.getValue());
+            }
+
+            for (Map.Entry<Long, long[]> e : positions.entrySet()) {
+                int userId = (int) (e.getKey() >>> 32);
+                int stockId = (int) (long) e.getKey();
+                int quantity = (int) e.getValue()[0];
+                double avgPrice = TradeJournal.unscale(e.getValue()[1]).doubleValue();
+
+                Portfolio existing = portfolioDAO.getPortfolioItem(userId, stockId);
+                if (quantity <= 0) {
+                    if (existing != null) {
+                        portfolioDAO.deletePortfolioItem(existing);
+                    }
+                } else if (existing == null) {
+                    portfolioDAO.createPortfolioItem(new Portfolio(userId, stockId, quantity, 0, avgPrice));
+                } else {
+                    existing.setQuantity(quantity);
+                    existing.setAvgPrice(avgPrice);
+                    portfolioDAO.updatePortfolioItem(existing);
+                }
+            }
+
+            for (Map.Entry<Integer, BigDecimal> e : prices.entrySet()) {
+                Stock stock = stockDAO.getStockById(e.getKey());
+                if (stock != null) {
+                    stock.setPrice(e.getValue());
+                    stockDAO.updateStock(stock);
+                }
+            }
+            System.out.println("Applied replayed state to the database");
+        }
+    }
+}
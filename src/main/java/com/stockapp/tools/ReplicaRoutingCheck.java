@@ -0,0 +1,122 @@
+package com.stockapp.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import stockapp.src.DatabaseConnection;
+import stockapp.src.ReplicaRouter;
+import stockapp.src.dao.TransactionDAO;
+
+/**
+ * Walks through read routing with two in-memory H2 databases standing in
+ * for primary and replica. Run it without a MySQL server, so the primary
+ * falls back to H2.
+ *
+ * Replication is simulated by copying the primary into the replica with
+ * SCRIPT / RUNSCRIPT. The tool prints where reads go:
+ * <ol>
+ * <li>before the first copy the replica has no heartbeat, so reads use the primary</li>
+ * <li>after a copy, reads use the replica</li>
+ * <li>after a user writes, that user's reads stay on the primary until the next copy</li>
+ * <li>without copies the replica falls behind the lag bound and reads return to the primary</li>
+ * </ol>
+ *
+ * Usage: ReplicaRoutingCheck [--max-lag-ms N]
+ */
+public class ReplicaRoutingCheck {
+
+    private static final String REPLICA_URL = "jdbc:h2:mem:stockapp_replica;DB_CLOSE_DELAY=-1";
+    private static final long HEARTBEAT_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        long maxLag = 1000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--max-lag-ms" -> maxLag = Long.parseLong(args[i + 1]);
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+        }
+
+        // Must be set before the router is first used
+        System.setProperty("stockapp.db.replicas", REPLICA_URL);
+        System.setProperty("stockapp.db.replica.user", "sa");
+        System.setProperty("stockapp.db.replica.password", "");
+        System.setProperty("stockapp.db.replica.heartbeat-ms", Long.toString(HEARTBEAT_MILLIS));
+        System.setProperty("stockapp.db.replica.max-lag-ms", Long.toString(maxLag));
+
+        Connection primary = DatabaseConnection.getConnection();
+        if (primary == null) {
+            System.err.println("No database available");
+            System.exit(1);
+        }
+        if (!primary.getMetaData().getDatabaseProductName().toUpperCase().contains("H2")) {
+            System.err.println("The primary is not H2; stop MySQL and run again");
+            System.exit(1);
+        }
+        DatabaseConnection.closeConnection(primary);
+
+        ReplicaRouter router = ReplicaRouter.getInstance();
+        int trader = 2;
+        int other = 1;
+
+        report("No copy yet", router, trader, other);
+
+        replicate();
+        report("After copying the primary", router, trader, other);
+
+        TransactionDAO transactionDAO = new TransactionDAO();
+        transactionDAO.recordTransaction(trader, 1, 1, 150.00, "BUY");
+        report("Right after user " + trader + " traded", router, trader, other);
+        System.out.println("  user " + trader + " sees " + transactionDAO.getTransactionsByUser(trader).size()
+                + " transaction(s)");
+
+        replicate();
+        report("After the next copy", router, trader, other);
+
+        Thread.sleep(maxLag + 2 * HEARTBEAT_MILLIS);
+        report("After " + maxLag + " ms without a copy", router, trader, other);
+        System.exit(0);
+    }
+
+    /**
+     * Copies the primary into the replica and waits for a heartbeat to read it.
+     */
+    private static void replicate() throws IOException, SQLException, InterruptedException {
+        // Let the primary's heartbeat move past the writes made so far
+        Thread.sleep(2 * HEARTBEAT_MILLIS);
+        File script = File.createTempFile("stockapp-replica", ".sql");
+        script.deleteOnExit();
+        String path = script.getAbsolutePath().replace('\\', '/');
+
+        Connection primary = DatabaseConnection.getConnection();
+        try (Statement stmt = primary.createStatement()) {
+            stmt.execute("SCRIPT TO '" + path + "'");
+        } finally {
+            DatabaseConnection.closeConnection(primary);
+        }
+        try (Connection replica = DriverManager.getConnection(REPLICA_URL, "sa", "");
+                Statement stmt = replica.createStatement()) {
+            stmt.execute("DROP ALL OBJECTS");
+            stmt.execute("RUNSCRIPT FROM '" + path + "'");
+        }
+        Thread.sleep(3 * HEARTBEAT_MILLIS);
+    }
+
+    private static void report(String step, ReplicaRouter router, int trader, int other) {
+        System.out.println(step + ":");
+        System.out.println("  admin listing -> " + target(router.routeFor(ReplicaRouter.ANY)));
+        System.out.println("  user " + trader + "      -> " + target(router.routeFor(trader)));
+        System.out.println("  user " + other + "      -> " + target(router.routeFor(other)));
+    }
+
+    private static String target(String replicaUrl) {
+        return replicaUrl != null ? "replica" : "primary";
+    }
+}
@@ -0,0 +1,135 @@
+package com.stockapp.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stockapp.dto.JsonRows;
+import com.stockapp.dto.TransactionRow;
+
+import stockapp.src.models.Transaction;
+
+/**
+ * Measures heap allocation per serialized transaction row, comparing the old
+ * map-per-row responses with typed rows streamed through JsonRows.
+ *
+ * Both variants serialize the same synthetic history to a null stream with
+ * the same ObjectMapper; allocation is read from the thread allocation
+ * counter, so no database is needed.
+ *
+ * Usage: ResponseAllocationBenchmark [--rows N] [--iterations N]
+ */
+public class ResponseAllocationBenchmark {
+
+    private static final String[] SYMBOLS = { "AAPL", "MSFT", "GOOG", "AMZN", "TSLA", "NVDA", "META", "NFLX" };
+
+    public static void main(String[] args) throws Exception {
+        int rows = 10_000;
+        int iterations = 20;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--rows" -> rows = Integer.parseInt(args[i + 1]);
+                case "--iterations" -> iterations = Integer.parseInt(args[i + 1]);
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.err.println("Thread allocation counters are not supported by this JVM");
+            System.exit(1);
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        List<Transaction> history = syntheticHistory(rows);
+        ObjectMapper objectMapper = new ObjectMapper();
+        OutputStream sink = OutputStream.nullOutputStream();
+
+        // Warm up both paths so class loading and serializer caches are not counted
+        for (int i = 0; i < 5; i++) {
+            writeMaps(objectMapper, sink, history);
+            writeStreamed(objectMapper, sink, history);
+        }
+
+        long mapBytes = 0;
+        long streamedBytes = 0;
+        long mapNanos = 0;
+        long streamedNanos = 0;
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < iterations; i++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            writeMaps(objectMapper, sink, history);
+            mapNanos += System.nanoTime() - start;
+            mapBytes += threads.getThreadAllocatedBytes(threadId) - before;
+
+            before = threads.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            writeStreamed(objectMapper, sink, history);
+            streamedNanos += System.nanoTime() - start;
+            streamedBytes += threads.getThreadAllocatedBytes(threadId) - before;
+        }
+
+        double perRowMaps = (double) mapBytes / iterations / rows;
+        double perRowStreamed = (double) streamedBytes / iterations / rows;
+        System.out.printf("Rows: %d, iterations: %d%n", rows, iterations);
+        System.out.printf("Map rows:      %8.1f bytes/row  %8.1f ms/response%n", perRowMaps,
+                mapNanos / 1e6 / iterations);
+        System.out.printf("Streamed rows: %8.1f bytes/row  %8.1f ms/response%n", perRowStreamed,
+                streamedNanos / 1e6 / iterations);
+        System.out.printf("Allocation reduced %.1fx%n", perRowMaps / Math.max(perRowStreamed, 1.0));
+    }
+
+    /**
+     * The previous /api/transactions/list shape: a HashMap per row collected
+     * into a list, then handed to Jackson.
+     */
+    private static void writeMaps(ObjectMapper objectMapper, OutputStream out, List<Transaction> history)
+            throws IOException {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Transaction t : history) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("id", t.getId());
+            item.put("stockSymbol", symbolOf(t));
+            item.put("type", t.getType());
+            item.put("quantity", t.getQuantity());
+            item.put("price", t.getPrice().doubleValue());
+            item.put("total", t.getPrice().multiply(BigDecimal.valueOf(t.getQuantity())).doubleValue());
+            item.put("status", t.getStatus().toString());
+            item.put("timestamp", t.getCreatedAt());
+            result.add(item);
+        }
+        objectMapper.writeValue(out, result);
+    }
+
+    private static void writeStreamed(ObjectMapper objectMapper, OutputStream out, List<Transaction> history)
+            throws IOException {
+        JsonRows.write(objectMapper, out, history, t -> TransactionRow.of(t, symbolOf(t)));
+    }
+
+    private static String symbolOf(Transaction t) {
+        return SYMBOLS[t.getStockId() % SYMBOLS.length];
+    }
+
+    private static List<Transaction> syntheticHistory(int rows) {
+        List<Transaction> history = new ArrayList<>(rows);
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= rows; i++) {
+            BigDecimal price = BigDecimal.valueOf(10_000 + (i * 37L) % 90_000, 2);
+            history.add(new Transaction(i, 1 + i % 50, i % SYMBOLS.length, 1 + i % 100, price,
+                    new Timestamp(now - i * 60_000L), i % 3 == 0 ? "SELL" : "BUY", "COMPLETED"));
+        }
+        return history;
+    }
+}
@@ -0,0 +1,110 @@
+package com.stockapp.tools;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.util.List;
+
+import stockapp.src.DatabaseConnection;
+import stockapp.src.ShardRouter;
+import stockapp.src.dao.TransactionDAO;
+import stockapp.src.dao.UserDAO;
+import stockapp.src.models.Transaction;
+import stockapp.src.models.User;
+import stockapp.src.models.UserRole;
+
+/**
+ * Walks through user sharding with three in-memory H2 databases: the
+ * primary plus two shards. Run it without a MySQL server, so the primary
+ * falls back to H2.
+ *
+ * The tool creates a few users and shows:
+ * <ol>
+ * <li>which shard each user lands on</li>
+ * <li>that logins by username find users on any shard</li>
+ * <li>that the admin transaction listing merges all shards, newest first</li>
+ * <li>that a user moved with ShardTool keeps their id and history</li>
+ * </ol>
+ *
+ * Usage: ShardRoutingCheck [--users N]
+ */
+public class ShardRoutingCheck {
+
+    private static final String SHARD_URLS = "jdbc:h2:mem:stockapp_shard1;DB_CLOSE_DELAY=-1,"
+            + "jdbc:h2:mem:stockapp_shard2;DB_CLOSE_DELAY=-1";
+
+    public static void main(String[] args) throws Exception {
+        int userCount = 6;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--users" -> userCount = Integer.parseInt(args[i + 1]);
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+        }
+
+        // Must be set before the router is first used
+        System.setProperty("stockapp.db.shards", SHARD_URLS);
+        System.setProperty("stockapp.db.shard.user", "sa");
+        System.setProperty("stockapp.db.shard.password", "");
+
+        Connection primary = DatabaseConnection.getConnection();
+        if (primary == null) {
+            System.err.println("No database available");
+            System.exit(1);
+        }
+        if (!primary.getMetaData().getDatabaseProductName().toUpperCase().contains("H2")) {
+            System.err.println("The primary is not H2; stop MySQL and run again");
+            System.exit(1);
+        }
+        DatabaseConnection.closeConnection(primary);
+
+        ShardRouter router = ShardRouter.getInstance();
+        UserDAO userDAO = new UserDAO();
+        TransactionDAO transactionDAO = new TransactionDAO();
+
+        System.out.println("Creating " + userCount + " users:");
+        int firstId = -1;
+        for (int i = 1; i <= userCount; i++) {
+            User user = new User();
+            user.setUsername("shard_demo_" + i);
+            user.setPassword("demo");
+            user.setBalance(new BigDecimal("10000.00"));
+            user.setRole(UserRole.USER);
+            user.setActive(true);
+            int id = userDAO.createUser(user);
+            if (id < 0) {
+                System.err.println("Could not create " + user.getUsername());
+                System.exit(1);
+            }
+            if (firstId < 0) {
+                firstId = id;
+            }
+            transactionDAO.recordTransaction(id, 1, i, 150.00, "BUY");
+            System.out.println("  " + user.getUsername() + " -> id " + id + ", bucket " + ShardRouter.bucketOf(id)
+                    + ", shard " + router.shardOf(id));
+        }
+
+        User found = userDAO.findUserByUsername("shard_demo_" + userCount);
+        System.out.println("Lookup by username: " + (found != null ? "id " + found.getId() : "not found"));
+
+        List<Transaction> all = transactionDAO.getAllTransactions();
+        System.out.println("Admin listing: " + all.size() + " transactions across " + router.shardCount() + " shards");
+        for (Transaction t : all) {
+            System.out.println("  #" + t.getId() + " user " + t.getUserId() + " at " + t.getCreatedAt()
+                    + " (numbered on shard " + ShardRouter.idRangeOf(t.getId()) + ")");
+        }
+
+        int bucket = ShardRouter.bucketOf(firstId);
+        int target = (router.shardOf(firstId) + 1) % router.shardCount();
+        System.out.println(ShardTool.moveBucket(bucket, target));
+        User moved = userDAO.getUserById(firstId);
+        System.out.println("After the move user " + firstId + " is on shard " + router.shardOf(firstId) + ": "
+                + (moved != null ? moved.getUsername() : "missing") + ", "
+                + transactionDAO.getTransactionsByUser(firstId).size() + " transaction(s)");
+
+        ShardTool.printStatus(router);
+        System.exit(0);
+    }
+}
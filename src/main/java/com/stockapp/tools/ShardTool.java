@@ -0,0 +1,309 @@
+package com.stockapp.tools;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import stockapp.src.DatabaseConnection;
+import stockapp.src.ShardRouter;
+import stockapp.src.dao.ActivityLogPartitions;
+
+/**
+ * Shows the shard map and moves buckets of users between shards.
+ *
+ * A move copies the bucket's users with their portfolios, transactions,
+ * trade cancellations and activity logs to the target shard, points the
+ * bucket at the target and then deletes the rows from the source. User ids
+ * are kept; the other rows get new ids from the target's id range, and
+ * cancellations are re-linked to the new transaction ids.
+ *
+ * Run it with the application stopped (or the bucket's users quiesced):
+ * running instances cache the shard map and only pick up a move on restart.
+ * The shards are configured through the same system properties as the
+ * application (stockapp.db.shards, stockapp.db.shard.user / .password).
+ *
+ * Usage: ShardTool status
+ *        ShardTool move --bucket B --to SHARD
+ */
+public class ShardTool {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            usage();
+        }
+        ShardRouter router = ShardRouter.getInstance();
+        if (!router.isSharded()) {
+            System.err.println("No shards configured; set stockapp.db.shards");
+            System.exit(1);
+        }
+
+        switch (args[0]) {
+            case "status" -> printStatus(router);
+            case "move" -> {
+                int bucket = -1;
+                int target = -1;
+                for (int i = 1; i + 1 < args.length; i += 2) {
+                    switch (args[i]) {
+                        case "--bucket" -> bucket = Integer.parseInt(args[i + 1]);
+                        case "--to" -> target = Integer.parseInt(args[i + 1]);
+                        default -> {
+                            System.err.println("Unknown option: " + args[i]);
+                            System.exit(1);
+                        }
+                    }
+                }
+                if (bucket < 0 || bucket >= ShardRouter.BUCKETS || target < 0 || target >= router.shardCount()) {
+                    usage();
+                }
+                System.out.println(moveBucket(bucket, target));
+            }
+            default -> usage();
+        }
+        System.exit(0);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: ShardTool status | ShardTool move --bucket B --to SHARD");
+        System.exit(1);
+    }
+
+    /**
+     * Prints buckets and users per shard.
+     */
+    public static void printStatus(ShardRouter router) throws SQLException {
+        int[] buckets = new int[router.shardCount()];
+        for (int shard : router.getBucketMap()) {
+            buckets[shard]++;
+        }
+        for (int shard = 0; shard < router.shardCount(); shard++) {
+            long users;
+            try (Connection conn = DatabaseConnection.getShardConnection(shard);
+                    Statement stmt = conn.createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM users")) {
+                users = rs.next() ? rs.getLong(1) : 0;
+            }
+            System.out.println("shard " + shard + ": " + buckets[shard] + " buckets, " + users + " users");
+        }
+    }
+
+    /**
+     * Moves one bucket to the target shard.
+     *
+     * @return a summary of the rows moved
+     */
+    public static String moveBucket(int bucket, int target) throws SQLException {
+        ShardRouter router = ShardRouter.getInstance();
+        int source = router.getBucketMap()[bucket];
+        if (source == target) {
+            return "Bucket " + bucket + " is already on shard " + target;
+        }
+
+        Connection from = DatabaseConnection.getShardConnection(source);
+        Connection to = DatabaseConnection.getShardConnection(target);
+        if (from == null || to == null) {
+            DatabaseConnection.closeConnection(from);
+            DatabaseConnection.closeConnection(to);
+            throw new SQLException("Shard connection unavailable");
+        }
+        try {
+            Map<String, Integer> counts = new HashMap<>();
+            // Creating tables commits on MySQL, so do it before the copy starts
+            createLogPartitions(from, to, bucket);
+            to.setAutoCommit(false);
+            try {
+                copyBucket(from, to, bucket, counts);
+                to.commit();
+            } catch (SQLException | RuntimeException e) {
+                to.rollback();
+                throw e;
+            }
+
+            router.assign(bucket, target);
+
+            from.setAutoCommit(false);
+            try {
+                deleteBucket(from, bucket);
+                from.commit();
+            } catch (SQLException | RuntimeException e) {
+                // Put the bucket back where its rows still are and drop the copies
+                from.rollback();
+                router.assign(bucket, source);
+                deleteBucket(to, bucket);
+                to.commit();
+                throw e;
+            }
+            return "Moved bucket " + bucket + " from shard " + source + " to shard " + target + ": " + counts;
+        } finally {
+            DatabaseConnection.closeConnection(from);
+            DatabaseConnection.closeConnection(to);
+        }
+    }
+
+    // ================== COPY / DELETE ==================
+
+    private static void copyBucket(Connection from, Connection to, int bucket, Map<String, Integer> counts)
+            throws SQLException {
+        counts.put("users", copy(from, to, bucket,
+                "SELECT id, username, password, balance, role, is_active, created_at FROM users WHERE MOD(id, ?) = ?",
+                "INSERT INTO users (id, username, password, balance, role, is_active, created_at) VALUES (?, ?, ?, ?, ?, ?, ?)"));
+        counts.put("portfolios", copy(from, to, bucket,
+                "SELECT user_id, stock_id, quantity, average_price, created_at FROM portfolios WHERE MOD(user_id, ?) = ?",
+                "INSERT INTO portfolios (user_id, stock_id, quantity, average_price, created_at) VALUES (?, ?, ?, ?, ?)"));
+
+        // Old transaction id -> new id, for re-linking cancellations
+        Map<Integer, Integer> transactionIds = new HashMap<>();
+        try (PreparedStatement select = from.prepareStatement(
+                "SELECT id, user_id, stock_id, quantity, price, transaction_type, status, created_at, completed_at, "
+                        + "order_type, trigger_price, trail_amount, triggered_at "
+                        + "FROM transactions WHERE MOD(user_id, ?) = ?");
+                PreparedStatement insert = to.prepareStatement(
+                        "INSERT INTO transactions (user_id, stock_id, quantity, price, transaction_type, status, created_at, completed_at, "
+                                + "order_type, trigger_price, trail_amount, triggered_at) "
+                                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                        Statement.RETURN_GENERATED_KEYS)) {
+            select.setInt(1, ShardRouter.BUCKETS);
+            select.setInt(2, bucket);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    for (int i = 2; i <= 13; i++) {
+                        insert.setObject(i - 1, rs.getObject(i));
+                    }
+                    insert.executeUpdate();
+                    try (ResultSet keys = insert.getGeneratedKeys()) {
+                        if (!keys.next()) {
+                            throw new SQLException("No id generated for moved transaction " + rs.getInt(1));
+                        }
+                        transactionIds.put(rs.getInt(1), keys.getInt(1));
+                    }
+                }
+            }
+        }
+        counts.put("transactions", transactionIds.size());
+
+        int cancellations = 0;
+        try (PreparedStatement select = from.prepareStatement(
+                "SELECT original_transaction_id, user_id, reason, rollback_executed, cancelled_at "
+                        + "FROM trade_cancellations WHERE MOD(user_id, ?) = ?");
+                PreparedStatement insert = to.prepareStatement(
+                        "INSERT INTO trade_cancellations (original_transaction_id, user_id, reason, rollback_executed, cancelled_at) "
+                                + "VALUES (?, ?, ?, ?, ?)")) {
+            select.setInt(1, ShardRouter.BUCKETS);
+            select.setInt(2, bucket);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    Integer transactionId = transactionIds.get(rs.getInt(1));
+                    if (transactionId == null) {
+                        throw new SQLException("Cancellation refers to transaction " + rs.getInt(1)
+                                + ", which is not in bucket " + bucket);
+                    }
+                    insert.setInt(1, transactionId);
+                    for (int i = 2; i <= 5; i++) {
+                        insert.setObject(i, rs.getObject(i));
+                    }
+                    insert.executeUpdate();
+                    cancellations++;
+                }
+            }
+        }
+        counts.put("trade_cancellations", cancellations);
+
+        int logs = 0;
+        for (ActivityLogPartitions.Partition partition : ActivityLogPartitions.all(from)) {
+            try (PreparedStatement select = from.prepareStatement("SELECT user_id, activity_type, description, ip_address, logged_at FROM "
+                    + partition.getTable() + " WHERE MOD(user_id, ?) = ?")) {
+                select.setInt(1, ShardRouter.BUCKETS);
+                select.setInt(2, bucket);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        Timestamp loggedAt = rs.getTimestamp("logged_at");
+                        String table = ActivityLogPartitions.tableForCopy(to, loggedAt.toLocalDateTime());
+                        try (PreparedStatement insert = to.prepareStatement("INSERT INTO " + table
+                                + " (user_id, activity_type, description, ip_address, logged_at) VALUES (?, ?, ?, ?, ?)")) {
+                            for (int i = 1; i <= 5; i++) {
+                                insert.setObject(i, rs.getObject(i));
+                            }
+                            insert.executeUpdate();
+                        }
+                        logs++;
+                    }
+                }
+            }
+        }
+        counts.put("activity_logs", logs);
+    }
+
+    private static void createLogPartitions(Connection from, Connection to, int bucket) throws SQLException {
+        Set<YearMonth> months = new HashSet<>();
+        for (ActivityLogPartitions.Partition partition : ActivityLogPartitions.all(from)) {
+            try (PreparedStatement select = from.prepareStatement("SELECT DISTINCT logged_at FROM " + partition.getTable()
+                    + " WHERE MOD(user_id, ?) = ?")) {
+                select.setInt(1, ShardRouter.BUCKETS);
+                select.setInt(2, bucket);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        months.add(YearMonth.from(rs.getTimestamp(1).toLocalDateTime()));
+                    }
+                }
+            }
+        }
+        for (YearMonth month : months) {
+            ActivityLogPartitions.tableForCopy(to, month.atDay(1).atStartOfDay());
+        }
+    }
+
+    /**
+     * Copies the selected rows column by column; both statements must list
+     * the same columns in the same order.
+     */
+    private static int copy(Connection from, Connection to, int bucket, String selectSql, String insertSql)
+            throws SQLException {
+        int copied = 0;
+        try (PreparedStatement select = from.prepareStatement(selectSql);
+                PreparedStatement insert = to.prepareStatement(insertSql)) {
+            select.setInt(1, ShardRouter.BUCKETS);
+            select.setInt(2, bucket);
+            try (ResultSet rs = select.executeQuery()) {
+                int columns = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    for (int i = 1; i <= columns; i++) {
+                        insert.setObject(i, rs.getObject(i));
+                    }
+                    insert.addBatch();
+                    copied++;
+                }
+            }
+            if (copied > 0) {
+                insert.executeBatch();
+            }
+        }
+        return copied;
+    }
+
+    private static void deleteBucket(Connection conn, int bucket) throws SQLException {
+        // Children before parents
+        String[] tables = { "trade_cancellations", "portfolios", "transactions" };
+        for (String table : tables) {
+            delete(conn, "DELETE FROM " + table + " WHERE MOD(user_id, ?) = ?", bucket);
+        }
+        for (ActivityLogPartitions.Partition partition : ActivityLogPartitions.all(conn)) {
+            delete(conn, "DELETE FROM " + partition.getTable() + " WHERE MOD(user_id, ?) = ?", bucket);
+        }
+        delete(conn, "DELETE FROM users WHERE MOD(id, ?) = ?", bucket);
+    }
+
+    private static void delete(Connection conn, String sql, int bucket) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, ShardRouter.BUCKETS);
+            stmt.setInt(2, bucket);
+            stmt.executeUpdate();
+        }
+    }
+}
@@ -4,6 +4,9 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 
+import stockapp.src.cache.EquityLeaderboard;
+import stockapp.src.cache.InvalidationBus;
+
 /**
  * Standard utility class for managing the connection to the MySQL database.
  * This class provides a static method to obtain a database Connection object,
@@ -17,13 +20,15 @@ public class DatabaseConnection {
     private static final String MYSQL_DRIVER = "com.mysql.cj.jdbc.Driver";
 
     // --- 2. Connection Details ---
-    // H2 in-memory database for development
-    private static final String H2_URL = "jdbc:h2:mem:stockapp;DB_CLOSE_DELAY=-1";
+    // H2 in-memory database for development; stockapp.db.h2-url points
+    // several local processes at one shared H2 database instead
+    private static final String H2_URL = System.getProperty("stockapp.db.h2-url", "jdbc:h2:mem:stockapp;DB_CLOSE_DELAY=-1");
     private static final String H2_USER = "sa";
     private static final String H2_PASS = "";
 
     // MySQL for production
-    private static final String MYSQL_URL = "jdbc:mysql://localhost:3306/stockapp?serverTimezone=UTC";
+    // rewriteBatchedStatements lets Connector/J send JDBC batches as multi-row inserts
+    private static final String MYSQL_URL = "jdbc:mysql://localhost:3306/stockapp?serverTimezone=UTC&rewriteBatchedStatements=true";
     private static final String MYSQL_USER = "root";
     private static final String MYSQL_PASS = "strongpassword";
 
@@ -71,6 +76,71 @@ public class DatabaseConnection {
         return null;
     }
 
+    /**
+     * Connection for a read-only query that does not need to see any
+     * particular write. May be served by a replica; see ReplicaRouter.
+     */
+    public static Connection getReadConnection() {
+        return ReplicaRouter.getInstance().getReadConnection(ReplicaRouter.ANY);
+    }
+
+    /**
+     * Connection for a read-only query in a scope (a user id, or
+     * ReplicaRouter.QUOTES). Served by a replica only if it has applied the
+     * scope's last recorded write.
+     */
+    public static Connection getReadConnection(int scope) {
+        if (scope != ReplicaRouter.ANY && scope != ReplicaRouter.QUOTES) {
+            int shard = ShardRouter.getInstance().shardOf(scope);
+            if (shard != 0) {
+                return ShardRouter.getInstance().getConnection(shard);
+            }
+        }
+        return ReplicaRouter.getInstance().getReadConnection(scope);
+    }
+
+    /**
+     * Connection to the shard holding a user's rows (users, portfolios,
+     * transactions, trade cancellations, activity logs). The primary unless
+     * sharding is configured; see ShardRouter.
+     */
+    public static Connection getUserConnection(int userId) {
+        return ShardRouter.getInstance().getUserConnection(userId);
+    }
+
+    /**
+     * Connection to one shard, 0 being the primary.
+     */
+    public static Connection getShardConnection(int shard) {
+        return ShardRouter.getInstance().getConnection(shard);
+    }
+
+    /**
+     * Connection for a read-only query across one shard's users. Shard 0
+     * reads may be served by a replica.
+     */
+    public static Connection getShardReadConnection(int shard) {
+        return shard == 0 ? getReadConnection() : getShardConnection(shard);
+    }
+
+    public static int shardCount() {
+        return ShardRouter.getInstance().shardCount();
+    }
+
+    /**
+     * Records a committed write in a scope, so reads in that scope stay on
+     * the primary until the replicas have it. Writes in a user scope are
+     * also announced to the other nodes (see InvalidationBus) and to the
+     * equity leaderboard.
+     */
+    public static void recordWrite(int scope) {
+        ReplicaRouter.getInstance().recordWrite(scope);
+        if (scope != ReplicaRouter.ANY && scope != ReplicaRouter.QUOTES) {
+            InvalidationBus.getInstance().publishUser(scope);
+            EquityLeaderboard.getInstance().markDirty(scope);
+        }
+    }
+
     /**
      * Initialize H2 database with schema and sample data
      */
@@ -124,10 +194,128 @@ public class DatabaseConnection {
                     status VARCHAR(10) DEFAULT 'PENDING' NOT NULL,
                     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                     completed_at TIMESTAMP NULL,
+                    order_type VARCHAR(13) DEFAULT 'MARKET' NOT NULL,
+                    trigger_price DECIMAL(15, 2) NULL,
+                    trail_amount DECIMAL(15, 2) NULL,
+                    triggered_at TIMESTAMP NULL,
+                    node_id VARCHAR(64) NULL,
                     FOREIGN KEY (user_id) REFERENCES users(id),
                     FOREIGN KEY (stock_id) REFERENCES stocks(id)
                 );
 
+                CREATE INDEX IF NOT EXISTS idx_transactions_resting ON transactions (status, order_type);
+
+                CREATE TABLE IF NOT EXISTS trade_cancellations (
+                    id INT AUTO_INCREMENT PRIMARY KEY,
+                    original_transaction_id INT NOT NULL,
+                    user_id INT NOT NULL,
+                    reason VARCHAR(255) NOT NULL,
+                    rollback_executed BOOLEAN DEFAULT FALSE NOT NULL,
+                    cancelled_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                    FOREIGN KEY (original_transaction_id) REFERENCES transactions(id),
+                    FOREIGN KEY (user_id) REFERENCES users(id)
+                );
+
+                CREATE TABLE IF NOT EXISTS stock_suspensions (
+                    id INT AUTO_INCREMENT PRIMARY KEY,
+                    stock_id INT NOT NULL,
+                    admin_id INT NOT NULL,
+                    reason VARCHAR(255) NOT NULL,
+                    suspended_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                    resumed_at TIMESTAMP NULL,
+                    is_active BOOLEAN DEFAULT TRUE NOT NULL,
+                    FOREIGN KEY (stock_id) REFERENCES stocks(id),
+                    FOREIGN KEY (admin_id) REFERENCES users(id)
+                );
+
+                CREATE TABLE IF NOT EXISTS trading_halts (
+                    id INT AUTO_INCREMENT PRIMARY KEY,
+                    stock_id INT NOT NULL,
+                    admin_id INT NOT NULL,
+                    reason VARCHAR(255) NOT NULL,
+                    starts_at TIMESTAMP NOT NULL,
+                    ends_at TIMESTAMP NOT NULL,
+                    is_cancelled BOOLEAN DEFAULT FALSE NOT NULL,
+                    FOREIGN KEY (stock_id) REFERENCES stocks(id),
+                    FOREIGN KEY (admin_id) REFERENCES users(id)
+                );
+
+                CREATE INDEX IF NOT EXISTS idx_trading_halts_ends ON trading_halts (ends_at);
+
+                CREATE TABLE IF NOT EXISTS replication_heartbeat (
+                    id INT PRIMARY KEY,
+                    beat_at BIGINT NOT NULL
+                );
+
+                CREATE TABLE IF NOT EXISTS shard_map (
+                    bucket INT PRIMARY KEY,
+                    shard INT NOT NULL
+                );
+
+                CREATE TABLE IF NOT EXISTS user_directory (
+                    id INT AUTO_INCREMENT PRIMARY KEY,
+                    username VARCHAR(50) UNIQUE NOT NULL
+                );
+
+                CREATE TABLE IF NOT EXISTS cache_invalidations (
+                    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                    node_id VARCHAR(64) NOT NULL,
+                    kind VARCHAR(16) NOT NULL,
+                    entity_id INT NOT NULL,
+                    created_at BIGINT NOT NULL
+                );
+
+                CREATE INDEX IF NOT EXISTS idx_cache_invalidations_created ON cache_invalidations (created_at);
+
+                CREATE TABLE IF NOT EXISTS price_alerts (
+                    id INT AUTO_INCREMENT PRIMARY KEY,
+                    user_id INT NOT NULL,
+                    stock_id INT NOT NULL,
+                    direction VARCHAR(5) NOT NULL,
+                    threshold DECIMAL(15, 2) NOT NULL,
+                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                    triggered_at TIMESTAMP NULL,
+                    triggered_price DECIMAL(15, 2) NULL,
+                    FOREIGN KEY (stock_id) REFERENCES stocks(id)
+                );
+
+                CREATE INDEX IF NOT EXISTS idx_price_alerts_user ON price_alerts (user_id);
+                CREATE INDEX IF NOT EXISTS idx_price_alerts_triggered ON price_alerts (triggered_at);
+
+                CREATE TABLE IF NOT EXISTS stock_price_history (
+                    id INT AUTO_INCREMENT PRIMARY KEY,
+                    stock_id INT NOT NULL,
+                    price DECIMAL(15, 2) NOT NULL,
+                    recorded_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                    FOREIGN KEY (stock_id) REFERENCES stocks(id)
+                );
+                CREATE INDEX IF NOT EXISTS idx_price_history_recorded ON stock_price_history (recorded_at);
+
+                CREATE TABLE IF NOT EXISTS market_indices (
+                    id INT AUTO_INCREMENT PRIMARY KEY,
+                    symbol VARCHAR(10) UNIQUE NOT NULL,
+                    name VARCHAR(100) NOT NULL,
+                    weighting VARCHAR(5) NOT NULL,
+                    base_value DECIMAL(15, 2) DEFAULT 1000.00 NOT NULL,
+                    divisor DOUBLE NULL,
+                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                );
+
+                CREATE TABLE IF NOT EXISTS market_index_constituents (
+                    index_id INT NOT NULL,
+                    stock_id INT NOT NULL,
+                    units BIGINT DEFAULT 1 NOT NULL,
+                    PRIMARY KEY (index_id, stock_id),
+                    FOREIGN KEY (index_id) REFERENCES market_indices(id) ON DELETE CASCADE,
+                    FOREIGN KEY (stock_id) REFERENCES stocks(id)
+                );
+
+                CREATE TABLE IF NOT EXISTS cluster_nodes (
+                    node_id VARCHAR(64) PRIMARY KEY,
+                    address VARCHAR(255) NOT NULL,
+                    heartbeat_at BIGINT NOT NULL
+                );
+
                 CREATE TABLE IF NOT EXISTS user_activity_logs (
                     id INT AUTO_INCREMENT PRIMARY KEY,
                     user_id INT NOT NULL,
@@ -144,6 +332,8 @@ public class DatabaseConnection {
                 INSERT INTO stocks (symbol, name, price, is_suspended) SELECT 'AAPL', 'Apple Inc.', 180.50, FALSE WHERE NOT EXISTS (SELECT 1 FROM stocks WHERE symbol = 'AAPL');
                 INSERT INTO stocks (symbol, name, price, is_suspended) SELECT 'GOOGL', 'Alphabet Inc.', 2800.00, FALSE WHERE NOT EXISTS (SELECT 1 FROM stocks WHERE symbol = 'GOOGL');
                 INSERT INTO stocks (symbol, name, price, is_suspended) SELECT 'MSFT', 'Microsoft Corp.', 380.00, FALSE WHERE NOT EXISTS (SELECT 1 FROM stocks WHERE symbol = 'MSFT');
+                INSERT INTO market_indices (symbol, name, weighting, base_value) SELECT 'UITX', 'UIT Composite', 'PRICE', 1000.00 WHERE NOT EXISTS (SELECT 1 FROM market_indices WHERE symbol = 'UITX');
+                INSERT INTO market_index_constituents (index_id, stock_id, units) SELECT i.id, s.id, 1 FROM market_indices i CROSS JOIN stocks s WHERE i.symbol = 'UITX' AND NOT EXISTS (SELECT 1 FROM market_index_constituents c WHERE c.index_id = i.id);
                 """;
 
             try (var stmt = connection.createStatement()) {
@@ -0,0 +1,211 @@
+package stockapp.src;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes read-only queries to replica databases and everything else to the
+ * primary.
+ *
+ * Replicas are listed in stockapp.db.replicas (comma-separated JDBC URLs,
+ * credentials in stockapp.db.replica.user / .password). With none listed,
+ * every read goes to the primary as before.
+ *
+ * Freshness is measured with a heartbeat: every stockapp.db.replica.heartbeat-ms
+ * (default 500) the primary's replication_heartbeat row is set to the current
+ * time and each replica's copy of it is read back. The value a replica
+ * returns is the primary time up to which it has applied everything.
+ * A replica more than stockapp.db.replica.max-lag-ms (default 2000) behind,
+ * or unreachable, is skipped; with no replica left the read goes to the
+ * primary.
+ *
+ * Read-your-writes: writers call recordWrite(scope) after they commit, with
+ * the user id (or QUOTES for stock rows) as scope. A read in that scope only
+ * goes to a replica whose heartbeat is newer than the write, so a user who
+ * just traded reads from the primary until the replicas have caught up.
+ */
+public class ReplicaRouter {
+
+    /** Scope of reads that do not need to see any particular write. */
+    public static final int ANY = Integer.MIN_VALUE;
+
+    /** Scope of stock quote reads and writes. */
+    public static final int QUOTES = -1;
+
+    private static final ReplicaRouter instance = new ReplicaRouter();
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long maxLagMillis;
+    private final long heartbeatMillis;
+
+    // Scope -> primary time of its last committed write
+    private final ConcurrentHashMap<Integer, Long> lastWrites = new ConcurrentHashMap<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private volatile ScheduledExecutorService heartbeat;
+
+    private static final class Replica {
+        final String url;
+        final String user;
+        final String password;
+        // Primary time of the newest heartbeat this replica has applied; 0 if unknown
+        volatile long appliedUpTo;
+
+        Replica(String url, String user, String password) {
+            this.url = url;
+            this.user = user;
+            this.password = password;
+        }
+    }
+
+    private ReplicaRouter() {
+        String user = System.getProperty("stockapp.db.replica.user", "root");
+        String password = System.getProperty("stockapp.db.replica.password", "");
+        for (String url : System.getProperty("stockapp.db.replicas", "").split(",")) {
+            if (!url.isBlank()) {
+                replicas.add(new Replica(url.trim(), user, password));
+            }
+        }
+        maxLagMillis = Long.getLong("stockapp.db.replica.max-lag-ms", 2000);
+        heartbeatMillis = Math.max(10, Long.getLong("stockapp.db.replica.heartbeat-ms", 500));
+    }
+
+    public static ReplicaRouter getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * A connection for a read-only query in the given scope: a fresh enough
+     * replica if there is one, otherwise the primary.
+     */
+    public Connection getReadConnection(int scope) {
+        Replica replica = pick(scope);
+        if (replica != null) {
+            try {
+                Connection conn = DriverManager.getConnection(replica.url, replica.user, replica.password);
+                conn.setReadOnly(true);
+                return conn;
+            } catch (SQLException e) {
+                // Skip it until the next heartbeat reaches it again
+                replica.appliedUpTo = 0;
+                System.err.println("ERROR: Replica " + replica.url + " unavailable, reading from primary: " + e.getMessage());
+            }
+        }
+        return DatabaseConnection.getConnection();
+    }
+
+    /**
+     * Records that a write in the given scope has committed on the primary.
+     */
+    public void recordWrite(int scope) {
+        if (replicas.isEmpty()) {
+            return;
+        }
+        lastWrites.merge(scope, System.currentTimeMillis(), Math::max);
+    }
+
+    /**
+     * The URL of the replica a read in this scope would use right now, or
+     * null for the primary.
+     */
+    public String routeFor(int scope) {
+        Replica replica = pick(scope);
+        return replica != null ? replica.url : null;
+    }
+
+    private Replica pick(int scope) {
+        if (replicas.isEmpty()) {
+            return null;
+        }
+        startHeartbeat();
+
+        long now = System.currentTimeMillis();
+        Long lastWrite = scope != ANY ? lastWrites.get(scope) : null;
+        int start = nextReplica.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            long applied = replica.appliedUpTo;
+            if (applied == 0 || now - applied > maxLagMillis) {
+                continue;
+            }
+            if (lastWrite != null && applied <= lastWrite) {
+                continue;
+            }
+            return replica;
+        }
+        return null;
+    }
+
+    // ================== HEARTBEAT ==================
+
+    private void startHeartbeat() {
+        if (heartbeat != null) {
+            return;
+        }
+        synchronized (this) {
+            if (heartbeat == null) {
+                ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "replica-heartbeat");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor.scheduleWithFixedDelay(this::beat, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+                heartbeat = executor;
+            }
+        }
+    }
+
+    private void beat() {
+        long now = System.currentTimeMillis();
+        writeHeartbeat(now);
+        for (Replica replica : replicas) {
+            replica.appliedUpTo = readHeartbeat(replica);
+        }
+        // A write older than the lag bound is on every replica that passes the lag check
+        lastWrites.values().removeIf(writtenAt -> writtenAt < now - maxLagMillis);
+    }
+
+    private void writeHeartbeat(long now) {
+        Connection conn = DatabaseConnection.getConnection();
+        if (conn == null) {
+            return;
+        }
+        try (PreparedStatement update = conn.prepareStatement("UPDATE replication_heartbeat SET beat_at = ? WHERE id = 1")) {
+            update.setLong(1, now);
+            if (update.executeUpdate() == 0) {
+                try (PreparedStatement insert = conn.prepareStatement(
+                        "INSERT INTO replication_heartbeat (id, beat_at) VALUES (1, ?)")) {
+                    insert.setLong(1, now);
+                    insert.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to write replication heartbeat: " + e.getMessage());
+        } finally {
+            DatabaseConnection.closeConnection(conn);
+        }
+    }
+
+    private long readHeartbeat(Replica replica) {
+        try (Connection conn = DriverManager.getConnection(replica.url, replica.user, replica.password);
+                PreparedStatement stmt = conn.prepareStatement("SELECT beat_at FROM replication_heartbeat WHERE id = 1");
+                ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong("beat_at") : 0;
+        } catch (SQLException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package stockapp.src;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Routes user-owned rows (users, portfolios, transactions, trade
+ * cancellations and activity logs) to one of N databases by user id.
+ *
+ * Shard 0 is the primary from DatabaseConnection; further shards are listed
+ * in stockapp.db.shards (comma-separated JDBC URLs, credentials in
+ * stockapp.db.shard.user / .password). With none listed there is one shard
+ * and every call lands on the primary as before.
+ *
+ * A user id falls into one of BUCKETS buckets (id mod BUCKETS), and the
+ * shard map on the primary (table shard_map) assigns each bucket to a
+ * shard. All rows of one user live on the same shard, so a user's trade
+ * stays a single local transaction and joins against users stay local.
+ * ShardTool moves buckets between shards.
+ *
+ * Ids have to stay unique across shards:
+ * <ul>
+ * <li>user ids are allocated from user_directory on the primary, which also
+ *     maps usernames to ids for logins and uniqueness checks</li>
+ * <li>every other sharded table numbers its rows from shard * ID_RANGE + 1
+ *     on its shard; ShardTool gives moved rows new ids on the target</li>
+ * </ul>
+ *
+ * The stocks table and the other global tables stay on the primary.
+ */
+public class ShardRouter {
+
+    public static final int BUCKETS = 1024;
+
+    /** Ids per shard for sharded tables; INT ids leave room for 21 shards. */
+    public static final int ID_RANGE = 100_000_000;
+
+    public static final int MAX_SHARDS = Integer.MAX_VALUE / ID_RANGE;
+
+    /** Tables whose rows are owned by a user and live on that user's shard. */
+    public static final String[] ID_TABLES = { "portfolios", "transactions", "trade_cancellations", "user_activity_logs" };
+
+    /**
+     * Tables created on shards 1..N-1. Same columns as the primary, but no
+     * foreign keys to the stocks table, which stays on the primary, and no
+     * generated user ids.
+     */
+    private static final String SHARD_SCHEMA = """
+            CREATE TABLE IF NOT EXISTS users (
+                id INT PRIMARY KEY,
+                username VARCHAR(50) UNIQUE NOT NULL,
+                password VARCHAR(255) NOT NULL,
+                balance DECIMAL(15, 2) DEFAULT 0.00 NOT NULL,
+                role VARCHAR(10) DEFAULT 'USER' NOT NULL,
+                is_active BOOLEAN DEFAULT TRUE NOT NULL,
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            );
+
+            CREATE TABLE IF NOT EXISTS portfolios (
+                id INT AUTO_INCREMENT PRIMARY KEY,
+                user_id INT NOT NULL,
+                stock_id INT NOT NULL,
+                quantity INT NOT NULL,
+                average_price DECIMAL(15, 4) NOT NULL,
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                FOREIGN KEY (user_id) REFERENCES users(id),
+                UNIQUE (user_id, stock_id)
+            );
+
+            CREATE TABLE IF NOT EXISTS transactions (
+                id INT AUTO_INCREMENT PRIMARY KEY,
+                user_id INT NOT NULL,
+                stock_id INT NOT NULL,
+                quantity INT NOT NULL,
+                price DECIMAL(15, 2) NOT NULL,
+                transaction_type VARCHAR(4) NOT NULL,
+                status VARCHAR(10) DEFAULT 'PENDING' NOT NULL,
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                completed_at TIMESTAMP NULL,
+                order_type VARCHAR(13) DEFAULT 'MARKET' NOT NULL,
+                trigger_price DECIMAL(15, 2) NULL,
+                trail_amount DECIMAL(15, 2) NULL,
+                triggered_at TIMESTAMP NULL,
+                node_id VARCHAR(64) NULL,
+                FOREIGN KEY (user_id) REFERENCES users(id)
+            );
+
+            CREATE TABLE IF NOT EXISTS trade_cancellations (
+                id INT AUTO_INCREMENT PRIMARY KEY,
+                original_transaction_id INT NOT NULL,
+                user_id INT NOT NULL,
+                reason VARCHAR(255) NOT NULL,
+                rollback_executed BOOLEAN DEFAULT FALSE NOT NULL,
+                cancelled_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                FOREIGN KEY (original_transaction_id) REFERENCES transactions(id),
+                FOREIGN KEY (user_id) REFERENCES users(id)
+            );
+
+            CREATE TABLE IF NOT EXISTS user_activity_logs (
+                id INT AUTO_INCREMENT PRIMARY KEY,
+                user_id INT NOT NULL,
+                activity_type VARCHAR(50) NOT NULL,
+                description VARCHAR(255),
+                ip_address VARCHAR(45),
+                logged_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                FOREIGN KEY (user_id) REFERENCES users(id)
+            )
+            """;
+
+    private static final ShardRouter instance = new ShardRouter();
+
+    // Index = shard; entry 0 is unused (the primary)
+    private final List<String> urls = new ArrayList<>();
+    private final String user;
+    private final String password;
+    private final boolean[] prepared;
+
+    private volatile int[] bucketShards;
+
+    private ShardRouter() {
+        urls.add(null);
+        for (String url : System.getProperty("stockapp.db.shards", "").split(",")) {
+            if (!url.isBlank()) {
+                urls.add(url.trim());
+            }
+        }
+        if (urls.size() > MAX_SHARDS) {
+            throw new IllegalStateException("At most " + MAX_SHARDS + " shards are supported");
+        }
+        user = System.getProperty("stockapp.db.shard.user", "root");
+        password = System.getProperty("stockapp.db.shard.password", "");
+        prepared = new boolean[urls.size()];
+    }
+
+    public static ShardRouter getInstance() {
+        return instance;
+    }
+
+    public boolean isSharded() {
+        return urls.size() > 1;
+    }
+
+    public int shardCount() {
+        return urls.size();
+    }
+
+    public static int bucketOf(int userId) {
+        return Math.floorMod(userId, BUCKETS);
+    }
+
+    public int shardOf(int userId) {
+        return isSharded() ? bucketShards()[bucketOf(userId)] : 0;
+    }
+
+    /**
+     * The shard that numbered a row id of a sharded table other than users.
+     */
+    public static int idRangeOf(long id) {
+        return (int) (id / ID_RANGE);
+    }
+
+    /**
+     * First id of the range a database numbers its sharded rows from: 0 for
+     * the primary (or an unknown URL), shard * ID_RANGE for a shard.
+     */
+    public long idBaseOf(String url) {
+        int shard = urls.indexOf(url);
+        return shard > 0 ? (long) shard * ID_RANGE : 0;
+    }
+
+    public Connection getUserConnection(int userId) {
+        return getConnection(shardOf(userId));
+    }
+
+    /**
+     * A connection to one shard, or null if it cannot be reached.
+     */
+    public Connection getConnection(int shard) {
+        if (shard == 0) {
+            return DatabaseConnection.getConnection();
+        }
+        try {
+            Connection conn = DriverManager.getConnection(urls.get(shard), user, password);
+            prepare(conn, shard);
+            return conn;
+        } catch (SQLException e) {
+            System.err.println("ERROR: Shard " + shard + " connection failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Copy of the bucket -> shard map.
+     */
+    public int[] getBucketMap() {
+        return bucketShards().clone();
+    }
+
+    /**
+     * Reassigns a bucket. Only the map is changed; moving the rows is up to
+     * the caller (see ShardTool).
+     */
+    public synchronized void assign(int bucket, int shard) throws SQLException {
+        if (shard < 0 || shard >= urls.size()) {
+            throw new IllegalArgumentException("No shard " + shard);
+        }
+        int[] map = bucketShards().clone();
+        Connection conn = DatabaseConnection.getConnection();
+        if (conn == null) {
+            throw new SQLException("Database connection unavailable");
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("UPDATE shard_map SET shard = ? WHERE bucket = ?")) {
+            stmt.setInt(1, shard);
+            stmt.setInt(2, bucket);
+            stmt.executeUpdate();
+        } finally {
+            DatabaseConnection.closeConnection(conn);
+        }
+        map[bucket] = shard;
+        bucketShards = map;
+    }
+
+    /**
+     * Forgets the cached map, e.g. after another process moved buckets.
+     */
+    public synchronized void reloadMap() {
+        bucketShards = null;
+    }
+
+    /**
+     * Merges per-shard results, each already sorted by the given order (as
+     * returned by ORDER BY on that shard), into one sorted list.
+     */
+    public static <T> List<T> mergeSorted(List<List<T>> perShard, Comparator<? super T> order) {
+        if (perShard.size() == 1) {
+            return perShard.get(0);
+        }
+        int total = 0;
+        // Heap entries are {shard, index into that shard's list}
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, perShard.size()),
+                (a, b) -> order.compare(perShard.get(a[0]).get(a[1]), perShard.get(b[0]).get(b[1])));
+        for (int shard = 0; shard < perShard.size(); shard++) {
+            total += perShard.get(shard).size();
+            if (!perShard.get(shard).isEmpty()) {
+                heads.add(new int[] { shard, 0 });
+            }
+        }
+        List<T> merged = new ArrayList<>(total);
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<T> list = perShard.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    // ================== SETUP ==================
+
+    private int[] bucketShards() {
+        int[] map = bucketShards;
+        if (map == null) {
+            synchronized (this) {
+                map = bucketShards;
+                if (map == null) {
+                    map = loadMap();
+                    bucketShards = map;
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Reads the shard map from the primary. On first use it is created:
+     * buckets that already hold users stay on shard 0, the rest are spread
+     * round-robin. Existing users are copied into user_directory.
+     *
+     * @throws IllegalStateException if the map names a shard this node has
+     *         no URL for
+     */
+    private int[] loadMap() {
+        int[] map = new int[BUCKETS];
+        Connection conn = DatabaseConnection.getConnection();
+        if (conn == null) {
+            throw new IllegalStateException("Database connection unavailable");
+        }
+        try {
+            boolean found = false;
+            try (Statement stmt = conn.createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT bucket, shard FROM shard_map")) {
+                while (rs.next()) {
+                    int shard = rs.getInt("shard");
+                    if (shard < 0 || shard >= urls.size()) {
+                        // Clamping would send these users to another shard's database
+                        throw new IllegalStateException("Shard map puts bucket " + rs.getInt("bucket") + " on shard "
+                                + shard + ", but stockapp.db.shards lists " + urls.size() + " shards");
+                    }
+                    map[rs.getInt("bucket")] = shard;
+                    found = true;
+                }
+            }
+            if (!found) {
+                Set<Integer> used = new HashSet<>();
+                try (Statement stmt = conn.createStatement();
+                        ResultSet rs = stmt.executeQuery("SELECT id FROM users")) {
+                    while (rs.next()) {
+                        used.add(bucketOf(rs.getInt("id")));
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO shard_map (bucket, shard) VALUES (?, ?)")) {
+                    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                        map[bucket] = used.contains(bucket) ? 0 : bucket % urls.size();
+                        stmt.setInt(1, bucket);
+                        stmt.setInt(2, map[bucket]);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+            }
+            syncDirectory(conn);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not load the shard map: " + e.getMessage(), e);
+        } finally {
+            DatabaseConnection.closeConnection(conn);
+        }
+        return map;
+    }
+
+    /**
+     * Adds users created before sharding was enabled to the directory and
+     * moves the directory's id counter past them.
+     */
+    private void syncDirectory(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            int added = stmt.executeUpdate("INSERT INTO user_directory (id, username) SELECT u.id, u.username FROM users u "
+                    + "WHERE NOT EXISTS (SELECT 1 FROM user_directory d WHERE d.id = u.id)");
+            if (added > 0) {
+                long max;
+                try (ResultSet rs = stmt.executeQuery("SELECT MAX(id) FROM user_directory")) {
+                    max = rs.next() ? rs.getLong(1) : 0;
+                }
+                restartIdentity(conn, "user_directory", max + 1);
+            }
+        }
+    }
+
+    /**
+     * Creates the shard tables if needed and starts their ids in this
+     * shard's range. Runs once per shard and process.
+     */
+    private void prepare(Connection conn, int shard) throws SQLException {
+        if (prepared[shard]) {
+            return;
+        }
+        synchronized (prepared) {
+            if (prepared[shard]) {
+                return;
+            }
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : SHARD_SCHEMA.split(";")) {
+                    if (!sql.isBlank()) {
+                        stmt.execute(sql.trim());
+                    }
+                }
+                long base = (long) shard * ID_RANGE;
+                for (String table : ID_TABLES) {
+                    long max;
+                    try (ResultSet rs = stmt.executeQuery("SELECT MAX(id) FROM " + table)) {
+                        max = rs.next() ? rs.getLong(1) : 0;
+                    }
+                    if (max < base) {
+                        restartIdentity(conn, table, base + 1);
+                    }
+                }
+            }
+            prepared[shard] = true;
+        }
+    }
+
+    /**
+     * Sets the next generated id of a table.
+     */
+    public static void restartIdentity(Connection conn, String table, long next) throws SQLException {
+        boolean h2 = conn.getMetaData().getDatabaseProductName().toUpperCase().contains("H2");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(h2 ? "ALTER TABLE " + table + " ALTER COLUMN id RESTART WITH " + next
+                    : "ALTER TABLE " + table + " AUTO_INCREMENT = " + next);
+        }
+    }
+}
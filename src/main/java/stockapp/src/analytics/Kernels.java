@@ -0,0 +1,55 @@
+package stockapp.src.analytics;
+
+/**
+ * The inner loops of the risk analytics over primitive double arrays.
+ *
+ * Two implementations compute the same results up to rounding: plain
+ * scalar loops, and SIMD loops on the incubating Vector API. vector() is
+ * only usable when the JVM was started with --add-modules
+ * jdk.incubator.vector; best() picks it then and the scalar loops
+ * otherwise.
+ */
+public interface Kernels {
+
+    /**
+     * Sum of a[0..n).
+     */
+    double sum(double[] a, int n);
+
+    /**
+     * Dot product of a[0..n) and b[0..n).
+     */
+    double dot(double[] a, double[] b, int n);
+
+    /**
+     * dst[i] = (src[i] - shift) * factor for i in [0, n).
+     */
+    void shiftScale(double[] src, double shift, double factor, double[] dst, int n);
+
+    /**
+     * "vector" or "scalar".
+     */
+    String name();
+
+    static Kernels scalar() {
+        return ScalarKernels.INSTANCE;
+    }
+
+    /**
+     * @throws IllegalStateException if jdk.incubator.vector is not loaded
+     */
+    static Kernels vector() {
+        if (!vectorAvailable()) {
+            throw new IllegalStateException("Start the JVM with --add-modules jdk.incubator.vector");
+        }
+        return VectorKernels.INSTANCE;
+    }
+
+    static Kernels best() {
+        return vectorAvailable() ? VectorKernels.INSTANCE : ScalarKernels.INSTANCE;
+    }
+
+    static boolean vectorAvailable() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+}
@@ -0,0 +1,277 @@
+package stockapp.src.analytics;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Monte Carlo value-at-risk over correlated one-day price scenarios.
+ *
+ * generate() draws independent standard normals, correlates them through
+ * the Cholesky factor of the correlation matrix and scales them by each
+ * stock's daily volatility into log returns with zero expected gain; what
+ * is stored is the simple return, so evaluating a portfolio is a sum of
+ * products. Scenarios are drawn in chunks of CHUNK, each from its own
+ * stream split off one SplittableRandom before the chunks run, so a seed
+ * gives the same scenarios however many cores draw them. The chunks run
+ * on a fork-join pool and write straight into one flat array; a chunk
+ * allocates its buffers once, nothing per scenario, and correlates BLOCK
+ * scenarios at a time so the factor is read once per block rather than
+ * once per scenario.
+ *
+ * evaluate() prices a portfolio in every scenario the same way and reads
+ * the loss quantile (VaR) and the mean loss beyond it (expected
+ * shortfall).
+ */
+public final class MonteCarloVaR {
+
+    static final int CHUNK = 256;
+
+    /**
+     * Most returns (scenarios x stocks) one set can hold. Arrays are indexed
+     * by int, and the margin keeps a block or chunk past the end from
+     * overflowing.
+     */
+    public static final long MAX_CELLS = Integer.MAX_VALUE - CHUNK;
+
+    // Scenarios correlated together in one pass over the Cholesky factor
+    private static final int BLOCK = 16;
+
+    // Positions x scenarios below which a portfolio is priced on one thread
+    private static final long PARALLEL_THRESHOLD = 1_000_000;
+
+    // Shrinkage towards the identity tried when the correlation matrix is not positive definite
+    private static final double[] SHRINKAGE = { 0.0, 0.01, 0.05, 0.1, 0.25, 0.5, 1.0 };
+
+    private MonteCarloVaR() {
+    }
+
+    /**
+     * One-day simple returns of a set of stocks in a number of scenarios,
+     * scenario by scenario: returns[s * stocks + column].
+     */
+    public static final class ScenarioSet {
+        private final int[] stockIds;
+        private final int[] columnOfStock; // stock id -> column, -1 if not in the set
+        private final int scenarios;
+        private final double[] returns;
+        private final long builtAt;
+        private final long generationNanos;
+
+        ScenarioSet(int[] stockIds, int scenarios, double[] returns, long generationNanos) {
+            this.stockIds = stockIds;
+            int maxId = 0;
+            for (int id : stockIds) {
+                maxId = Math.max(maxId, id);
+            }
+            this.columnOfStock = new int[maxId + 1];
+            Arrays.fill(columnOfStock, -1);
+            for (int column = 0; column < stockIds.length; column++) {
+                columnOfStock[stockIds[column]] = column;
+            }
+            this.scenarios = scenarios;
+            this.returns = returns;
+            this.builtAt = System.currentTimeMillis();
+            this.generationNanos = generationNanos;
+        }
+
+        public int getStockCount() { return stockIds.length; }
+        public int getScenarios() { return scenarios; }
+        public long getBuiltAt() { return builtAt; }
+        public long getGenerationNanos() { return generationNanos; }
+
+        /**
+         * @return -1 if the stock is not in the set
+         */
+        public int columnOf(int stockId) {
+            return stockId >= 0 && stockId < columnOfStock.length ? columnOfStock[stockId] : -1;
+        }
+
+        public boolean contains(int stockId) {
+            return columnOf(stockId) >= 0;
+        }
+    }
+
+    /**
+     * Loss figures of one portfolio, in the currency of its exposures.
+     */
+    public static final class Estimate {
+        private final double value;
+        private final double valueAtRisk;
+        private final double expectedShortfall;
+        private final long evaluationNanos;
+
+        Estimate(double value, double valueAtRisk, double expectedShortfall, long evaluationNanos) {
+            this.value = value;
+            this.valueAtRisk = valueAtRisk;
+            this.expectedShortfall = expectedShortfall;
+            this.evaluationNanos = evaluationNanos;
+        }
+
+        public double getValue() { return value; }
+        public double getValueAtRisk() { return valueAtRisk; }
+        public double getExpectedShortfall() { return expectedShortfall; }
+        public long getEvaluationNanos() { return evaluationNanos; }
+    }
+
+    // ================== SCENARIOS ==================
+
+    /**
+     * @param dailyVolatility per stock, the standard deviation of its daily
+     *                        log return
+     * @param correlation     stocks x stocks, row by row
+     * @throws IllegalArgumentException if scenarios x stocks exceeds MAX_CELLS
+     */
+    public static ScenarioSet generate(int[] stockIds, double[] dailyVolatility, double[] correlation, int scenarios,
+            long seed, ForkJoinPool pool) {
+        long started = System.nanoTime();
+        int m = stockIds.length;
+        long cells = (long) scenarios * m;
+        if (cells > MAX_CELLS || (long) m * m > MAX_CELLS) {
+            throw new IllegalArgumentException(scenarios + " scenarios of " + m
+                    + " stocks are more than a scenario set can hold");
+        }
+        double[] factor = cholesky(correlation, m);
+        double[] drift = new double[m];
+        for (int k = 0; k < m; k++) {
+            drift[k] = -0.5 * dailyVolatility[k] * dailyVolatility[k];
+        }
+        double[] returns = new double[(int) cells];
+
+        int chunks = (int) ((scenarios + (long) CHUNK - 1) / CHUNK);
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] streams = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++) {
+            streams[c] = root.split();
+        }
+        pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c -> {
+            SplittableRandom random = streams[c];
+            // normals[j * BLOCK + b] is normal j of scenario b of the block
+            double[] normals = new double[m * BLOCK];
+            double[] correlated = new double[BLOCK];
+            int end = (int) Math.min(scenarios, (c + 1L) * CHUNK);
+            for (int first = c * CHUNK; first < end; first += BLOCK) {
+                int block = Math.min(BLOCK, end - first);
+                for (int b = 0; b < block; b++) {
+                    for (int j = 0; j < m; j++) {
+                        normals[j * BLOCK + b] = random.nextGaussian();
+                    }
+                }
+                // Each factor entry is applied across the block, which keeps the
+                // sums independent of each other and the factor row in cache
+                for (int k = 0; k < m; k++) {
+                    int row = k * m;
+                    Arrays.fill(correlated, 0.0);
+                    for (int j = 0; j <= k; j++) {
+                        double f = factor[row + j];
+                        int z = j * BLOCK;
+                        for (int b = 0; b < BLOCK; b++) {
+                            correlated[b] += f * normals[z + b];
+                        }
+                    }
+                    // exp is an intrinsic and expm1 is not; at daily magnitudes the
+                    // difference is far below a cent
+                    for (int b = 0; b < block; b++) {
+                        returns[(first + b) * m + k] = Math.exp(drift[k] + dailyVolatility[k] * correlated[b]) - 1.0;
+                    }
+                }
+            }
+        })).join();
+        return new ScenarioSet(stockIds.clone(), scenarios, returns, System.nanoTime() - started);
+    }
+
+    /**
+     * Lower Cholesky factor of a correlation matrix, row by row. A matrix
+     * that is not positive definite, e.g. estimated from fewer returns than
+     * stocks, is shrunk towards the identity until it is.
+     */
+    static double[] cholesky(double[] correlation, int m) {
+        double[] factor = new double[m * m];
+        for (double shrinkage : SHRINKAGE) {
+            if (tryCholesky(correlation, m, shrinkage, factor)) {
+                return factor;
+            }
+        }
+        throw new IllegalStateException("Correlation matrix has no Cholesky factor");
+    }
+
+    private static boolean tryCholesky(double[] correlation, int m, double shrinkage, double[] factor) {
+        Arrays.fill(factor, 0.0);
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j <= i; j++) {
+                double a = i == j ? 1.0 : (1 - shrinkage) * correlation[i * m + j];
+                double s = a;
+                for (int k = 0; k < j; k++) {
+                    s -= factor[i * m + k] * factor[j * m + k];
+                }
+                if (i == j) {
+                    if (s <= 1e-10) {
+                        return false;
+                    }
+                    factor[i * m + i] = Math.sqrt(s);
+                } else {
+                    factor[i * m + j] = s / factor[j * m + j];
+                }
+            }
+        }
+        return true;
+    }
+
+    // ================== ESTIMATES ==================
+
+    /**
+     * VaR and expected shortfall of a portfolio at a confidence level.
+     *
+     * @param stockIds  the stocks held; all must be in the set
+     * @param exposures per stock, its market value (quantity * price)
+     */
+    public static Estimate evaluate(ScenarioSet set, int[] stockIds, double[] exposures, double confidence,
+            ForkJoinPool pool) {
+        long started = System.nanoTime();
+        int held = stockIds.length;
+        int[] columns = new int[held];
+        double value = 0;
+        for (int k = 0; k < held; k++) {
+            columns[k] = set.columnOf(stockIds[k]);
+            if (columns[k] < 0) {
+                throw new IllegalArgumentException("Stock " + stockIds[k] + " is not in the scenario set");
+            }
+            value += exposures[k];
+        }
+        int scenarios = set.scenarios;
+        int m = set.stockIds.length;
+        double[] returns = set.returns;
+        double[] losses = new double[scenarios];
+        // Small portfolios are cheaper to price on the calling thread
+        if ((long) held * scenarios < PARALLEL_THRESHOLD) {
+            price(returns, m, columns, exposures, losses, 0, scenarios);
+        } else {
+            int chunks = (int) ((scenarios + (long) CHUNK - 1) / CHUNK);
+            pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c -> price(returns, m, columns,
+                    exposures, losses, c * CHUNK, (int) Math.min(scenarios, (c + 1L) * CHUNK)))).join();
+        }
+
+        Arrays.sort(losses);
+        int cutoff = Math.min(scenarios - 1, Math.max(0, (int) Math.ceil(confidence * scenarios) - 1));
+        double tail = 0;
+        for (int s = cutoff; s < scenarios; s++) {
+            tail += losses[s];
+        }
+        return new Estimate(value, Math.max(0.0, losses[cutoff]), Math.max(0.0, tail / (scenarios - cutoff)),
+                System.nanoTime() - started);
+    }
+
+    private static void price(double[] returns, int m, int[] columns, double[] exposures, double[] losses, int from,
+            int to) {
+        for (int s = from; s < to; s++) {
+            // generate keeps scenarios x stocks within MAX_CELLS, so this fits an int
+            int base = s * m;
+            double pnl = 0;
+            for (int k = 0; k < columns.length; k++) {
+                pnl += exposures[k] * returns[base + columns[k]];
+            }
+            losses[s] = -pnl;
+        }
+    }
+}
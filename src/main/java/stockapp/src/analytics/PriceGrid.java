@@ -0,0 +1,118 @@
+package stockapp.src.analytics;
+
+import java.util.Arrays;
+
+/**
+ * Price samples of many stocks resampled onto one time grid, so their
+ * returns line up bucket by bucket.
+ *
+ * The window from start is cut into buckets of interval milliseconds; a
+ * bucket holds the last price recorded in it (samples must be added oldest
+ * first). A bucket without a sample carries the price before it forward,
+ * and buckets before a stock's first sample take that first price, so
+ * their returns are zero. Rows are plain double arrays, one per stock.
+ */
+public final class PriceGrid {
+
+    private final int[] stockIds;
+    private final int[] rowOfStock; // stock id -> row, -1 if not on the grid
+    private final long start;
+    private final long interval;
+    private final int buckets;
+    private final double[][] prices;
+    private final int[] samples;
+
+    public PriceGrid(int[] stockIds, long start, long interval, int buckets) {
+        if (buckets < 2) {
+            throw new IllegalArgumentException("A grid needs at least two buckets");
+        }
+        this.stockIds = stockIds.clone();
+        int maxId = 0;
+        for (int id : stockIds) {
+            maxId = Math.max(maxId, id);
+        }
+        this.rowOfStock = new int[maxId + 1];
+        Arrays.fill(rowOfStock, -1);
+        for (int row = 0; row < stockIds.length; row++) {
+            rowOfStock[stockIds[row]] = row;
+        }
+        this.start = start;
+        this.interval = interval;
+        this.buckets = buckets;
+        this.prices = new double[stockIds.length][buckets];
+        for (double[] row : prices) {
+            Arrays.fill(row, Double.NaN);
+        }
+        this.samples = new int[stockIds.length];
+    }
+
+    /**
+     * Adds a sample. Samples of stocks not on the grid or outside the
+     * window are ignored.
+     */
+    public void add(int stockId, double price, long time) {
+        if (stockId < 0 || stockId >= rowOfStock.length || rowOfStock[stockId] < 0 || time < start || price <= 0) {
+            return;
+        }
+        long bucket = (time - start) / interval;
+        if (bucket >= buckets) {
+            return;
+        }
+        int row = rowOfStock[stockId];
+        prices[row][(int) bucket] = price;
+        samples[row]++;
+    }
+
+    public int getStockCount() {
+        return stockIds.length;
+    }
+
+    public int getStockId(int row) {
+        return stockIds[row];
+    }
+
+    /**
+     * Number of samples a stock had in the window.
+     */
+    public int getSamples(int row) {
+        return samples[row];
+    }
+
+    /**
+     * Number of returns per stock: one less than the buckets.
+     */
+    public int getReturnCount() {
+        return buckets - 1;
+    }
+
+    /**
+     * Log returns between consecutive buckets, one row per stock. A stock
+     * without samples uses its fallback price throughout.
+     *
+     * @param fallbackPrices per row, the price of a stock without samples
+     */
+    public double[][] logReturns(double[] fallbackPrices) {
+        double[][] returns = new double[stockIds.length][buckets - 1];
+        for (int row = 0; row < stockIds.length; row++) {
+            double[] p = prices[row];
+            double carried = Double.NaN;
+            for (double price : p) {
+                if (!Double.isNaN(price)) {
+                    carried = price;
+                    break;
+                }
+            }
+            if (Double.isNaN(carried)) {
+                carried = fallbackPrices[row];
+            }
+            double[] r = returns[row];
+            double previous = Double.isNaN(p[0]) ? carried : p[0];
+            for (int b = 1; b < buckets; b++) {
+                double price = Double.isNaN(p[b]) ? previous : p[b];
+                r[b - 1] = Math.log(price / previous);
+                previous = price;
+            }
+        }
+        return returns;
+    }
+}
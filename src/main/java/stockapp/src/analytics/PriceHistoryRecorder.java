@@ -0,0 +1,115 @@
+package stockapp.src.analytics;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import stockapp.src.dao.PriceHistoryDAO;
+
+/**
+ * Writes every price change to stock_price_history, off the trade path.
+ *
+ * Price changes are queued in memory where they are journaled (admin price
+ * moves, trade price impact, basket fills) and written as one batch per
+ * tick, every stockapp.history.flush-ms (default 1000). At most
+ * stockapp.history.max-pending (default 100000) samples wait; beyond that
+ * new ones are dropped and counted, so a database outage cannot exhaust
+ * the heap. A batch that fails to store is dropped as well.
+ */
+public class PriceHistoryRecorder {
+
+    private static final PriceHistoryRecorder instance = new PriceHistoryRecorder();
+
+    private static final int MAX_BATCH = 5_000;
+
+    private final long flushMillis = Math.max(10, Long.getLong("stockapp.history.flush-ms", 1000));
+    private final int maxPending = Math.max(1, Integer.getInteger("stockapp.history.max-pending", 100_000));
+
+    private final PriceHistoryDAO historyDAO = new PriceHistoryDAO();
+
+    private final ConcurrentLinkedQueue<PriceHistoryDAO.Sample> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile ScheduledExecutorService flusher;
+
+    private PriceHistoryRecorder() {
+    }
+
+    public static PriceHistoryRecorder getInstance() {
+        return instance;
+    }
+
+    /**
+     * Queues a stock's new price, stamped with the current time.
+     */
+    public void record(int stockId, BigDecimal price) {
+        if (pendingCount.incrementAndGet() > maxPending) {
+            pendingCount.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        pending.add(new PriceHistoryDAO.Sample(stockId, price, System.currentTimeMillis()));
+        start();
+    }
+
+    /**
+     * Samples dropped because too many were waiting or a batch failed.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void start() {
+        if (flusher != null) {
+            return;
+        }
+        synchronized (this) {
+            if (flusher == null) {
+                ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "price-history-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+                flusher = executor;
+            }
+        }
+    }
+
+    /**
+     * Writes out the samples waiting now.
+     */
+    public void flush() {
+        try {
+            List<PriceHistoryDAO.Sample> batch = new ArrayList<>();
+            PriceHistoryDAO.Sample sample;
+            while ((sample = pending.poll()) != null) {
+                pendingCount.decrementAndGet();
+                batch.add(sample);
+                if (batch.size() == MAX_BATCH) {
+                    store(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                store(batch);
+            }
+        } catch (RuntimeException e) {
+            // Keep the schedule alive; the next tick carries on
+            System.err.println("ERROR: Price history flush failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void store(List<PriceHistoryDAO.Sample> batch) {
+        if (!historyDAO.insertSamples(batch)) {
+            dropped.addAndGet(batch.size());
+        }
+    }
+}
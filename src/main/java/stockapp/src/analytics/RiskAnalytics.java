@@ -0,0 +1,142 @@
+package stockapp.src.analytics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Volatility, beta and pairwise correlation of aligned return series.
+ *
+ * Each series is centered once; its sum of squares gives the volatility,
+ * its dot product with the centered benchmark the beta. For correlations
+ * the centered series are also scaled to unit length, so the correlation
+ * of two stocks is the dot product of their rows. The n * (n + 1) / 2
+ * products are cut into square tiles of TILE rows by TILE columns, small
+ * enough that both sets of rows stay in cache while a tile is worked on,
+ * and the tiles are spread over a fork-join pool. All loops over a series
+ * go through Kernels.
+ *
+ * A series that never moves has no defined correlation or beta; it gets
+ * 0, and 0 on the diagonal.
+ */
+public final class RiskAnalytics {
+
+    static final int TILE = 64;
+
+    private RiskAnalytics() {
+    }
+
+    /**
+     * Results per series, in the order of the input rows.
+     */
+    public static final class Result {
+        private final double[] volatility;
+        private final double[] beta;
+        private final double[][] correlations;
+
+        Result(double[] volatility, double[] beta, double[][] correlations) {
+            this.volatility = volatility;
+            this.beta = beta;
+            this.correlations = correlations;
+        }
+
+        /** Standard deviation of the returns, annualized. */
+        public double[] getVolatility() { return volatility; }
+
+        /** Covariance with the benchmark over the benchmark's variance. */
+        public double[] getBeta() { return beta; }
+
+        /** Symmetric correlation matrix, or null if not asked for. */
+        public double[][] getCorrelations() { return correlations; }
+    }
+
+    /**
+     * @param returns         one row of returns per series, all of length
+     *                        at least two
+     * @param benchmark       returns of the benchmark, or null for the
+     *                        equal-weighted average of all series
+     * @param periodsPerYear  returns per year, to annualize volatility
+     * @param withCorrelations whether to compute the correlation matrix
+     */
+    public static Result compute(double[][] returns, double[] benchmark, double periodsPerYear,
+            boolean withCorrelations, Kernels kernels, ForkJoinPool pool) {
+        int n = returns.length;
+        int length = n > 0 ? returns[0].length : 0;
+        double[] volatility = new double[n];
+        double[] beta = new double[n];
+        if (n == 0 || length < 2) {
+            return new Result(volatility, beta, withCorrelations ? new double[n][n] : null);
+        }
+
+        double[] market = benchmark != null ? benchmark.clone() : equalWeighted(returns, length);
+        double marketMean = kernels.sum(market, length) / length;
+        kernels.shiftScale(market, marketMean, 1.0, market, length);
+        double marketSquares = kernels.dot(market, market, length);
+        double annualize = Math.sqrt(periodsPerYear / (length - 1));
+
+        double[][] unit = withCorrelations ? new double[n][length] : null;
+        pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> {
+            double[] centered = unit != null ? unit[i] : new double[length];
+            double mean = kernels.sum(returns[i], length) / length;
+            kernels.shiftScale(returns[i], mean, 1.0, centered, length);
+            double squares = kernels.dot(centered, centered, length);
+            volatility[i] = Math.sqrt(squares) * annualize;
+            beta[i] = marketSquares > 0 ? kernels.dot(centered, market, length) / marketSquares : 0.0;
+            if (unit != null) {
+                kernels.shiftScale(centered, 0.0, squares > 0 ? 1.0 / Math.sqrt(squares) : 0.0, centered, length);
+            }
+        })).join();
+
+        double[][] correlations = null;
+        if (withCorrelations) {
+            correlations = new double[n][n];
+            int blocks = (n + TILE - 1) / TILE;
+            int[] tileRows = new int[blocks * (blocks + 1) / 2];
+            int[] tileColumns = new int[tileRows.length];
+            int t = 0;
+            for (int bi = 0; bi < blocks; bi++) {
+                for (int bj = bi; bj < blocks; bj++) {
+                    tileRows[t] = bi;
+                    tileColumns[t++] = bj;
+                }
+            }
+            double[][] out = correlations;
+            pool.submit(() -> IntStream.range(0, tileRows.length).parallel().forEach(
+                    tile -> correlateTile(unit, out, length, tileRows[tile], tileColumns[tile], kernels))).join();
+        }
+        return new Result(volatility, beta, correlations);
+    }
+
+    private static double[] equalWeighted(double[][] returns, int length) {
+        double[] market = new double[length];
+        for (double[] series : returns) {
+            for (int t = 0; t < length; t++) {
+                market[t] += series[t];
+            }
+        }
+        for (int t = 0; t < length; t++) {
+            market[t] /= returns.length;
+        }
+        return market;
+    }
+
+    /**
+     * Fills one tile of the correlation matrix and its mirror image.
+     */
+    private static void correlateTile(double[][] unit, double[][] out, int length, int tileRow, int tileColumn,
+            Kernels kernels) {
+        int n = unit.length;
+        int rowStart = tileRow * TILE;
+        int columnStart = tileColumn * TILE;
+        int rowEnd = Math.min(rowStart + TILE, n);
+        int columnEnd = Math.min(columnStart + TILE, n);
+        for (int i = rowStart; i < rowEnd; i++) {
+            double[] a = unit[i];
+            for (int j = Math.max(columnStart, i); j < columnEnd; j++) {
+                double c = j == i ? (kernels.dot(a, a, length) > 0 ? 1.0 : 0.0)
+                        : Math.max(-1.0, Math.min(1.0, kernels.dot(a, unit[j], length)));
+                out[i][j] = c;
+                out[j][i] = c;
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package stockapp.src.analytics;
+
+/**
+ * Kernels as plain loops; the reference the vector kernels are measured
+ * against, and the fallback when the Vector API is not loaded.
+ */
+final class ScalarKernels implements Kernels {
+
+    static final ScalarKernels INSTANCE = new ScalarKernels();
+
+    private ScalarKernels() {
+    }
+
+    @Override
+    public double sum(double[] a, int n) {
+        double s = 0;
+        for (int i = 0; i < n; i++) {
+            s += a[i];
+        }
+        return s;
+    }
+
+    @Override
+    public double dot(double[] a, double[] b, int n) {
+        double s = 0;
+        for (int i = 0; i < n; i++) {
+            s += a[i] * b[i];
+        }
+        return s;
+    }
+
+    @Override
+    public void shiftScale(double[] src, double shift, double factor, double[] dst, int n) {
+        for (int i = 0; i < n; i++) {
+            dst[i] = (src[i] - shift) * factor;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
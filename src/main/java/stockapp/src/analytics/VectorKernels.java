@@ -0,0 +1,78 @@
+package stockapp.src.analytics;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels on the Vector API at the widest shape the CPU supports. Sums and
+ * dot products keep two accumulators, so consecutive fused multiply-adds
+ * do not wait on each other; the tail past the last full vector is done
+ * in scalar code. Only loaded through Kernels.vector() and Kernels.best(),
+ * which check that the incubator module is present.
+ */
+final class VectorKernels implements Kernels {
+
+    static final VectorKernels INSTANCE = new VectorKernels();
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private VectorKernels() {
+    }
+
+    @Override
+    public double sum(double[] a, int n) {
+        DoubleVector acc0 = DoubleVector.zero(SPECIES);
+        DoubleVector acc1 = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = n - 2 * LANES; i <= bound; i += 2 * LANES) {
+            acc0 = acc0.add(DoubleVector.fromArray(SPECIES, a, i));
+            acc1 = acc1.add(DoubleVector.fromArray(SPECIES, a, i + LANES));
+        }
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            acc0 = acc0.add(DoubleVector.fromArray(SPECIES, a, i));
+        }
+        double s = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            s += a[i];
+        }
+        return s;
+    }
+
+    @Override
+    public double dot(double[] a, double[] b, int n) {
+        DoubleVector acc0 = DoubleVector.zero(SPECIES);
+        DoubleVector acc1 = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = n - 2 * LANES; i <= bound; i += 2 * LANES) {
+            acc0 = DoubleVector.fromArray(SPECIES, a, i).fma(DoubleVector.fromArray(SPECIES, b, i), acc0);
+            acc1 = DoubleVector.fromArray(SPECIES, a, i + LANES)
+                    .fma(DoubleVector.fromArray(SPECIES, b, i + LANES), acc1);
+        }
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            acc0 = DoubleVector.fromArray(SPECIES, a, i).fma(DoubleVector.fromArray(SPECIES, b, i), acc0);
+        }
+        double s = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            s += a[i] * b[i];
+        }
+        return s;
+    }
+
+    @Override
+    public void shiftScale(double[] src, double shift, double factor, double[] dst, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, src, i).sub(shift).mul(factor).intoArray(dst, i);
+        }
+        for (; i < n; i++) {
+            dst[i] = (src[i] - shift) * factor;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector";
+    }
+}
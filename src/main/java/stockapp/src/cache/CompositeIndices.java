@@ -0,0 +1,473 @@
+package stockapp.src.cache;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import stockapp.src.models.MarketIndex;
+
+/**
+ * Live values of the composite market indices, with recent ticks and
+ * one-minute candles.
+ *
+ * An index keeps the sum of units * price over its constituents, in
+ * cents, and the last price it saw for each of them. The sum is a double
+ * holding whole numbers, so it stays exact up to 2^53 cents (about 90
+ * trillion dollars) and merely rounds beyond. A new price
+ * adds units * (new - old) to the sum of every index holding the stock,
+ * so a tick costs O(1) per index it touches however many constituents
+ * the index has; the value is sum / divisor. The divisor only changes
+ * when the constituents do, and is then chosen so the value does not jump
+ * (see MarketIndexService).
+ *
+ * TradingStateCache passes on every new price, so admin price moves and
+ * the price impact of trades reach the indices before the write returns.
+ * Each change of value is recorded as a tick, in a ring of the last
+ * stockapp.indices.ticks (default 1000), and folded into a one-minute
+ * candle, in a ring of the last stockapp.indices.candle-minutes (default
+ * 1440) minutes that had ticks. Longer candles are built from those on
+ * read. History survives a change of constituents, not a restart.
+ */
+public class CompositeIndices {
+
+    private static final CompositeIndices instance = new CompositeIndices();
+
+    private static final long MINUTE_MILLIS = 60_000;
+    private static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+
+    private final int tickCapacity = Math.max(1, Integer.getInteger("stockapp.indices.ticks", 1000));
+    private final int candleCapacity = Math.max(1, Integer.getInteger("stockapp.indices.candle-minutes", 1440));
+
+    // Guarded by this
+    private final Map<Integer, Basket> byId = new HashMap<>();
+    private final Map<String, Basket> bySymbol = new HashMap<>();
+
+    // stock id -> the indices holding it; arrays are replaced, never changed
+    private final ConcurrentHashMap<Integer, Member[]> byStock = new ConcurrentHashMap<>();
+
+    // Indices whose definition changed on another node
+    private final Set<Integer> stale = ConcurrentHashMap.newKeySet();
+
+    private CompositeIndices() {
+    }
+
+    public static CompositeIndices getInstance() {
+        return instance;
+    }
+
+    /**
+     * One constituent of one index.
+     */
+    private static final class Member {
+        final Basket basket;
+        final long units;
+        long lastCents;
+
+        Member(Basket basket, long units, long lastCents) {
+            this.basket = basket;
+            this.units = units;
+            this.lastCents = lastCents;
+        }
+    }
+
+    /**
+     * The running state of one index.
+     */
+    private static final class Basket {
+        final MarketIndex definition;
+        final double divisor;
+        final Map<Integer, Member> members = new HashMap<>();
+        final History history;
+        double sumCents;
+        long updatedAt;
+
+        Basket(MarketIndex definition, double divisor, History history) {
+            this.definition = definition;
+            this.divisor = divisor;
+            this.history = history;
+        }
+
+        double value() {
+            return sumCents / 100.0 / divisor;
+        }
+    }
+
+    /**
+     * Ticks and candles of one index, carried over when it is rebalanced.
+     */
+    private static final class History {
+        final long[] tickTimes;
+        final double[] tickValues;
+        long ticks;
+
+        final long[] minutes;
+        final double[] open;
+        final double[] high;
+        final double[] low;
+        final double[] close;
+        long candles;
+
+        long day = -1;
+        double dayOpen;
+
+        History(int tickCapacity, int candleCapacity) {
+            tickTimes = new long[tickCapacity];
+            tickValues = new double[tickCapacity];
+            minutes = new long[candleCapacity];
+            open = new double[candleCapacity];
+            high = new double[candleCapacity];
+            low = new double[candleCapacity];
+            close = new double[candleCapacity];
+        }
+
+        void record(long now, double value) {
+            int slot = (int) (ticks % tickTimes.length);
+            tickTimes[slot] = now;
+            tickValues[slot] = value;
+            ticks++;
+
+            long minute = now / MINUTE_MILLIS;
+            int last = (int) ((candles - 1) % minutes.length);
+            // A clock that stepped back keeps filling the latest candle
+            if (candles > 0 && minute <= minutes[last]) {
+                high[last] = Math.max(high[last], value);
+                low[last] = Math.min(low[last], value);
+                close[last] = value;
+            } else {
+                int next = (int) (candles % minutes.length);
+                minutes[next] = minute;
+                open[next] = high[next] = low[next] = close[next] = value;
+                candles++;
+            }
+        }
+
+        void rollDay(long now, double previousValue) {
+            long today = now / DAY_MILLIS;
+            if (today != day) {
+                day = today;
+                dayOpen = previousValue;
+            }
+        }
+    }
+
+    /**
+     * The value of an index at one moment.
+     */
+    public static class Quote {
+        private final int id;
+        private final String symbol;
+        private final String name;
+        private final MarketIndex.Weighting weighting;
+        private final int constituents;
+        private final BigDecimal value;
+        private final double changePercent;
+        private final long updatedAt;
+
+        Quote(Basket basket) {
+            this.id = basket.definition.getId();
+            this.symbol = basket.definition.getSymbol();
+            this.name = basket.definition.getName();
+            this.weighting = basket.definition.getWeighting();
+            this.constituents = basket.members.size();
+            double value = basket.value();
+            this.value = round(value);
+            History h = basket.history;
+            // No tick yet today: the index has not moved since the open
+            double open = h.day == System.currentTimeMillis() / DAY_MILLIS ? h.dayOpen : value;
+            this.changePercent = open > 0 ? (value - open) / open * 100.0 : 0.0;
+            this.updatedAt = basket.updatedAt;
+        }
+
+        public int getId() { return id; }
+        public String getSymbol() { return symbol; }
+        public String getName() { return name; }
+        public MarketIndex.Weighting getWeighting() { return weighting; }
+        public int getConstituents() { return constituents; }
+        public BigDecimal getValue() { return value; }
+        public double getChangePercent() { return changePercent; }
+        public long getUpdatedAt() { return updatedAt; }
+    }
+
+    public static class Tick {
+        private final long time;
+        private final BigDecimal value;
+
+        Tick(long time, double value) {
+            this.time = time;
+            this.value = round(value);
+        }
+
+        public long getTime() { return time; }
+        public BigDecimal getValue() { return value; }
+    }
+
+    public static class Candle {
+        private final long start;
+        private double open;
+        private double high;
+        private double low;
+        private double close;
+
+        Candle(long start, double open, double high, double low, double close) {
+            this.start = start;
+            this.open = open;
+            this.high = high;
+            this.low = low;
+            this.close = close;
+        }
+
+        public long getStart() { return start; }
+        public BigDecimal getOpen() { return round(open); }
+        public BigDecimal getHigh() { return round(high); }
+        public BigDecimal getLow() { return round(low); }
+        public BigDecimal getClose() { return round(close); }
+    }
+
+    // ================== DEFINITIONS ==================
+
+    /**
+     * Installs an index, or replaces the one with the same id, valued at
+     * the given constituent prices. A replaced index keeps its history.
+     * Prices that change while this runs may be missed; callers pass the
+     * current prices to onPrice afterwards.
+     */
+    public synchronized void install(MarketIndex definition, double divisor, Map<Integer, BigDecimal> prices) {
+        Basket previous = byId.get(definition.getId());
+        History history = previous != null ? previous.history : new History(tickCapacity, candleCapacity);
+        Basket basket = new Basket(definition, divisor, history);
+        for (Map.Entry<Integer, Long> e : definition.getUnits().entrySet()) {
+            BigDecimal price = prices.get(e.getKey());
+            long cents = price != null ? cents(price) : 0;
+            basket.members.put(e.getKey(), new Member(basket, e.getValue(), cents));
+            basket.sumCents += (double) e.getValue() * cents;
+        }
+        if (previous != null) {
+            detach(previous);
+        }
+        Basket sameSymbol = bySymbol.get(definition.getSymbol());
+        if (sameSymbol != null && sameSymbol != previous) {
+            detach(sameSymbol);
+            byId.remove(sameSymbol.definition.getId());
+        }
+        byId.put(definition.getId(), basket);
+        bySymbol.put(definition.getSymbol(), basket);
+        for (Map.Entry<Integer, Member> e : basket.members.entrySet()) {
+            byStock.merge(e.getKey(), new Member[] { e.getValue() }, CompositeIndices::concat);
+        }
+
+        long now = System.currentTimeMillis();
+        double value = basket.value();
+        history.rollDay(now, previous != null ? previous.value() : value);
+        basket.updatedAt = now;
+        history.record(now, value);
+    }
+
+    /**
+     * Removes an index. Its history goes with it.
+     */
+    public synchronized void remove(int indexId) {
+        Basket basket = byId.remove(indexId);
+        if (basket != null) {
+            detach(basket);
+            bySymbol.remove(basket.definition.getSymbol(), basket);
+        }
+        stale.remove(indexId);
+    }
+
+    // Callers hold the lock
+    private void detach(Basket basket) {
+        for (Integer stockId : basket.members.keySet()) {
+            byStock.computeIfPresent(stockId, (id, members) -> without(members, basket));
+        }
+    }
+
+    /**
+     * Notes that an index was changed elsewhere and has to be reloaded.
+     */
+    public void markStale(int indexId) {
+        stale.add(indexId);
+    }
+
+    /**
+     * Notes that any index may have changed elsewhere.
+     */
+    public synchronized void markAllStale() {
+        stale.addAll(byId.keySet());
+        stale.add(0);
+    }
+
+    /**
+     * Removes and returns the ids noted by markStale. 0 stands for indices
+     * this node does not know yet.
+     */
+    public List<Integer> takeStale() {
+        List<Integer> ids = new ArrayList<>();
+        for (Integer id : stale) {
+            if (stale.remove(id)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    // ================== TICKS ==================
+
+    /**
+     * Moves every index holding a stock to its new price.
+     */
+    public void onPrice(int stockId, BigDecimal price) {
+        Member[] members = byStock.get(stockId);
+        if (members == null) {
+            return;
+        }
+        long cents = cents(price);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Member member : members) {
+                long delta = cents - member.lastCents;
+                if (delta == 0) {
+                    continue;
+                }
+                Basket basket = member.basket;
+                double before = basket.value();
+                member.lastCents = cents;
+                basket.sumCents += (double) member.units * delta;
+                basket.updatedAt = now;
+                basket.history.rollDay(now, before);
+                basket.history.record(now, basket.value());
+            }
+        }
+    }
+
+    // ================== READS ==================
+
+    /**
+     * Every index, in id order.
+     */
+    public synchronized List<Quote> getQuotes() {
+        List<Quote> quotes = new ArrayList<>(byId.size());
+        for (Basket basket : byId.values()) {
+            quotes.add(new Quote(basket));
+        }
+        quotes.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        return quotes;
+    }
+
+    /**
+     * @return null if there is no such index
+     */
+    public synchronized Quote getQuote(String symbol) {
+        Basket basket = bySymbol.get(symbol);
+        return basket != null ? new Quote(basket) : null;
+    }
+
+    public synchronized Quote getQuote(int indexId) {
+        Basket basket = byId.get(indexId);
+        return basket != null ? new Quote(basket) : null;
+    }
+
+    /**
+     * The unrounded value of an index, or null if there is no such index.
+     */
+    public synchronized Double getValue(int indexId) {
+        Basket basket = byId.get(indexId);
+        return basket != null ? basket.value() : null;
+    }
+
+    /**
+     * The latest ticks of an index, oldest first.
+     *
+     * @return null if there is no such index
+     */
+    public synchronized List<Tick> getTicks(String symbol, int limit) {
+        Basket basket = bySymbol.get(symbol);
+        if (basket == null) {
+            return null;
+        }
+        History h = basket.history;
+        int n = (int) Math.min(Math.min(h.ticks, h.tickTimes.length), Math.max(0, limit));
+        List<Tick> ticks = new ArrayList<>(n);
+        for (long i = h.ticks - n; i < h.ticks; i++) {
+            int slot = (int) (i % h.tickTimes.length);
+            ticks.add(new Tick(h.tickTimes[slot], h.tickValues[slot]));
+        }
+        return ticks;
+    }
+
+    /**
+     * The latest candles of an index, oldest first, each covering
+     * intervalMinutes minutes aligned to the epoch. Minutes without ticks
+     * have no candle.
+     *
+     * @return null if there is no such index
+     */
+    public synchronized List<Candle> getCandles(String symbol, int intervalMinutes, int limit) {
+        Basket basket = bySymbol.get(symbol);
+        if (basket == null) {
+            return null;
+        }
+        History h = basket.history;
+        long available = Math.min(h.candles, h.minutes.length);
+        List<Candle> candles = new ArrayList<>();
+        Candle current = null;
+        long currentBucket = Long.MIN_VALUE;
+        // Newest first; a bucket's open is the open of its earliest minute
+        for (long i = h.candles - 1; i >= h.candles - available; i--) {
+            int slot = (int) (i % h.minutes.length);
+            long bucket = h.minutes[slot] / intervalMinutes;
+            if (current == null || bucket != currentBucket) {
+                if (candles.size() == limit) {
+                    break;
+                }
+                current = new Candle(bucket * intervalMinutes * MINUTE_MILLIS, h.open[slot], h.high[slot],
+                        h.low[slot], h.close[slot]);
+                currentBucket = bucket;
+                candles.add(current);
+            } else {
+                current.open = h.open[slot];
+                current.high = Math.max(current.high, h.high[slot]);
+                current.low = Math.min(current.low, h.low[slot]);
+            }
+        }
+        Collections.reverse(candles);
+        return candles;
+    }
+
+    // ================== HELPERS ==================
+
+    private static Member[] concat(Member[] members, Member[] added) {
+        Member[] result = new Member[members.length + added.length];
+        System.arraycopy(members, 0, result, 0, members.length);
+        System.arraycopy(added, 0, result, members.length, added.length);
+        return result;
+    }
+
+    private static Member[] without(Member[] members, Basket basket) {
+        int kept = 0;
+        Member[] result = new Member[members.length];
+        for (Member member : members) {
+            if (member.basket != basket) {
+                result[kept++] = member;
+            }
+        }
+        if (kept == 0) {
+            return null;
+        }
+        return kept == members.length ? members : Arrays.copyOf(result, kept);
+    }
+
+    private static long cents(BigDecimal price) {
+        return price.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+
+    private static BigDecimal round(double value) {
+        return BigDecimal.valueOf(value).setScale(2, RoundingMode.HALF_UP);
+    }
+}
@@ -0,0 +1,439 @@
+package stockapp.src.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import stockapp.src.models.Portfolio;
+
+/**
+ * Traders ranked by equity: balance plus positions marked to the latest
+ * prices.
+ *
+ * The ranking is an order-statistic treap keyed by (equity descending,
+ * user id), each node counting the nodes below it, so the rank of a user
+ * and the top n are O(log n) (plus n) whatever the number of accounts.
+ * Every account also remembers its positions, and every stock its holders,
+ * so a price move only re-ranks the users holding that stock.
+ *
+ * Writers only leave notes here: DatabaseConnection.recordWrite and the
+ * invalidation bus mark users dirty, and TradingStateCache passes on every
+ * new price. Both are cheap and never take the ranking lock, so the trade
+ * path does not wait for re-ranking. LeaderboardService reloads the dirty
+ * users and applies the pending prices in the background; several ticks of
+ * one stock in between cost one re-rank of its holders, and reads never
+ * wait for more than the read lock.
+ */
+public class EquityLeaderboard {
+
+    private static final EquityLeaderboard instance = new EquityLeaderboard();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock
+    private final Map<Integer, Account> accounts = new HashMap<>();
+    private final Map<Integer, Set<Integer>> holders = new HashMap<>();
+    private final Map<Integer, Double> prices = new HashMap<>();
+    private final SplittableRandom random = new SplittableRandom();
+    private Node root;
+
+    // Fed by writers without the lock
+    private final Set<Integer> dirtyUsers = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<Integer, Double> pendingPrices = new ConcurrentHashMap<>();
+    private final AtomicBoolean rebuildRequested = new AtomicBoolean(true);
+
+    private EquityLeaderboard() {
+    }
+
+    public static EquityLeaderboard getInstance() {
+        return instance;
+    }
+
+    /**
+     * A ranked trader. Ranks start at 1.
+     */
+    public static class Standing {
+        private final int rank;
+        private final int userId;
+        private final String username;
+        private final double equity;
+
+        Standing(int rank, int userId, String username, double equity) {
+            this.rank = rank;
+            this.userId = userId;
+            this.username = username;
+            this.equity = equity;
+        }
+
+        public int getRank() { return rank; }
+        public int getUserId() { return userId; }
+        public String getUsername() { return username; }
+        public double getEquity() { return equity; }
+    }
+
+    private static final class Account {
+        final String username;
+        final double balance;
+        final int[] stockIds;
+        final int[] quantities;
+        Node node;
+
+        Account(String username, double balance, int[] stockIds, int[] quantities) {
+            this.username = username;
+            this.balance = balance;
+            this.stockIds = stockIds;
+            this.quantities = quantities;
+        }
+    }
+
+    private static final class Node {
+        final int userId;
+        final double equity;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(int userId, double equity, int priority) {
+            this.userId = userId;
+            this.equity = equity;
+            this.priority = priority;
+        }
+    }
+
+    // ================== WRITER NOTES ==================
+
+    /**
+     * Notes that a user's balance or positions changed.
+     */
+    public void markDirty(int userId) {
+        dirtyUsers.add(userId);
+    }
+
+    /**
+     * Notes a new price for a stock.
+     */
+    public void updatePrice(int stockId, double price) {
+        pendingPrices.put(stockId, price);
+    }
+
+    /**
+     * Asks for a full rebuild, e.g. after a bulk import.
+     */
+    public void requestRebuild() {
+        rebuildRequested.set(true);
+    }
+
+    /**
+     * True, once, if a rebuild was asked for since the last call. The
+     * ranking starts out asking for one.
+     */
+    public boolean takeRebuildRequest() {
+        return rebuildRequested.getAndSet(false);
+    }
+
+    /**
+     * Removes and returns the users marked dirty so far.
+     */
+    public List<Integer> takeDirtyUsers() {
+        List<Integer> taken = new ArrayList<>();
+        Iterator<Integer> it = dirtyUsers.iterator();
+        while (it.hasNext()) {
+            taken.add(it.next());
+            it.remove();
+        }
+        return taken;
+    }
+
+    // ================== UPDATES ==================
+
+    /**
+     * Replaces the whole ranking. Users marked dirty meanwhile stay marked,
+     * so writes that raced with the load are applied afterwards.
+     */
+    public void rebuild(Map<Integer, String> usernames, Map<Integer, Double> balances,
+            Map<Integer, List<Portfolio>> positions, Map<Integer, Double> latestPrices) {
+        lock.writeLock().lock();
+        try {
+            accounts.clear();
+            holders.clear();
+            root = null;
+            prices.putAll(latestPrices);
+            for (Map.Entry<Integer, String> e : usernames.entrySet()) {
+                insert(e.getKey(), account(e.getValue(), balances.getOrDefault(e.getKey(), 0.0),
+                        positions.getOrDefault(e.getKey(), List.of())));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ranks a user with the given balance and positions, or re-ranks them.
+     */
+    public void putAccount(int userId, String username, double balance, List<Portfolio> positions) {
+        lock.writeLock().lock();
+        try {
+            delete(userId);
+            insert(userId, account(username, balance, positions));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAccount(int userId) {
+        lock.writeLock().lock();
+        try {
+            delete(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies the prices noted since the last call and re-ranks the holders
+     * of the stocks that moved.
+     */
+    public void applyPrices() {
+        if (pendingPrices.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Set<Integer> moved = new HashSet<>();
+            for (Integer stockId : pendingPrices.keySet()) {
+                Double price = pendingPrices.remove(stockId);
+                if (price != null && !price.equals(prices.put(stockId, price))) {
+                    Set<Integer> users = holders.get(stockId);
+                    if (users != null) {
+                        moved.addAll(users);
+                    }
+                }
+            }
+            for (Integer userId : moved) {
+                Account account = accounts.get(userId);
+                root = remove(root, account.node.equity, userId);
+                account.node = new Node(userId, equityOf(account), random.nextInt());
+                root = insert(root, account.node);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ================== QUERIES ==================
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size(root);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The n richest traders, richest first.
+     */
+    public List<Standing> top(int n) {
+        lock.readLock().lock();
+        try {
+            List<Standing> result = new ArrayList<>(Math.min(n, size(root)));
+            ArrayDeque<Node> path = new ArrayDeque<>();
+            Node node = root;
+            while (result.size() < n && (node != null || !path.isEmpty())) {
+                while (node != null) {
+                    path.push(node);
+                    node = node.left;
+                }
+                node = path.pop();
+                result.add(new Standing(result.size() + 1, node.userId, accounts.get(node.userId).username,
+                        node.equity));
+                node = node.right;
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A user's place in the ranking, or null if they are not ranked.
+     */
+    public Standing standingOf(int userId) {
+        lock.readLock().lock();
+        try {
+            Account account = accounts.get(userId);
+            if (account == null) {
+                return null;
+            }
+            double equity = account.node.equity;
+            int rank = 0;
+            Node node = root;
+            while (node != null) {
+                int c = compare(equity, userId, node);
+                if (c < 0) {
+                    node = node.left;
+                } else {
+                    rank += size(node.left) + 1;
+                    if (c == 0) {
+                        break;
+                    }
+                    node = node.right;
+                }
+            }
+            return new Standing(rank, userId, account.username, equity);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ================== ACCOUNTS ==================
+
+    private static Account account(String username, double balance, List<Portfolio> positions) {
+        int[] stockIds = new int[positions.size()];
+        int[] quantities = new int[positions.size()];
+        for (int i = 0; i < stockIds.length; i++) {
+            stockIds[i] = positions.get(i).getStockID();
+            quantities[i] = positions.get(i).getQuantity();
+        }
+        return new Account(username, balance, stockIds, quantities);
+    }
+
+    // Callers hold the write lock
+    private void insert(int userId, Account account) {
+        for (int stockId : account.stockIds) {
+            holders.computeIfAbsent(stockId, id -> new HashSet<>()).add(userId);
+        }
+        account.node = new Node(userId, equityOf(account), random.nextInt());
+        accounts.put(userId, account);
+        root = insert(root, account.node);
+    }
+
+    private void delete(int userId) {
+        Account account = accounts.remove(userId);
+        if (account == null) {
+            return;
+        }
+        for (int stockId : account.stockIds) {
+            Set<Integer> users = holders.get(stockId);
+            if (users != null) {
+                users.remove(userId);
+                if (users.isEmpty()) {
+                    holders.remove(stockId);
+                }
+            }
+        }
+        root = remove(root, account.node.equity, userId);
+    }
+
+    /**
+     * Positions of stocks with no price yet count at zero until one arrives.
+     */
+    private double equityOf(Account account) {
+        double equity = account.balance;
+        for (int i = 0; i < account.stockIds.length; i++) {
+            Double price = prices.get(account.stockIds[i]);
+            if (price != null) {
+                equity += price * account.quantities[i];
+            }
+        }
+        return equity;
+    }
+
+    // ================== TREAP ==================
+
+    /**
+     * Orders by equity, highest first, then by user id.
+     */
+    private static int compare(double equity, int userId, Node node) {
+        int c = Double.compare(node.equity, equity);
+        return c != 0 ? c : Integer.compare(userId, node.userId);
+    }
+
+    private static int size(Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static Node update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+
+    private static Node insert(Node tree, Node node) {
+        if (tree == null) {
+            return node;
+        }
+        if (node.priority > tree.priority) {
+            Node[] parts = split(tree, node.equity, node.userId);
+            node.left = parts[0];
+            node.right = parts[1];
+            return update(node);
+        }
+        if (compare(node.equity, node.userId, tree) < 0) {
+            tree.left = insert(tree.left, node);
+        } else {
+            tree.right = insert(tree.right, node);
+        }
+        return update(tree);
+    }
+
+    private static Node remove(Node tree, double equity, int userId) {
+        if (tree == null) {
+            return null;
+        }
+        int c = compare(equity, userId, tree);
+        if (c == 0) {
+            return merge(tree.left, tree.right);
+        }
+        if (c < 0) {
+            tree.left = remove(tree.left, equity, userId);
+        } else {
+            tree.right = remove(tree.right, equity, userId);
+        }
+        return update(tree);
+    }
+
+    /**
+     * Splits a tree into the nodes ordered before the key and the rest.
+     */
+    private static Node[] split(Node tree, double equity, int userId) {
+        if (tree == null) {
+            return new Node[2];
+        }
+        if (compare(equity, userId, tree) > 0) {
+            Node[] parts = split(tree.right, equity, userId);
+            tree.right = parts[0];
+            parts[0] = update(tree);
+            return parts;
+        }
+        Node[] parts = split(tree.left, equity, userId);
+        tree.left = parts[1];
+        parts[1] = update(tree);
+        return parts;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return update(left);
+        }
+        right.left = merge(left, right.left);
+        return update(right);
+    }
+}
@@ -0,0 +1,369 @@
+package stockapp.src.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import stockapp.src.DatabaseConnection;
+import stockapp.src.ReplicaRouter;
+
+/**
+ * Tells the other application nodes sharing a database which cached entries
+ * a write made stale, so a TradingStateCache on one node does not keep
+ * serving a price or position another node has changed.
+ *
+ * Off unless stockapp.cache.bus is true; a single node does not need it.
+ * Writers publish after they commit, naming what changed: a user's account
+ * state, a stock's quote, a stock's suspension flag, every user's
+ * transaction aggregates, the definition of a market index, or a scheduled
+ * trading halt window. Events are kept in memory and written to the
+ * primary's cache_invalidations table as one batch per tick; every
+ * stockapp.cache.bus.poll-ms (default 200) each node also reads the events
+ * written since its previous poll and drops the affected cache entries.
+ * The next read loads them from the database, and counts as a read after a
+ * write of this node's own (ReplicaRouter.recordWrite), so a replica that
+ * has not applied the write yet is not used for it. A node therefore sees
+ * another node's write at most about two ticks after it committed.
+ *
+ * Events are read by creation time with a margin of
+ * stockapp.cache.bus.grace-ms (default 5000), so an event whose insert
+ * committed a little after its timestamp is still picked up; event ids
+ * already applied are remembered for as long as they can show up again.
+ * Node clocks must agree to within the margin. Rows older than
+ * stockapp.cache.bus.retention-ms (default 60000) are purged; a node that
+ * could not poll for that long may have missed events and clears its whole
+ * cache instead.
+ *
+ * A halt window event only notes the window; TradingHaltService reloads it
+ * from trading_halts on its next tick and arms or cancels its own timers.
+ * The activity search index is not covered; it stays local to the node
+ * that built it.
+ */
+public class InvalidationBus {
+
+    public static final String USER = "USER";
+    public static final String STOCK = "STOCK";
+    public static final String SUSPENSION = "SUSPENSION";
+    public static final String AGGREGATES = "AGGREGATES";
+    public static final String INDEX = "INDEX";
+    public static final String HALT = "HALT";
+
+    private static final long PURGE_INTERVAL_MILLIS = 10_000;
+
+    private static final String INSERT_EVENT_SQL =
+            "INSERT INTO cache_invalidations (node_id, kind, entity_id, created_at) VALUES (?, ?, ?, ?)";
+
+    private static final String SELECT_EVENTS_SQL =
+            "SELECT id, node_id, kind, entity_id, created_at FROM cache_invalidations WHERE created_at >= ? ORDER BY id";
+
+    private static final String PURGE_EVENTS_SQL = "DELETE FROM cache_invalidations WHERE created_at < ?";
+
+    private static final String SELECT_SUSPENDED_SQL = "SELECT is_suspended FROM stocks WHERE id = ?";
+
+    private static final InvalidationBus instance = new InvalidationBus();
+
+    private final boolean enabled;
+    private final String nodeId;
+    private final long pollMillis;
+    private final long graceMillis;
+    private final long retentionMillis;
+
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+    private final TradingHalts halts = TradingHalts.getInstance();
+    private final EquityLeaderboard leaderboard = EquityLeaderboard.getInstance();
+    private final CompositeIndices indices = CompositeIndices.getInstance();
+    private final ReplicaRouter replicas = ReplicaRouter.getInstance();
+
+    // Published but not yet written; repeats of an unwritten event collapse
+    private final Set<Event> pending = ConcurrentHashMap.newKeySet();
+
+    // Only touched by the poller thread
+    private final Map<Long, Long> seen = new HashMap<>(); // event id -> created_at
+    private long lastPollAt;
+    private long lastPurgeAt;
+
+    private final AtomicLong applied = new AtomicLong();
+    private volatile ScheduledExecutorService poller;
+
+    private record Event(String kind, int entityId) {
+    }
+
+    private InvalidationBus() {
+        enabled = Boolean.getBoolean("stockapp.cache.bus");
+        nodeId = System.getProperty("stockapp.node.id", UUID.randomUUID().toString());
+        pollMillis = Math.max(10, Long.getLong("stockapp.cache.bus.poll-ms", 200));
+        graceMillis = Math.max(pollMillis, Long.getLong("stockapp.cache.bus.grace-ms", 5000));
+        retentionMillis = Math.max(2 * graceMillis, Long.getLong("stockapp.cache.bus.retention-ms", 60_000));
+    }
+
+    public static InvalidationBus getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Number of events from other nodes applied to this node's cache.
+     */
+    public long getAppliedCount() {
+        return applied.get();
+    }
+
+    // ================== PUBLISHING ==================
+
+    /**
+     * A user's balance, positions or transactions changed.
+     */
+    public void publishUser(int userId) {
+        publish(USER, userId);
+    }
+
+    /**
+     * A stock's quote (price, name, symbol) changed.
+     */
+    public void publishStock(int stockId) {
+        publish(STOCK, stockId);
+    }
+
+    /**
+     * A stock was suspended or resumed.
+     */
+    public void publishSuspension(int stockId) {
+        publish(SUSPENSION, stockId);
+    }
+
+    /**
+     * Transactions changed whose owners are not known, e.g. a status update
+     * by transaction id.
+     */
+    public void publishAllAggregates() {
+        publish(AGGREGATES, 0);
+    }
+
+    /**
+     * A market index was created, rebalanced or deleted.
+     */
+    public void publishIndex(int indexId) {
+        publish(INDEX, indexId);
+    }
+
+    /**
+     * A trading halt window was scheduled or cancelled.
+     */
+    public void publishHalt(int haltId) {
+        publish(HALT, haltId);
+    }
+
+    private void publish(String kind, int entityId) {
+        if (!enabled) {
+            return;
+        }
+        pending.add(new Event(kind, entityId));
+        start();
+    }
+
+    // ================== POLLING ==================
+
+    /**
+     * Starts polling for other nodes' events. Publishing starts it too, but
+     * a node that only reads has to call this to hear about writes.
+     */
+    public void start() {
+        if (!enabled || poller != null) {
+            return;
+        }
+        synchronized (this) {
+            if (poller == null) {
+                ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "cache-invalidation-bus");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor.scheduleWithFixedDelay(this::tick, 0, pollMillis, TimeUnit.MILLISECONDS);
+                poller = executor;
+            }
+        }
+    }
+
+    /**
+     * Stops polling after writing out the events still pending.
+     */
+    public synchronized void stop() {
+        if (poller == null) {
+            return;
+        }
+        poller.shutdown();
+        try {
+            poller.awaitTermination(pollMillis * 5, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        poller = null;
+        flush();
+    }
+
+    private void tick() {
+        try {
+            flush();
+            poll();
+            purge();
+        } catch (RuntimeException e) {
+            // Keep the schedule alive; the next tick retries
+            System.err.println("ERROR: Cache invalidation tick failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Event> batch = new ArrayList<>();
+        for (Iterator<Event> it = pending.iterator(); it.hasNext();) {
+            batch.add(it.next());
+            it.remove();
+        }
+        Connection conn = DatabaseConnection.getConnection();
+        if (conn == null) {
+            pending.addAll(batch);
+            return;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(INSERT_EVENT_SQL)) {
+            long now = System.currentTimeMillis();
+            for (Event event : batch) {
+                stmt.setString(1, nodeId);
+                stmt.setString(2, event.kind());
+                stmt.setInt(3, event.entityId());
+                stmt.setLong(4, now);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            // Keep them for the next tick
+            pending.addAll(batch);
+            System.err.println("ERROR: Failed to publish cache invalidations: " + e.getMessage());
+        } finally {
+            DatabaseConnection.closeConnection(conn);
+        }
+    }
+
+    private void poll() {
+        long startedAt = System.currentTimeMillis();
+        Connection conn = DatabaseConnection.getConnection();
+        if (conn == null) {
+            return;
+        }
+        try {
+            if (lastPollAt != 0 && startedAt - lastPollAt > retentionMillis - graceMillis) {
+                // Events written while this node was cut off may already be purged
+                System.err.println("ERROR: No cache invalidations read for " + (startedAt - lastPollAt)
+                        + " ms; clearing the cache");
+                resetAll(conn);
+            }
+            long since = (lastPollAt != 0 ? lastPollAt : startedAt) - graceMillis;
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT_EVENTS_SQL)) {
+                stmt.setLong(1, since);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        long id = rs.getLong("id");
+                        if (seen.putIfAbsent(id, rs.getLong("created_at")) != null
+                                || nodeId.equals(rs.getString("node_id"))) {
+                            continue;
+                        }
+                        apply(conn, rs.getString("kind"), rs.getInt("entity_id"));
+                        applied.incrementAndGet();
+                    }
+                }
+            }
+            lastPollAt = startedAt;
+            // Older events fall outside every future window
+            seen.values().removeIf(createdAt -> createdAt < startedAt - graceMillis);
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to read cache invalidations: " + e.getMessage());
+        } finally {
+            DatabaseConnection.closeConnection(conn);
+        }
+    }
+
+    private void apply(Connection conn, String kind, int entityId) throws SQLException {
+        switch (kind) {
+            case USER -> {
+                replicas.recordWrite(entityId);
+                cache.invalidateUser(entityId);
+                leaderboard.markDirty(entityId);
+            }
+            case STOCK -> {
+                replicas.recordWrite(ReplicaRouter.QUOTES);
+                cache.invalidateStock(entityId);
+            }
+            case SUSPENSION -> {
+                replicas.recordWrite(ReplicaRouter.QUOTES);
+                try (PreparedStatement stmt = conn.prepareStatement(SELECT_SUSPENDED_SQL)) {
+                    stmt.setInt(1, entityId);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        halts.setSuspended(entityId, rs.next() && rs.getBoolean(1));
+                    }
+                }
+                cache.invalidateStock(entityId);
+            }
+            case AGGREGATES -> cache.invalidateAllAggregates();
+            case INDEX -> indices.markStale(entityId);
+            case HALT -> halts.markWindowChanged(entityId);
+            default -> System.err.println("ERROR: Unknown cache invalidation kind " + kind);
+        }
+    }
+
+    private void resetAll(Connection conn) throws SQLException {
+        cache.clear();
+        leaderboard.requestRebuild();
+        indices.markAllStale();
+        halts.markAllWindowsChanged();
+        List<Integer> suspended = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT id FROM stocks WHERE is_suspended = TRUE");
+                ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                suspended.add(rs.getInt(1));
+            }
+        }
+        halts.replaceSuspended(suspended);
+    }
+
+    private void purge() {
+        long now = System.currentTimeMillis();
+        if (now - lastPurgeAt < PURGE_INTERVAL_MILLIS) {
+            return;
+        }
+        lastPurgeAt = now;
+        Connection conn = DatabaseConnection.getConnection();
+        if (conn == null) {
+            return;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(PURGE_EVENTS_SQL)) {
+            stmt.setLong(1, now - retentionMillis);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to purge cache invalidations: " + e.getMessage());
+        } finally {
+            DatabaseConnection.closeConnection(conn);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package stockapp.src.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import stockapp.src.dao.StockDAO;
+
+/**
+ * Rankings of the quoted stocks by change percent (gainers and losers) and
+ * by traded volume (most active), kept up to date as quotes and fills come in.
+ *
+ * Each ranking is an indexed binary heap: a heap of stock ids plus the slot
+ * of every id in it, so one stock's score can be changed or removed in
+ * O(log n). The k best entries are read off the top of the heap through a
+ * frontier of at most k+1 slots, without visiting the rest of the universe.
+ *
+ * TradingStateCache feeds quote changes in, so every path that moves a
+ * price (fills, baskets, admin changes, journal replay, invalidations)
+ * reaches the rankings. Change percents are ranked as served, i.e. with the
+ * daily simulated value standing in for a stored 0.0 (see StockDAO).
+ * Volume is the number of shares filled on this node since the start of the
+ * day, plus whatever was seeded at startup. When several nodes share the
+ * database each one only records its own fills, so MarketMoversService
+ * replaces the volumes with the day's totals from the transactions every
+ * so often. Both are reset when the day turns.
+ */
+public class MarketMovers {
+
+    private static final MarketMovers instance = new MarketMovers();
+
+    private final IndexedHeap gainers = new IndexedHeap(true);
+    private final IndexedHeap losers = new IndexedHeap(false);
+    private final IndexedHeap mostActive = new IndexedHeap(true);
+
+    // Stored change percent of every ranked stock, to re-rank when the day turns
+    private final Map<Integer, Double> storedChange = new HashMap<>();
+    private final Map<Integer, Long> volumes = new HashMap<>();
+    private long day = StockDAO.simulationDay();
+
+    private MarketMovers() {
+    }
+
+    public static MarketMovers getInstance() {
+        return instance;
+    }
+
+    /**
+     * A stock's place in a ranking.
+     */
+    public static class Entry {
+        private final int stockId;
+        private final double changePercent;
+        private final long volume;
+
+        Entry(int stockId, double changePercent, long volume) {
+            this.stockId = stockId;
+            this.changePercent = changePercent;
+            this.volume = volume;
+        }
+
+        public int getStockId() { return stockId; }
+        public double getChangePercent() { return changePercent; }
+        public long getVolume() { return volume; }
+    }
+
+    // ================== UPDATES ==================
+
+    /**
+     * Ranks a stock with its stored change percent, or re-ranks it.
+     */
+    public synchronized void putQuote(int stockId, double storedChangePercent) {
+        rollOver();
+        storedChange.put(stockId, storedChangePercent);
+        double served = StockDAO.servedChangePercent(stockId, storedChangePercent, day);
+        gainers.set(stockId, served);
+        losers.set(stockId, served);
+        mostActive.set(stockId, volumes.getOrDefault(stockId, 0L));
+    }
+
+    /**
+     * Takes a stock out of the rankings. Its volume is kept, so it counts
+     * again if the quote comes back.
+     */
+    public synchronized void removeQuote(int stockId) {
+        storedChange.remove(stockId);
+        gainers.remove(stockId);
+        losers.remove(stockId);
+        mostActive.remove(stockId);
+    }
+
+    /**
+     * Takes every stock out of the rankings, keeping the volumes.
+     */
+    public synchronized void clearQuotes() {
+        storedChange.clear();
+        gainers.clear();
+        losers.clear();
+        mostActive.clear();
+    }
+
+    /**
+     * Adds filled shares to a stock's volume.
+     */
+    public synchronized void recordFill(int stockId, int quantity) {
+        rollOver();
+        long volume = volumes.merge(stockId, (long) quantity, Long::sum);
+        if (storedChange.containsKey(stockId)) {
+            mostActive.set(stockId, volume);
+        }
+    }
+
+    /**
+     * Adds volumes counted elsewhere, e.g. today's fills read from the
+     * database at startup.
+     */
+    public synchronized void addVolumes(Map<Integer, Long> counted) {
+        rollOver();
+        for (Map.Entry<Integer, Long> e : counted.entrySet()) {
+            long volume = volumes.merge(e.getKey(), e.getValue(), Long::sum);
+            if (storedChange.containsKey(e.getKey())) {
+                mostActive.set(e.getKey(), volume);
+            }
+        }
+    }
+
+    /**
+     * Replaces every volume with the totals counted for the given day, e.g.
+     * all nodes' fills read from the database. Ignored once the day has
+     * turned. A fill recorded while the totals were read may be missed or
+     * counted twice until the next replacement.
+     */
+    public synchronized void replaceVolumes(long countedDay, Map<Integer, Long> counted) {
+        rollOver();
+        if (countedDay != day) {
+            return;
+        }
+        for (Integer stockId : volumes.keySet()) {
+            if (!counted.containsKey(stockId) && storedChange.containsKey(stockId)) {
+                mostActive.set(stockId, 0);
+            }
+        }
+        volumes.clear();
+        for (Map.Entry<Integer, Long> e : counted.entrySet()) {
+            volumes.put(e.getKey(), e.getValue());
+            if (storedChange.containsKey(e.getKey())) {
+                mostActive.set(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    // ================== RANKINGS ==================
+
+    public synchronized List<Entry> topGainers(int k) {
+        return top(gainers, k);
+    }
+
+    public synchronized List<Entry> topLosers(int k) {
+        return top(losers, k);
+    }
+
+    public synchronized List<Entry> mostActive(int k) {
+        return top(mostActive, k);
+    }
+
+    public synchronized int size() {
+        return storedChange.size();
+    }
+
+    /**
+     * Shares of a stock traded today.
+     */
+    public synchronized long volumeOf(int stockId) {
+        rollOver();
+        return volumes.getOrDefault(stockId, 0L);
+    }
+
+    private List<Entry> top(IndexedHeap heap, int k) {
+        rollOver();
+        int[] ids = heap.top(k);
+        List<Entry> result = new ArrayList<>(ids.length);
+        for (int stockId : ids) {
+            result.add(new Entry(stockId, gainers.score(stockId), volumes.getOrDefault(stockId, 0L)));
+        }
+        return result;
+    }
+
+    /**
+     * Starts a new day: volumes go back to zero and simulated change
+     * percents are drawn for the new day. Callers hold the lock.
+     */
+    private void rollOver() {
+        long today = StockDAO.simulationDay();
+        if (today == day) {
+            return;
+        }
+        day = today;
+        volumes.clear();
+        for (Map.Entry<Integer, Double> e : storedChange.entrySet()) {
+            double served = StockDAO.servedChangePercent(e.getKey(), e.getValue(), day);
+            gainers.set(e.getKey(), served);
+            losers.set(e.getKey(), served);
+            mostActive.set(e.getKey(), 0);
+        }
+    }
+
+    // ================== HEAP ==================
+
+    /**
+     * Binary heap of stock ids by score, highest first when max is set and
+     * lowest first otherwise. Equal scores go to the lower stock id, so
+     * rankings are stable.
+     */
+    static final class IndexedHeap {
+        private final boolean max;
+        private int[] ids = new int[64];
+        private double[] scores = new double[64];
+        private int size;
+        private final Map<Integer, Integer> slots = new HashMap<>();
+
+        IndexedHeap(boolean max) {
+            this.max = max;
+        }
+
+        double score(int id) {
+            Integer slot = slots.get(id);
+            return slot != null ? scores[slot] : 0.0;
+        }
+
+        void set(int id, double score) {
+            Integer slot = slots.get(id);
+            if (slot == null) {
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                    scores = Arrays.copyOf(scores, size * 2);
+                }
+                place(size, id, score);
+                siftUp(size++);
+                return;
+            }
+            double previous = scores[slot];
+            scores[slot] = score;
+            if (score != previous) {
+                siftDown(siftUp(slot));
+            }
+        }
+
+        void remove(int id) {
+            Integer slot = slots.remove(id);
+            if (slot == null) {
+                return;
+            }
+            size--;
+            if (slot != size) {
+                place(slot, ids[size], scores[size]);
+                siftDown(siftUp(slot));
+            }
+        }
+
+        void clear() {
+            slots.clear();
+            size = 0;
+        }
+
+        /**
+         * The first k ids in heap order. Only the popped slots and their
+         * children are looked at: O(k log k).
+         */
+        int[] top(int k) {
+            int n = Math.min(k, size);
+            int[] result = new int[n];
+            if (n == 0) {
+                return result;
+            }
+            PriorityQueue<Integer> frontier = new PriorityQueue<>(2 * n + 1,
+                    (a, b) -> before(a, b) ? -1 : before(b, a) ? 1 : 0);
+            frontier.add(0);
+            for (int i = 0; i < n; i++) {
+                int slot = frontier.poll();
+                result[i] = ids[slot];
+                int child = 2 * slot + 1;
+                if (child < size) {
+                    frontier.add(child);
+                }
+                if (child + 1 < size) {
+                    frontier.add(child + 1);
+                }
+            }
+            return result;
+        }
+
+        private boolean before(int a, int b) {
+            if (scores[a] != scores[b]) {
+                return max ? scores[a] > scores[b] : scores[a] < scores[b];
+            }
+            return ids[a] < ids[b];
+        }
+
+        private void place(int slot, int id, double score) {
+            ids[slot] = id;
+            scores[slot] = score;
+            slots.put(id, slot);
+        }
+
+        private void swap(int a, int b) {
+            int id = ids[a];
+            double score = scores[a];
+            place(a, ids[b], scores[b]);
+            place(b, id, score);
+        }
+
+        private int siftUp(int slot) {
+            while (slot > 0) {
+                int parent = (slot - 1) / 2;
+                if (!before(slot, parent)) {
+                    break;
+                }
+                swap(slot, parent);
+                slot = parent;
+            }
+            return slot;
+        }
+
+        private void siftDown(int slot) {
+            while (true) {
+                int child = 2 * slot + 1;
+                if (child >= size) {
+                    return;
+                }
+                if (child + 1 < size && before(child + 1, child)) {
+                    child++;
+                }
+                if (!before(child, slot)) {
+                    return;
+                }
+                swap(slot, child);
+                slot = child;
+            }
+        }
+    }
+}
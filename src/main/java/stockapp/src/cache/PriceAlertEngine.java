@@ -0,0 +1,200 @@
+package stockapp.src.cache;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Armed price alerts, indexed per stock by threshold.
+ *
+ * Each stock has two sorted maps of thresholds (in cents): alerts waiting
+ * for the price to rise and alerts waiting for it to fall. A new price
+ * fires the rising alerts at or below it and the falling alerts at or
+ * above it, which are the ends of the maps: O(log n + k) for k fired
+ * alerts. The nearest threshold on each side is kept in a volatile field,
+ * so a price that crosses nothing is dismissed with two comparisons and
+ * no lock, however many alerts the stock has.
+ *
+ * TradingStateCache passes on every new price. Fired alerts are disarmed
+ * at once and queued; PriceAlertService takes them off the queue and
+ * delivers them outside the cache lock.
+ */
+public class PriceAlertEngine {
+
+    private static final PriceAlertEngine instance = new PriceAlertEngine();
+
+    private final ConcurrentHashMap<Integer, Book> books = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Armed> armed = new ConcurrentHashMap<>();
+    private final BlockingQueue<Fired> fired = new LinkedBlockingQueue<>();
+
+    private PriceAlertEngine() {
+    }
+
+    public static PriceAlertEngine getInstance() {
+        return instance;
+    }
+
+    private static final class Armed {
+        final int alertId;
+        final int userId;
+        final int stockId;
+        final boolean above;
+        final long thresholdCents;
+
+        Armed(int alertId, int userId, int stockId, boolean above, long thresholdCents) {
+            this.alertId = alertId;
+            this.userId = userId;
+            this.stockId = stockId;
+            this.above = above;
+            this.thresholdCents = thresholdCents;
+        }
+    }
+
+    /**
+     * An alert that fired, with the price that fired it.
+     */
+    public static class Fired {
+        private final int alertId;
+        private final int userId;
+        private final int stockId;
+        private final boolean above;
+        private final BigDecimal threshold;
+        private final BigDecimal price;
+
+        Fired(Armed alert, BigDecimal price) {
+            this.alertId = alert.alertId;
+            this.userId = alert.userId;
+            this.stockId = alert.stockId;
+            this.above = alert.above;
+            this.threshold = BigDecimal.valueOf(alert.thresholdCents, 2);
+            this.price = price;
+        }
+
+        public int getAlertId() { return alertId; }
+        public int getUserId() { return userId; }
+        public int getStockId() { return stockId; }
+        public boolean isAbove() { return above; }
+        public BigDecimal getThreshold() { return threshold; }
+        public BigDecimal getPrice() { return price; }
+    }
+
+    /**
+     * The armed alerts of one stock.
+     */
+    private static final class Book {
+        // threshold cents -> alerts at that threshold
+        final TreeMap<Long, List<Armed>> above = new TreeMap<>();
+        final TreeMap<Long, List<Armed>> below = new TreeMap<>();
+        volatile long lowestAbove = Long.MAX_VALUE;
+        volatile long highestBelow = Long.MIN_VALUE;
+
+        synchronized void add(Armed alert) {
+            (alert.above ? above : below).computeIfAbsent(alert.thresholdCents, c -> new ArrayList<>(1)).add(alert);
+            bounds();
+        }
+
+        synchronized void remove(Armed alert) {
+            TreeMap<Long, List<Armed>> side = alert.above ? above : below;
+            List<Armed> atThreshold = side.get(alert.thresholdCents);
+            if (atThreshold != null && atThreshold.remove(alert) && atThreshold.isEmpty()) {
+                side.remove(alert.thresholdCents);
+            }
+            bounds();
+        }
+
+        /**
+         * Removes and returns the alerts a price crosses.
+         */
+        synchronized List<Armed> fire(long cents) {
+            List<Armed> crossed = new ArrayList<>();
+            take(above.headMap(cents, true), crossed);
+            take(below.tailMap(cents, true), crossed);
+            bounds();
+            return crossed;
+        }
+
+        private static void take(NavigableMap<Long, List<Armed>> range, List<Armed> into) {
+            Iterator<List<Armed>> it = range.values().iterator();
+            while (it.hasNext()) {
+                into.addAll(it.next());
+                it.remove();
+            }
+        }
+
+        private void bounds() {
+            lowestAbove = above.isEmpty() ? Long.MAX_VALUE : above.firstKey();
+            highestBelow = below.isEmpty() ? Long.MIN_VALUE : below.lastKey();
+        }
+    }
+
+    // ================== ALERTS ==================
+
+    /**
+     * Arms an alert. above fires when the price reaches the threshold from
+     * below, otherwise when it reaches it from above.
+     */
+    public void arm(int alertId, int userId, int stockId, boolean above, BigDecimal threshold) {
+        Armed alert = new Armed(alertId, userId, stockId, above, cents(threshold));
+        Armed previous = armed.put(alertId, alert);
+        if (previous != null) {
+            books.get(previous.stockId).remove(previous);
+        }
+        books.computeIfAbsent(stockId, id -> new Book()).add(alert);
+    }
+
+    /**
+     * Disarms an alert, e.g. because its owner deleted it.
+     */
+    public void disarm(int alertId) {
+        Armed alert = armed.remove(alertId);
+        if (alert != null) {
+            books.get(alert.stockId).remove(alert);
+        }
+    }
+
+    public int armedCount() {
+        return armed.size();
+    }
+
+    // ================== TICKS ==================
+
+    /**
+     * Fires the alerts of a stock that a new price crosses.
+     */
+    public void onPrice(int stockId, BigDecimal price) {
+        Book book = books.get(stockId);
+        if (book == null) {
+            return;
+        }
+        long cents = cents(price);
+        if (cents < book.lowestAbove && cents > book.highestBelow) {
+            return;
+        }
+        for (Armed alert : book.fire(cents)) {
+            if (armed.remove(alert.alertId, alert)) {
+                fired.add(new Fired(alert, price));
+            }
+        }
+    }
+
+    /**
+     * The next fired alert, waiting up to the given time for one.
+     *
+     * @return null if none fired in time
+     */
+    public Fired takeFired(long timeout, TimeUnit unit) throws InterruptedException {
+        return fired.poll(timeout, unit);
+    }
+
+    private static long cents(BigDecimal price) {
+        return price.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+}
@@ -0,0 +1,339 @@
+package stockapp.src.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+import stockapp.src.models.Portfolio;
+import stockapp.src.models.Stock;
+
+/**
+ * Compact binary snapshot of TradingStateCache.
+ *
+ * A snapshot is written to a temporary file and renamed into place, so a
+ * crash mid-write never leaves a half-written snapshot behind. Loading maps
+ * the file read-only and decodes it straight from the mapping.
+ *
+ * Each snapshot records the trade journal sequence it covers; after loading,
+ * journal records past that sequence are replayed to catch up.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * int  MAGIC, int FORMAT_VERSION, long createdAtMillis, long journalSequence
+ * int  quoteCount, then per quote:
+ *      int id, str symbol, str name, dec price, double changePercent, byte suspended
+ * int  accountCount, then per account:
+ *      int userId, dec balance (nullable),
+ *      int positionCount (-1 = not cached), then per position:
+ *          int id, int stockId, int quantity, double avgPrice
+ *      int transactionCount (-1 = not cached), dec completedValue
+ * int  crc32c of everything before it
+ * </pre>
+ * str is an int byte length followed by UTF-8; dec is a byte holding
+ * scale + 1 (0 = null) followed by the unscaled value as a long, so values
+ * come back with the scale they had.
+ */
+public class StateSnapshot {
+
+    public static final int MAGIC = 0x53545353; // "STSS"
+    public static final int FORMAT_VERSION = 1;
+
+    static final String FILE_PREFIX = "state-";
+    static final String FILE_SUFFIX = ".snapshot";
+
+    // Used for values whose scale does not fit the one-byte encoding
+    private static final int FALLBACK_SCALE = 4;
+
+    // Older snapshots beyond this many are deleted after a successful write
+    private static final int SNAPSHOTS_KEPT = 2;
+
+    private StateSnapshot() {
+    }
+
+    /**
+     * Result of a successful load.
+     */
+    public static class LoadResult {
+        private final File file;
+        private final long createdAtMillis;
+        private final long journalSequence;
+        private final int quotes;
+        private final int accounts;
+
+        LoadResult(File file, long createdAtMillis, long journalSequence, int quotes, int accounts) {
+            this.file = file;
+            this.createdAtMillis = createdAtMillis;
+            this.journalSequence = journalSequence;
+            this.quotes = quotes;
+            this.accounts = accounts;
+        }
+
+        public File getFile() { return file; }
+        public long getCreatedAtMillis() { return createdAtMillis; }
+        public long getJournalSequence() { return journalSequence; }
+        public int getQuotes() { return quotes; }
+        public int getAccounts() { return accounts; }
+    }
+
+    public static File defaultDirectory() {
+        return new File(System.getProperty("stockapp.snapshot.dir", "snapshots"));
+    }
+
+    // ================== WRITE ==================
+
+    /**
+     * Writes the current cache contents to a new snapshot in directory.
+     *
+     * @param journalSequence the last trade journal sequence reflected in the cache
+     * @return the snapshot file
+     */
+    public static File write(TradingStateCache cache, File directory, long journalSequence) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create snapshot directory " + directory);
+        }
+        long now = System.currentTimeMillis();
+        File target = new File(directory, String.format("%s%016d%s", FILE_PREFIX, now, FILE_SUFFIX));
+        File temp = new File(directory, target.getName() + ".tmp");
+
+        // Collect first so the counts can be written ahead of the entries
+        List<Stock> quotes = new ArrayList<>();
+        List<Object[]> accounts = new ArrayList<>();
+        cache.visit(new TradingStateCache.StateVisitor() {
+            @Override
+            public void quote(Stock stock) {
+                quotes.add(stock);
+            }
+
+            @Override
+            public void account(int userId, BigDecimal balance, List<Portfolio> positions,
+                    TradingStateCache.TransactionAggregates aggregates) {
+                accounts.add(new Object[] { userId, balance, positions, aggregates });
+            }
+        });
+
+        CRC32C crc = new CRC32C();
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new CheckedOutputStream(file, crc), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(now);
+            out.writeLong(journalSequence);
+
+            out.writeInt(quotes.size());
+            for (Stock stock : quotes) {
+                out.writeInt(stock.getId());
+                writeString(out, stock.getSymbol());
+                writeString(out, stock.getName());
+                writeDecimal(out, stock.getPrice());
+                out.writeDouble(stock.getChangePercent());
+                out.writeByte(stock.isSuspended() ? 1 : 0);
+            }
+
+            out.writeInt(accounts.size());
+            for (Object[] account : accounts) {
+                @SuppressWarnings("unchecked")
+                List<Portfolio> positions = (List<Portfolio>) account[2];
+                TradingStateCache.TransactionAggregates aggregates = (TradingStateCache.TransactionAggregates) account[3];
+
+                out.writeInt((Integer) account[0]);
+                writeDecimal(out, (BigDecimal) account[1]);
+                if (positions == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(positions.size());
+                    for (Portfolio p : positions) {
+                        out.writeInt(p.getId());
+                        out.writeInt(p.getStockID());
+                        out.writeInt(p.getQuantity());
+                        out.writeDouble(p.getAvgPrice());
+                    }
+                }
+                if (aggregates == null) {
+                    out.writeInt(-1);
+                    writeDecimal(out, null);
+                } else {
+                    out.writeInt(aggregates.getTransactionCount());
+                    writeDecimal(out, aggregates.getCompletedValue());
+                }
+            }
+            out.flush();
+
+            // The trailer is not part of the checksum
+            int checksum = (int) crc.getValue();
+            file.write(new byte[] { (byte) (checksum >>> 24), (byte) (checksum >>> 16), (byte) (checksum >>> 8),
+                    (byte) checksum });
+            file.getFD().sync();
+        }
+
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        deleteOldSnapshots(directory);
+        return target;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeDecimal(DataOutputStream out, BigDecimal value) throws IOException {
+        if (value == null) {
+            out.writeByte(0);
+            out.writeLong(0L);
+            return;
+        }
+        BigDecimal v = value.scale() >= 0 && value.scale() < 100 ? value
+                : value.setScale(FALLBACK_SCALE, RoundingMode.HALF_UP);
+        out.writeByte(v.scale() + 1);
+        out.writeLong(v.unscaledValue().longValueExact());
+    }
+
+    private static void deleteOldSnapshots(File directory) {
+        File[] snapshots = listSnapshots(directory);
+        for (int i = 0; i < snapshots.length - SNAPSHOTS_KEPT; i++) {
+            if (!snapshots[i].delete()) {
+                System.err.println("WARNING: Could not delete old snapshot " + snapshots[i]);
+            }
+        }
+    }
+
+    // ================== LOAD ==================
+
+    /**
+     * Loads the newest valid snapshot in directory into the cache. Corrupt
+     * snapshots are skipped in favour of the next older one.
+     *
+     * @return what was loaded, or null if there was no usable snapshot
+     */
+    public static LoadResult loadLatest(TradingStateCache cache, File directory) {
+        File[] snapshots = listSnapshots(directory);
+        for (int i = snapshots.length - 1; i >= 0; i--) {
+            try {
+                return load(cache, snapshots[i]);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("WARNING: Skipping unreadable snapshot " + snapshots[i].getName() + ": "
+                        + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    static LoadResult load(TradingStateCache cache, File file) throws IOException {
+        MappedByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int end = buf.capacity() - 4;
+        if (end < 24) {
+            throw new IOException("snapshot too short");
+        }
+        CRC32C crc = new CRC32C();
+        buf.limit(end);
+        crc.update(buf);
+        buf.limit(buf.capacity()).position(0);
+        if ((int) crc.getValue() != buf.getInt(end)) {
+            throw new IOException("checksum mismatch");
+        }
+
+        if (buf.getInt() != MAGIC) {
+            throw new IOException("not a state snapshot");
+        }
+        int version = buf.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("unsupported snapshot version " + version);
+        }
+        long createdAt = buf.getLong();
+        long journalSequence = buf.getLong();
+
+        // Decode everything before touching the cache, so a bad file changes nothing
+        int quoteCount = buf.getInt();
+        List<Stock> quotes = new ArrayList<>(quoteCount);
+        for (int i = 0; i < quoteCount; i++) {
+            int id = buf.getInt();
+            String symbol = readString(buf);
+            String name = readString(buf);
+            BigDecimal price = readDecimal(buf);
+            double changePercent = buf.getDouble();
+            boolean suspended = buf.get() != 0;
+            quotes.add(new Stock(id, symbol, name, price, changePercent, suspended));
+        }
+
+        int accountCount = buf.getInt();
+        int[] userIds = new int[accountCount];
+        BigDecimal[] balances = new BigDecimal[accountCount];
+        List<List<Portfolio>> positions = new ArrayList<>(accountCount);
+        TradingStateCache.TransactionAggregates[] aggregates = new TradingStateCache.TransactionAggregates[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            userIds[i] = buf.getInt();
+            balances[i] = readDecimal(buf);
+            int positionCount = buf.getInt();
+            List<Portfolio> userPositions = null;
+            if (positionCount >= 0) {
+                userPositions = new ArrayList<>(positionCount);
+                for (int j = 0; j < positionCount; j++) {
+                    int id = buf.getInt();
+                    int stockId = buf.getInt();
+                    int quantity = buf.getInt();
+                    double avgPrice = buf.getDouble();
+                    userPositions.add(new Portfolio(userIds[i], stockId, quantity, id, avgPrice));
+                }
+            }
+            positions.add(userPositions);
+            int transactionCount = buf.getInt();
+            BigDecimal completedValue = readDecimal(buf);
+            if (transactionCount >= 0) {
+                aggregates[i] = new TradingStateCache.TransactionAggregates(transactionCount, completedValue);
+            }
+        }
+        if (buf.position() != end) {
+            throw new IOException("trailing bytes after snapshot data");
+        }
+
+        if (!quotes.isEmpty()) {
+            cache.restoreQuotes(quotes);
+        }
+        for (int i = 0; i < accountCount; i++) {
+            cache.restoreAccount(userIds[i], balances[i], positions.get(i), aggregates[i]);
+        }
+        return new LoadResult(file, createdAt, journalSequence, quoteCount, accountCount);
+    }
+
+    private static String readString(MappedByteBuffer buf) {
+        int length = buf.getInt();
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static BigDecimal readDecimal(MappedByteBuffer buf) {
+        int scale = buf.get() - 1;
+        long unscaled = buf.getLong();
+        return scale >= 0 ? BigDecimal.valueOf(unscaled, scale) : null;
+    }
+
+    static File[] listSnapshots(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        return files;
+    }
+}
@@ -0,0 +1,154 @@
+package stockapp.src.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Which stocks may not be traded right now, as bitmaps indexed by stock id.
+ *
+ * Two reasons are tracked separately: admin suspensions (mirrors
+ * stocks.is_suspended, kept up to date by StockSuspensionDAO) and scheduled
+ * halt windows (stored in trading_halts, driven by TradingHaltService). A
+ * stock is halted if either bit is set.
+ *
+ * Reads are a volatile array read and a mask, with no locking and no
+ * allocation, so the trade path can check them on every order. Writes are
+ * rare and serialized.
+ */
+public class TradingHalts {
+
+    private static final TradingHalts instance = new TradingHalts();
+
+    private final Bitmap suspended = new Bitmap();
+    private final Bitmap scheduled = new Bitmap();
+
+    // Halt windows another node scheduled or cancelled; 0 stands for all of them
+    private final Set<Integer> changedWindows = ConcurrentHashMap.newKeySet();
+
+    private TradingHalts() {
+    }
+
+    public static TradingHalts getInstance() {
+        return instance;
+    }
+
+    /**
+     * True if the stock is suspended or inside a scheduled halt window.
+     */
+    public boolean isHalted(int stockId) {
+        return suspended.get(stockId) || scheduled.get(stockId);
+    }
+
+    public boolean isSuspended(int stockId) {
+        return suspended.get(stockId);
+    }
+
+    public boolean isScheduledHalt(int stockId) {
+        return scheduled.get(stockId);
+    }
+
+    public void setSuspended(int stockId, boolean value) {
+        suspended.set(stockId, value);
+    }
+
+    /**
+     * Replaces all suspensions, e.g. with the set read from the database at startup.
+     */
+    public void replaceSuspended(Collection<Integer> stockIds) {
+        suspended.replace(stockIds);
+    }
+
+    public void setScheduledHalt(int stockId, boolean value) {
+        scheduled.set(stockId, value);
+    }
+
+    /**
+     * Notes that a halt window was scheduled or cancelled elsewhere and has
+     * to be reloaded.
+     */
+    public void markWindowChanged(int haltId) {
+        changedWindows.add(haltId);
+    }
+
+    /**
+     * Notes that any halt window may have changed elsewhere.
+     */
+    public void markAllWindowsChanged() {
+        changedWindows.add(0);
+    }
+
+    /**
+     * Removes and returns the ids noted by markWindowChanged. 0 stands for
+     * every window.
+     */
+    public List<Integer> takeChangedWindows() {
+        List<Integer> ids = new ArrayList<>();
+        for (Integer id : changedWindows) {
+            if (changedWindows.remove(id)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * A bit set that can be read concurrently with writes. The word array is
+     * replaced, never resized in place, when a larger id is set.
+     */
+    private static final class Bitmap {
+        private volatile AtomicLongArray words = new AtomicLongArray(4);
+
+        boolean get(int id) {
+            if (id < 0) {
+                return false;
+            }
+            AtomicLongArray w = words;
+            int index = id >>> 6;
+            return index < w.length() && (w.get(index) & (1L << id)) != 0;
+        }
+
+        synchronized void set(int id, boolean value) {
+            if (id < 0) {
+                throw new IllegalArgumentException("Stock id must not be negative");
+            }
+            int index = id >>> 6;
+            AtomicLongArray w = words;
+            if (index >= w.length()) {
+                if (!value) {
+                    return;
+                }
+                w = grow(w, index + 1);
+            }
+            long bit = 1L << id;
+            w.set(index, value ? w.get(index) | bit : w.get(index) & ~bit);
+        }
+
+        synchronized void replace(Collection<Integer> ids) {
+            int max = -1;
+            for (int id : ids) {
+                max = Math.max(max, id);
+            }
+            AtomicLongArray w = new AtomicLongArray(Math.max(words.length(), max >= 0 ? (max >>> 6) + 1 : 0));
+            for (int id : ids) {
+                if (id >= 0) {
+                    w.set(id >>> 6, w.get(id >>> 6) | (1L << id));
+                }
+            }
+            words = w;
+        }
+
+        // Callers hold the lock
+        private AtomicLongArray grow(AtomicLongArray w, int minLength) {
+            AtomicLongArray grown = new AtomicLongArray(Math.max(minLength, w.length() * 2));
+            for (int i = 0; i < w.length(); i++) {
+                grown.set(i, w.get(i));
+            }
+            words = grown;
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,677 @@
+package stockapp.src.cache;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import stockapp.src.index.StockSearchIndex;
+import stockapp.src.models.Portfolio;
+import stockapp.src.models.Stock;
+
+/**
+ * In-process cache of hot trading state: quotes, balances, positions and
+ * per-user transaction aggregates.
+ *
+ * The DAOs read through this cache and write through it, so it never has to
+ * be told about changes by controllers. Everything handed out is a copy;
+ * callers are free to mutate what they get back (the trade path does).
+ *
+ * Read-through loads race with writes: a load that started before a write
+ * could otherwise put the pre-write value back. Loads therefore take a
+ * generation stamp before going to the database and only store their
+ * result if no write happened in between.
+ *
+ * StateSnapshot saves and restores the whole cache so a restarted node
+ * serves from memory immediately.
+ *
+ * Every quote carries a version, taken from a universe-wide counter that
+ * is bumped whenever any quote's content changes. Versions are only
+ * meaningful within one process; getEpoch() tells processes apart.
+ * Content changes are also passed on to MarketMovers, EquityLeaderboard,
+ * PriceAlertEngine, TriggerIndex and CompositeIndices, and new symbols and
+ * names to StockSearchIndex.
+ */
+public class TradingStateCache {
+
+    private static final TradingStateCache instance = new TradingStateCache();
+
+    // ================== QUOTES ==================
+
+    private final ConcurrentSkipListMap<Integer, Stock> quotes = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Integer> symbolToId = new ConcurrentHashMap<>();
+    private final AtomicLong quoteGeneration = new AtomicLong();
+    private volatile boolean quotesLoaded;
+    private final MarketMovers movers = MarketMovers.getInstance();
+    private final EquityLeaderboard leaderboard = EquityLeaderboard.getInstance();
+    private final StockSearchIndex search = StockSearchIndex.getInstance();
+    private final PriceAlertEngine alerts = PriceAlertEngine.getInstance();
+    private final TriggerIndex triggers = TriggerIndex.getInstance();
+    private final CompositeIndices indices = CompositeIndices.getInstance();
+
+    // Content versions: per quote, and the latest across the universe
+    private final ConcurrentHashMap<Integer, Long> quoteVersions = new ConcurrentHashMap<>();
+    private final AtomicLong universeVersion = new AtomicLong();
+    private final long epoch = System.currentTimeMillis();
+
+    // Ring of the most recent version bumps: which stock each version touched.
+    // RESET_ALL marks a bump that invalidated everything (clear()).
+    public static final int CHANGE_LOG_CAPACITY = 4096;
+    private static final int RESET_ALL = -1;
+    private final long[] changeVersions = new long[CHANGE_LOG_CAPACITY];
+    private final int[] changeStockIds = new int[CHANGE_LOG_CAPACITY];
+    private long changeCount;
+
+    // ================== ACCOUNTS ==================
+
+    private final ConcurrentHashMap<Integer, AccountState> accounts = new ConcurrentHashMap<>();
+    // portfolio row id -> user id, for writes that only know the row id
+    private final ConcurrentHashMap<Integer, Integer> positionOwners = new ConcurrentHashMap<>();
+    private final AtomicLong balanceGeneration = new AtomicLong();
+
+    private TradingStateCache() {
+    }
+
+    public static TradingStateCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Cached state of one user. Any field may be absent (null) when it has
+     * not been loaded yet or was invalidated.
+     */
+    static class AccountState {
+        BigDecimal balance;
+        Map<Integer, Portfolio> positions; // by stock id
+        long positionsGeneration;
+        int transactionCount = -1;
+        BigDecimal completedValue;
+        long aggregatesGeneration;
+    }
+
+    /**
+     * Per-user transaction aggregates used by the dashboard.
+     */
+    public static class TransactionAggregates {
+        private final int transactionCount;
+        private final BigDecimal completedValue;
+
+        public TransactionAggregates(int transactionCount, BigDecimal completedValue) {
+            this.transactionCount = transactionCount;
+            this.completedValue = completedValue;
+        }
+
+        public int getTransactionCount() { return transactionCount; }
+        public BigDecimal getCompletedValue() { return completedValue; }
+    }
+
+    // ================== QUOTE ACCESS ==================
+
+    public boolean isQuotesLoaded() {
+        return quotesLoaded;
+    }
+
+    public Stock getStock(int stockId) {
+        Stock stock = quotes.get(stockId);
+        return stock != null ? copy(stock) : null;
+    }
+
+    public Stock getStockBySymbol(String symbol) {
+        Integer id = symbol != null ? symbolToId.get(symbol) : null;
+        return id != null ? getStock(id) : null;
+    }
+
+    /**
+     * All quotes in id order, or null if the universe has not been loaded.
+     */
+    public List<Stock> getAllStocks() {
+        if (!quotesLoaded) {
+            return null;
+        }
+        List<Stock> result = new ArrayList<>(quotes.size());
+        for (Stock stock : quotes.values()) {
+            result.add(copy(stock));
+        }
+        return result;
+    }
+
+    public long quoteGeneration() {
+        return quoteGeneration.get();
+    }
+
+    /**
+     * Stores a quote that was just written to the database.
+     */
+    public synchronized void putStock(Stock stock) {
+        quoteGeneration.incrementAndGet();
+        storeQuote(copy(stock));
+    }
+
+    /**
+     * Stores a quote read from the database, unless a write happened since
+     * the caller took its generation stamp.
+     */
+    public synchronized void cacheLoadedStock(Stock stock, long generation) {
+        if (stock != null && quoteGeneration.get() == generation) {
+            storeQuote(copy(stock));
+        }
+    }
+
+    /**
+     * Replaces the whole universe with rows read from the database.
+     */
+    public synchronized void cacheLoadedStocks(Collection<Stock> stocks, long generation) {
+        if (quoteGeneration.get() != generation) {
+            return;
+        }
+        replaceQuotes(stocks, true);
+    }
+
+    /**
+     * Moves the price of a cached quote, e.g. while replaying the trade
+     * journal. Does nothing if the quote is not cached.
+     */
+    public void applyPrice(int stockId, BigDecimal price) {
+        Stock cached = quotes.get(stockId);
+        if (cached != null) {
+            Stock updated = copy(cached);
+            updated.setPrice(price);
+            putStock(updated);
+        }
+    }
+
+    /**
+     * Flips the suspension flag of a cached quote. Does nothing if the quote
+     * is not cached.
+     */
+    public void applySuspended(int stockId, boolean suspended) {
+        Stock cached = quotes.get(stockId);
+        if (cached != null) {
+            Stock updated = copy(cached);
+            updated.setSuspended(suspended);
+            putStock(updated);
+        }
+    }
+
+    /**
+     * Drops one cached quote because another node changed it (see
+     * InvalidationBus). The universe counts as not loaded until the next
+     * full read, so listings do not come back without it.
+     */
+    public synchronized void invalidateStock(int stockId) {
+        quoteGeneration.incrementAndGet();
+        Stock previous = quotes.remove(stockId);
+        if (previous != null) {
+            symbolToId.remove(previous.getSymbol(), stockId);
+            quoteVersions.remove(stockId);
+            logChange(universeVersion.incrementAndGet(), stockId);
+            movers.removeQuote(stockId);
+        }
+        quotesLoaded = false;
+    }
+
+    /**
+     * @param notify whether price listeners (alerts, resting order triggers,
+     *               composite indices) see the new prices
+     */
+    private void replaceQuotes(Collection<Stock> stocks, boolean notify) {
+        Set<Integer> removed = new HashSet<>(quotes.keySet());
+        for (Stock stock : stocks) {
+            removed.remove(stock.getId());
+            storeQuote(copy(stock), notify);
+        }
+        for (Integer id : removed) {
+            Stock previous = quotes.remove(id);
+            symbolToId.remove(previous.getSymbol(), id);
+            quoteVersions.remove(id);
+            logChange(universeVersion.incrementAndGet(), id);
+            movers.removeQuote(id);
+            search.remove(id);
+        }
+        quotesLoaded = true;
+    }
+
+    private void storeQuote(Stock stock) {
+        storeQuote(stock, true);
+    }
+
+    private void storeQuote(Stock stock, boolean notify) {
+        Stock previous = quotes.put(stock.getId(), stock);
+        if (previous != null && !previous.getSymbol().equals(stock.getSymbol())) {
+            symbolToId.remove(previous.getSymbol(), stock.getId());
+        }
+        symbolToId.put(stock.getSymbol(), stock.getId());
+        if (previous == null || !previous.getSymbol().equals(stock.getSymbol())
+                || !previous.getName().equals(stock.getName())) {
+            search.put(stock.getId(), stock.getSymbol(), stock.getName());
+        }
+        if (previous == null || !sameContent(previous, stock)) {
+            long version = universeVersion.incrementAndGet();
+            quoteVersions.put(stock.getId(), version);
+            logChange(version, stock.getId());
+            movers.putQuote(stock.getId(), stock.getChangePercent());
+            leaderboard.updatePrice(stock.getId(), stock.getPrice().doubleValue());
+            if (notify) {
+                alerts.onPrice(stock.getId(), stock.getPrice());
+                triggers.onPrice(stock.getId(), stock.getPrice());
+                indices.onPrice(stock.getId(), stock.getPrice());
+            }
+        }
+    }
+
+    // Callers hold the cache lock
+    private void logChange(long version, int stockId) {
+        int slot = (int) (changeCount % CHANGE_LOG_CAPACITY);
+        changeVersions[slot] = version;
+        changeStockIds[slot] = stockId;
+        changeCount++;
+    }
+
+    private static boolean sameContent(Stock a, Stock b) {
+        return a.getPrice().compareTo(b.getPrice()) == 0
+                && a.getChangePercent() == b.getChangePercent()
+                && a.isSuspended() == b.isSuspended()
+                && a.getSymbol().equals(b.getSymbol())
+                && a.getName().equals(b.getName());
+    }
+
+    // ================== QUOTE VERSIONS ==================
+
+    /**
+     * Identifies this process, so versions from different runs or nodes
+     * are never confused.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Version of the latest change to any quote. Read it before reading
+     * quotes: the quotes are then at least as new as the version says.
+     */
+    public long getUniverseVersion() {
+        return universeVersion.get();
+    }
+
+    /**
+     * Ids of the stocks whose quotes changed after version since, including
+     * removed ones. Returns null when the change log no longer reaches back
+     * that far (or since is not a version of this process), in which case
+     * the caller has to fall back to a full snapshot.
+     */
+    public synchronized Set<Integer> changedSince(long since) {
+        long current = universeVersion.get();
+        if (since > current || since < 0) {
+            return null;
+        }
+        Set<Integer> changed = new HashSet<>();
+        long available = Math.min(changeCount, CHANGE_LOG_CAPACITY);
+        long reached = current + 1; // lowest version collected so far
+        for (long i = 1; i <= available && reached > since + 1; i++) {
+            int slot = (int) ((changeCount - i) % CHANGE_LOG_CAPACITY);
+            if (changeVersions[slot] <= since) {
+                break;
+            }
+            if (changeStockIds[slot] == RESET_ALL) {
+                return null;
+            }
+            changed.add(changeStockIds[slot]);
+            reached = changeVersions[slot];
+        }
+        // Versions between since and the oldest retained entry were overwritten
+        return reached <= since + 1 ? changed : null;
+    }
+
+    /**
+     * Version of the last change to one quote, or -1 if it is not cached.
+     */
+    public long getQuoteVersion(int stockId) {
+        Long version = quoteVersions.get(stockId);
+        return version != null ? version : -1L;
+    }
+
+    // ================== ACCOUNT ACCESS ==================
+
+    public BigDecimal getBalance(int userId) {
+        AccountState state = accounts.get(userId);
+        return state != null ? state.balance : null;
+    }
+
+    public void putBalance(int userId, BigDecimal balance) {
+        balanceGeneration.incrementAndGet();
+        AccountState state = account(userId);
+        synchronized (state) {
+            state.balance = balance;
+        }
+    }
+
+    public long balanceGeneration() {
+        return balanceGeneration.get();
+    }
+
+    /**
+     * Refreshes cached balances from a database read. Only users already
+     * cached are touched, and nothing is stored if a balance was written
+     * since the caller took its generation stamp.
+     */
+    public void cacheLoadedBalances(Map<Integer, BigDecimal> balances, long generation) {
+        for (Map.Entry<Integer, BigDecimal> e : balances.entrySet()) {
+            AccountState state = accounts.get(e.getKey());
+            if (state == null) {
+                continue;
+            }
+            synchronized (state) {
+                if (balanceGeneration.get() != generation) {
+                    return;
+                }
+                if (state.balance != null) {
+                    state.balance = e.getValue();
+                }
+            }
+        }
+    }
+
+    /**
+     * Cached positions of a user, or null if they are not cached.
+     */
+    public List<Portfolio> getPositions(int userId) {
+        AccountState state = accounts.get(userId);
+        if (state == null) {
+            return null;
+        }
+        synchronized (state) {
+            if (state.positions == null) {
+                return null;
+            }
+            List<Portfolio> result = new ArrayList<>(state.positions.size());
+            for (Portfolio p : state.positions.values()) {
+                result.add(copy(p));
+            }
+            return result;
+        }
+    }
+
+    public long positionsGeneration(int userId) {
+        AccountState state = account(userId);
+        synchronized (state) {
+            return state.positionsGeneration;
+        }
+    }
+
+    public void cacheLoadedPositions(int userId, List<Portfolio> positions, long generation) {
+        AccountState state = account(userId);
+        synchronized (state) {
+            if (state.positionsGeneration != generation) {
+                return;
+            }
+            Map<Integer, Portfolio> byStock = new ConcurrentHashMap<>();
+            for (Portfolio p : positions) {
+                byStock.put(p.getStockID(), copy(p));
+                positionOwners.put(p.getId(), userId);
+            }
+            state.positions = byStock;
+        }
+    }
+
+    /**
+     * Drops the cached positions of a user after a write.
+     */
+    public void invalidatePositions(int userId) {
+        AccountState state = account(userId);
+        synchronized (state) {
+            state.positionsGeneration++;
+            state.positions = null;
+        }
+    }
+
+    /**
+     * Applies an update of a portfolio row to the cached positions of its
+     * owner, if they are cached.
+     */
+    public void updatePositionRow(int portfolioId, int quantity, double avgPrice) {
+        AccountState state = ownerState(portfolioId);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            state.positionsGeneration++;
+            if (state.positions != null) {
+                for (Portfolio p : state.positions.values()) {
+                    if (p.getId() == portfolioId) {
+                        p.setQuantity(quantity);
+                        p.setAvgPrice(avgPrice);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a deleted portfolio row from the cached positions of its owner.
+     */
+    public void removePositionRow(int portfolioId) {
+        AccountState state = ownerState(portfolioId);
+        positionOwners.remove(portfolioId);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            state.positionsGeneration++;
+            if (state.positions != null) {
+                state.positions.values().removeIf(p -> p.getId() == portfolioId);
+            }
+        }
+    }
+
+    private AccountState ownerState(int portfolioId) {
+        Integer owner = positionOwners.get(portfolioId);
+        return owner != null ? accounts.get(owner) : null;
+    }
+
+    public TransactionAggregates getAggregates(int userId) {
+        AccountState state = accounts.get(userId);
+        if (state == null) {
+            return null;
+        }
+        synchronized (state) {
+            if (state.transactionCount < 0) {
+                return null;
+            }
+            return new TransactionAggregates(state.transactionCount, state.completedValue);
+        }
+    }
+
+    public long aggregatesGeneration(int userId) {
+        AccountState state = account(userId);
+        synchronized (state) {
+            return state.aggregatesGeneration;
+        }
+    }
+
+    public void cacheLoadedAggregates(int userId, TransactionAggregates aggregates, long generation) {
+        AccountState state = account(userId);
+        synchronized (state) {
+            if (state.aggregatesGeneration == generation) {
+                state.transactionCount = aggregates.getTransactionCount();
+                state.completedValue = aggregates.getCompletedValue();
+            }
+        }
+    }
+
+    /**
+     * Counts a newly created transaction into the user's aggregates.
+     */
+    public void recordTransaction(int userId, boolean completed, BigDecimal value) {
+        AccountState state = accounts.get(userId);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            state.aggregatesGeneration++;
+            if (state.transactionCount >= 0) {
+                state.transactionCount++;
+                if (completed) {
+                    state.completedValue = state.completedValue.add(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the cached aggregates of a user, e.g. after a status change.
+     */
+    public void invalidateAggregates(int userId) {
+        AccountState state = account(userId);
+        synchronized (state) {
+            state.aggregatesGeneration++;
+            state.transactionCount = -1;
+            state.completedValue = null;
+        }
+    }
+
+    /**
+     * Drops the cached aggregates of every user. For status changes where
+     * only the transaction id is known.
+     */
+    public void invalidateAllAggregates() {
+        for (Integer userId : accounts.keySet()) {
+            invalidateAggregates(userId);
+        }
+    }
+
+    /**
+     * Drops everything cached for a user (balance, positions, aggregates)
+     * because another node changed it; see InvalidationBus.
+     */
+    public void invalidateUser(int userId) {
+        balanceGeneration.incrementAndGet();
+        AccountState state = accounts.get(userId);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            state.balance = null;
+            state.positionsGeneration++;
+            state.positions = null;
+            state.aggregatesGeneration++;
+            state.transactionCount = -1;
+            state.completedValue = null;
+        }
+    }
+
+    /**
+     * Forgets everything about a user, e.g. after the user was deleted.
+     */
+    public void evictUser(int userId) {
+        accounts.remove(userId);
+        positionOwners.values().removeIf(owner -> owner == userId);
+    }
+
+    /**
+     * Forgets everything. Used when the database was changed behind the
+     * cache's back, e.g. by a bulk import.
+     */
+    public synchronized void clear() {
+        quoteGeneration.incrementAndGet();
+        quotes.clear();
+        symbolToId.clear();
+        quoteVersions.clear();
+        logChange(universeVersion.incrementAndGet(), RESET_ALL);
+        movers.clearQuotes();
+        quotesLoaded = false;
+        accounts.clear();
+        positionOwners.clear();
+    }
+
+    private AccountState account(int userId) {
+        return accounts.computeIfAbsent(userId, id -> new AccountState());
+    }
+
+    // ================== SNAPSHOT SUPPORT ==================
+
+    /**
+     * Visits the cached state for StateSnapshot. Quotes are visited first,
+     * then accounts.
+     */
+    public interface StateVisitor {
+        void quote(Stock stock);
+
+        void account(int userId, BigDecimal balance, List<Portfolio> positions, TransactionAggregates aggregates);
+    }
+
+    public void visit(StateVisitor visitor) {
+        for (Stock stock : quotes.values()) {
+            visitor.quote(stock);
+        }
+        for (Map.Entry<Integer, AccountState> e : accounts.entrySet()) {
+            AccountState state = e.getValue();
+            synchronized (state) {
+                List<Portfolio> positions = state.positions != null ? new ArrayList<>(state.positions.values()) : null;
+                TransactionAggregates aggregates = state.transactionCount >= 0
+                        ? new TransactionAggregates(state.transactionCount, state.completedValue)
+                        : null;
+                visitor.account(e.getKey(), state.balance, positions, aggregates);
+            }
+        }
+    }
+
+    /**
+     * Restores quotes from a snapshot. Anything already cached wins, since
+     * it is newer than the snapshot. Snapshot prices are stale, so they do
+     * not reach the price listeners: nothing fires or moves an index on
+     * them. The journal catch-up and the database reconcile that follow
+     * pass on the live prices.
+     */
+    public synchronized void restoreQuotes(Collection<Stock> stocks) {
+        if (quotesLoaded) {
+            return;
+        }
+        replaceQuotes(stocks, false);
+    }
+
+    public void restoreAccount(int userId, BigDecimal balance, List<Portfolio> positions,
+            TransactionAggregates aggregates) {
+        AccountState state = account(userId);
+        synchronized (state) {
+            if (state.balance == null) {
+                state.balance = balance;
+            }
+            if (state.positions == null && positions != null && state.positionsGeneration == 0) {
+                Map<Integer, Portfolio> byStock = new ConcurrentHashMap<>();
+                for (Portfolio p : positions) {
+                    byStock.put(p.getStockID(), p);
+                    positionOwners.put(p.getId(), userId);
+                }
+                state.positions = byStock;
+            }
+            if (state.transactionCount < 0 && aggregates != null && state.aggregatesGeneration == 0) {
+                state.transactionCount = aggregates.getTransactionCount();
+                state.completedValue = aggregates.getCompletedValue();
+            }
+        }
+    }
+
+    public int quoteCount() {
+        return quotes.size();
+    }
+
+    public int accountCount() {
+        return accounts.size();
+    }
+
+    // ================== COPIES ==================
+
+    private static Stock copy(Stock s) {
+        return new Stock(s.getId(), s.getSymbol(), s.getName(), s.getPrice(), s.getChangePercent(), s.isSuspended());
+    }
+
+    private static Portfolio copy(Portfolio p) {
+        return new Portfolio(p.getUserID(), p.getStockID(), p.getQuantity(), p.getId(), p.getAvgPrice());
+    }
+}
@@ -0,0 +1,456 @@
+package stockapp.src.cache;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resting orders (stop-loss, take-profit, trailing stop) waiting for their
+ * trigger price, indexed per stock.
+ *
+ * Orders with a fixed trigger sit in two sorted maps per stock, keyed by
+ * trigger in cents: those that fire when the price rises to the trigger and
+ * those that fire when it falls to it. A new price fires the ends of the
+ * maps it crossed, O(log n + k) for k fired orders.
+ *
+ * A trailing stop fires when the price moves its trail away from the best
+ * price seen since it was placed, so its trigger follows the price. Stops
+ * are grouped by that best price (see TrailBook), which keeps a rising
+ * price from re-keying every stop on every tick.
+ *
+ * The nearest trigger on each side and the lowest best price are kept in
+ * volatile fields, so a price that crosses nothing and makes no new best
+ * is dismissed with a few comparisons and no lock, however many orders
+ * rest on the stock.
+ *
+ * TradingStateCache passes on every new price. Fired orders are disarmed
+ * at once and queued; RestingOrderService takes them off the queue and
+ * fills them outside the cache lock.
+ */
+public class TriggerIndex {
+
+    private static final TriggerIndex instance = new TriggerIndex();
+
+    private final ConcurrentHashMap<Integer, Book> books = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Armed> armed = new ConcurrentHashMap<>();
+    private final BlockingQueue<Fired> fired = new LinkedBlockingQueue<>();
+
+    private TriggerIndex() {
+    }
+
+    public static TriggerIndex getInstance() {
+        return instance;
+    }
+
+    private static final class Armed {
+        final int orderId;
+        final int userId;
+        final int stockId;
+        final boolean buy;
+        final int quantity;
+        final boolean rising;
+        // Fixed triggers only
+        final long triggerCents;
+        // Trailing stops only; guarded by the book
+        final long trailCents;
+        Bucket bucket;
+
+        Armed(int orderId, int userId, int stockId, boolean buy, int quantity, boolean rising, long triggerCents,
+                long trailCents) {
+            this.orderId = orderId;
+            this.userId = userId;
+            this.stockId = stockId;
+            this.buy = buy;
+            this.quantity = quantity;
+            this.rising = rising;
+            this.triggerCents = triggerCents;
+            this.trailCents = trailCents;
+        }
+
+        boolean trailing() {
+            return trailCents > 0;
+        }
+    }
+
+    /**
+     * A resting order whose trigger was crossed, with the trigger and the
+     * price that crossed it.
+     */
+    public static class Fired {
+        private final Armed order;
+        private final BigDecimal trigger;
+        private final BigDecimal price;
+
+        Fired(Armed order, long triggerCents, BigDecimal price) {
+            this.order = order;
+            this.trigger = BigDecimal.valueOf(triggerCents, 2);
+            this.price = price;
+        }
+
+        public int getOrderId() { return order.orderId; }
+        public int getUserId() { return order.userId; }
+        public int getStockId() { return order.stockId; }
+        public boolean isBuy() { return order.buy; }
+        public int getQuantity() { return order.quantity; }
+        public BigDecimal getTrigger() { return trigger; }
+        public BigDecimal getPrice() { return price; }
+    }
+
+    /**
+     * The resting orders of one stock.
+     *
+     * Trailing stops are kept in signed price space: a sell stop trails
+     * the highest price and fires on a fall, a buy stop trails the lowest
+     * price and fires on a rise, which is a sell stop over negated prices.
+     * Both sides therefore share TrailBook.
+     */
+    private static final class Book {
+        // trigger cents -> orders at that trigger
+        final TreeMap<Long, List<Armed>> rising = new TreeMap<>();
+        final TreeMap<Long, List<Armed>> falling = new TreeMap<>();
+        final TrailBook trailingSells = new TrailBook(1);
+        final TrailBook trailingBuys = new TrailBook(-1);
+        volatile long lowestRising = Long.MAX_VALUE;
+        volatile long highestFalling = Long.MIN_VALUE;
+
+        /**
+         * True if a price fires nothing and moves no trailing stop. Takes
+         * no lock.
+         */
+        boolean quiet(long cents) {
+            return cents < lowestRising && cents > highestFalling
+                    && trailingSells.quiet(cents) && trailingBuys.quiet(-cents);
+        }
+
+        synchronized void add(Armed order, long peak) {
+            if (order.trailing()) {
+                (order.buy ? trailingBuys : trailingSells).add(order, peak);
+                return;
+            }
+            (order.rising ? rising : falling).computeIfAbsent(order.triggerCents, c -> new ArrayList<>(1)).add(order);
+            bounds();
+        }
+
+        synchronized void remove(Armed order) {
+            if (order.trailing()) {
+                (order.buy ? trailingBuys : trailingSells).remove(order);
+                return;
+            }
+            TreeMap<Long, List<Armed>> side = order.rising ? rising : falling;
+            List<Armed> atTrigger = side.get(order.triggerCents);
+            if (atTrigger != null && atTrigger.remove(order) && atTrigger.isEmpty()) {
+                side.remove(order.triggerCents);
+            }
+            bounds();
+        }
+
+        synchronized Long triggerOf(Armed order) {
+            if (!order.trailing()) {
+                return order.triggerCents;
+            }
+            return order.bucket != null ? (order.buy ? trailingBuys : trailingSells).stopOf(order) : null;
+        }
+
+        /**
+         * Removes and returns the orders a price fires, and moves the
+         * trailing stops it is a new best for.
+         */
+        synchronized List<Fired> fire(long cents, BigDecimal price) {
+            List<Fired> result = new ArrayList<>();
+            take(rising.headMap(cents, true), result, price);
+            take(falling.tailMap(cents, true), result, price);
+            bounds();
+            trailingSells.onPrice(cents, result, price);
+            trailingBuys.onPrice(-cents, result, price);
+            return result;
+        }
+
+        private static void take(NavigableMap<Long, List<Armed>> range, List<Fired> into, BigDecimal price) {
+            Iterator<List<Armed>> it = range.values().iterator();
+            while (it.hasNext()) {
+                for (Armed order : it.next()) {
+                    into.add(new Fired(order, order.triggerCents, price));
+                }
+                it.remove();
+            }
+        }
+
+        private void bounds() {
+            lowestRising = rising.isEmpty() ? Long.MAX_VALUE : rising.firstKey();
+            highestFalling = falling.isEmpty() ? Long.MIN_VALUE : falling.lastKey();
+        }
+    }
+
+    /**
+     * The trailing stops of one side of one stock, in signed price space: a
+     * stop fires when the price falls its trail below its peak, the highest
+     * (signed) price since it was placed. Callers hold the book's lock.
+     *
+     * Stops with the same peak share a bucket, ordered by trail. After every
+     * price no peak is below it, so a new high lifts exactly the buckets
+     * below it to one peak: they merge into the largest of them, and a
+     * steady rise re-keys one bucket per tick whatever it holds. Each stop
+     * moves only when its bucket merges into a larger one, O(log n) times.
+     * Buckets are also ordered by their highest stop (peak minus smallest
+     * trail), so firing only visits buckets with something to fire.
+     */
+    private static final class TrailBook {
+        final int sign;
+        final TreeMap<Long, Bucket> byPeak = new TreeMap<>();
+        final TreeSet<Bucket> byStop = new TreeSet<>(
+                Comparator.comparingLong(Bucket::stop).thenComparingLong(bucket -> bucket.peak));
+        volatile long lowestPeak = Long.MAX_VALUE;
+        volatile long highestStop = Long.MIN_VALUE;
+
+        TrailBook(int sign) {
+            this.sign = sign;
+        }
+
+        boolean quiet(long x) {
+            return x <= lowestPeak && x > highestStop;
+        }
+
+        void add(Armed order, long peak) {
+            Bucket bucket = byPeak.get(peak);
+            if (bucket == null) {
+                bucket = new Bucket(peak);
+                byPeak.put(peak, bucket);
+            } else {
+                byStop.remove(bucket);
+            }
+            bucket.add(order);
+            byStop.add(bucket);
+            bounds();
+        }
+
+        void remove(Armed order) {
+            Bucket bucket = order.bucket;
+            if (bucket == null) {
+                return;
+            }
+            byStop.remove(bucket);
+            bucket.remove(order);
+            if (bucket.size == 0) {
+                byPeak.remove(bucket.peak);
+            } else {
+                byStop.add(bucket);
+            }
+            bounds();
+        }
+
+        long stopOf(Armed order) {
+            return sign * (order.bucket.peak - order.trailCents);
+        }
+
+        void onPrice(long x, List<Fired> into, BigDecimal price) {
+            if (quiet(x)) {
+                return;
+            }
+            NavigableMap<Long, Bucket> lifted = byPeak.headMap(x, true);
+            if (!lifted.isEmpty() && lifted.firstKey() < x) {
+                Bucket target = null;
+                for (Bucket bucket : lifted.values()) {
+                    byStop.remove(bucket);
+                    if (target == null || bucket.size > target.size) {
+                        target = bucket;
+                    }
+                }
+                for (Bucket bucket : lifted.values()) {
+                    if (bucket != target) {
+                        target.absorb(bucket);
+                    }
+                }
+                lifted.clear();
+                target.peak = x;
+                byPeak.put(x, target);
+                byStop.add(target);
+            }
+            while (!byStop.isEmpty() && byStop.last().stop() >= x) {
+                Bucket bucket = byStop.pollLast();
+                bucket.take(bucket.peak - x, into, sign, price);
+                if (bucket.size == 0) {
+                    byPeak.remove(bucket.peak);
+                } else {
+                    byStop.add(bucket);
+                }
+            }
+            bounds();
+        }
+
+        private void bounds() {
+            lowestPeak = byPeak.isEmpty() ? Long.MAX_VALUE : byPeak.firstKey();
+            highestStop = byStop.isEmpty() ? Long.MIN_VALUE : byStop.last().stop();
+        }
+    }
+
+    /**
+     * Trailing stops sharing a peak. Never empty while in a TrailBook.
+     */
+    private static final class Bucket {
+        long peak;
+        int size;
+        // trail cents -> stops with that trail
+        final TreeMap<Long, List<Armed>> byTrail = new TreeMap<>();
+
+        Bucket(long peak) {
+            this.peak = peak;
+        }
+
+        long stop() {
+            return peak - byTrail.firstKey();
+        }
+
+        void add(Armed order) {
+            byTrail.computeIfAbsent(order.trailCents, c -> new ArrayList<>(1)).add(order);
+            order.bucket = this;
+            size++;
+        }
+
+        void remove(Armed order) {
+            List<Armed> atTrail = byTrail.get(order.trailCents);
+            if (atTrail != null && atTrail.remove(order)) {
+                if (atTrail.isEmpty()) {
+                    byTrail.remove(order.trailCents);
+                }
+                order.bucket = null;
+                size--;
+            }
+        }
+
+        void absorb(Bucket other) {
+            for (List<Armed> atTrail : other.byTrail.values()) {
+                for (Armed order : atTrail) {
+                    add(order);
+                }
+            }
+        }
+
+        /**
+         * Removes the stops with a trail of at most maxTrail.
+         */
+        void take(long maxTrail, List<Fired> into, int sign, BigDecimal price) {
+            Iterator<List<Armed>> it = byTrail.headMap(maxTrail, true).values().iterator();
+            while (it.hasNext()) {
+                for (Armed order : it.next()) {
+                    into.add(new Fired(order, sign * (peak - order.trailCents), price));
+                    order.bucket = null;
+                    size--;
+                }
+                it.remove();
+            }
+        }
+    }
+
+    // ================== ORDERS ==================
+
+    /**
+     * Arms an order with a fixed trigger. rising orders fire when the price
+     * reaches the trigger from below, the others when it reaches it from
+     * above.
+     */
+    public void armStop(int orderId, int userId, int stockId, boolean buy, int quantity, boolean rising,
+            BigDecimal trigger) {
+        arm(new Armed(orderId, userId, stockId, buy, quantity, rising, cents(trigger), 0), 0);
+    }
+
+    /**
+     * Arms a trailing stop. A sell stop fires when the price falls trail
+     * below the highest price since placement, a buy stop when it rises
+     * trail above the lowest. trigger is where the stop stood when it was
+     * last known (at placement, or as stored); the best price is taken
+     * from it, or from the current price if that is better.
+     */
+    public void armTrailing(int orderId, int userId, int stockId, boolean buy, int quantity, BigDecimal trail,
+            BigDecimal trigger, BigDecimal price) {
+        int sign = buy ? -1 : 1;
+        long trailCents = cents(trail);
+        long peak = Math.max(sign * cents(trigger) + trailCents, sign * cents(price));
+        arm(new Armed(orderId, userId, stockId, buy, quantity, buy, 0, trailCents), peak);
+    }
+
+    private void arm(Armed order, long peak) {
+        Armed previous = armed.put(order.orderId, order);
+        if (previous != null) {
+            books.get(previous.stockId).remove(previous);
+        }
+        books.computeIfAbsent(order.stockId, id -> new Book()).add(order, peak);
+    }
+
+    /**
+     * Disarms an order, e.g. because its owner cancelled it.
+     */
+    public void disarm(int orderId) {
+        Armed order = armed.remove(orderId);
+        if (order != null) {
+            books.get(order.stockId).remove(order);
+        }
+    }
+
+    /**
+     * Where an armed order's trigger stands now, or null if it is not armed.
+     */
+    public BigDecimal triggerOf(int orderId) {
+        Armed order = armed.get(orderId);
+        if (order == null) {
+            return null;
+        }
+        Long trigger = books.get(order.stockId).triggerOf(order);
+        return trigger != null ? BigDecimal.valueOf(trigger, 2) : null;
+    }
+
+    public int armedCount() {
+        return armed.size();
+    }
+
+    // ================== TICKS ==================
+
+    /**
+     * Fires the orders of a stock that a new price crosses.
+     */
+    public void onPrice(int stockId, BigDecimal price) {
+        Book book = books.get(stockId);
+        if (book == null) {
+            return;
+        }
+        long cents = cents(price);
+        if (book.quiet(cents)) {
+            return;
+        }
+        for (Fired f : book.fire(cents, price)) {
+            if (armed.remove(f.order.orderId, f.order)) {
+                fired.add(f);
+            }
+        }
+    }
+
+    /**
+     * The next fired order, waiting up to the given time for one.
+     *
+     * @return null if none fired in time
+     */
+    public Fired takeFired(long timeout, TimeUnit unit) throws InterruptedException {
+        return fired.poll(timeout, unit);
+    }
+
+    /**
+     * Moves the fired orders queued so far into the given collection.
+     */
+    public int drainFired(Collection<Fired> into) {
+        return fired.drainTo(into);
+    }
+
+    private static long cents(BigDecimal price) {
+        return price.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+}
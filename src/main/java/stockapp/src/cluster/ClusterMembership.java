@@ -0,0 +1,236 @@
+package stockapp.src.cluster;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import stockapp.src.DatabaseConnection;
+import stockapp.src.cache.InvalidationBus;
+
+/**
+ * Which trading nodes are alive, and which of them owns each stock symbol.
+ *
+ * Clustering is on when stockapp.cluster.rpc-port is set: the node then
+ * accepts forwarded orders on that port, listening on and advertising
+ * itself as stockapp.cluster.rpc-host (default 127.0.0.1) plus the port. Every
+ * stockapp.cluster.heartbeat-ms (default 500) each node stamps its row in
+ * the primary's cluster_nodes table and reads back the rows stamped within
+ * stockapp.cluster.node-timeout-ms (default 3000). Those nodes form a
+ * HashRing with stockapp.cluster.vnodes points each (default 128), which
+ * assigns every symbol to one owner. A node joining or leaving rebuilds the
+ * ring on every node within a heartbeat or two and moves about 1/N of the
+ * symbols.
+ *
+ * Node ids are InvalidationBus node ids (stockapp.node.id). Ownership moves
+ * are not fenced: while the nodes disagree about the ring, a symbol can be
+ * filled on two nodes for a moment. Fills lock the user's rows in the
+ * database, so balances and positions stay correct; only the price walk of
+ * that symbol may interleave.
+ */
+public class ClusterMembership {
+
+    private static final ClusterMembership instance = new ClusterMembership();
+
+    private final boolean enabled;
+    private final String nodeId;
+    private final String host;
+    private final String address;
+    private final int virtualNodes;
+    private final long heartbeatMillis;
+    private final long nodeTimeoutMillis;
+
+    private volatile HashRing ring;
+    private volatile Map<String, String> addresses = Map.of();
+    private volatile ScheduledExecutorService heartbeat;
+
+    private ClusterMembership() {
+        int port = Integer.getInteger("stockapp.cluster.rpc-port", 0);
+        enabled = port > 0;
+        nodeId = InvalidationBus.getInstance().getNodeId();
+        host = System.getProperty("stockapp.cluster.rpc-host", "127.0.0.1");
+        address = host + ":" + port;
+        virtualNodes = Math.max(1, Integer.getInteger("stockapp.cluster.vnodes", 128));
+        heartbeatMillis = Math.max(10, Long.getLong("stockapp.cluster.heartbeat-ms", 500));
+        nodeTimeoutMillis = Math.max(2 * heartbeatMillis, Long.getLong("stockapp.cluster.node-timeout-ms", 3000));
+        ring = new HashRing(enabled ? List.of(nodeId) : List.of(), virtualNodes);
+    }
+
+    public static ClusterMembership getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * host:port other nodes reach this node's order RPC server on.
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Host the order RPC server listens on, and other nodes reach it at.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Id of the node owning a symbol; this node when clustering is off.
+     */
+    public String ownerOf(String symbol) {
+        String owner = enabled ? ring.nodeFor(symbol) : null;
+        return owner != null ? owner : nodeId;
+    }
+
+    public boolean isLocal(String symbol) {
+        return nodeId.equals(ownerOf(symbol));
+    }
+
+    /**
+     * RPC address of a live node, or null if it is not (or no longer) known.
+     */
+    public String addressOf(String nodeId) {
+        return addresses.get(nodeId);
+    }
+
+    /**
+     * Ids of the nodes seen alive by the last heartbeat; empty while this
+     * node is not running one.
+     */
+    public Set<String> getLiveNodeIds() {
+        return heartbeat != null ? addresses.keySet() : Set.of();
+    }
+
+    public long getNodeTimeoutMillis() {
+        return nodeTimeoutMillis;
+    }
+
+    // ================== HEARTBEAT ==================
+
+    /**
+     * Registers this node and starts the heartbeat. The first heartbeat runs
+     * before this returns, so the ring already includes every live node.
+     */
+    public synchronized void start() {
+        if (!enabled || heartbeat != null) {
+            return;
+        }
+        if (!InvalidationBus.getInstance().isEnabled()) {
+            System.err.println("ERROR: Clustering is on but stockapp.cache.bus is not; "
+                    + "other nodes' price changes will not reach this node's cache");
+        }
+        beat();
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::beat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        heartbeat = executor;
+    }
+
+    /**
+     * Stops the heartbeat and removes this node, so the others take over its
+     * symbols on their next heartbeat instead of waiting for the timeout.
+     */
+    public synchronized void stop() {
+        if (heartbeat == null) {
+            return;
+        }
+        // Let a running beat finish, or it could put the row back
+        heartbeat.shutdown();
+        try {
+            heartbeat.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        heartbeat = null;
+        Connection conn = DatabaseConnection.getConnection();
+        if (conn == null) {
+            return;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM cluster_nodes WHERE node_id = ?")) {
+            stmt.setString(1, nodeId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to leave the cluster: " + e.getMessage());
+        } finally {
+            DatabaseConnection.closeConnection(conn);
+        }
+    }
+
+    private void beat() {
+        long now = System.currentTimeMillis();
+        Connection conn = DatabaseConnection.getConnection();
+        if (conn == null) {
+            return;
+        }
+        try {
+            try (PreparedStatement update = conn.prepareStatement(
+                    "UPDATE cluster_nodes SET address = ?, heartbeat_at = ? WHERE node_id = ?")) {
+                update.setString(1, address);
+                update.setLong(2, now);
+                update.setString(3, nodeId);
+                if (update.executeUpdate() == 0) {
+                    try (PreparedStatement insert = conn.prepareStatement(
+                            "INSERT INTO cluster_nodes (node_id, address, heartbeat_at) VALUES (?, ?, ?)")) {
+                        insert.setString(1, nodeId);
+                        insert.setString(2, address);
+                        insert.setLong(3, now);
+                        insert.executeUpdate();
+                    }
+                }
+            }
+
+            Map<String, String> live = new HashMap<>();
+            try (PreparedStatement select = conn.prepareStatement(
+                    "SELECT node_id, address FROM cluster_nodes WHERE heartbeat_at >= ?")) {
+                select.setLong(1, now - nodeTimeoutMillis);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        live.put(rs.getString("node_id"), rs.getString("address"));
+                    }
+                }
+            }
+            live.put(nodeId, address);
+            addresses = Map.copyOf(live);
+            if (!live.keySet().equals(ring.getNodes())) {
+                ring = new HashRing(live.keySet(), virtualNodes);
+                System.out.println("Cluster membership changed: " + ring.getNodes().size() + " nodes " + ring.getNodes());
+            }
+
+            try (PreparedStatement purge = conn.prepareStatement("DELETE FROM cluster_nodes WHERE heartbeat_at < ?")) {
+                purge.setLong(1, now - 10 * nodeTimeoutMillis);
+                purge.executeUpdate();
+            }
+        } catch (SQLException e) {
+            // Keep the last known ring; a node that cannot reach the database cannot fill orders either
+            System.err.println("ERROR: Cluster heartbeat failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.closeConnection(conn);
+        }
+    }
+}
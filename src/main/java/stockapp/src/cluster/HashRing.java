@@ -0,0 +1,76 @@
+package stockapp.src.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consistent hash ring mapping keys (stock symbols) to node ids.
+ *
+ * Each node is placed on the ring at virtualNodes points; a key belongs to
+ * the first point at or after its own hash, wrapping around. With enough
+ * points per node the keys spread evenly, and adding or removing a node only
+ * moves the keys between its points and their predecessors, about 1/N of
+ * them, instead of reshuffling everything as hash-mod-N would.
+ *
+ * Immutable; membership changes build a new ring.
+ */
+public final class HashRing {
+
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+    private final Set<String> nodes;
+
+    public HashRing(Collection<String> nodeIds, int virtualNodes) {
+        Set<String> sorted = new TreeSet<>(nodeIds);
+        for (String node : sorted) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // On a collision the smaller node id keeps the point, whatever the insertion order
+                points.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+        nodes = Collections.unmodifiableSet(sorted);
+    }
+
+    /**
+     * The node owning a key, or null if the ring is empty.
+     */
+    public String nodeFor(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, followed by a MurmurHash3 finalizer
+     * so that keys differing only in their last characters still land far
+     * apart. Every node must compute the same values, so this must not change.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
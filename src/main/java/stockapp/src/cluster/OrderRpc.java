@@ -0,0 +1,145 @@
+package stockapp.src.cluster;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Messages of the order RPC between trading nodes, and their wire format.
+ *
+ * A connection carries any number of request/reply pairs, one at a time.
+ * Each message is a fixed sequence of DataOutput fields; strings are never
+ * null on the wire (absent values are sent as empty strings). The RPC is for
+ * nodes of one deployment talking over a private network, and the server
+ * listens on stockapp.cluster.rpc-host only.
+ *
+ * When stockapp.cluster.rpc-secret is set, every connection starts with a
+ * challenge: the server sends CHALLENGE_BYTES random bytes and the client
+ * answers with their HMAC-SHA256 under the secret, so only nodes knowing
+ * it can place orders. All nodes must share the setting. Without a
+ * secret, the server refuses to listen on a wildcard address.
+ */
+public final class OrderRpc {
+
+    /** Fill an order and wait for it; the reply carries the transaction id. */
+    public static final byte EXECUTE = 1;
+    /** Queue an order; the reply carries the order id and status. */
+    public static final byte SUBMIT = 2;
+    /** Status of an order, optionally waiting for it to finish. */
+    public static final byte STATUS = 3;
+    /** Fill a claimed resting order; orderId is its PENDING transaction. */
+    public static final byte TRIGGER = 4;
+
+    public static final byte OK = 0;
+    /** The order was refused (IllegalArgumentException on the caller's side). */
+    public static final byte REJECTED = 1;
+    /** The owner is overloaded or unreachable (IllegalStateException). */
+    public static final byte UNAVAILABLE = 2;
+    public static final byte NOT_FOUND = 3;
+    public static final byte FAILED = 4;
+
+    static final int CHALLENGE_BYTES = 32;
+
+    private OrderRpc() {
+    }
+
+    /**
+     * The shared secret of stockapp.cluster.rpc-secret, or null if unset.
+     */
+    static String sharedSecret() {
+        String secret = System.getProperty("stockapp.cluster.rpc-secret", "");
+        return secret.isBlank() ? null : secret;
+    }
+
+    /**
+     * Answer to a connection's challenge: its HMAC-SHA256 under the secret.
+     */
+    static byte[] answer(String secret, byte[] challenge) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+
+    /**
+     * An order operation. forwarded is set by the node passing the request
+     * on to the owner, which then executes it without routing it again.
+     */
+    public record Request(byte op, boolean forwarded, int userId, String type, int stockId, int quantity,
+            int orderId, long waitMillis) {
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(op);
+            out.writeBoolean(forwarded);
+            out.writeInt(userId);
+            out.writeUTF(type != null ? type : "");
+            out.writeInt(stockId);
+            out.writeInt(quantity);
+            out.writeInt(orderId);
+            out.writeLong(waitMillis);
+        }
+
+        static Request read(DataInputStream in) throws IOException {
+            return new Request(in.readByte(), in.readBoolean(), in.readInt(), in.readUTF(), in.readInt(),
+                    in.readInt(), in.readInt(), in.readLong());
+        }
+    }
+
+    /**
+     * Outcome of a request. id is the transaction id (EXECUTE) or order id;
+     * status, price and message describe an order (SUBMIT, STATUS).
+     */
+    public record Reply(byte code, int id, String status, BigDecimal price, String message) {
+
+        public static Reply ok(int id, String status, BigDecimal price, String message) {
+            return new Reply(OK, id, status, price, message);
+        }
+
+        public static Reply error(byte code, String message) {
+            return new Reply(code, 0, null, null, message);
+        }
+
+        /**
+         * Returns this reply if it is OK, and otherwise throws what the
+         * owner threw, so callers handle forwarded and local orders alike.
+         *
+         * @return null for NOT_FOUND
+         */
+        public Reply unwrap() {
+            return switch (code) {
+                case OK -> this;
+                case NOT_FOUND -> null;
+                case REJECTED -> throw new IllegalArgumentException(message);
+                case UNAVAILABLE -> throw new IllegalStateException(message);
+                default -> throw new RuntimeException(message);
+            };
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(code);
+            out.writeInt(id);
+            out.writeUTF(status != null ? status : "");
+            out.writeUTF(price != null ? price.toPlainString() : "");
+            out.writeUTF(message != null ? message : "");
+        }
+
+        static Reply read(DataInputStream in) throws IOException {
+            byte code = in.readByte();
+            int id = in.readInt();
+            String status = in.readUTF();
+            String price = in.readUTF();
+            String message = in.readUTF();
+            return new Reply(code, id, status.isEmpty() ? null : status, price.isEmpty() ? null : new BigDecimal(price),
+                    message.isEmpty() ? null : message);
+        }
+    }
+}
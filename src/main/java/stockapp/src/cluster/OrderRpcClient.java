@@ -0,0 +1,112 @@
+package stockapp.src.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Sends order RPCs to other nodes over pooled TCP connections.
+ *
+ * Connections are kept per address and reused, so a forwarded order costs
+ * one round trip rather than a connect as well. A connection that fails is
+ * dropped; the call is not retried, since the owner may already have acted
+ * on it. Replies wait at most stockapp.cluster.rpc-timeout-ms (default
+ * 35000, enough for a STATUS call's longest wait). A new connection answers
+ * the server's challenge first when a shared secret is set (see OrderRpc).
+ */
+public class OrderRpcClient {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int MAX_IDLE_PER_ADDRESS = 64;
+
+    private final int readTimeoutMillis = Math.max(1000, Integer.getInteger("stockapp.cluster.rpc-timeout-ms", 35_000));
+
+    private final String secret = OrderRpc.sharedSecret();
+
+    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Channel>> idle = new ConcurrentHashMap<>();
+
+    private static final class Channel {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Channel(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+    /**
+     * Sends a request to the node at address (host:port) and waits for the reply.
+     */
+    public OrderRpc.Reply call(String address, OrderRpc.Request request) throws IOException {
+        ConcurrentLinkedQueue<Channel> pool = idle.computeIfAbsent(address, a -> new ConcurrentLinkedQueue<>());
+        Channel channel = pool.poll();
+        if (channel == null) {
+            channel = open(address);
+        }
+        try {
+            request.write(channel.out);
+            channel.out.flush();
+            OrderRpc.Reply reply = OrderRpc.Reply.read(channel.in);
+            if (pool.size() < MAX_IDLE_PER_ADDRESS) {
+                pool.offer(channel);
+            } else {
+                channel.close();
+            }
+            return reply;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes all idle connections.
+     */
+    public void close() {
+        for (ConcurrentLinkedQueue<Channel> pool : idle.values()) {
+            Channel channel;
+            while ((channel = pool.poll()) != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private Channel open(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))),
+                    CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(readTimeoutMillis);
+            Channel channel = new Channel(socket);
+            if (secret != null) {
+                byte[] challenge = new byte[OrderRpc.CHALLENGE_BYTES];
+                channel.in.readFully(challenge);
+                channel.out.write(OrderRpc.answer(secret, challenge));
+                channel.out.flush();
+            }
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+}
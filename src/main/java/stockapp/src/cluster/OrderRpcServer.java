@@ -0,0 +1,166 @@
+package stockapp.src.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Accepts order RPCs from other nodes. Each connection is served by its own
+ * thread, reading requests and writing replies in turn until the peer hangs
+ * up; peers pool their connections, so the number of threads follows the
+ * number of orders in flight between nodes.
+ *
+ * The server listens on one address. With a shared secret every connection
+ * must answer a challenge before its requests are read (see OrderRpc);
+ * without one, listening on a wildcard address is refused, since anyone
+ * reaching the port could place orders for any user.
+ */
+public class OrderRpcServer {
+
+    private static final int BACKLOG = 50;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    private final String host;
+    private final int port;
+    private final String secret = OrderRpc.sharedSecret();
+    private final SecureRandom random = new SecureRandom();
+    private final Function<OrderRpc.Request, OrderRpc.Reply> handler;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private ExecutorService threads;
+
+    public OrderRpcServer(String host, int port, Function<OrderRpc.Request, OrderRpc.Reply> handler) {
+        this.host = host;
+        this.port = port;
+        this.handler = handler;
+    }
+
+    /**
+     * @throws IllegalStateException if the address is a wildcard and no
+     *         shared secret is set
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        InetAddress address = InetAddress.getByName(host);
+        if (address.isAnyLocalAddress() && secret == null) {
+            throw new IllegalStateException("Order RPC would listen on all interfaces (" + host
+                    + ") without authentication; set stockapp.cluster.rpc-host to a private address "
+                    + "or stockapp.cluster.rpc-secret");
+        }
+        serverSocket = new ServerSocket(port, BACKLOG, address);
+        threads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "order-rpc");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ServerSocket listening = serverSocket;
+        threads.execute(() -> accept(listening));
+    }
+
+    public synchronized void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        for (Socket socket : connections) {
+            close(socket);
+        }
+        threads.shutdownNow();
+        serverSocket = null;
+    }
+
+    private void accept(ServerSocket listening) {
+        while (!listening.isClosed()) {
+            try {
+                Socket socket = listening.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                threads.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!listening.isClosed()) {
+                    System.err.println("ERROR: Order RPC accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            if (secret != null && !authenticate(socket, in, out)) {
+                System.err.println("ERROR: Order RPC peer " + socket.getRemoteSocketAddress()
+                        + " failed authentication");
+                return;
+            }
+            while (true) {
+                OrderRpc.Request request;
+                try {
+                    request = OrderRpc.Request.read(in);
+                } catch (EOFException e) {
+                    return;
+                }
+                OrderRpc.Reply reply;
+                try {
+                    reply = handler.apply(request);
+                } catch (RuntimeException e) {
+                    reply = OrderRpc.Reply.error(OrderRpc.FAILED, e.getMessage());
+                }
+                reply.write(out);
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // Peer went away or the server is stopping
+        } catch (IOException e) {
+            System.err.println("ERROR: Order RPC connection failed: " + e.getMessage());
+        } finally {
+            connections.remove(socket);
+            close(socket);
+        }
+    }
+
+    private boolean authenticate(Socket socket, DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] challenge = new byte[OrderRpc.CHALLENGE_BYTES];
+        random.nextBytes(challenge);
+        out.write(challenge);
+        out.flush();
+        byte[] expected = OrderRpc.answer(secret, challenge);
+        byte[] answer = new byte[expected.length];
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        try {
+            in.readFully(answer);
+        } catch (EOFException | SocketTimeoutException e) {
+            return false;
+        }
+        socket.setSoTimeout(0);
+        return MessageDigest.isEqual(expected, answer);
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+}
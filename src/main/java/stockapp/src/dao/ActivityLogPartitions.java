@@ -0,0 +1,300 @@
+package stockapp.src.dao;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import stockapp.src.ShardRouter;
+
+/**
+ * Keeps track of the monthly tables that hold user activity logs.
+ *
+ * Logs for month M live in user_activity_logs_YYYYMM. The original
+ * user_activity_logs table is kept as the "legacy" partition for rows written
+ * before partitioning and is always included in queries. Retention drops
+ * whole monthly tables instead of deleting rows from one large table.
+ *
+ * Rolling tables are used on MySQL as well as H2. MySQL range partitioning
+ * cannot be combined with the foreign key to users, and one code path for
+ * both databases is easier to keep correct.
+ *
+ * Each new table starts its identity after the highest id written so far
+ * (plus ID_HEADROOM). That keeps ids unique and increasing across
+ * partitions, which the activity search index relies on. A month is closed
+ * once a later month up to the current one has a table; live writes into a
+ * closed month are rejected, so only writes already past tableFor when the
+ * next table appeared can still land there, and the headroom covers those.
+ * Tools copying old rows use tableForCopy and are not bounded this way.
+ *
+ * With sharded users every shard has its own set of tables, so the
+ * partition metadata is kept per database URL. Other nodes create and drop
+ * tables too, so the list is read again every
+ * stockapp.activity.partitions.refresh-ms (default 60000), when a month is
+ * asked for that is not known, and after reset, which callers use when a
+ * query on the tables fails.
+ */
+public class ActivityLogPartitions {
+
+    public static final String LEGACY_TABLE = "user_activity_logs";
+
+    private static final String PREFIX = "user_activity_logs_";
+
+    private static final DateTimeFormatter SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private static final int ID_HEADROOM = 10000;
+
+    // Listing again because a month is missing happens at most this often
+    private static final long RELIST_MIN_MILLIS = 1000;
+
+    private static final long REFRESH_MILLIS =
+            Math.max(RELIST_MIN_MILLIS, Long.getLong("stockapp.activity.partitions.refresh-ms", 60_000));
+
+    // Database URL -> its monthly partitions
+    private static final Map<String, Database> databases = new HashMap<>();
+
+    /**
+     * Monthly partitions of one database by month, plus when they were last listed.
+     */
+    private static final class Database {
+        final TreeMap<YearMonth, Partition> partitions = new TreeMap<>();
+        long listedAt;
+    }
+
+    private ActivityLogPartitions() {
+    }
+
+    /**
+     * One physical table and the half-open time range [startMillis, endMillis) it holds.
+     */
+    public static class Partition {
+        private final String table;
+        private final long startMillis;
+        private final long endMillis;
+
+        Partition(String table, long startMillis, long endMillis) {
+            this.table = table;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+
+        public String getTable() { return table; }
+        public long getStartMillis() { return startMillis; }
+        public long getEndMillis() { return endMillis; }
+
+        public boolean isLegacy() {
+            return LEGACY_TABLE.equals(table);
+        }
+
+        boolean overlaps(long fromMillis, long toMillis) {
+            return startMillis < toMillis && endMillis > fromMillis;
+        }
+    }
+
+    /**
+     * Returns the table that should receive a log written at the given time,
+     * creating it on first use.
+     *
+     * @throws IllegalArgumentException if the log belongs to a closed month
+     */
+    public static synchronized String tableFor(Connection conn, LocalDateTime loggedAt) throws SQLException {
+        Database db = discover(conn);
+        YearMonth month = YearMonth.from(loggedAt);
+        YearMonth current = YearMonth.now();
+        if (month.isBefore(current)) {
+            // Another node may have opened a later month since the last listing
+            relistIfStale(conn, db);
+            if (!db.partitions.subMap(month, false, current, true).isEmpty()) {
+                throw new IllegalArgumentException("Activity logs for " + month + " are closed");
+            }
+        }
+        return open(conn, db, month).table;
+    }
+
+    /**
+     * Like tableFor, but also returns closed months. For tools copying
+     * existing rows; ids written this way may run into the next month's.
+     */
+    public static synchronized String tableForCopy(Connection conn, LocalDateTime loggedAt) throws SQLException {
+        return open(conn, discover(conn), YearMonth.from(loggedAt)).table;
+    }
+
+    /**
+     * Partitions overlapping [fromMillis, toMillis), newest first. The legacy
+     * table comes last.
+     */
+    public static synchronized List<Partition> covering(Connection conn, long fromMillis, long toMillis) throws SQLException {
+        Database db = discover(conn);
+        YearMonth current = YearMonth.now();
+        if (!db.partitions.containsKey(current) && partitionFor(current).overlaps(fromMillis, toMillis)) {
+            // Another node may have logged this month already
+            relistIfStale(conn, db);
+        }
+        List<Partition> result = new ArrayList<>();
+        for (Partition partition : db.partitions.descendingMap().values()) {
+            if (partition.overlaps(fromMillis, toMillis)) {
+                result.add(partition);
+            }
+        }
+        result.add(new Partition(LEGACY_TABLE, Long.MIN_VALUE, Long.MAX_VALUE));
+        return result;
+    }
+
+    /**
+     * All partitions, newest first.
+     */
+    public static List<Partition> all(Connection conn) throws SQLException {
+        return covering(conn, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * All partitions, oldest first (legacy table first).
+     */
+    public static List<Partition> allOldestFirst(Connection conn) throws SQLException {
+        List<Partition> result = all(conn);
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Drops a monthly table. The legacy table is never dropped.
+     */
+    public static synchronized void drop(Connection conn, Partition partition) throws SQLException {
+        if (partition.isLegacy()) {
+            throw new IllegalArgumentException("The legacy activity log table cannot be dropped");
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + partition.table);
+        }
+        discover(conn).partitions.values().removeIf(p -> p.table.equals(partition.table));
+    }
+
+    /**
+     * Forgets cached partition metadata, e.g. after tables were changed by
+     * hand or a query on them failed.
+     */
+    public static synchronized void reset() {
+        databases.clear();
+    }
+
+    // ================== INTERNALS ==================
+
+    private static Database discover(Connection conn) throws SQLException {
+        Database db = databases.computeIfAbsent(conn.getMetaData().getURL(), url -> new Database());
+        if (db.listedAt == 0 || System.currentTimeMillis() - db.listedAt >= REFRESH_MILLIS) {
+            list(conn, db);
+        }
+        return db;
+    }
+
+    private static void relistIfStale(Connection conn, Database db) throws SQLException {
+        if (System.currentTimeMillis() - db.listedAt >= RELIST_MIN_MILLIS) {
+            list(conn, db);
+        }
+    }
+
+    private static Partition open(Connection conn, Database db, YearMonth month) throws SQLException {
+        Partition partition = db.partitions.get(month);
+        if (partition == null) {
+            // It may have been created elsewhere since the last listing
+            relistIfStale(conn, db);
+            partition = db.partitions.get(month);
+        }
+        if (partition == null) {
+            partition = create(conn, db, month);
+            db.partitions.put(month, partition);
+        }
+        return partition;
+    }
+
+    private static void list(Connection conn, Database db) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        TreeMap<YearMonth, Partition> found = new TreeMap<>();
+        try (ResultSet rs = meta.getTables(conn.getCatalog(), null, "%", new String[] { "TABLE" })) {
+            while (rs.next()) {
+                String name = rs.getString("TABLE_NAME").toLowerCase();
+                if (name.startsWith(PREFIX) && name.length() == PREFIX.length() + 6
+                        && name.substring(PREFIX.length()).chars().allMatch(Character::isDigit)) {
+                    YearMonth month = YearMonth.parse(name.substring(PREFIX.length()), SUFFIX_FORMAT);
+                    found.put(month, partitionFor(month));
+                }
+            }
+        }
+        // Tables dropped elsewhere go away too
+        db.partitions.clear();
+        db.partitions.putAll(found);
+        db.listedAt = System.currentTimeMillis();
+    }
+
+    private static Partition partitionFor(YearMonth month) {
+        ZoneId zone = ZoneId.systemDefault();
+        long start = month.atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        long end = month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        return new Partition(PREFIX + month.format(SUFFIX_FORMAT), start, end);
+    }
+
+    private static Partition create(Connection conn, Database db, YearMonth month) throws SQLException {
+        Partition partition = partitionFor(month);
+        // A shard numbers its rows from its own id range (see ShardRouter)
+        long startId = Math.max(maxIdSoFar(conn, db), ShardRouter.getInstance().idBaseOf(conn.getMetaData().getURL()))
+                + ID_HEADROOM;
+        boolean h2 = conn.getMetaData().getDatabaseProductName().toUpperCase().contains("H2");
+
+        try (Statement stmt = conn.createStatement()) {
+            if (h2) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + partition.table + " ("
+                        + "id INT GENERATED BY DEFAULT AS IDENTITY (START WITH " + startId + ") PRIMARY KEY, "
+                        + "user_id INT NOT NULL, "
+                        + "activity_type VARCHAR(50) NOT NULL, "
+                        + "description VARCHAR(255), "
+                        + "ip_address VARCHAR(45), "
+                        + "logged_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + partition.table + "_logged_at ON "
+                        + partition.table + " (logged_at)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + partition.table + "_user ON "
+                        + partition.table + " (user_id, logged_at)");
+            } else {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + partition.table + " ("
+                        + "id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+                        + "user_id INT NOT NULL, "
+                        + "activity_type VARCHAR(50) NOT NULL, "
+                        + "description VARCHAR(255), "
+                        + "ip_address VARCHAR(45), "
+                        + "logged_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, "
+                        + "INDEX idx_logged_at (logged_at), "
+                        + "INDEX idx_user (user_id, logged_at)"
+                        + ") ENGINE=InnoDB AUTO_INCREMENT=" + startId);
+            }
+        }
+        System.out.println("Created activity log partition " + partition.table);
+        return partition;
+    }
+
+    private static long maxIdSoFar(Connection conn, Database db) throws SQLException {
+        String table = db.partitions.isEmpty() ? LEGACY_TABLE : db.partitions.lastEntry().getValue().table;
+        long max = maxId(conn, table);
+        if (!db.partitions.isEmpty()) {
+            max = Math.max(max, maxId(conn, LEGACY_TABLE));
+        }
+        return max;
+    }
+
+    private static long maxId(Connection conn, String table) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT MAX(id) FROM " + table);
+                ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        }
+    }
+}
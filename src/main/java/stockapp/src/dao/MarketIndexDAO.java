@@ -0,0 +1,257 @@
+package stockapp.src.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Repository;
+
+import stockapp.src.DatabaseConnection;
+import stockapp.src.models.MarketIndex;
+
+/**
+ * DAO for composite market indices and their constituents. Both tables
+ * live on the primary next to the stocks, also when users are sharded.
+ */
+@Repository
+public class MarketIndexDAO {
+
+    private static final String SELECT_INDICES_SQL = "SELECT id, symbol, name, weighting, base_value, divisor, created_at FROM market_indices ORDER BY id";
+
+    private static final String SELECT_INDEX_SQL = "SELECT id, symbol, name, weighting, base_value, divisor, created_at FROM market_indices WHERE id = ?";
+
+    private static final String SELECT_CONSTITUENTS_SQL = "SELECT index_id, stock_id, units FROM market_index_constituents ORDER BY index_id, stock_id";
+
+    private static final String SELECT_INDEX_CONSTITUENTS_SQL = "SELECT index_id, stock_id, units FROM market_index_constituents WHERE index_id = ? ORDER BY stock_id";
+
+    private static final String INSERT_INDEX_SQL = "INSERT INTO market_indices (symbol, name, weighting, base_value, divisor, created_at) VALUES (?, ?, ?, ?, ?, NOW())";
+
+    private static final String INSERT_CONSTITUENT_SQL = "INSERT INTO market_index_constituents (index_id, stock_id, units) VALUES (?, ?, ?)";
+
+    private static final String DELETE_CONSTITUENTS_SQL = "DELETE FROM market_index_constituents WHERE index_id = ?";
+
+    private static final String UPDATE_DIVISOR_SQL = "UPDATE market_indices SET divisor = ? WHERE id = ?";
+
+    private static final String INITIALIZE_DIVISOR_SQL = "UPDATE market_indices SET divisor = ? WHERE id = ? AND divisor IS NULL";
+
+    private static final String DELETE_INDEX_SQL = "DELETE FROM market_indices WHERE id = ?";
+
+    private MarketIndex mapRowToIndex(ResultSet rs) throws SQLException {
+        MarketIndex index = new MarketIndex();
+        index.setId(rs.getInt("id"));
+        index.setSymbol(rs.getString("symbol"));
+        index.setName(rs.getString("name"));
+        index.setWeighting(MarketIndex.Weighting.valueOf(rs.getString("weighting")));
+        index.setBaseValue(rs.getBigDecimal("base_value"));
+        double divisor = rs.getDouble("divisor");
+        index.setDivisor(rs.wasNull() ? null : divisor);
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        if (createdAt != null) {
+            index.setCreatedAt(createdAt.toLocalDateTime());
+        }
+        return index;
+    }
+
+    /**
+     * Every index with its constituents, in id order.
+     */
+    public List<MarketIndex> getAllIndices() {
+        List<MarketIndex> indices = new ArrayList<>();
+        Map<Integer, MarketIndex> byId = new HashMap<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(SELECT_INDICES_SQL);
+                PreparedStatement constituents = conn.prepareStatement(SELECT_CONSTITUENTS_SQL)) {
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    MarketIndex index = mapRowToIndex(rs);
+                    indices.add(index);
+                    byId.put(index.getId(), index);
+                }
+            }
+            try (ResultSet rs = constituents.executeQuery()) {
+                while (rs.next()) {
+                    MarketIndex index = byId.get(rs.getInt("index_id"));
+                    if (index != null) {
+                        index.getUnits().put(rs.getInt("stock_id"), rs.getLong("units"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to retrieve market indices: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return indices;
+    }
+
+    /**
+     * One index with its constituents, or null if it does not exist.
+     */
+    public MarketIndex getIndexById(int indexId) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(SELECT_INDEX_SQL);
+                PreparedStatement constituents = conn.prepareStatement(SELECT_INDEX_CONSTITUENTS_SQL)) {
+
+            stmt.setInt(1, indexId);
+            MarketIndex index;
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                index = mapRowToIndex(rs);
+            }
+            constituents.setInt(1, indexId);
+            try (ResultSet rs = constituents.executeQuery()) {
+                while (rs.next()) {
+                    index.getUnits().put(rs.getInt("stock_id"), rs.getLong("units"));
+                }
+            }
+            return index;
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to retrieve market index " + indexId + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Stores a new index with its constituents in one transaction and sets
+     * its generated id.
+     *
+     * @return true if the index was stored
+     */
+    public boolean createIndex(MarketIndex index) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(INSERT_INDEX_SQL, Statement.RETURN_GENERATED_KEYS);
+                PreparedStatement constituents = conn.prepareStatement(INSERT_CONSTITUENT_SQL)) {
+
+            conn.setAutoCommit(false);
+            try {
+                stmt.setString(1, index.getSymbol());
+                stmt.setString(2, index.getName());
+                stmt.setString(3, index.getWeighting().name());
+                stmt.setBigDecimal(4, index.getBaseValue());
+                setDivisor(stmt, 5, index.getDivisor());
+                stmt.executeUpdate();
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    if (!keys.next()) {
+                        conn.rollback();
+                        return false;
+                    }
+                    index.setId(keys.getInt(1));
+                }
+                insertConstituents(constituents, index.getId(), index.getUnits());
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to create market index: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the constituents of an index and its divisor in one
+     * transaction.
+     */
+    public boolean replaceConstituents(int indexId, Map<Integer, Long> units, double divisor) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement delete = conn.prepareStatement(DELETE_CONSTITUENTS_SQL);
+                PreparedStatement insert = conn.prepareStatement(INSERT_CONSTITUENT_SQL);
+                PreparedStatement update = conn.prepareStatement(UPDATE_DIVISOR_SQL)) {
+
+            conn.setAutoCommit(false);
+            try {
+                update.setDouble(1, divisor);
+                update.setInt(2, indexId);
+                if (update.executeUpdate() == 0) {
+                    conn.rollback();
+                    return false;
+                }
+                delete.setInt(1, indexId);
+                delete.executeUpdate();
+                insertConstituents(insert, indexId, units);
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to replace constituents of market index " + indexId + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Sets the divisor of an index that has none yet. Only the first call
+     * succeeds, so nodes valuing a new index at once agree on one divisor.
+     *
+     * @return true if this call set it
+     */
+    public boolean initializeDivisor(int indexId, double divisor) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(INITIALIZE_DIVISOR_SQL)) {
+
+            stmt.setDouble(1, divisor);
+            stmt.setInt(2, indexId);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to set divisor of market index " + indexId + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Deletes an index; its constituents go with it.
+     */
+    public boolean deleteIndex(int indexId) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(DELETE_INDEX_SQL)) {
+
+            stmt.setInt(1, indexId);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to delete market index " + indexId + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private static void insertConstituents(PreparedStatement stmt, int indexId, Map<Integer, Long> units)
+            throws SQLException {
+        for (Map.Entry<Integer, Long> e : units.entrySet()) {
+            stmt.setInt(1, indexId);
+            stmt.setInt(2, e.getKey());
+            stmt.setLong(3, e.getValue());
+            stmt.addBatch();
+        }
+        stmt.executeBatch();
+    }
+
+    private static void setDivisor(PreparedStatement stmt, int parameter, Double divisor) throws SQLException {
+        if (divisor != null) {
+            stmt.setDouble(parameter, divisor);
+        } else {
+            stmt.setNull(parameter, Types.DOUBLE);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package stockapp.src.dao;
 
 import stockapp.src.DatabaseConnection;
+import stockapp.src.cache.TradingStateCache;
 import stockapp.src.models.Portfolio;
 import org.springframework.stereotype.Repository;
 import java.sql.Connection;
@@ -9,19 +10,26 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
  * Data Access Object for Portfolio entity.
  * Handles CRUD operations for user portfolios.
+ * A user's positions are cached in TradingStateCache on first read and kept
+ * up to date by the write methods below.
  */
 @Repository
 public class PortfolioDAO {
 
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
     private static final String INSERT_PORTFOLIO_SQL = "INSERT INTO portfolios (user_id, stock_id, quantity, average_price) VALUES (?, ?, ?, ?)";
 
     private static final String SELECT_PORTFOLIO_BY_USER_SQL = "SELECT id, user_id, stock_id, quantity, average_price FROM portfolios WHERE user_id = ?";
 
+    private static final String SELECT_ALL_PORTFOLIOS_SQL = "SELECT id, user_id, stock_id, quantity, average_price FROM portfolios";
+
     private static final String SELECT_PORTFOLIO_BY_USER_AND_STOCK_SQL = "SELECT id, user_id, stock_id, quantity, average_price FROM portfolios WHERE user_id = ? AND stock_id = ?";
 
     private static final String UPDATE_PORTFOLIO_SQL = "UPDATE portfolios SET quantity = ?, average_price = ? WHERE id = ?";
@@ -45,7 +53,7 @@ public class PortfolioDAO {
      * Adds a new stock to user's portfolio.
      */
     public boolean addToPortfolio(int userID, int stockID, int quantity, double avgPrice) {
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getUserConnection(userID);
                 PreparedStatement stmt = conn.prepareStatement(INSERT_PORTFOLIO_SQL)) {
 
             stmt.setInt(1, userID);
@@ -54,6 +62,9 @@ public class PortfolioDAO {
             stmt.setDouble(4, avgPrice);
 
             int rowsInserted = stmt.executeUpdate();
+            // The new row id is not known here, so reload on next read
+            cache.invalidatePositions(userID);
+            DatabaseConnection.recordWrite(userID);
             return rowsInserted > 0;
         } catch (SQLException e) {
             System.err.println("ERROR: Failed to add portfolio entry: " + e.getMessage());
@@ -66,9 +77,15 @@ public class PortfolioDAO {
      * Retrieves all portfolio entries for a user.
      */
     public List<Portfolio> getPortfolioByUser(int userID) {
+        List<Portfolio> cached = cache.getPositions(userID);
+        if (cached != null) {
+            return cached;
+        }
+
         List<Portfolio> portfolios = new ArrayList<>();
+        long generation = cache.positionsGeneration(userID);
 
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getReadConnection(userID);
                 PreparedStatement stmt = conn.prepareStatement(SELECT_PORTFOLIO_BY_USER_SQL)) {
 
             stmt.setInt(1, userID);
@@ -78,6 +95,7 @@ public class PortfolioDAO {
                 portfolios.add(mapRowToPortfolio(rs));
             }
             rs.close();
+            cache.cacheLoadedPositions(userID, portfolios, generation);
         } catch (SQLException e) {
             System.err.println("ERROR: Failed to retrieve portfolio: " + e.getMessage());
             e.printStackTrace();
@@ -85,11 +103,44 @@ public class PortfolioDAO {
         return portfolios;
     }
 
+    /**
+     * Retrieves every portfolio entry of every user, from all shards.
+     * Bypasses the cache; used to build indexes at startup.
+     */
+    public List<Portfolio> getAllPortfolios() {
+        List<Portfolio> portfolios = new ArrayList<>();
+
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            try (Connection conn = DatabaseConnection.getShardReadConnection(shard);
+                    PreparedStatement stmt = conn.prepareStatement(SELECT_ALL_PORTFOLIOS_SQL);
+                    ResultSet rs = stmt.executeQuery()) {
+
+                while (rs.next()) {
+                    portfolios.add(mapRowToPortfolio(rs));
+                }
+            } catch (SQLException e) {
+                System.err.println("ERROR: Failed to retrieve all portfolios: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        return portfolios;
+    }
+
     /**
      * Retrieves a specific portfolio entry for a user and stock.
      */
     public Portfolio getPortfolioByUserAndStock(int userID, int stockID) {
-        try (Connection conn = DatabaseConnection.getConnection();
+        List<Portfolio> cached = cache.getPositions(userID);
+        if (cached != null) {
+            for (Portfolio p : cached) {
+                if (p.getStockID() == stockID) {
+                    return p;
+                }
+            }
+            return null;
+        }
+
+        try (Connection conn = DatabaseConnection.getUserConnection(userID);
                 PreparedStatement stmt = conn.prepareStatement(SELECT_PORTFOLIO_BY_USER_AND_STOCK_SQL)) {
 
             stmt.setInt(1, userID);
@@ -112,38 +163,86 @@ public class PortfolioDAO {
     /**
      * Updates a portfolio entry with new quantity and average price.
      */
+    public boolean updatePortfolio(int userID, int portfolioID, int quantity, double avgPrice) {
+        try (Connection conn = DatabaseConnection.getUserConnection(userID)) {
+            return updatePortfolio(conn, portfolioID, quantity, avgPrice);
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to update portfolio: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Updates a portfolio entry without knowing its owner. With sharding this
+     * tries each shard; prefer the overload taking the user id.
+     */
     public boolean updatePortfolio(int portfolioID, int quantity, double avgPrice) {
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(UPDATE_PORTFOLIO_SQL)) {
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            try (Connection conn = DatabaseConnection.getShardConnection(shard)) {
+                if (updatePortfolio(conn, portfolioID, quantity, avgPrice)) {
+                    return true;
+                }
+            } catch (SQLException e) {
+                System.err.println("ERROR: Failed to update portfolio: " + e.getMessage());
+                e.printStackTrace();
+                return false;
+            }
+        }
+        return false;
+    }
 
+    private boolean updatePortfolio(Connection conn, int portfolioID, int quantity, double avgPrice) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(UPDATE_PORTFOLIO_SQL)) {
             stmt.setInt(1, quantity);
             stmt.setDouble(2, avgPrice);
             stmt.setInt(3, portfolioID);
 
             int rowsUpdated = stmt.executeUpdate();
+            cache.updatePositionRow(portfolioID, quantity, avgPrice);
             return rowsUpdated > 0;
+        }
+    }
+
+    /**
+     * Deletes a portfolio entry.
+     */
+    public boolean deletePortfolio(int userID, int portfolioID) {
+        try (Connection conn = DatabaseConnection.getUserConnection(userID)) {
+            return deletePortfolio(conn, portfolioID);
         } catch (SQLException e) {
-            System.err.println("ERROR: Failed to update portfolio: " + e.getMessage());
+            System.err.println("ERROR: Failed to delete portfolio: " + e.getMessage());
             e.printStackTrace();
             return false;
         }
     }
 
     /**
-     * Deletes a portfolio entry.
+     * Deletes a portfolio entry without knowing its owner. With sharding this
+     * tries each shard; prefer the overload taking the user id.
      */
     public boolean deletePortfolio(int portfolioID) {
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(DELETE_PORTFOLIO_SQL)) {
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            try (Connection conn = DatabaseConnection.getShardConnection(shard)) {
+                if (deletePortfolio(conn, portfolioID)) {
+                    return true;
+                }
+            } catch (SQLException e) {
+                System.err.println("ERROR: Failed to delete portfolio: " + e.getMessage());
+                e.printStackTrace();
+                return false;
+            }
+        }
+        return false;
+    }
 
+    private boolean deletePortfolio(Connection conn, int portfolioID) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(DELETE_PORTFOLIO_SQL)) {
             stmt.setInt(1, portfolioID);
 
             int rowsDeleted = stmt.executeUpdate();
+            cache.removePositionRow(portfolioID);
             return rowsDeleted > 0;
-        } catch (SQLException e) {
-            System.err.println("ERROR: Failed to delete portfolio: " + e.getMessage());
-            e.printStackTrace();
-            return false;
         }
     }
 
@@ -173,8 +272,10 @@ public class PortfolioDAO {
      * Update an existing portfolio item
      */
     public boolean updatePortfolioItem(Portfolio portfolio) {
-        return updatePortfolio(portfolio.getId(), portfolio.getQuantity(),
+        boolean updated = updatePortfolio(portfolio.getUserID(), portfolio.getId(), portfolio.getQuantity(),
                 portfolio.getAvgPrice());
+        DatabaseConnection.recordWrite(portfolio.getUserID());
+        return updated;
     }
 
     /**
@@ -183,4 +284,108 @@ public class PortfolioDAO {
     public boolean deletePortfolioItem(int portfolioID) {
         return deletePortfolio(portfolioID);
     }
-}
\ No newline at end of file
+
+    /**
+     * Delete a portfolio item on its owner's shard
+     */
+    public boolean deletePortfolioItem(Portfolio portfolio) {
+        boolean deleted = deletePortfolio(portfolio.getUserID(), portfolio.getId());
+        DatabaseConnection.recordWrite(portfolio.getUserID());
+        return deleted;
+    }
+
+    /**
+     * Inserts the given portfolio items as a single JDBC batch on a
+     * caller-supplied connection. Does not commit.
+     */
+    public void insertPortfolioBatch(Connection conn, List<Portfolio> items) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(INSERT_PORTFOLIO_SQL)) {
+            for (Portfolio item : items) {
+                stmt.setInt(1, item.getUserID());
+                stmt.setInt(2, item.getStockID());
+                stmt.setInt(3, item.getQuantity());
+                stmt.setDouble(4, item.getAvgPrice());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        for (Portfolio item : items) {
+            cache.invalidatePositions(item.getUserID());
+        }
+    }
+
+    /**
+     * Reads a user's positions and locks the rows until the caller's
+     * transaction ends.
+     */
+    public List<Portfolio> lockUserPortfolio(Connection conn, int userID) throws SQLException {
+        List<Portfolio> portfolioList = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(SELECT_PORTFOLIO_BY_USER_SQL + " FOR UPDATE")) {
+            stmt.setInt(1, userID);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    portfolioList.add(mapRowToPortfolio(rs));
+                }
+            }
+        }
+        return portfolioList;
+    }
+
+    /**
+     * Reads the positions of all the given users and locks the rows until
+     * the caller's transaction ends.
+     */
+    public List<Portfolio> lockPortfoliosForUsers(Connection conn, Collection<Integer> userIDs) throws SQLException {
+        List<Portfolio> portfolioList = new ArrayList<>();
+        if (userIDs.isEmpty()) {
+            return portfolioList;
+        }
+        StringBuilder sql = new StringBuilder("SELECT id, user_id, stock_id, quantity, average_price FROM portfolios WHERE user_id IN (");
+        for (int i = 0; i < userIDs.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(") FOR UPDATE");
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (int userID : userIDs) {
+                stmt.setInt(index++, userID);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    portfolioList.add(mapRowToPortfolio(rs));
+                }
+            }
+        }
+        return portfolioList;
+    }
+
+    /**
+     * Updates quantity and average price of the given rows as a single JDBC
+     * batch. Does not commit and does not touch the cache.
+     */
+    public void updatePortfolioBatch(Connection conn, List<Portfolio> items) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(UPDATE_PORTFOLIO_SQL)) {
+            for (Portfolio item : items) {
+                stmt.setInt(1, item.getQuantity());
+                stmt.setDouble(2, item.getAvgPrice());
+                stmt.setInt(3, item.getId());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * Deletes the given rows as a single JDBC batch. Does not commit and does
+     * not touch the cache.
+     */
+    public void deletePortfolioBatch(Connection conn, List<Integer> portfolioIDs) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(DELETE_PORTFOLIO_SQL)) {
+            for (int portfolioID : portfolioIDs) {
+                stmt.setInt(1, portfolioID);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+}
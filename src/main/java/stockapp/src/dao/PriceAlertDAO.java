@@ -0,0 +1,179 @@
+package stockapp.src.dao;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.stereotype.Repository;
+
+import stockapp.src.DatabaseConnection;
+import stockapp.src.models.PriceAlert;
+
+/**
+ * DAO for user price alerts. Alerts live on the primary next to the stocks
+ * they watch, also when users are sharded.
+ */
+@Repository
+public class PriceAlertDAO {
+
+    private static final String INSERT_ALERT_SQL = "INSERT INTO price_alerts (user_id, stock_id, direction, threshold, created_at) VALUES (?, ?, ?, ?, NOW())";
+
+    private static final String SELECT_ALERTS_BY_USER_SQL = "SELECT id, user_id, stock_id, direction, threshold, created_at, triggered_at, triggered_price FROM price_alerts WHERE user_id = ? ORDER BY id DESC";
+
+    private static final String SELECT_ACTIVE_ALERTS_SQL = "SELECT id, user_id, stock_id, direction, threshold, created_at, triggered_at, triggered_price FROM price_alerts WHERE triggered_at IS NULL";
+
+    private static final String COUNT_ACTIVE_ALERTS_SQL = "SELECT COUNT(*) FROM price_alerts WHERE user_id = ? AND triggered_at IS NULL";
+
+    private static final String MARK_TRIGGERED_SQL = "UPDATE price_alerts SET triggered_at = NOW(), triggered_price = ? WHERE id = ? AND triggered_at IS NULL";
+
+    private static final String DELETE_ALERT_SQL = "DELETE FROM price_alerts WHERE id = ? AND user_id = ?";
+
+    private static final int ACTIVE_ALERTS_FETCH_SIZE = 10_000;
+
+    private PriceAlert mapRowToAlert(ResultSet rs) throws SQLException {
+        PriceAlert alert = new PriceAlert();
+        alert.setId(rs.getInt("id"));
+        alert.setUserId(rs.getInt("user_id"));
+        alert.setStockId(rs.getInt("stock_id"));
+        alert.setDirection(PriceAlert.Direction.valueOf(rs.getString("direction")));
+        alert.setThreshold(rs.getBigDecimal("threshold"));
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        if (createdAt != null) {
+            alert.setCreatedAt(createdAt.toLocalDateTime());
+        }
+        Timestamp triggeredAt = rs.getTimestamp("triggered_at");
+        if (triggeredAt != null) {
+            alert.setTriggeredAt(triggeredAt.toLocalDateTime());
+        }
+        alert.setTriggeredPrice(rs.getBigDecimal("triggered_price"));
+        return alert;
+    }
+
+    /**
+     * Stores a new alert and sets its generated id.
+     *
+     * @return true if the alert was stored
+     */
+    public boolean createAlert(PriceAlert alert) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(INSERT_ALERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+
+            stmt.setInt(1, alert.getUserId());
+            stmt.setInt(2, alert.getStockId());
+            stmt.setString(3, alert.getDirection().name());
+            stmt.setBigDecimal(4, alert.getThreshold());
+            if (stmt.executeUpdate() > 0) {
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        alert.setId(keys.getInt(1));
+                        return true;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to create price alert: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * A user's alerts, triggered or not, newest first.
+     */
+    public List<PriceAlert> getAlertsByUser(int userId) {
+        List<PriceAlert> alerts = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(SELECT_ALERTS_BY_USER_SQL)) {
+
+            stmt.setInt(1, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    alerts.add(mapRowToAlert(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to retrieve price alerts: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return alerts;
+    }
+
+    /**
+     * Hands every alert that has not fired yet to the consumer, streaming
+     * the rows rather than collecting them first.
+     */
+    public void forEachActiveAlert(Consumer<PriceAlert> consumer) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(SELECT_ACTIVE_ALERTS_SQL)) {
+
+            stmt.setFetchSize(ACTIVE_ALERTS_FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(mapRowToAlert(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to load active price alerts: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    public int countActiveAlerts(int userId) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(COUNT_ACTIVE_ALERTS_SQL)) {
+
+            stmt.setInt(1, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to count price alerts: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * Records that an alert fired. Only the first call for an alert
+     * succeeds, so an alert fired on several nodes is delivered once.
+     *
+     * @return true if this call marked it
+     */
+    public boolean markTriggered(int alertId, BigDecimal price) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(MARK_TRIGGERED_SQL)) {
+
+            stmt.setBigDecimal(1, price);
+            stmt.setInt(2, alertId);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to mark price alert " + alertId + " as triggered: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Deletes one of a user's alerts.
+     */
+    public boolean deleteAlert(int alertId, int userId) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(DELETE_ALERT_SQL)) {
+
+            stmt.setInt(1, alertId);
+            stmt.setInt(2, userId);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to delete price alert: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,112 @@
+package stockapp.src.dao;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.springframework.stereotype.Repository;
+
+import stockapp.src.DatabaseConnection;
+
+/**
+ * DAO for stock_price_history, one row per price change. The table lives on
+ * the primary next to the stocks; range reads may be served by a replica.
+ */
+@Repository
+public class PriceHistoryDAO {
+
+    private static final String INSERT_SAMPLE_SQL = "INSERT INTO stock_price_history (stock_id, price, recorded_at) VALUES (?, ?, ?)";
+
+    // Keyset pages in (recorded_at, id) order, which idx_price_history_recorded serves
+    private static final String SELECT_SAMPLES_FIRST_PAGE_SQL = "SELECT id, stock_id, price, recorded_at FROM stock_price_history WHERE recorded_at >= ? ORDER BY recorded_at, id LIMIT ?";
+
+    private static final String SELECT_SAMPLES_NEXT_PAGE_SQL = "SELECT id, stock_id, price, recorded_at FROM stock_price_history WHERE recorded_at > ? OR (recorded_at = ? AND id > ?) ORDER BY recorded_at, id LIMIT ?";
+
+    private static final int SAMPLES_PAGE_SIZE = 10_000;
+
+    /**
+     * One recorded price.
+     */
+    public record Sample(int stockId, BigDecimal price, long recordedAt) {
+    }
+
+    /**
+     * Receives samples as they are read, without boxing.
+     */
+    @FunctionalInterface
+    public interface SampleConsumer {
+        void accept(int stockId, double price, long recordedAt);
+    }
+
+    /**
+     * Stores samples as one batch.
+     *
+     * @return false if they could not be stored
+     */
+    public boolean insertSamples(List<Sample> samples) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(INSERT_SAMPLE_SQL)) {
+
+            for (Sample sample : samples) {
+                stmt.setInt(1, sample.stockId());
+                stmt.setBigDecimal(2, sample.price());
+                stmt.setTimestamp(3, new Timestamp(sample.recordedAt()));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            return true;
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to store " + samples.size() + " price history samples: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Hands every sample recorded at or after since to the consumer, oldest
+     * first. Rows are read in keyset pages of SAMPLES_PAGE_SIZE, so only
+     * one page is held at a time whatever the driver does with fetch sizes
+     * (MySQL Connector/J otherwise buffers the whole result).
+     *
+     * @return false if the history could not be read
+     */
+    public boolean forEachSampleSince(long since, SampleConsumer consumer) {
+        try (Connection conn = DatabaseConnection.getReadConnection();
+                PreparedStatement first = conn.prepareStatement(SELECT_SAMPLES_FIRST_PAGE_SQL);
+                PreparedStatement next = conn.prepareStatement(SELECT_SAMPLES_NEXT_PAGE_SQL)) {
+
+            first.setTimestamp(1, new Timestamp(since));
+            first.setInt(2, SAMPLES_PAGE_SIZE);
+            Timestamp lastRecordedAt = null;
+            int lastId = 0;
+            PreparedStatement page = first;
+            while (true) {
+                int rows = 0;
+                try (ResultSet rs = page.executeQuery()) {
+                    while (rs.next()) {
+                        lastId = rs.getInt(1);
+                        lastRecordedAt = rs.getTimestamp(4);
+                        consumer.accept(rs.getInt(2), rs.getDouble(3), lastRecordedAt.getTime());
+                        rows++;
+                    }
+                }
+                if (rows < SAMPLES_PAGE_SIZE) {
+                    return true;
+                }
+                next.setTimestamp(1, lastRecordedAt);
+                next.setTimestamp(2, lastRecordedAt);
+                next.setInt(3, lastId);
+                next.setInt(4, SAMPLES_PAGE_SIZE);
+                page = next;
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to read price history: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+}
@@ -2,6 +2,10 @@ package stockapp.src.dao;
 
 import stockapp.src.models.Stock;
 import stockapp.src.DatabaseConnection;
+import stockapp.src.ReplicaRouter;
+import stockapp.src.cache.InvalidationBus;
+import stockapp.src.cache.TradingHalts;
+import stockapp.src.cache.TradingStateCache;
 import org.springframework.stereotype.Repository;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -9,51 +13,67 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Random;
 
 /**
  * Data Access Object for managing Stock market data.
  * Handles database operations related to the 'stocks' table.
+ * Reads are served from TradingStateCache when possible and updates are
+ * written through to it.
  */
 @Repository
 public class StockDAO {
 
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private final TradingHalts halts = TradingHalts.getInstance();
+
+    private final InvalidationBus bus = InvalidationBus.getInstance();
+
+    /**
+     * Maps a ResultSet row to a Stock object.
+     */
+    private Stock mapRowToStock(ResultSet rs) throws SQLException {
+        int id = rs.getInt("id");
+        String symbol = rs.getString("symbol");
+        String name = rs.getString("name");
+        BigDecimal price = rs.getBigDecimal("price");
+        double changePercent = rs.getDouble("change_percent");
+        boolean suspended = rs.getBoolean("is_suspended");
+
+        return new Stock(id, symbol, name, price, changePercent, suspended);
+    }
+
     /**
      * @return A list of Stock objects with fetched or simulated change percent.
      */
     public List<Stock> getAllStocks() {
-        List<Stock> stocks = new ArrayList<>();
-        String sql = "SELECT id, symbol, name, price, change_percent, is_suspended FROM stocks";
+        List<Stock> stocks = cache.getAllStocks();
+        if (stocks == null) {
+            stocks = loadAllStocksFromDatabase();
+        }
+        return simulateChangePercent(stocks);
+    }
 
-        // Generate a random seed based on the current day for stable simulation
-        long seed = System.currentTimeMillis() / (1000 * 60 * 60 * 24);
+    /**
+     * Reads the whole universe from the database and replaces the cached
+     * quotes with it. Change percents are returned as stored.
+     */
+    public List<Stock> loadAllStocksFromDatabase() {
+        List<Stock> stocks = new ArrayList<>();
+        String sql = "SELECT id, symbol, name, price, change_percent, is_suspended FROM stocks ORDER BY id";
+        long generation = cache.quoteGeneration();
 
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getReadConnection(ReplicaRouter.QUOTES);
                 PreparedStatement stmt = conn.prepareStatement(sql);
                 ResultSet rs = stmt.executeQuery()) {
 
-            Random random = new Random(seed);
-
             while (rs.next()) {
-                int id = rs.getInt("id");
-                String symbol = rs.getString("symbol");
-                String name = rs.getString("name");
-                BigDecimal price = rs.getBigDecimal("price");
-
-                // Fetch the change_percent from the database.
-                double changePercent = rs.getDouble("change_percent");
-
-                // Simulate change if the database returns the default (0.0)
-                if (changePercent == 0.0) {
-                    // Simulate a random value between -5% and +5%
-                    changePercent = (random.nextDouble() * 0.10) - 0.05;
-                }
-
-                boolean suspended = rs.getBoolean("is_suspended");
-
-                stocks.add(new Stock(id, symbol, name, price, changePercent, suspended));
+                stocks.add(mapRowToStock(rs));
             }
+            cache.cacheLoadedStocks(stocks, generation);
 
         } catch (SQLException e) {
             System.err.println("Error fetching all stocks from database: " + e.getMessage());
@@ -62,25 +82,61 @@ public class StockDAO {
         return stocks;
     }
 
+    /**
+     * Replaces a stored change percent of 0.0 with a simulated value.
+     * The cache keeps the stored value; the simulation is applied on the way out.
+     * Each stock gets its own seed, so the value does not depend on which
+     * other stocks are in the list (the delta feed serves subsets).
+     */
+    public List<Stock> simulateChangePercent(List<Stock> stocks) {
+        long day = simulationDay();
+        for (Stock stock : stocks) {
+            stock.setChangePercent(servedChangePercent(stock.getId(), stock.getChangePercent(), day));
+        }
+        return stocks;
+    }
+
+    /**
+     * The day the simulation is seeded with, so simulated values are stable
+     * within a day.
+     */
+    public static long simulationDay() {
+        return System.currentTimeMillis() / (1000 * 60 * 60 * 24);
+    }
+
+    /**
+     * The change percent served for a stock: the stored value, or a
+     * simulated one when the stored value is 0.0.
+     */
+    public static double servedChangePercent(int stockId, double storedChangePercent, long day) {
+        if (storedChangePercent != 0.0) {
+            return storedChangePercent;
+        }
+        Random random = new Random(day ^ ((long) stockId << 32));
+        // Simulate a random value between -5% and +5%
+        return (random.nextDouble() * 0.10) - 0.05;
+    }
+
     /**
      * Get a stock by ID
      */
     public Stock getStockById(int stockId) {
+        Stock cached = cache.getStock(stockId);
+        if (cached != null) {
+            return cached;
+        }
+
         String sql = "SELECT id, symbol, name, price, change_percent, is_suspended FROM stocks WHERE id = ?";
+        long generation = cache.quoteGeneration();
         try (Connection conn = DatabaseConnection.getConnection();
                 PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setInt(1, stockId);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    int id = rs.getInt("id");
-                    String symbol = rs.getString("symbol");
-                    String name = rs.getString("name");
-                    BigDecimal price = rs.getBigDecimal("price");
-                    double changePercent = rs.getDouble("change_percent");
-                    boolean suspended = rs.getBoolean("is_suspended");
-
-                    return new Stock(id, symbol, name, price, changePercent, suspended);
+                    Stock stock = mapRowToStock(rs);
+                    cache.cacheLoadedStock(stock, generation);
+                    return stock;
                 }
             }
         } catch (SQLException e) {
@@ -91,10 +147,12 @@ public class StockDAO {
     }
 
     /**
-     * Update stock price and other details
+     * Update stock price and other details.
+     * The suspension flag is not written; suspensions go through
+     * StockSuspensionDAO, and the cached quote keeps the current flag.
      */
     public boolean updateStock(Stock stock) {
-        String sql = "UPDATE stocks SET symbol = ?, name = ?, price = ?, change_percent = ?, is_suspended = ? WHERE id = ?";
+        String sql = "UPDATE stocks SET symbol = ?, name = ?, price = ?, change_percent = ? WHERE id = ?";
         try (Connection conn = DatabaseConnection.getConnection();
                 PreparedStatement stmt = conn.prepareStatement(sql)) {
 
@@ -102,10 +160,15 @@ public class StockDAO {
             stmt.setString(2, stock.getName());
             stmt.setBigDecimal(3, stock.getPrice());
             stmt.setDouble(4, stock.getChangePercent());
-            stmt.setBoolean(5, stock.isSuspended());
-            stmt.setInt(6, stock.getId());
+            stmt.setInt(5, stock.getId());
 
             int rowsAffected = stmt.executeUpdate();
+            if (rowsAffected > 0) {
+                stock.setSuspended(halts.isSuspended(stock.getId()));
+                cache.putStock(stock);
+                DatabaseConnection.recordWrite(ReplicaRouter.QUOTES);
+                bus.publishStock(stock.getId());
+            }
             return rowsAffected > 0;
         } catch (SQLException e) {
             System.err.println("Error updating stock: " + e.getMessage());
@@ -115,45 +178,48 @@ public class StockDAO {
     }
 
     /**
-     * Check if a stock is suspended
+     * Updates the prices of the given stocks as a single JDBC batch on a
+     * caller-supplied connection. Does not commit and does not touch the
+     * cache; the caller publishes the new quotes once its transaction commits.
      */
-    public boolean isStockSuspended(int stockId) {
-        String sql = "SELECT is_suspended FROM stocks WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setInt(1, stockId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getBoolean("is_suspended");
-                }
+    public void updatePricesBatch(Connection conn, Collection<Stock> stocks) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("UPDATE stocks SET price = ? WHERE id = ?")) {
+            for (Stock stock : stocks) {
+                stmt.setBigDecimal(1, stock.getPrice());
+                stmt.setInt(2, stock.getId());
+                stmt.addBatch();
             }
-        } catch (SQLException e) {
-            System.err.println("Error checking stock suspension: " + e.getMessage());
-            e.printStackTrace();
+            stmt.executeBatch();
         }
-        return false;
+    }
+
+    /**
+     * Check if a stock is suspended
+     */
+    public boolean isStockSuspended(int stockId) {
+        return halts.isSuspended(stockId);
     }
 
     /**
      * Get a stock by symbol
      */
     public Stock getStockBySymbol(String symbol) {
+        Stock cached = cache.getStockBySymbol(symbol);
+        if (cached != null) {
+            return cached;
+        }
+
         String sql = "SELECT id, symbol, name, price, change_percent, is_suspended FROM stocks WHERE symbol = ?";
+        long generation = cache.quoteGeneration();
         try (Connection conn = DatabaseConnection.getConnection();
                 PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setString(1, symbol);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    int id = rs.getInt("id");
-                    String sym = rs.getString("symbol");
-                    String name = rs.getString("name");
-                    BigDecimal price = rs.getBigDecimal("price");
-                    double changePercent = rs.getDouble("change_percent");
-                    boolean suspended = rs.getBoolean("is_suspended");
-
-                    return new Stock(id, sym, name, price, changePercent, suspended);
+                    Stock stock = mapRowToStock(rs);
+                    cache.cacheLoadedStock(stock, generation);
+                    return stock;
                 }
             }
         } catch (SQLException e) {
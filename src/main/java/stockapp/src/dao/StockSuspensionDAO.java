@@ -2,6 +2,10 @@ package stockapp.src.dao;
 
 import stockapp.src.models.StockSuspension;
 import stockapp.src.DatabaseConnection;
+import stockapp.src.ReplicaRouter;
+import stockapp.src.cache.InvalidationBus;
+import stockapp.src.cache.TradingHalts;
+import stockapp.src.cache.TradingStateCache;
 import org.springframework.stereotype.Repository;
 import java.sql.*;
 import java.util.ArrayList;
@@ -13,11 +17,19 @@ import java.util.List;
 @Repository
 public class StockSuspensionDAO {
 
+    private final TradingHalts halts = TradingHalts.getInstance();
+
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private final InvalidationBus bus = InvalidationBus.getInstance();
+
     public StockSuspensionDAO() {
     }
 
     /**
      * Suspend a stock.
+     * Trading stops as soon as the stock is flagged; the history record is
+     * written after.
      */
     public void suspendStock(int stockId, int adminId, String reason) {
         String suspendQuery = "UPDATE stocks SET is_suspended = TRUE, suspension_reason = ?, suspended_at = NOW() WHERE id = ?";
@@ -26,8 +38,14 @@ public class StockSuspensionDAO {
             try (PreparedStatement stmt1 = conn.prepareStatement(suspendQuery)) {
                 stmt1.setString(1, reason);
                 stmt1.setInt(2, stockId);
-                stmt1.executeUpdate();
+                if (stmt1.executeUpdate() == 0) {
+                    return;
+                }
             }
+            halts.setSuspended(stockId, true);
+            cache.applySuspended(stockId, true);
+            DatabaseConnection.recordWrite(ReplicaRouter.QUOTES);
+            bus.publishSuspension(stockId);
             try (PreparedStatement stmt2 = conn.prepareStatement(logQuery)) {
                 stmt2.setInt(1, stockId);
                 stmt2.setInt(2, adminId);
@@ -41,14 +59,26 @@ public class StockSuspensionDAO {
     }
 
     /**
-     * Resume a stock.
+     * Resume a stock and close its open suspension records.
      */
     public void resumeStock(int stockId) {
         String query = "UPDATE stocks SET is_suspended = FALSE, suspension_reason = NULL WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setInt(1, stockId);
-            stmt.executeUpdate();
+        String closeQuery = "UPDATE stock_suspensions SET is_active = FALSE, resumed_at = NOW() WHERE stock_id = ? AND is_active = TRUE";
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            try (PreparedStatement stmt1 = conn.prepareStatement(query)) {
+                stmt1.setInt(1, stockId);
+                if (stmt1.executeUpdate() == 0) {
+                    return;
+                }
+            }
+            halts.setSuspended(stockId, false);
+            cache.applySuspended(stockId, false);
+            DatabaseConnection.recordWrite(ReplicaRouter.QUOTES);
+            bus.publishSuspension(stockId);
+            try (PreparedStatement stmt2 = conn.prepareStatement(closeQuery)) {
+                stmt2.setInt(1, stockId);
+                stmt2.executeUpdate();
+            }
         } catch (SQLException e) {
             System.err.println("Error resuming stock: " + e.getMessage());
             e.printStackTrace();
@@ -87,20 +117,29 @@ public class StockSuspensionDAO {
 
     /**
      * Check if a stock is suspended.
+     * Answered from the in-memory bitmap; see getSuspendedStockIds.
      */
     public boolean isStockSuspended(int stockId) {
-        String query = "SELECT is_suspended FROM stocks WHERE id = ?";
+        return halts.isSuspended(stockId);
+    }
+
+    /**
+     * Ids of all suspended stocks, read from the database. Used to seed the
+     * suspension bitmap at startup.
+     */
+    public List<Integer> getSuspendedStockIds() {
+        List<Integer> ids = new ArrayList<>();
+        String query = "SELECT id FROM stocks WHERE is_suspended = TRUE";
         try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setInt(1, stockId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getBoolean("is_suspended");
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(query)) {
+            while (rs.next()) {
+                ids.add(rs.getInt("id"));
             }
         } catch (SQLException e) {
-            System.err.println("Error checking stock suspension: " + e.getMessage());
+            System.err.println("Error retrieving suspended stocks: " + e.getMessage());
             e.printStackTrace();
         }
-        return false;
+        return ids;
     }
 }
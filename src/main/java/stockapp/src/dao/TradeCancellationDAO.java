@@ -5,6 +5,7 @@ import stockapp.src.DatabaseConnection;
 import org.springframework.stereotype.Repository;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -21,7 +22,7 @@ public class TradeCancellationDAO {
      */
     public void recordCancellation(int transactionId, int userId, String reason) {
         String query = "INSERT INTO trade_cancellations (original_transaction_id, user_id, reason, rollback_executed, cancelled_at) VALUES (?, ?, ?, FALSE, NOW())";
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getUserConnection(userId);
                 PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setInt(1, transactionId);
             stmt.setInt(2, userId);
@@ -33,18 +34,41 @@ public class TradeCancellationDAO {
         }
     }
 
+    /**
+     * Records the given cancellations, already rolled back, as a single JDBC
+     * batch on a caller-supplied connection. Does not commit.
+     */
+    public void insertExecutedCancellationsBatch(Connection conn, List<TradeCancellation> cancellations) throws SQLException {
+        String query = "INSERT INTO trade_cancellations (original_transaction_id, user_id, reason, rollback_executed, cancelled_at) VALUES (?, ?, ?, TRUE, NOW())";
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            for (TradeCancellation cancellation : cancellations) {
+                stmt.setInt(1, cancellation.getOriginalTransactionId());
+                stmt.setInt(2, cancellation.getUserId());
+                stmt.setString(3, cancellation.getReason());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
     /**
      * Mark cancellation as rollback executed.
      */
     public void markRollbackExecuted(int cancellationId) {
         String query = "UPDATE trade_cancellations SET rollback_executed = TRUE WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setInt(1, cancellationId);
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            System.err.println("Error marking rollback: " + e.getMessage());
-            e.printStackTrace();
+        // Ids are unique across shards; stop at the one holding the row
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            try (Connection conn = DatabaseConnection.getShardConnection(shard);
+                    PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setInt(1, cancellationId);
+                if (stmt.executeUpdate() > 0) {
+                    return;
+                }
+            } catch (SQLException e) {
+                System.err.println("Error marking rollback: " + e.getMessage());
+                e.printStackTrace();
+                return;
+            }
         }
     }
 
@@ -54,7 +78,7 @@ public class TradeCancellationDAO {
     public List<TradeCancellation> getCancellationsByUser(int userId) {
         List<TradeCancellation> cancellations = new ArrayList<>();
         String query = "SELECT * FROM trade_cancellations WHERE user_id = ? ORDER BY cancelled_at DESC";
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getUserConnection(userId);
                 PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setInt(1, userId);
             ResultSet rs = stmt.executeQuery();
@@ -76,27 +100,32 @@ public class TradeCancellationDAO {
     }
 
     /**
-     * Get all cancellations (admin view).
+     * Get all cancellations (admin view), newest first across all shards.
      */
     public List<TradeCancellation> getAllCancellations() {
         List<TradeCancellation> cancellations = new ArrayList<>();
         String query = "SELECT * FROM trade_cancellations ORDER BY cancelled_at DESC";
-        try (Connection conn = DatabaseConnection.getConnection();
-                Statement stmt = conn.createStatement()) {
-            ResultSet rs = stmt.executeQuery(query);
-            while (rs.next()) {
-                TradeCancellation cancellation = new TradeCancellation();
-                cancellation.setId(rs.getInt("id"));
-                cancellation.setOriginalTransactionId(rs.getInt("original_transaction_id"));
-                cancellation.setUserId(rs.getInt("user_id"));
-                cancellation.setReason(rs.getString("reason"));
-                cancellation.setRollbackExecuted(rs.getBoolean("rollback_executed"));
-                cancellation.setCancelledAt(rs.getTimestamp("cancelled_at").toLocalDateTime());
-                cancellations.add(cancellation);
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            try (Connection conn = DatabaseConnection.getShardConnection(shard);
+                    Statement stmt = conn.createStatement()) {
+                ResultSet rs = stmt.executeQuery(query);
+                while (rs.next()) {
+                    TradeCancellation cancellation = new TradeCancellation();
+                    cancellation.setId(rs.getInt("id"));
+                    cancellation.setOriginalTransactionId(rs.getInt("original_transaction_id"));
+                    cancellation.setUserId(rs.getInt("user_id"));
+                    cancellation.setReason(rs.getString("reason"));
+                    cancellation.setRollbackExecuted(rs.getBoolean("rollback_executed"));
+                    cancellation.setCancelledAt(rs.getTimestamp("cancelled_at").toLocalDateTime());
+                    cancellations.add(cancellation);
+                }
+            } catch (SQLException e) {
+                System.err.println("Error retrieving all cancellations: " + e.getMessage());
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            System.err.println("Error retrieving all cancellations: " + e.getMessage());
-            e.printStackTrace();
+        }
+        if (DatabaseConnection.shardCount() > 1) {
+            cancellations.sort(Comparator.comparing(TradeCancellation::getCancelledAt).reversed());
         }
         return cancellations;
     }
@@ -0,0 +1,133 @@
+package stockapp.src.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.stereotype.Repository;
+
+import stockapp.src.DatabaseConnection;
+import stockapp.src.models.TradingHalt;
+
+/**
+ * DAO for scheduled trading halt windows. Halts live on the primary, also
+ * when users are sharded.
+ *
+ * Only the window and whether it was cancelled are stored; whether it is
+ * scheduled, active or finished follows from the clock, so every node
+ * works it out for itself.
+ */
+@Repository
+public class TradingHaltDAO {
+
+    private static final String INSERT_HALT_SQL = "INSERT INTO trading_halts (stock_id, admin_id, reason, starts_at, ends_at) VALUES (?, ?, ?, ?, ?)";
+
+    private static final String SELECT_HALT_SQL = "SELECT id, stock_id, admin_id, reason, starts_at, ends_at, is_cancelled FROM trading_halts WHERE id = ?";
+
+    private static final String SELECT_HALTS_ENDING_AFTER_SQL = "SELECT id, stock_id, admin_id, reason, starts_at, ends_at, is_cancelled FROM trading_halts WHERE ends_at >= ? ORDER BY id";
+
+    private static final String CANCEL_HALT_SQL = "UPDATE trading_halts SET is_cancelled = TRUE WHERE id = ?";
+
+    private TradingHalt mapRowToHalt(ResultSet rs) throws SQLException {
+        TradingHalt halt = new TradingHalt(rs.getInt("id"), rs.getInt("stock_id"), rs.getInt("admin_id"),
+                rs.getString("reason"), rs.getTimestamp("starts_at").toLocalDateTime(),
+                rs.getTimestamp("ends_at").toLocalDateTime());
+        if (rs.getBoolean("is_cancelled")) {
+            halt.setStatus(TradingHalt.CANCELLED);
+        }
+        return halt;
+    }
+
+    /**
+     * Stores a new window.
+     *
+     * @return the stored window with its generated id, or null if it could not be stored
+     */
+    public TradingHalt createHalt(int stockId, int adminId, String reason, LocalDateTime startsAt, LocalDateTime endsAt) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(INSERT_HALT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+
+            stmt.setInt(1, stockId);
+            stmt.setInt(2, adminId);
+            stmt.setString(3, reason);
+            stmt.setTimestamp(4, Timestamp.valueOf(startsAt));
+            stmt.setTimestamp(5, Timestamp.valueOf(endsAt));
+            if (stmt.executeUpdate() > 0) {
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        return new TradingHalt(keys.getInt(1), stockId, adminId, reason, startsAt, endsAt);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to store trading halt: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * A stored window, SCHEDULED unless it was cancelled, or null if there is none.
+     */
+    public TradingHalt getHalt(int haltId) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(SELECT_HALT_SQL)) {
+
+            stmt.setInt(1, haltId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return mapRowToHalt(rs);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to retrieve trading halt: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Windows ending at or after the cutoff, oldest first.
+     */
+    public List<TradingHalt> getHaltsEndingAfter(LocalDateTime cutoff) {
+        List<TradingHalt> halts = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(SELECT_HALTS_ENDING_AFTER_SQL)) {
+
+            stmt.setTimestamp(1, Timestamp.valueOf(cutoff));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    halts.add(mapRowToHalt(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to retrieve trading halts: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return halts;
+    }
+
+    /**
+     * Marks a window cancelled.
+     *
+     * @return true if the window exists and is now cancelled
+     */
+    public boolean cancelHalt(int haltId) {
+        try (Connection conn = DatabaseConnection.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(CANCEL_HALT_SQL)) {
+
+            stmt.setInt(1, haltId);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to cancel trading halt: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+}
@@ -1,5 +1,6 @@
 package stockapp.src.dao;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -7,11 +8,24 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 
 import org.springframework.stereotype.Repository;
 
 import stockapp.src.DatabaseConnection;
+import stockapp.src.ShardRouter;
+import stockapp.src.cache.InvalidationBus;
+import stockapp.src.cache.TradingStateCache;
+import stockapp.src.models.OrderType;
+import stockapp.src.models.RollbackFilter;
+import stockapp.src.models.Stock;
 import stockapp.src.models.Transaction;
 import stockapp.src.models.TransactionStatus;
 
@@ -22,14 +36,62 @@ import stockapp.src.models.TransactionStatus;
 @Repository
 public class TransactionDAO {
 
-    private static final String INSERT_TRANSACTION_SQL = "INSERT INTO transactions (user_id, stock_id, quantity, price, transaction_type, status, created_at) VALUES (?, ?, ?, ?, ?, ?, NOW())";
+    // node_id is the node that queued the row, so a PENDING order can be failed once that node is gone
+    private static final String INSERT_TRANSACTION_SQL = "INSERT INTO transactions (user_id, stock_id, quantity, price, transaction_type, status, created_at, node_id) VALUES (?, ?, ?, ?, ?, ?, NOW(), ?)";
 
     private static final String SELECT_TRANSACTIONS_BY_USER_SQL = "SELECT id, user_id, stock_id, quantity, price, created_at, transaction_type, status FROM transactions WHERE user_id = ? ORDER BY created_at DESC";
 
+    private static final String SELECT_TRANSACTIONS_PAGE_BY_USER_SQL = "SELECT id, user_id, stock_id, quantity, price, created_at, transaction_type, status FROM transactions WHERE user_id = ? AND id < ? ORDER BY id DESC LIMIT ?";
+
     private static final String SELECT_ALL_TRANSACTIONS_SQL = "SELECT id, user_id, stock_id, quantity, price, created_at, transaction_type, status FROM transactions ORDER BY created_at DESC";
 
+    // Keyset page over one user's history, newest first, joined with the stock symbol for export
+    private static final String EXPORT_TRANSACTIONS_PAGE_SQL = "SELECT t.id, t.created_at, s.symbol, t.transaction_type, t.quantity, t.price, t.status FROM transactions t JOIN stocks s ON s.id = t.stock_id WHERE t.user_id = ? AND t.id < ? ORDER BY t.id DESC LIMIT ?";
+
+    // Same page without the join, for shards that have no stocks table
+    private static final String EXPORT_TRANSACTIONS_PAGE_NO_JOIN_SQL = "SELECT t.id, t.created_at, t.stock_id, t.transaction_type, t.quantity, t.price, t.status FROM transactions t WHERE t.user_id = ? AND t.id < ? ORDER BY t.id DESC LIMIT ?";
+
+    private static final int EXPORT_QUERY_TIMEOUT_SECONDS = 30;
+
+    private static final Comparator<Transaction> NEWEST_FIRST = Comparator.comparing(Transaction::getCreatedAt).reversed();
+
     private static final String UPDATE_TRANSACTION_STATUS_SQL = "UPDATE transactions SET status = ?, completed_at = NOW() WHERE id = ?";
 
+    private static final String COMPLETE_TRANSACTION_SQL = "UPDATE transactions SET status = ?, price = ?, completed_at = NOW() WHERE id = ? AND status = 'PENDING'";
+
+    // Resting orders that have not fired are still valid after a restart
+    private static final String FAIL_PENDING_TRANSACTIONS_SQL = "UPDATE transactions SET status = 'FAILED', completed_at = NOW() WHERE status = 'PENDING' AND (order_type = 'MARKET' OR triggered_at IS NOT NULL)";
+
+    private static final String FAIL_NODE_PENDING_TRANSACTIONS_SQL = FAIL_PENDING_TRANSACTIONS_SQL + " AND node_id = ?";
+
+    private static final String INSERT_RESTING_ORDER_SQL = "INSERT INTO transactions (user_id, stock_id, quantity, price, transaction_type, status, created_at, order_type, trigger_price, trail_amount) VALUES (?, ?, ?, ?, ?, 'PENDING', NOW(), ?, ?, ?)";
+
+    private static final String RESTING_ORDER_COLUMNS = "SELECT id, user_id, stock_id, quantity, price, created_at, transaction_type, status, order_type, trigger_price, trail_amount FROM transactions ";
+
+    private static final String RESTING_ORDER_FILTER = "status = 'PENDING' AND order_type <> 'MARKET' AND triggered_at IS NULL";
+
+    private static final String SELECT_RESTING_ORDERS_SQL = RESTING_ORDER_COLUMNS + "WHERE " + RESTING_ORDER_FILTER;
+
+    private static final String SELECT_RESTING_ORDERS_BY_USER_SQL = RESTING_ORDER_COLUMNS + "WHERE user_id = ? AND " + RESTING_ORDER_FILTER + " ORDER BY id DESC";
+
+    private static final String COUNT_RESTING_ORDERS_SQL = "SELECT COUNT(*) FROM transactions WHERE user_id = ? AND " + RESTING_ORDER_FILTER;
+
+    private static final String CLAIM_RESTING_ORDER_SQL = "UPDATE transactions SET triggered_at = NOW(), node_id = ? WHERE id = ? AND user_id = ? AND " + RESTING_ORDER_FILTER;
+
+    private static final String CANCEL_RESTING_ORDER_SQL = "UPDATE transactions SET status = 'CANCELLED', completed_at = NOW() WHERE id = ? AND user_id = ? AND " + RESTING_ORDER_FILTER;
+
+    private static final int RESTING_ORDERS_FETCH_SIZE = 10_000;
+
+    private static final String SELECT_COMPLETED_VOLUMES_SQL = "SELECT stock_id, SUM(quantity) AS volume FROM transactions WHERE status = 'COMPLETED' AND created_at >= ? GROUP BY stock_id";
+
+    private static final String SELECT_USER_AGGREGATES_SQL = "SELECT COUNT(*) AS count, SUM(CASE WHEN status = 'COMPLETED' THEN price * quantity ELSE 0 END) AS completed_value FROM transactions WHERE user_id = ?";
+
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private final InvalidationBus bus = InvalidationBus.getInstance();
+
+    private final StockDAO stockDAO = new StockDAO();
+
     /**
      * Maps a ResultSet row to a Transaction object.
      */
@@ -50,7 +112,7 @@ public class TransactionDAO {
      * Records a new transaction (buy or sell).
      */
     public int recordTransaction(int userID, int stockID, int quantity, double price, String type) {
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getUserConnection(userID);
                 PreparedStatement stmt = conn.prepareStatement(INSERT_TRANSACTION_SQL,
                         PreparedStatement.RETURN_GENERATED_KEYS)) {
 
@@ -60,9 +122,12 @@ public class TransactionDAO {
             stmt.setDouble(4, price);
             stmt.setString(5, type.toUpperCase()); // "BUY" or "SELL"
             stmt.setString(6, "PENDING");
+            stmt.setString(7, bus.getNodeId());
 
             int rowsInserted = stmt.executeUpdate();
             if (rowsInserted > 0) {
+                cache.recordTransaction(userID, false, BigDecimal.ZERO);
+                DatabaseConnection.recordWrite(userID);
                 ResultSet keys = stmt.getGeneratedKeys();
                 if (keys.next()) {
                     return keys.getInt(1);
@@ -80,7 +145,7 @@ public class TransactionDAO {
      * Create a new transaction from a Transaction object
      */
     public int createTransaction(Transaction transaction) {
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getUserConnection(transaction.getUserID());
                 PreparedStatement stmt = conn.prepareStatement(INSERT_TRANSACTION_SQL,
                         PreparedStatement.RETURN_GENERATED_KEYS)) {
 
@@ -90,9 +155,13 @@ public class TransactionDAO {
             stmt.setBigDecimal(4, transaction.getPrice());
             stmt.setString(5, transaction.getType().toUpperCase());
             stmt.setString(6, transaction.getStatus().name());
+            stmt.setString(7, bus.getNodeId());
 
             int rowsInserted = stmt.executeUpdate();
             if (rowsInserted > 0) {
+                cache.recordTransaction(transaction.getUserID(), transaction.getStatus() == TransactionStatus.COMPLETED,
+                        transaction.getPrice().multiply(BigDecimal.valueOf(transaction.getQuantity())));
+                DatabaseConnection.recordWrite(transaction.getUserID());
                 ResultSet keys = stmt.getGeneratedKeys();
                 if (keys.next()) {
                     return keys.getInt(1);
@@ -106,32 +175,276 @@ public class TransactionDAO {
         }
     }
 
+    /**
+     * Inserts the given transactions as a single JDBC batch on a
+     * caller-supplied connection and stores the generated IDs on them.
+     * Does not commit and does not touch the cache.
+     */
+    public void insertTransactionsBatch(Connection conn, List<Transaction> transactions) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(INSERT_TRANSACTION_SQL,
+                PreparedStatement.RETURN_GENERATED_KEYS)) {
+            for (Transaction transaction : transactions) {
+                stmt.setInt(1, transaction.getUserID());
+                stmt.setInt(2, transaction.getStockID());
+                stmt.setInt(3, transaction.getQuantity());
+                stmt.setBigDecimal(4, transaction.getPrice());
+                stmt.setString(5, transaction.getType().toUpperCase());
+                stmt.setString(6, transaction.getStatus().name());
+                stmt.setString(7, bus.getNodeId());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                for (Transaction transaction : transactions) {
+                    if (!keys.next()) {
+                        throw new SQLException("Missing generated key for batched transaction");
+                    }
+                    transaction.setId(keys.getInt(1));
+                }
+            }
+        }
+    }
+
     /**
      * Update transaction status.
      */
     public boolean updateTransactionStatus(int transactionId, TransactionStatus status) {
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(UPDATE_TRANSACTION_STATUS_SQL)) {
+        // Ids are unique across shards; stop at the one holding the row
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            try (Connection conn = DatabaseConnection.getShardConnection(shard);
+                    PreparedStatement stmt = conn.prepareStatement(UPDATE_TRANSACTION_STATUS_SQL)) {
+
+                stmt.setString(1, status.name());
+                stmt.setInt(2, transactionId);
+
+                int rowsUpdated = stmt.executeUpdate();
+                if (rowsUpdated > 0 || shard == DatabaseConnection.shardCount() - 1) {
+                    // Only the id is known here, so the owner's aggregates cannot be targeted
+                    cache.invalidateAllAggregates();
+                    bus.publishAllAggregates();
+                    return rowsUpdated > 0;
+                }
+            } catch (SQLException e) {
+                System.err.println("ERROR: Failed to update transaction status: " + e.getMessage());
+                e.printStackTrace();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Settles a PENDING order: sets its final status and the price it filled
+     * at. Only the owner's cached aggregates are invalidated.
+     */
+    public boolean completeTransaction(int transactionId, int userID, TransactionStatus status, BigDecimal price) {
+        try (Connection conn = DatabaseConnection.getUserConnection(userID);
+                PreparedStatement stmt = conn.prepareStatement(COMPLETE_TRANSACTION_SQL)) {
 
             stmt.setString(1, status.name());
-            stmt.setInt(2, transactionId);
+            stmt.setBigDecimal(2, price);
+            stmt.setInt(3, transactionId);
 
             int rowsUpdated = stmt.executeUpdate();
+            cache.invalidateAggregates(userID);
+            DatabaseConnection.recordWrite(userID);
             return rowsUpdated > 0;
         } catch (SQLException e) {
-            System.err.println("ERROR: Failed to update transaction status: " + e.getMessage());
+            System.err.println("ERROR: Failed to complete transaction: " + e.getMessage());
             e.printStackTrace();
             return false;
         }
     }
 
+    /**
+     * Settles a PENDING order on a caller-supplied connection, so it commits
+     * or rolls back with the fill. Does not commit and does not touch the
+     * cache.
+     *
+     * @return the number of rows updated: 0 if the order is no longer PENDING
+     */
+    public int completeTransaction(Connection conn, int transactionId, TransactionStatus status, BigDecimal price)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(COMPLETE_TRANSACTION_SQL)) {
+            stmt.setString(1, status.name());
+            stmt.setBigDecimal(2, price);
+            stmt.setInt(3, transactionId);
+            return stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Marks every PENDING market order, and every resting order that fired
+     * but was not filled, as FAILED. Used at startup, when no order queued
+     * by a previous run can still be executed. Resting orders still waiting
+     * for their trigger are left alone.
+     *
+     * @return the number of transactions failed
+     */
+    public int failPendingTransactions() {
+        return failPending(FAIL_PENDING_TRANSACTIONS_SQL, List.of());
+    }
+
+    /**
+     * Like failPendingTransactions(), for the orders one node queued. Used
+     * at startup in a cluster, where the other nodes' orders are still
+     * being filled.
+     *
+     * @return the number of transactions failed
+     */
+    public int failPendingTransactions(String nodeId) {
+        return failPending(FAIL_NODE_PENDING_TRANSACTIONS_SQL, List.of(nodeId));
+    }
+
+    /**
+     * Fails the queued orders (as failPendingTransactions() does) of every
+     * node not in liveNodeIds, created before createdBefore. Rows from
+     * before node ids were stored have no node and are failed too.
+     *
+     * @return the number of transactions failed
+     */
+    public int failOrphanedTransactions(Set<String> liveNodeIds, Timestamp createdBefore) {
+        StringBuilder sql = new StringBuilder(FAIL_PENDING_TRANSACTIONS_SQL)
+                .append(" AND created_at < ? AND (node_id IS NULL OR node_id NOT IN (");
+        List<Object> params = new ArrayList<>();
+        params.add(createdBefore);
+        int i = 0;
+        for (String nodeId : liveNodeIds) {
+            sql.append(i++ == 0 ? "?" : ",?");
+            params.add(nodeId);
+        }
+        sql.append("))");
+        return failPending(sql.toString(), params);
+    }
+
+    private int failPending(String sql, List<?> params) {
+        int failed = 0;
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            try (Connection conn = DatabaseConnection.getShardConnection(shard);
+                    PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+                for (int i = 0; i < params.size(); i++) {
+                    stmt.setObject(i + 1, params.get(i));
+                }
+                failed += stmt.executeUpdate();
+            } catch (SQLException e) {
+                System.err.println("ERROR: Failed to fail pending transactions: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        if (failed > 0) {
+            cache.invalidateAllAggregates();
+            bus.publishAllAggregates();
+        }
+        return failed;
+    }
+
+    /**
+     * Reads the next page of COMPLETED transactions matching the filter,
+     * newest first from below beforeId, without locking them; see
+     * lockCompletedTransactions().
+     */
+    public List<Transaction> findRollbackCandidates(Connection conn, RollbackFilter filter, int beforeId, int limit)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, user_id, stock_id, quantity, price, created_at, transaction_type, status FROM transactions WHERE status = 'COMPLETED' AND id < ?");
+        List<Object> params = new ArrayList<>();
+        params.add(beforeId);
+        if (filter.getStockId() != null) {
+            sql.append(" AND stock_id = ?");
+            params.add(filter.getStockId());
+        }
+        if (filter.getFrom() != null) {
+            sql.append(" AND created_at >= ?");
+            params.add(filter.getFrom());
+        }
+        if (filter.getTo() != null) {
+            sql.append(" AND created_at < ?");
+            params.add(filter.getTo());
+        }
+        appendInList(sql, " AND user_id IN (", filter.getUserIds(), params);
+        appendInList(sql, " AND id IN (", filter.getTransactionIds(), params);
+        sql.append(" ORDER BY id DESC LIMIT ?");
+        params.add(limit);
+        return queryTransactions(conn, sql.toString(), params);
+    }
+
+    /**
+     * Locks those of the given transactions that are still COMPLETED until
+     * the caller's transaction ends, and reads them again in id order.
+     */
+    public List<Transaction> lockCompletedTransactions(Connection conn, Collection<Integer> transactionIds)
+            throws SQLException {
+        if (transactionIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, user_id, stock_id, quantity, price, created_at, transaction_type, status FROM transactions WHERE status = 'COMPLETED'");
+        List<Object> params = new ArrayList<>();
+        appendInList(sql, " AND id IN (", new TreeSet<>(transactionIds), params);
+        sql.append(" ORDER BY id FOR UPDATE");
+        return queryTransactions(conn, sql.toString(), params);
+    }
+
+    private List<Transaction> queryTransactions(Connection conn, String sql, List<Object> params) throws SQLException {
+        List<Transaction> transactions = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.size(); i++) {
+                stmt.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    transactions.add(mapRowToTransaction(rs));
+                }
+            }
+        }
+        return transactions;
+    }
+
+    /**
+     * Marks the given COMPLETED transactions as CANCELLED with one
+     * set-based update. Does not commit and does not touch the cache.
+     *
+     * @return the number of transactions cancelled
+     */
+    public int cancelTransactions(Connection conn, List<Integer> transactionIds) throws SQLException {
+        if (transactionIds.isEmpty()) {
+            return 0;
+        }
+        StringBuilder sql = new StringBuilder(
+                "UPDATE transactions SET status = 'CANCELLED', completed_at = NOW() WHERE status = 'COMPLETED' AND id IN (");
+        for (int i = 0; i < transactionIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(')');
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < transactionIds.size(); i++) {
+                stmt.setInt(i + 1, transactionIds.get(i));
+            }
+            return stmt.executeUpdate();
+        }
+    }
+
+    private static void appendInList(StringBuilder sql, String prefix, Set<Integer> values, List<Object> params) {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        sql.append(prefix);
+        int i = 0;
+        for (int value : values) {
+            sql.append(i++ == 0 ? "?" : ",?");
+            params.add(value);
+        }
+        sql.append(')');
+    }
+
     /**
      * Retrieves all transactions for a specific user.
      */
     public List<Transaction> getTransactionsByUser(int userID) {
         List<Transaction> transactions = new ArrayList<>();
 
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getReadConnection(userID);
                 PreparedStatement stmt = conn.prepareStatement(SELECT_TRANSACTIONS_BY_USER_SQL)) {
 
             stmt.setInt(1, userID);
@@ -149,25 +462,81 @@ public class TransactionDAO {
     }
 
     /**
-     * Retrieves all transactions in the system.
+     * One page of a user's transactions (ids strictly below beforeId, newest
+     * first). Unlike getTransactionsByUser a failure is thrown, so a caller
+     * streaming the pages can tell an error from the end of the history.
+     */
+    public List<Transaction> getUserTransactionsPage(int userID, int beforeId, int pageSize) throws SQLException {
+        List<Transaction> transactions = new ArrayList<>(pageSize);
+
+        try (Connection conn = DatabaseConnection.getReadConnection(userID);
+                PreparedStatement stmt = conn.prepareStatement(SELECT_TRANSACTIONS_PAGE_BY_USER_SQL)) {
+
+            stmt.setInt(1, userID);
+            stmt.setInt(2, beforeId);
+            stmt.setInt(3, pageSize);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    transactions.add(mapRowToTransaction(rs));
+                }
+            }
+        }
+        return transactions;
+    }
+
+    /**
+     * Retrieves all transactions in the system, newest first. With sharding
+     * every shard is queried and the sorted results are merged.
      */
     public List<Transaction> getAllTransactions() {
-        List<Transaction> transactions = new ArrayList<>();
+        List<List<Transaction>> perShard = new ArrayList<>();
 
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(SELECT_ALL_TRANSACTIONS_SQL)) {
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            List<Transaction> transactions = new ArrayList<>();
+            try (Connection conn = DatabaseConnection.getShardReadConnection(shard);
+                    PreparedStatement stmt = conn.prepareStatement(SELECT_ALL_TRANSACTIONS_SQL)) {
 
-            ResultSet rs = stmt.executeQuery();
+                ResultSet rs = stmt.executeQuery();
 
-            while (rs.next()) {
-                transactions.add(mapRowToTransaction(rs));
+                while (rs.next()) {
+                    transactions.add(mapRowToTransaction(rs));
+                }
+                rs.close();
+            } catch (SQLException e) {
+                System.err.println("ERROR: Failed to retrieve all transactions: " + e.getMessage());
+                e.printStackTrace();
             }
-            rs.close();
-        } catch (SQLException e) {
-            System.err.println("ERROR: Failed to retrieve all transactions: " + e.getMessage());
-            e.printStackTrace();
+            perShard.add(transactions);
         }
-        return transactions;
+        return ShardRouter.mergeSorted(perShard, NEWEST_FIRST);
+    }
+
+    /**
+     * Shares traded per stock in completed transactions created since the
+     * given time, summed over all shards.
+     *
+     * @return the volumes, or null if a shard could not be read
+     */
+    public Map<Integer, Long> getCompletedVolumesSince(Timestamp since) {
+        Map<Integer, Long> volumes = new HashMap<>();
+
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            try (Connection conn = DatabaseConnection.getShardReadConnection(shard);
+                    PreparedStatement stmt = conn.prepareStatement(SELECT_COMPLETED_VOLUMES_SQL)) {
+
+                stmt.setTimestamp(1, since);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        volumes.merge(rs.getInt("stock_id"), rs.getLong("volume"), Long::sum);
+                    }
+                }
+            } catch (SQLException e) {
+                System.err.println("ERROR: Failed to sum traded volumes: " + e.getMessage());
+                e.printStackTrace();
+                return null;
+            }
+        }
+        return volumes;
     }
 
     /**
@@ -181,22 +550,38 @@ public class TransactionDAO {
      * Get transaction count for a user
      */
     public int getUserTransactionCount(int userID) {
-        String sql = "SELECT COUNT(*) as count FROM transactions WHERE user_id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
+        return getUserAggregates(userID).getTransactionCount();
+    }
 
-            stmt.setInt(1, userID);
-            ResultSet rs = stmt.executeQuery();
+    /**
+     * Transaction count and total value of completed transactions for a
+     * user, from TradingStateCache or one aggregate query.
+     */
+    public TradingStateCache.TransactionAggregates getUserAggregates(int userID) {
+        TradingStateCache.TransactionAggregates cached = cache.getAggregates(userID);
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = cache.aggregatesGeneration(userID);
+        try (Connection conn = DatabaseConnection.getUserConnection(userID);
+                PreparedStatement stmt = conn.prepareStatement(SELECT_USER_AGGREGATES_SQL)) {
 
-            if (rs.next()) {
-                return rs.getInt("count");
+            stmt.setInt(1, userID);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    BigDecimal completedValue = rs.getBigDecimal("completed_value");
+                    TradingStateCache.TransactionAggregates aggregates = new TradingStateCache.TransactionAggregates(
+                            rs.getInt("count"), completedValue != null ? completedValue : BigDecimal.ZERO);
+                    cache.cacheLoadedAggregates(userID, aggregates, generation);
+                    return aggregates;
+                }
             }
-            rs.close();
         } catch (SQLException e) {
             System.err.println("ERROR: Failed to get transaction count: " + e.getMessage());
             e.printStackTrace();
         }
-        return 0;
+        return new TradingStateCache.TransactionAggregates(0, BigDecimal.ZERO);
     }
 
     /**
@@ -204,19 +589,22 @@ public class TransactionDAO {
      */
     public Transaction getTransactionById(int transactionId) {
         String sql = "SELECT id, user_id, stock_id, quantity, price, created_at, transaction_type, status FROM transactions WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            try (Connection conn = DatabaseConnection.getShardConnection(shard);
+                    PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-            stmt.setInt(1, transactionId);
-            ResultSet rs = stmt.executeQuery();
+                stmt.setInt(1, transactionId);
+                ResultSet rs = stmt.executeQuery();
 
-            if (rs.next()) {
-                return mapRowToTransaction(rs);
+                if (rs.next()) {
+                    return mapRowToTransaction(rs);
+                }
+                rs.close();
+            } catch (SQLException e) {
+                System.err.println("ERROR: Failed to get transaction by ID: " + e.getMessage());
+                e.printStackTrace();
+                return null;
             }
-            rs.close();
-        } catch (SQLException e) {
-            System.err.println("ERROR: Failed to get transaction by ID: " + e.getMessage());
-            e.printStackTrace();
         }
         return null;
     }
@@ -226,7 +614,7 @@ public class TransactionDAO {
      */
     public boolean updateTransaction(Transaction transaction) {
         String sql = "UPDATE transactions SET user_id = ?, stock_id = ?, quantity = ?, price = ?, transaction_type = ?, status = ? WHERE id = ?";
-        try (Connection conn = DatabaseConnection.getConnection();
+        try (Connection conn = DatabaseConnection.getUserConnection(transaction.getUserID());
                 PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setInt(1, transaction.getUserID());
@@ -238,6 +626,8 @@ public class TransactionDAO {
             stmt.setInt(7, transaction.getId());
 
             int rowsUpdated = stmt.executeUpdate();
+            cache.invalidateAggregates(transaction.getUserID());
+            DatabaseConnection.recordWrite(transaction.getUserID());
             return rowsUpdated > 0;
         } catch (SQLException e) {
             System.err.println("ERROR: Failed to update transaction: " + e.getMessage());
@@ -245,4 +635,220 @@ public class TransactionDAO {
             return false;
         }
     }
-}
\ No newline at end of file
+
+    // ================== RESTING ORDERS ==================
+
+    private Transaction mapRowToRestingOrder(ResultSet rs) throws SQLException {
+        Transaction order = mapRowToTransaction(rs);
+        order.setOrderType(OrderType.fromString(rs.getString("order_type")));
+        order.setTriggerPrice(rs.getBigDecimal("trigger_price"));
+        order.setTrailAmount(rs.getBigDecimal("trail_amount"));
+        return order;
+    }
+
+    /**
+     * Stores a resting order (stop-loss, take-profit or trailing stop) as a
+     * PENDING transaction and sets its generated id.
+     *
+     * @return the order id, or -1 if it could not be stored
+     */
+    public int createRestingOrder(Transaction order) {
+        try (Connection conn = DatabaseConnection.getUserConnection(order.getUserID());
+                PreparedStatement stmt = conn.prepareStatement(INSERT_RESTING_ORDER_SQL,
+                        PreparedStatement.RETURN_GENERATED_KEYS)) {
+
+            stmt.setInt(1, order.getUserID());
+            stmt.setInt(2, order.getStockID());
+            stmt.setInt(3, order.getQuantity());
+            stmt.setBigDecimal(4, order.getPrice());
+            stmt.setString(5, order.getType().toUpperCase());
+            stmt.setString(6, order.getOrderType().name());
+            stmt.setBigDecimal(7, order.getTriggerPrice());
+            stmt.setBigDecimal(8, order.getTrailAmount());
+
+            if (stmt.executeUpdate() > 0) {
+                cache.recordTransaction(order.getUserID(), false, BigDecimal.ZERO);
+                DatabaseConnection.recordWrite(order.getUserID());
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        order.setId(keys.getInt(1));
+                        return order.getId();
+                    }
+                }
+            }
+            return -1;
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to create resting order: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * A user's resting orders that have not fired, newest first.
+     */
+    public List<Transaction> getRestingOrdersByUser(int userID) {
+        List<Transaction> orders = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getUserConnection(userID);
+                PreparedStatement stmt = conn.prepareStatement(SELECT_RESTING_ORDERS_BY_USER_SQL)) {
+
+            stmt.setInt(1, userID);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    orders.add(mapRowToRestingOrder(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to retrieve resting orders: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return orders;
+    }
+
+    /**
+     * Hands every resting order that has not fired, on every shard, to the
+     * consumer, streaming the rows rather than collecting them first.
+     */
+    public void forEachRestingOrder(Consumer<Transaction> consumer) {
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            try (Connection conn = DatabaseConnection.getShardConnection(shard);
+                    PreparedStatement stmt = conn.prepareStatement(SELECT_RESTING_ORDERS_SQL)) {
+
+                stmt.setFetchSize(RESTING_ORDERS_FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(mapRowToRestingOrder(rs));
+                    }
+                }
+            } catch (SQLException e) {
+                System.err.println("ERROR: Failed to load resting orders: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public int countRestingOrders(int userID) {
+        try (Connection conn = DatabaseConnection.getUserConnection(userID);
+                PreparedStatement stmt = conn.prepareStatement(COUNT_RESTING_ORDERS_SQL)) {
+
+            stmt.setInt(1, userID);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to count resting orders: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * Marks fired resting orders of one user as triggered, in one database
+     * transaction. An order is only claimed once, so of several nodes firing
+     * the same order exactly one goes on to fill it; cancelled orders are
+     * not claimed at all.
+     *
+     * @return the ids this call claimed
+     */
+    public List<Integer> claimRestingOrders(int userID, List<Integer> orderIds) {
+        List<Integer> claimed = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getUserConnection(userID);
+                PreparedStatement stmt = conn.prepareStatement(CLAIM_RESTING_ORDER_SQL)) {
+
+            // Statement by statement, since batched update counts are not reliable with rewriteBatchedStatements
+            conn.setAutoCommit(false);
+            try {
+                for (Integer orderId : orderIds) {
+                    stmt.setString(1, bus.getNodeId());
+                    stmt.setInt(2, orderId);
+                    stmt.setInt(3, userID);
+                    if (stmt.executeUpdate() > 0) {
+                        claimed.add(orderId);
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                claimed.clear();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to claim resting orders: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return claimed;
+    }
+
+    /**
+     * Cancels one of a user's resting orders, unless it has fired already.
+     */
+    public boolean cancelRestingOrder(int orderId, int userID) {
+        try (Connection conn = DatabaseConnection.getUserConnection(userID);
+                PreparedStatement stmt = conn.prepareStatement(CANCEL_RESTING_ORDER_SQL)) {
+
+            stmt.setInt(1, orderId);
+            stmt.setInt(2, userID);
+
+            int rowsUpdated = stmt.executeUpdate();
+            if (rowsUpdated > 0) {
+                cache.invalidateAggregates(userID);
+                DatabaseConnection.recordWrite(userID);
+            }
+            return rowsUpdated > 0;
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failed to cancel resting order: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Receives export rows column by column, straight off the ResultSet,
+     * so no Transaction objects are built for the export path.
+     */
+    public interface ExportRowHandler {
+        void row(int id, Timestamp createdAt, String symbol, String type, int quantity,
+                BigDecimal price, String status) throws IOException;
+    }
+
+    /**
+     * Streams one page of a user's transactions (ids strictly below beforeId,
+     * newest first) into the handler. The connection is closed before this
+     * returns, so callers can write the page to a slow client without holding it.
+     *
+     * @return the smallest id written, or -1 if the page was empty
+     */
+    public int exportTransactionsPage(int userID, int beforeId, int pageSize, ExportRowHandler handler)
+            throws SQLException, IOException {
+        int lastId = -1;
+        boolean onPrimary = ShardRouter.getInstance().shardOf(userID) == 0;
+        try (Connection conn = DatabaseConnection.getUserConnection(userID);
+                PreparedStatement stmt = conn.prepareStatement(
+                        onPrimary ? EXPORT_TRANSACTIONS_PAGE_SQL : EXPORT_TRANSACTIONS_PAGE_NO_JOIN_SQL,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+            stmt.setFetchSize(pageSize);
+            stmt.setQueryTimeout(EXPORT_QUERY_TIMEOUT_SECONDS);
+            stmt.setInt(1, userID);
+            stmt.setInt(2, beforeId);
+            stmt.setInt(3, pageSize);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    lastId = rs.getInt(1);
+                    String symbol = onPrimary ? rs.getString(3) : symbolOf(rs.getInt(3));
+                    handler.row(lastId, rs.getTimestamp(2), symbol, rs.getString(4),
+                            rs.getInt(5), rs.getBigDecimal(6), rs.getString(7));
+                }
+            }
+        }
+        return lastId;
+    }
+
+    private String symbolOf(int stockId) {
+        Stock stock = stockDAO.getStockById(stockId);
+        return stock != null ? stock.getSymbol() : null;
+    }
+}
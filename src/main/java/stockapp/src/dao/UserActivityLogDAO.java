@@ -6,37 +6,102 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
 
 import org.springframework.stereotype.Repository;
 
 import stockapp.src.DatabaseConnection;
+import stockapp.src.ShardRouter;
+import stockapp.src.index.ActivityLogIndex;
 import stockapp.src.models.UserActivityLog;
 
 /**
  * DAO for user activity logs.
+ * Logs are stored in monthly tables (see ActivityLogPartitions); reads only
+ * touch the partitions that overlap the requested time range.
  */
 @Repository
 public class UserActivityLogDAO {
 
+    private static final int ADMIN_LIST_LIMIT = 1000;
+
+    // Retention deletes at most this many rows per statement, then pauses
+    private static final int RETENTION_CHUNK_SIZE = 5000;
+    private static final long RETENTION_PAUSE_MILLIS = 50;
+
+    // Full scans read each partition in keyset pages of this many rows by id
+    private static final int SCAN_PAGE_SIZE = 5000;
+
+    private static final Comparator<UserActivityLog> OLDEST_FIRST = Comparator
+            .comparing(UserActivityLog::getTimestamp, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparingInt(UserActivityLog::getId);
+
+    private static final Comparator<UserActivityLog> NEWEST_FIRST = OLDEST_FIRST.reversed();
+
     public UserActivityLogDAO() {
     }
 
+    /**
+     * Maps a ResultSet row to a UserActivityLog. Column names follow the
+     * schema (activity_type, description).
+     */
+    private UserActivityLog mapRowToActivityLog(ResultSet rs) throws SQLException {
+        UserActivityLog log = new UserActivityLog();
+        log.setId(rs.getInt("id"));
+        log.setUserId(rs.getInt("user_id"));
+        log.setActionType(rs.getString("activity_type"));
+        log.setDetails(rs.getString("description"));
+        log.setIpAddress(rs.getString("ip_address"));
+        Timestamp loggedAt = rs.getTimestamp("logged_at");
+        if (loggedAt != null) {
+            log.setTimestamp(loggedAt.toLocalDateTime());
+        }
+        return log;
+    }
+
     /**
      * Log user activity.
      */
     public void logActivity(int userId, String activityType, String description) {
-        String query = "INSERT INTO user_activity_logs (user_id, action_type, details, logged_at) VALUES (?, ?, ?, NOW())";
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setInt(1, userId);
-            stmt.setString(2, activityType);
-            stmt.setString(3, description);
-            stmt.executeUpdate();
+        insertLog(userId, activityType, description, LocalDateTime.now());
+    }
+
+    /**
+     * Create a new activity log entry
+     */
+    public void createActivityLog(UserActivityLog log) {
+        LocalDateTime loggedAt = log.getTimestamp() != null ? log.getTimestamp() : LocalDateTime.now();
+        insertLog(log.getUserId(), log.getActionType(), log.getDetails(), loggedAt);
+    }
+
+    private void insertLog(int userId, String activityType, String description, LocalDateTime loggedAt) {
+        try (Connection conn = DatabaseConnection.getUserConnection(userId)) {
+            String table = ActivityLogPartitions.tableFor(conn, loggedAt);
+            String query = "INSERT INTO " + table + " (user_id, activity_type, description, logged_at) VALUES (?, ?, ?, ?)";
+            try (PreparedStatement stmt = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+                Timestamp timestamp = Timestamp.valueOf(loggedAt);
+                stmt.setInt(1, userId);
+                stmt.setString(2, activityType);
+                stmt.setString(3, description);
+                stmt.setTimestamp(4, timestamp);
+                stmt.executeUpdate();
+                DatabaseConnection.recordWrite(userId);
+                indexInsertedLog(stmt, userId, activityType, description, timestamp.getTime());
+            }
         } catch (SQLException e) {
-            System.err.println("Error logging activity: " + e.getMessage());
+            // A table may have been dropped or created by another node
+            ActivityLogPartitions.reset();
+            System.err.println("Error creating activity log: " + e.getMessage());
             e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            // Back-dated into a closed month
+            System.err.println("Error creating activity log: " + e.getMessage());
         }
     }
 
@@ -45,22 +110,20 @@ public class UserActivityLogDAO {
      */
     public List<UserActivityLog> getActivitiesByUser(int userId) {
         List<UserActivityLog> activities = new ArrayList<>();
-        String query = "SELECT * FROM user_activity_logs WHERE user_id = ? ORDER BY logged_at DESC";
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setInt(1, userId);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                UserActivityLog log = new UserActivityLog();
-                log.setId(rs.getInt("id"));
-                log.setUserId(rs.getInt("user_id"));
-                log.setActionType(rs.getString("action_type"));
-                log.setDetails(rs.getString("details"));
-                log.setIpAddress(rs.getString("ip_address"));
-                log.setTimestamp(rs.getTimestamp("logged_at").toLocalDateTime());
-                activities.add(log);
+        try (Connection conn = DatabaseConnection.getReadConnection(userId)) {
+            for (ActivityLogPartitions.Partition partition : ActivityLogPartitions.all(conn)) {
+                String query = "SELECT * FROM " + partition.getTable() + " WHERE user_id = ? ORDER BY logged_at DESC";
+                try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                    stmt.setInt(1, userId);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            activities.add(mapRowToActivityLog(rs));
+                        }
+                    }
+                }
             }
         } catch (SQLException e) {
+            ActivityLogPartitions.reset();
             System.err.println("Error retrieving activities: " + e.getMessage());
             e.printStackTrace();
         }
@@ -71,103 +134,289 @@ public class UserActivityLogDAO {
      * Get all activities (admin view).
      */
     public List<UserActivityLog> getAllActivities() {
-        List<UserActivityLog> activities = new ArrayList<>();
-        String query = "SELECT * FROM user_activity_logs ORDER BY logged_at DESC LIMIT 1000";
-        try (Connection conn = DatabaseConnection.getConnection();
-                Statement stmt = conn.createStatement()) {
-            ResultSet rs = stmt.executeQuery(query);
-            while (rs.next()) {
-                UserActivityLog log = new UserActivityLog();
-                log.setId(rs.getInt("id"));
-                log.setUserId(rs.getInt("user_id"));
-                log.setActionType(rs.getString("action_type"));
-                log.setDetails(rs.getString("details"));
-                log.setIpAddress(rs.getString("ip_address"));
-                log.setTimestamp(rs.getTimestamp("logged_at").toLocalDateTime());
-                activities.add(log);
+        return searchActivities(null, null, null, null);
+    }
+
+    /**
+     * Delete old activity logs (older than N days).
+     * Monthly partitions that lie entirely before the cutoff are dropped; the
+     * partition straddling the cutoff and the legacy table are trimmed in
+     * small chunks with a pause in between, so no long table lock is taken.
+     *
+     * @return number of rows removed by chunked deletes (dropped partitions are not counted)
+     */
+    public int deleteOldLogs(int daysOld) {
+        long cutoffMillis = Timestamp.valueOf(LocalDateTime.now().minusDays(daysOld)).getTime();
+        Timestamp cutoff = new Timestamp(cutoffMillis);
+        int deleted = 0;
+
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            try (Connection conn = DatabaseConnection.getShardConnection(shard)) {
+                for (ActivityLogPartitions.Partition partition : ActivityLogPartitions.covering(conn, Long.MIN_VALUE, cutoffMillis)) {
+                    if (!partition.isLegacy() && partition.getEndMillis() <= cutoffMillis) {
+                        ActivityLogPartitions.drop(conn, partition);
+                        System.out.println("Dropped activity log partition " + partition.getTable());
+                    } else {
+                        deleted += deleteInChunks(conn, partition.getTable(), cutoff);
+                    }
+                }
+            } catch (SQLException e) {
+                    ActivityLogPartitions.reset();
+                System.err.println("Error deleting old logs: " + e.getMessage());
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
-        } catch (SQLException e) {
-            System.err.println("Error retrieving all activities: " + e.getMessage());
-            e.printStackTrace();
         }
-        return activities;
+        return deleted;
+    }
+
+    private int deleteInChunks(Connection conn, String table, Timestamp cutoff) throws SQLException, InterruptedException {
+        String findChunkEnd = "SELECT id FROM " + table + " WHERE logged_at < ? ORDER BY id LIMIT " + RETENTION_CHUNK_SIZE;
+        String deleteChunk = "DELETE FROM " + table + " WHERE id <= ? AND logged_at < ?";
+        int deleted = 0;
+        while (true) {
+            int chunkEnd = -1;
+            try (PreparedStatement stmt = conn.prepareStatement(findChunkEnd)) {
+                stmt.setTimestamp(1, cutoff);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        chunkEnd = rs.getInt(1);
+                    }
+                }
+            }
+            if (chunkEnd < 0) {
+                return deleted;
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(deleteChunk)) {
+                stmt.setInt(1, chunkEnd);
+                stmt.setTimestamp(2, cutoff);
+                deleted += stmt.executeUpdate();
+            }
+            Thread.sleep(RETENTION_PAUSE_MILLIS);
+        }
     }
 
     /**
-     * Delete old activity logs (older than N days).
+     * Search activities by username and/or action type
      */
-    public void deleteOldLogs(int daysOld) {
-        String query = "DELETE FROM user_activity_logs WHERE logged_at < DATE_SUB(NOW(), INTERVAL ? DAY)";
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setInt(1, daysOld);
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            System.err.println("Error deleting old logs: " + e.getMessage());
-            e.printStackTrace();
+    public List<UserActivityLog> searchActivities(String username, String actionType) {
+        return searchActivities(username, actionType, null, null);
+    }
+
+    /**
+     * Search activities by username, action type and time range, newest first.
+     * Only partitions overlapping [from, to) are queried, newest first, until
+     * the result limit is reached. With sharding each shard is searched the
+     * same way and the results are merged by time.
+     */
+    public List<UserActivityLog> searchActivities(String username, String actionType, LocalDateTime from, LocalDateTime to) {
+        boolean byUser = username != null && !username.isEmpty();
+        boolean byAction = actionType != null && !actionType.isEmpty();
+        long fromMillis = from != null ? Timestamp.valueOf(from).getTime() : Long.MIN_VALUE;
+        long toMillis = to != null ? Timestamp.valueOf(to).getTime() : Long.MAX_VALUE;
+
+        List<List<UserActivityLog>> perShard = new ArrayList<>();
+        for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+            List<UserActivityLog> activities = new ArrayList<>();
+            perShard.add(activities);
+            try (Connection conn = DatabaseConnection.getShardReadConnection(shard)) {
+                for (ActivityLogPartitions.Partition partition : ActivityLogPartitions.covering(conn, fromMillis, toMillis)) {
+                    int remaining = ADMIN_LIST_LIMIT - activities.size();
+                    if (remaining <= 0) {
+                        break;
+                    }
+
+                    StringBuilder query = new StringBuilder("SELECT a.* FROM ").append(partition.getTable()).append(" a");
+                    if (byUser) {
+                        query.append(" JOIN users u ON a.user_id = u.id");
+                    }
+                    query.append(" WHERE 1=1");
+                    if (byUser) {
+                        query.append(" AND u.username LIKE ?");
+                    }
+                    if (byAction) {
+                        query.append(" AND a.activity_type = ?");
+                    }
+                    if (from != null) {
+                        query.append(" AND a.logged_at >= ?");
+                    }
+                    if (to != null) {
+                        query.append(" AND a.logged_at < ?");
+                    }
+                    query.append(" ORDER BY a.logged_at DESC LIMIT ").append(remaining);
+
+                    try (PreparedStatement stmt = conn.prepareStatement(query.toString())) {
+                        int paramIndex = 1;
+                        if (byUser) {
+                            stmt.setString(paramIndex++, "%" + username + "%");
+                        }
+                        if (byAction) {
+                            stmt.setString(paramIndex++, actionType);
+                        }
+                        if (from != null) {
+                            stmt.setTimestamp(paramIndex++, Timestamp.valueOf(from));
+                        }
+                        if (to != null) {
+                            stmt.setTimestamp(paramIndex++, Timestamp.valueOf(to));
+                        }
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                activities.add(mapRowToActivityLog(rs));
+                            }
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                    ActivityLogPartitions.reset();
+                System.err.println("Error searching activities: " + e.getMessage());
+                e.printStackTrace();
+            }
         }
+        List<UserActivityLog> merged = ShardRouter.mergeSorted(perShard, NEWEST_FIRST);
+        return merged.size() > ADMIN_LIST_LIMIT ? new ArrayList<>(merged.subList(0, ADMIN_LIST_LIMIT)) : merged;
     }
 
     /**
-     * Create a new activity log entry
+     * Streams every activity log, oldest partition first and in id order
+     * within a partition, for rebuilding the in-memory search index at startup.
+     * With sharding one cursor is kept open per shard and the shards' logs
+     * are merged by time through a heap of the shards' next rows, so no
+     * shard's logs are held in memory. Within a shard rows come in id order,
+     * which follows time closely enough for the index.
      */
-    public void createActivityLog(UserActivityLog log) {
-        String query = "INSERT INTO user_activity_logs (user_id, activity_type, description, logged_at) VALUES (?, ?, ?, ?)";
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setInt(1, log.getUserId());
-            stmt.setString(2, log.getActionType());
-            stmt.setString(3, log.getDetails());
-            stmt.setTimestamp(4, Timestamp.valueOf(log.getTimestamp()));
-            stmt.executeUpdate();
+    public void forEachActivity(Consumer<UserActivityLog> consumer) {
+        if (DatabaseConnection.shardCount() == 1) {
+            scanActivities(0, consumer);
+            return;
+        }
+        List<ShardCursor> cursors = new ArrayList<>();
+        try {
+            PriorityQueue<ShardCursor> heads = new PriorityQueue<>(DatabaseConnection.shardCount(),
+                    (a, b) -> OLDEST_FIRST.compare(a.head, b.head));
+            for (int shard = 0; shard < DatabaseConnection.shardCount(); shard++) {
+                ShardCursor cursor = new ShardCursor(shard);
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            }
+            while (!heads.isEmpty()) {
+                ShardCursor cursor = heads.poll();
+                consumer.accept(cursor.head);
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            }
         } catch (SQLException e) {
-            System.err.println("Error creating activity log: " + e.getMessage());
+            ActivityLogPartitions.reset();
+            System.err.println("Error scanning activity logs: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            for (ShardCursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    private void scanActivities(int shard, Consumer<UserActivityLog> consumer) {
+        try (ShardCursor cursor = new ShardCursor(shard)) {
+            while (cursor.advance()) {
+                consumer.accept(cursor.head);
+            }
+        } catch (SQLException e) {
+            ActivityLogPartitions.reset();
+            System.err.println("Error scanning activity logs: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
     /**
-     * Search activities by username and/or action type
+     * Reads one shard's logs a row at a time, oldest partition first and in
+     * id order within a partition. Rows are fetched in keyset pages of
+     * SCAN_PAGE_SIZE, so only one page per shard is held and no result set
+     * stays open between rows (MySQL Connector/J otherwise buffers the
+     * whole table, whatever the fetch size).
      */
-    public List<UserActivityLog> searchActivities(String username, String actionType) {
-        List<UserActivityLog> activities = new ArrayList<>();
-        StringBuilder query = new StringBuilder("SELECT a.* FROM user_activity_logs a");
-        if (username != null && !username.isEmpty()) {
-            query.append(" JOIN users u ON a.user_id = u.id");
+    private final class ShardCursor implements AutoCloseable {
+        private final Connection conn;
+        private final Iterator<ActivityLogPartitions.Partition> partitions;
+        private String table;
+        private List<UserActivityLog> page = List.of();
+        private int index;
+        private int lastId;
+        private boolean lastPage = true;
+        UserActivityLog head;
+
+        ShardCursor(int shard) throws SQLException {
+            conn = DatabaseConnection.getShardConnection(shard);
+            try {
+                partitions = ActivityLogPartitions.allOldestFirst(conn).iterator();
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
         }
-        query.append(" WHERE 1=1");
-        if (username != null && !username.isEmpty()) {
-            query.append(" AND u.username LIKE ?");
+
+        /**
+         * Moves to the next row; false once the shard is exhausted.
+         */
+        boolean advance() throws SQLException {
+            while (index == page.size()) {
+                if (lastPage) {
+                    if (!partitions.hasNext()) {
+                        head = null;
+                        return false;
+                    }
+                    table = partitions.next().getTable();
+                    lastId = 0;
+                }
+                readPage();
+            }
+            head = page.get(index++);
+            return true;
+        }
+
+        private void readPage() throws SQLException {
+            List<UserActivityLog> rows = new ArrayList<>(SCAN_PAGE_SIZE);
+            String query = "SELECT * FROM " + table + " WHERE id > ? ORDER BY id LIMIT ?";
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setInt(1, lastId);
+                stmt.setInt(2, SCAN_PAGE_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(mapRowToActivityLog(rs));
+                    }
+                }
+            }
+            if (!rows.isEmpty()) {
+                lastId = rows.get(rows.size() - 1).getId();
+            }
+            lastPage = rows.size() < SCAN_PAGE_SIZE;
+            page = rows;
+            index = 0;
         }
-        if (actionType != null && !actionType.isEmpty()) {
-            query.append(" AND a.action_type = ?");
+
+        @Override
+        public void close() {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing activity log scan: " + e.getMessage());
+            }
         }
-        query.append(" ORDER BY a.logged_at DESC LIMIT 1000");
-
-        try (Connection conn = DatabaseConnection.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(query.toString())) {
-            int paramIndex = 1;
-            if (username != null && !username.isEmpty()) {
-                stmt.setString(paramIndex++, "%" + username + "%");
-            }
-            if (actionType != null && !actionType.isEmpty()) {
-                stmt.setString(paramIndex++, actionType);
-            }
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                UserActivityLog log = new UserActivityLog();
-                log.setId(rs.getInt("id"));
-                log.setUserId(rs.getInt("user_id"));
-                log.setActionType(rs.getString("action_type"));
-                log.setDetails(rs.getString("details"));
-                log.setIpAddress(rs.getString("ip_address"));
-                log.setTimestamp(rs.getTimestamp("logged_at").toLocalDateTime());
-                activities.add(log);
+    }
+
+    /**
+     * Feeds a freshly inserted row into the activity search index.
+     */
+    private void indexInsertedLog(PreparedStatement stmt, int userId, String actionType, String details,
+            long loggedAtMillis) throws SQLException {
+        try (ResultSet keys = stmt.getGeneratedKeys()) {
+            if (keys.next()) {
+                ActivityLogIndex.getInstance().add(keys.getInt(1), userId, actionType, details, loggedAtMillis);
             }
-        } catch (SQLException e) {
-            System.err.println("Error searching activities: " + e.getMessage());
-            e.printStackTrace();
         }
-        return activities;
     }
 }
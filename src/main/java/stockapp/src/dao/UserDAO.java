@@ -7,10 +7,19 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.springframework.stereotype.Repository;
 
 import stockapp.src.DatabaseConnection;
+import stockapp.src.ShardRouter;
+import stockapp.src.cache.TradingStateCache;
 import stockapp.src.models.User;
 import stockapp.src.models.UserRole;
 
@@ -23,8 +32,15 @@ public class UserDAO {
 
     private static final String INSERT_USER_SQL = "INSERT INTO users (username, password, balance, role, is_active) VALUES (?, ?, ?, ?, ?)";
 
+    // Sharded: the id comes from user_directory on the primary
+    private static final String INSERT_USER_WITH_ID_SQL = "INSERT INTO users (id, username, password, balance, role, is_active) VALUES (?, ?, ?, ?, ?, ?)";
+
     private static final String SELECT_USER_BY_USERNAME_SQL = "SELECT id, username, password, balance, role, is_active FROM users WHERE username = ?";
 
+    private final TradingStateCache cache = TradingStateCache.getInstance();
+
+    private final ShardRouter shards = ShardRouter.getInstance();
+
     /**
      * Helper to map a ResultSet row to a User object.
      */
@@ -49,6 +65,13 @@ public class UserDAO {
      * @return true if insertion was successful, false otherwise.
      */
     public boolean registerUser(User user) {
+        if (shards.isSharded()) {
+            int id = createUser(user);
+            if (id > 0) {
+                user.setId(id);
+            }
+            return id > 0;
+        }
         try (Connection connection = DatabaseConnection.getConnection();
                 PreparedStatement preparedStatement = connection.prepareStatement(INSERT_USER_SQL,
                         Statement.RETURN_GENERATED_KEYS)) {
@@ -66,6 +89,7 @@ public class UserDAO {
                 try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
                     if (generatedKeys.next()) {
                         user.setId(generatedKeys.getInt(1));
+                        DatabaseConnection.recordWrite(user.getId());
                     }
                 }
                 return true;
@@ -90,6 +114,10 @@ public class UserDAO {
      * @return The User object if found, otherwise null.
      */
     public User findUserByUsername(String username) {
+        if (shards.isSharded()) {
+            int id = findDirectoryId(username);
+            return id > 0 ? getUserById(id) : null;
+        }
         try (Connection connection = DatabaseConnection.getConnection();
                 PreparedStatement preparedStatement = connection.prepareStatement(SELECT_USER_BY_USERNAME_SQL)) {
 
@@ -136,7 +164,7 @@ public class UserDAO {
      */
     public User getUserById(int userID) {
         String sql = "SELECT id, username, password, balance, role, is_active FROM users WHERE id = ?";
-        try (Connection connection = DatabaseConnection.getConnection();
+        try (Connection connection = DatabaseConnection.getUserConnection(userID);
                 PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
             preparedStatement.setInt(1, userID);
@@ -161,13 +189,17 @@ public class UserDAO {
      */
     public boolean updateUserBalance(int userID, BigDecimal newBalance) {
         String sql = "UPDATE users SET balance = ? WHERE id = ?";
-        try (Connection connection = DatabaseConnection.getConnection();
+        try (Connection connection = DatabaseConnection.getUserConnection(userID);
                 PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
             preparedStatement.setBigDecimal(1, newBalance);
             preparedStatement.setInt(2, userID);
 
             int rowsAffected = preparedStatement.executeUpdate();
+            if (rowsAffected > 0) {
+                cache.putBalance(userID, newBalance);
+                DatabaseConnection.recordWrite(userID);
+            }
             return rowsAffected > 0;
         } catch (SQLException e) {
             System.err.println("Database error updating user balance: " + e.getMessage());
@@ -181,7 +213,7 @@ public class UserDAO {
      */
     public boolean isAdmin(int userID) {
         String sql = "SELECT role FROM users WHERE id = ?";
-        try (Connection connection = DatabaseConnection.getConnection();
+        try (Connection connection = DatabaseConnection.getUserConnection(userID);
                 PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setInt(1, userID);
             try (ResultSet resultSet = preparedStatement.executeQuery()) {
@@ -202,40 +234,68 @@ public class UserDAO {
     public java.util.List<User> getAllAdmins() {
         java.util.List<User> admins = new java.util.ArrayList<>();
         String sql = "SELECT id, username, password, balance, role, is_active FROM users WHERE role = 'ADMIN' AND is_active = TRUE";
-        try (Connection connection = DatabaseConnection.getConnection();
-                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-            try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                while (resultSet.next()) {
-                    admins.add(mapRowToUser(resultSet));
+        for (int shard = 0; shard < shards.shardCount(); shard++) {
+            try (Connection connection = DatabaseConnection.getShardConnection(shard);
+                    PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        admins.add(mapRowToUser(resultSet));
+                    }
                 }
+            } catch (SQLException e) {
+                System.err.println("Database error retrieving admins: " + e.getMessage());
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            System.err.println("Database error retrieving admins: " + e.getMessage());
-            e.printStackTrace();
         }
         return admins;
     }
 
     /**
-     * Get all users from the database.
+     * Get all users from the database, from every shard.
      */
     public java.util.List<User> getAllUsers() {
         java.util.List<User> users = new java.util.ArrayList<>();
         String sql = "SELECT id, username, password, balance, role, is_active FROM users";
-        try (Connection connection = DatabaseConnection.getConnection();
-                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-            try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                while (resultSet.next()) {
-                    users.add(mapRowToUser(resultSet));
+        for (int shard = 0; shard < shards.shardCount(); shard++) {
+            try (Connection connection = DatabaseConnection.getShardConnection(shard);
+                    PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        users.add(mapRowToUser(resultSet));
+                    }
                 }
+            } catch (SQLException e) {
+                System.err.println("Database error retrieving all users: " + e.getMessage());
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            System.err.println("Database error retrieving all users: " + e.getMessage());
-            e.printStackTrace();
+        }
+        if (shards.isSharded()) {
+            users.sort(java.util.Comparator.comparingInt(User::getId));
         }
         return users;
     }
 
+    /**
+     * Balances of all users by id, for reconciling cached balances.
+     */
+    public Map<Integer, BigDecimal> getAllBalances() {
+        Map<Integer, BigDecimal> balances = new HashMap<>();
+        String sql = "SELECT id, balance FROM users";
+        for (int shard = 0; shard < shards.shardCount(); shard++) {
+            try (Connection connection = DatabaseConnection.getShardConnection(shard);
+                    PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                    ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    balances.put(resultSet.getInt("id"), resultSet.getBigDecimal("balance"));
+                }
+            } catch (SQLException e) {
+                System.err.println("Database error retrieving balances: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        return balances;
+    }
+
     /**
      * Adapter for other code expecting getUserByUsername
      */
@@ -248,7 +308,10 @@ public class UserDAO {
      */
     public boolean updateUser(User user) {
         String sql = "UPDATE users SET username = ?, password = ?, balance = ?, role = ?, is_active = ? WHERE id = ?";
-        try (Connection connection = DatabaseConnection.getConnection();
+        if (shards.isSharded() && !renameInDirectory(user.getId(), user.getUsername())) {
+            return false;
+        }
+        try (Connection connection = DatabaseConnection.getUserConnection(user.getId());
                 PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
             preparedStatement.setString(1, user.getUsername());
@@ -259,6 +322,10 @@ public class UserDAO {
             preparedStatement.setInt(6, user.getId());
 
             int rowsAffected = preparedStatement.executeUpdate();
+            if (rowsAffected > 0) {
+                cache.putBalance(user.getId(), user.getBalance());
+                DatabaseConnection.recordWrite(user.getId());
+            }
             return rowsAffected > 0;
         } catch (SQLException e) {
             System.err.println("Database error updating user: " + e.getMessage());
@@ -272,11 +339,18 @@ public class UserDAO {
      */
     public boolean deleteUser(int userId) {
         String sql = "DELETE FROM users WHERE id = ?";
-        try (Connection connection = DatabaseConnection.getConnection();
+        try (Connection connection = DatabaseConnection.getUserConnection(userId);
                 PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
             preparedStatement.setInt(1, userId);
             int rowsAffected = preparedStatement.executeUpdate();
+            if (rowsAffected > 0 && shards.isSharded()) {
+                removeFromDirectory(userId);
+            }
+            cache.evictUser(userId);
+            if (rowsAffected > 0) {
+                DatabaseConnection.recordWrite(userId);
+            }
             return rowsAffected > 0;
         } catch (SQLException e) {
             System.err.println("Database error deleting user: " + e.getMessage());
@@ -289,6 +363,9 @@ public class UserDAO {
      * Creates a new user and returns the generated ID.
      */
     public int createUser(User user) {
+        if (shards.isSharded()) {
+            return createShardedUser(user);
+        }
         try (Connection connection = DatabaseConnection.getConnection();
                 PreparedStatement preparedStatement = connection.prepareStatement(INSERT_USER_SQL,
                         Statement.RETURN_GENERATED_KEYS)) {
@@ -304,7 +381,9 @@ public class UserDAO {
             if (rowsAffected > 0) {
                 try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
                     if (generatedKeys.next()) {
-                        return generatedKeys.getInt(1);
+                        int id = generatedKeys.getInt(1);
+                        DatabaseConnection.recordWrite(id);
+                        return id;
                     }
                 }
             }
@@ -316,4 +395,302 @@ public class UserDAO {
             return -1;
         }
     }
-}
\ No newline at end of file
+
+    // ================== USER DIRECTORY ==================
+    // With sharding, user_directory on the primary allocates user ids and
+    // maps usernames to them, so lookups by name go to one place and names
+    // stay unique across shards.
+
+    private int createShardedUser(User user) {
+        int id;
+        try (Connection connection = DatabaseConnection.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(
+                        "INSERT INTO user_directory (username) VALUES (?)", Statement.RETURN_GENERATED_KEYS)) {
+            preparedStatement.setString(1, user.getUsername());
+            preparedStatement.executeUpdate();
+            try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+                if (!generatedKeys.next()) {
+                    return -1;
+                }
+                id = generatedKeys.getInt(1);
+            }
+        } catch (SQLException e) {
+            System.err.println("Database error during user creation: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+
+        try (Connection connection = DatabaseConnection.getUserConnection(id);
+                PreparedStatement preparedStatement = connection.prepareStatement(INSERT_USER_WITH_ID_SQL)) {
+            preparedStatement.setInt(1, id);
+            preparedStatement.setString(2, user.getUsername());
+            preparedStatement.setString(3, user.getPassword());
+            preparedStatement.setBigDecimal(4, user.getBalance());
+            preparedStatement.setString(5, user.getRole().name());
+            preparedStatement.setBoolean(6, user.isActive());
+            preparedStatement.executeUpdate();
+            DatabaseConnection.recordWrite(id);
+            return id;
+        } catch (SQLException e) {
+            System.err.println("Database error during user creation: " + e.getMessage());
+            e.printStackTrace();
+            // Free the name again
+            removeFromDirectory(id);
+            return -1;
+        }
+    }
+
+    private int findDirectoryId(String username) {
+        try (Connection connection = DatabaseConnection.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(
+                        "SELECT id FROM user_directory WHERE username = ?")) {
+            preparedStatement.setString(1, username);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt("id") : -1;
+            }
+        } catch (SQLException e) {
+            System.err.println("Database error during user lookup: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    private boolean renameInDirectory(int userId, String username) {
+        try (Connection connection = DatabaseConnection.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(
+                        "UPDATE user_directory SET username = ? WHERE id = ?")) {
+            preparedStatement.setString(1, username);
+            preparedStatement.setInt(2, userId);
+            preparedStatement.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Database error updating user: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void removeFromDirectory(int userId) {
+        try (Connection connection = DatabaseConnection.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(
+                        "DELETE FROM user_directory WHERE id = ?")) {
+            preparedStatement.setInt(1, userId);
+            preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Database error removing user from directory: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // ================== BULK OPERATIONS ==================
+    // These run on a caller-supplied connection so the caller controls the
+    // transaction boundaries (see BulkImportService).
+
+    /**
+     * Returns the subset of the given usernames that already exist. When
+     * sharded, pass a primary connection; names are checked in the directory.
+     */
+    public Set<String> findExistingUsernames(Connection connection, Collection<String> usernames) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        if (usernames.isEmpty()) {
+            return existing;
+        }
+        String sql = "SELECT username FROM " + usernameTable() + " WHERE username IN (" + placeholders(usernames.size()) + ")";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (String username : usernames) {
+                preparedStatement.setString(index++, username);
+            }
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    existing.add(resultSet.getString("username"));
+                }
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Maps usernames to their generated IDs. When sharded, pass a primary
+     * connection.
+     */
+    public Map<String, Integer> findUserIdsByUsername(Connection connection, Collection<String> usernames) throws SQLException {
+        Map<String, Integer> ids = new HashMap<>();
+        if (usernames.isEmpty()) {
+            return ids;
+        }
+        String sql = "SELECT id, username FROM " + usernameTable() + " WHERE username IN (" + placeholders(usernames.size()) + ")";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (String username : usernames) {
+                preparedStatement.setString(index++, username);
+            }
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    ids.put(resultSet.getString("username"), resultSet.getInt("id"));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Reserves user ids for the given users in the directory on the primary
+     * connection and sets them on the users. Does not commit.
+     */
+    public void allocateUserIds(Connection connection, List<User> users) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO user_directory (username) VALUES (?)", Statement.RETURN_GENERATED_KEYS)) {
+            for (User user : users) {
+                preparedStatement.setString(1, user.getUsername());
+                preparedStatement.executeUpdate();
+                try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+                    if (!generatedKeys.next()) {
+                        throw new SQLException("No id allocated for " + user.getUsername());
+                    }
+                    user.setId(generatedKeys.getInt(1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts users that already have ids (see allocateUserIds) as a single
+     * JDBC batch. Does not commit.
+     */
+    public void insertUsersWithIdsBatch(Connection connection, List<User> users) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_USER_WITH_ID_SQL)) {
+            for (User user : users) {
+                preparedStatement.setInt(1, user.getId());
+                preparedStatement.setString(2, user.getUsername());
+                preparedStatement.setString(3, user.getPassword());
+                preparedStatement.setBigDecimal(4, user.getBalance());
+                preparedStatement.setString(5, user.getRole().name());
+                preparedStatement.setBoolean(6, user.isActive());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+    }
+
+    /**
+     * Inserts the given users as a single JDBC batch. Does not commit.
+     */
+    public void insertUsersBatch(Connection connection, List<User> users) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_USER_SQL)) {
+            for (User user : users) {
+                preparedStatement.setString(1, user.getUsername());
+                preparedStatement.setString(2, user.getPassword());
+                preparedStatement.setBigDecimal(3, user.getBalance());
+                preparedStatement.setString(4, user.getRole().name());
+                preparedStatement.setBoolean(5, user.isActive());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+    }
+
+    /**
+     * Reads a user's balance and locks the row until the caller's
+     * transaction ends.
+     *
+     * @return the balance, or null if the user does not exist
+     */
+    public BigDecimal lockBalance(Connection connection, int userId) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT balance FROM users WHERE id = ? FOR UPDATE")) {
+            preparedStatement.setInt(1, userId);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? resultSet.getBigDecimal("balance") : null;
+            }
+        }
+    }
+
+    /**
+     * Reads the balances of the given users and locks their rows until the
+     * caller's transaction ends. Rows are locked in ascending id order, the
+     * order every multi-user writer takes them in.
+     */
+    public Map<Integer, BigDecimal> lockBalances(Connection connection, Collection<Integer> userIds) throws SQLException {
+        Map<Integer, BigDecimal> balances = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return balances;
+        }
+        Set<Integer> ascending = new TreeSet<>(userIds);
+        String sql = "SELECT id, balance FROM users WHERE id IN (" + placeholders(ascending.size()) + ") ORDER BY id FOR UPDATE";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (int userId : ascending) {
+                preparedStatement.setInt(index++, userId);
+            }
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    balances.put(resultSet.getInt("id"), resultSet.getBigDecimal("balance"));
+                }
+            }
+        }
+        return balances;
+    }
+
+    /**
+     * Sets a user's balance. Does not commit and does not touch the cache;
+     * the caller publishes the new balance once its transaction commits.
+     */
+    public void setBalance(Connection connection, int userId, BigDecimal balance) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("UPDATE users SET balance = ? WHERE id = ?")) {
+            preparedStatement.setBigDecimal(1, balance);
+            preparedStatement.setInt(2, userId);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * Adds the given amounts to the users' balances as a single JDBC batch.
+     * The update is relative, so it composes with concurrent writers. Does
+     * not commit and does not touch the cache.
+     */
+    public void adjustBalancesBatch(Connection connection, Map<Integer, BigDecimal> deltas) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("UPDATE users SET balance = balance + ? WHERE id = ?")) {
+            for (Map.Entry<Integer, BigDecimal> delta : deltas.entrySet()) {
+                preparedStatement.setBigDecimal(1, delta.getValue());
+                preparedStatement.setInt(2, delta.getKey());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+    }
+
+    /**
+     * Reads the balances of the given users.
+     */
+    public Map<Integer, BigDecimal> getBalances(Connection connection, Collection<Integer> userIds) throws SQLException {
+        Map<Integer, BigDecimal> balances = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return balances;
+        }
+        String sql = "SELECT id, balance FROM users WHERE id IN (" + placeholders(userIds.size()) + ")";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (int userId : userIds) {
+                preparedStatement.setInt(index++, userId);
+            }
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    balances.put(resultSet.getInt("id"), resultSet.getBigDecimal("balance"));
+                }
+            }
+        }
+        return balances;
+    }
+
+    private String usernameTable() {
+        return shards.isSharded() ? "user_directory" : "users";
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+}
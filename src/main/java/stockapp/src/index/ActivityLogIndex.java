@@ -0,0 +1,521 @@
+package stockapp.src.index;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import stockapp.src.dao.UserActivityLogDAO;
+import stockapp.src.dao.UserDAO;
+import stockapp.src.models.User;
+import stockapp.src.models.UserActivityLog;
+
+/**
+ * In-memory search index over user activity logs.
+ *
+ * Every log is stored column-wise under a dense ordinal (ordinals follow
+ * arrival order, so a higher ordinal is a newer log). On top of that it keeps:
+ * - trigram postings over the lower-cased details text,
+ * - trigram postings over usernames (pointing at user ids),
+ * - per-user ordinal lists,
+ * - one bitmap per action type.
+ *
+ * A search picks the most selective of these as its driver, walks it from
+ * the newest entry down and checks the remaining filters per entry, stopping
+ * once the limit is reached. Substring matches are verified against the
+ * stored text, so trigram collisions never leak into results.
+ *
+ * The index is fed by UserActivityLogDAO on every insert and rebuilt from the
+ * log partitions at startup (see ActivitySearchService).
+ */
+public class ActivityLogIndex {
+
+    private static final ActivityLogIndex INSTANCE = new ActivityLogIndex();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final UserDAO userDAO = new UserDAO();
+
+    private Data data = new Data();
+
+    private volatile boolean ready;
+
+    private ActivityLogIndex() {
+    }
+
+    public static ActivityLogIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * True once the startup rebuild has finished. Until then searches should
+     * go to the database.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return data.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the index from the users table and all activity log partitions.
+     * Logs indexed incrementally while the rebuild ran are carried over
+     * unless the scan already read them. This is decided by id rather than
+     * by the highest id scanned, because a log can commit after the scan
+     * passed ids above its own.
+     */
+    public synchronized void rebuild(UserActivityLogDAO activityLogDAO) {
+        long startedAt = System.currentTimeMillis();
+        int carriedFrom;
+        lock.readLock().lock();
+        try {
+            // Indexed logs below this ordinal committed before the scan started
+            carriedFrom = data.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+        Data fresh = new Data();
+        for (User user : userDAO.getAllUsers()) {
+            fresh.putUsername(user.getId(), user.getUsername());
+        }
+        activityLogDAO.forEachActivity(log -> fresh.add(log.getId(), log.getUserId(), log.getActionType(),
+                log.getDetails(), log.getTimestamp() != null ? Timestamp.valueOf(log.getTimestamp()).getTime() : 0L));
+
+        lock.writeLock().lock();
+        try {
+            Data live = data;
+            Set<Integer> unscanned = new HashSet<>();
+            int lowestUnscanned = Integer.MAX_VALUE;
+            for (int i = carriedFrom; i < live.size; i++) {
+                unscanned.add(live.logIds[i]);
+                lowestUnscanned = Math.min(lowestUnscanned, live.logIds[i]);
+            }
+            for (int i = 0; i < fresh.size && !unscanned.isEmpty(); i++) {
+                if (fresh.logIds[i] >= lowestUnscanned) {
+                    unscanned.remove(fresh.logIds[i]);
+                }
+            }
+            for (int i = carriedFrom; i < live.size; i++) {
+                if (unscanned.contains(live.logIds[i])) {
+                    fresh.add(live.logIds[i], live.userIds[i], live.actionTypes.get(live.actionCodes[i]),
+                            live.details[i], live.loggedAt[i]);
+                }
+            }
+            live.usernames.forEach((userId, username) -> {
+                if (!fresh.usernames.containsKey(userId)) {
+                    fresh.putUsername(userId, username);
+                }
+            });
+            data = fresh;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("Activity log index rebuilt: " + fresh.size + " logs in "
+                + (System.currentTimeMillis() - startedAt) + " ms");
+    }
+
+    /**
+     * Indexes a newly written log, once it is committed. Logs are ordered
+     * by arrival, which follows id order closely enough for newest-first
+     * results.
+     */
+    public void add(int logId, int userId, String actionType, String details, long loggedAtMillis) {
+        String username = null;
+        if (!hasUsername(userId)) {
+            User user = userDAO.getUserById(userId);
+            username = user != null ? user.getUsername() : null;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (username != null) {
+                data.putUsername(userId, username);
+            }
+            data.add(logId, userId, actionType, details, loggedAtMillis);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Keeps username postings in step with renames (AdminController.editUser).
+     */
+    public void updateUsername(int userId, String username) {
+        lock.writeLock().lock();
+        try {
+            data.putUsername(userId, username);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public String getUsername(int userId) {
+        lock.readLock().lock();
+        try {
+            return data.usernames.get(userId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean hasUsername(int userId) {
+        lock.readLock().lock();
+        try {
+            return data.usernames.containsKey(userId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds logs matching all given filters, newest first.
+     *
+     * @param username   case-insensitive substring of the username, or null
+     * @param actionType exact action type, or null
+     * @param text       case-insensitive substring of the details, or null
+     * @param fromMillis earliest logged_at to include
+     * @param toMillis   logged_at upper bound (exclusive)
+     * @param limit      maximum number of results
+     */
+    public List<UserActivityLog> search(String username, String actionType, String text,
+            long fromMillis, long toMillis, int limit) {
+        lock.readLock().lock();
+        try {
+            return data.search(blankToNull(username), blankToNull(actionType), blankToNull(text),
+                    fromMillis, toMillis, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    // ================== INDEX DATA ==================
+
+    private static final class Data {
+        int size;
+        int[] logIds = new int[1024];
+        int[] userIds = new int[1024];
+        long[] loggedAt = new long[1024];
+        short[] actionCodes = new short[1024];
+        String[] details = new String[1024];
+
+        final Map<Long, IntList> detailPostings = new HashMap<>();
+        final Map<Integer, IntList> userDocs = new HashMap<>();
+
+        final Map<Integer, String> usernames = new HashMap<>();
+        final Map<Long, IntList> usernamePostings = new HashMap<>();
+
+        final List<String> actionTypes = new ArrayList<>();
+        final Map<String, Short> actionCodeByType = new HashMap<>();
+        final List<BitSet> actionBitmaps = new ArrayList<>();
+
+        void add(int logId, int userId, String actionType, String text, long loggedAtMillis) {
+            if (size == logIds.length) {
+                int capacity = size * 2;
+                logIds = Arrays.copyOf(logIds, capacity);
+                userIds = Arrays.copyOf(userIds, capacity);
+                loggedAt = Arrays.copyOf(loggedAt, capacity);
+                actionCodes = Arrays.copyOf(actionCodes, capacity);
+                details = Arrays.copyOf(details, capacity);
+            }
+            int ordinal = size++;
+            short code = actionCode(actionType == null ? "" : actionType);
+            logIds[ordinal] = logId;
+            userIds[ordinal] = userId;
+            loggedAt[ordinal] = loggedAtMillis;
+            actionCodes[ordinal] = code;
+            details[ordinal] = text;
+
+            actionBitmaps.get(code).set(ordinal);
+            userDocs.computeIfAbsent(userId, k -> new IntList()).addIfNotLast(ordinal);
+            if (text != null) {
+                for (int i = 0; i + 3 <= text.length(); i++) {
+                    detailPostings.computeIfAbsent(trigram(text, i), k -> new IntList()).addIfNotLast(ordinal);
+                }
+            }
+        }
+
+        short actionCode(String actionType) {
+            Short code = actionCodeByType.get(actionType);
+            if (code == null) {
+                code = (short) actionTypes.size();
+                actionTypes.add(actionType);
+                actionCodeByType.put(actionType, code);
+                actionBitmaps.add(new BitSet());
+            }
+            return code;
+        }
+
+        void putUsername(int userId, String username) {
+            String previous = usernames.put(userId, username);
+            if (previous != null) {
+                if (previous.equals(username)) {
+                    return;
+                }
+                for (int i = 0; i + 3 <= previous.length(); i++) {
+                    IntList users = usernamePostings.get(trigram(previous, i));
+                    if (users != null) {
+                        users.removeValue(userId);
+                    }
+                }
+            }
+            if (username != null) {
+                for (int i = 0; i + 3 <= username.length(); i++) {
+                    IntList users = usernamePostings.computeIfAbsent(trigram(username, i), k -> new IntList());
+                    if (!users.contains(userId)) {
+                        users.add(userId);
+                    }
+                }
+            }
+        }
+
+        List<UserActivityLog> search(String username, String actionType, String text,
+                long fromMillis, long toMillis, int limit) {
+            List<UserActivityLog> results = new ArrayList<>();
+
+            int actionCode = -1;
+            if (actionType != null) {
+                Short code = actionCodeByType.get(actionType);
+                if (code == null) {
+                    return results;
+                }
+                actionCode = code;
+            }
+
+            Set<Integer> userFilter = null;
+            if (username != null) {
+                userFilter = matchUsers(username);
+                if (userFilter.isEmpty()) {
+                    return results;
+                }
+            }
+
+            OrdinalCursor cursor;
+            IntList textDriver = text != null ? shortestPosting(text) : null;
+            if (text != null && text.length() >= 3 && textDriver == null) {
+                return results; // some trigram of the query never occurs
+            }
+            if (textDriver != null) {
+                cursor = textDriver.descending();
+            } else if (userFilter != null) {
+                cursor = mergedUserDocs(userFilter);
+            } else if (actionCode >= 0) {
+                cursor = bitmapDescending(actionBitmaps.get(actionCode));
+            } else {
+                cursor = allDescending();
+            }
+
+            for (int ordinal = cursor.next(); ordinal >= 0 && results.size() < limit; ordinal = cursor.next()) {
+                if (loggedAt[ordinal] < fromMillis || loggedAt[ordinal] >= toMillis) {
+                    continue;
+                }
+                if (actionCode >= 0 && actionCodes[ordinal] != actionCode) {
+                    continue;
+                }
+                if (userFilter != null && !userFilter.contains(userIds[ordinal])) {
+                    continue;
+                }
+                if (text != null && !containsIgnoreCase(details[ordinal], text)) {
+                    continue;
+                }
+                results.add(toLog(ordinal));
+            }
+            return results;
+        }
+
+        Set<Integer> matchUsers(String query) {
+            Set<Integer> matches = new HashSet<>();
+            if (query.length() < 3) {
+                // Too short for trigrams; the user table is small next to the logs
+                usernames.forEach((userId, name) -> {
+                    if (containsIgnoreCase(name, query)) {
+                        matches.add(userId);
+                    }
+                });
+                return matches;
+            }
+            IntList shortest = null;
+            for (int i = 0; i + 3 <= query.length(); i++) {
+                IntList users = usernamePostings.get(trigram(query, i));
+                if (users == null) {
+                    return matches;
+                }
+                if (shortest == null || users.size < shortest.size) {
+                    shortest = users;
+                }
+            }
+            for (int i = 0; i < shortest.size; i++) {
+                int userId = shortest.values[i];
+                if (containsIgnoreCase(usernames.get(userId), query)) {
+                    matches.add(userId);
+                }
+            }
+            return matches;
+        }
+
+        /**
+         * Returns the smallest posting list among the query's trigrams, or
+         * null if the query is shorter than a trigram or a trigram is absent.
+         */
+        IntList shortestPosting(String text) {
+            IntList shortest = null;
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                IntList docs = detailPostings.get(trigram(text, i));
+                if (docs == null) {
+                    return null;
+                }
+                if (shortest == null || docs.size < shortest.size) {
+                    shortest = docs;
+                }
+            }
+            return shortest;
+        }
+
+        OrdinalCursor mergedUserDocs(Set<Integer> users) {
+            // k-way merge of per-user ordinal lists, newest first
+            PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> Integer.compare(b[0], a[0]));
+            List<IntList> lists = new ArrayList<>();
+            for (int userId : users) {
+                IntList docs = userDocs.get(userId);
+                if (docs != null && docs.size > 0) {
+                    lists.add(docs);
+                    heads.add(new int[] { docs.values[docs.size - 1], lists.size() - 1, docs.size - 1 });
+                }
+            }
+            return () -> {
+                int[] head = heads.poll();
+                if (head == null) {
+                    return -1;
+                }
+                int ordinal = head[0];
+                if (head[2] > 0) {
+                    head[2]--;
+                    head[0] = lists.get(head[1]).values[head[2]];
+                    heads.add(head);
+                }
+                return ordinal;
+            };
+        }
+
+        OrdinalCursor bitmapDescending(BitSet bitmap) {
+            int[] position = { size - 1 };
+            return () -> {
+                if (position[0] < 0) {
+                    return -1;
+                }
+                int ordinal = bitmap.previousSetBit(position[0]);
+                position[0] = ordinal - 1;
+                return ordinal;
+            };
+        }
+
+        OrdinalCursor allDescending() {
+            int[] position = { size };
+            return () -> --position[0] >= 0 ? position[0] : -1;
+        }
+
+        UserActivityLog toLog(int ordinal) {
+            UserActivityLog log = new UserActivityLog();
+            log.setId(logIds[ordinal]);
+            log.setUserId(userIds[ordinal]);
+            log.setActionType(actionTypes.get(actionCodes[ordinal]));
+            log.setDetails(details[ordinal]);
+            log.setTimestamp(new Timestamp(loggedAt[ordinal]).toLocalDateTime());
+            return log;
+        }
+    }
+
+    // ================== HELPERS ==================
+
+    /**
+     * Packs three lower-cased chars into one key.
+     */
+    static long trigram(String s, int offset) {
+        return ((long) Character.toLowerCase(s.charAt(offset)) << 32)
+                | ((long) Character.toLowerCase(s.charAt(offset + 1)) << 16)
+                | Character.toLowerCase(s.charAt(offset + 2));
+    }
+
+    static boolean containsIgnoreCase(String haystack, String needle) {
+        if (haystack == null) {
+            return false;
+        }
+        int max = haystack.length() - needle.length();
+        for (int i = 0; i <= max; i++) {
+            if (haystack.regionMatches(true, i, needle, 0, needle.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Yields ordinals in descending order, then -1.
+     */
+    private interface OrdinalCursor {
+        int next();
+    }
+
+    /**
+     * Growable int array used for postings.
+     */
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addIfNotLast(int value) {
+            if (size == 0 || values[size - 1] != value) {
+                add(value);
+            }
+        }
+
+        boolean contains(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void removeValue(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    System.arraycopy(values, i + 1, values, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+
+        OrdinalCursor descending() {
+            int[] position = { size };
+            return () -> --position[0] >= 0 ? values[position[0]] : -1;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package stockapp.src.index;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory prefix index over stock symbols and company names, for
+ * autocomplete.
+ *
+ * Two compressed tries (radix trees) map lower-cased keys to stock ids: one
+ * keyed by symbol, one by every word of the company name. A prefix lookup
+ * walks at most the length of the query and then collects the subtree
+ * below where it stopped. Further query words must prefix some other word
+ * of the name, which is checked against the words kept per stock.
+ *
+ * TradingStateCache feeds the index whenever a quote arrives with a new
+ * symbol or name, so stocks loaded, added or renamed through updateStock
+ * are searchable at once; only the changed stock's keys are touched.
+ * Stocks are removed when a full reload no longer finds them. Ranking is
+ * left to the caller (see StockSearchService).
+ */
+public class StockSearchIndex {
+
+    private static final StockSearchIndex INSTANCE = new StockSearchIndex();
+
+    /** Match on the whole symbol. */
+    public static final int EXACT_SYMBOL = 0;
+    /** The query is a prefix of the symbol. */
+    public static final int SYMBOL_PREFIX = 1;
+    /** Every query word prefixes a word of the company name. */
+    public static final int NAME_PREFIX = 2;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock
+    private final Node symbols = new Node("");
+    private final Node words = new Node("");
+    private final Map<Integer, Keys> keys = new HashMap<>();
+
+    private StockSearchIndex() {
+    }
+
+    public static StockSearchIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The keys a stock is indexed under.
+     */
+    private static final class Keys {
+        final String symbol;
+        final String[] words;
+
+        Keys(String symbol, String[] words) {
+            this.symbol = symbol;
+            this.words = words;
+        }
+    }
+
+    private static final class Node {
+        String label;
+        Map<Character, Node> children = new HashMap<>();
+        Set<Integer> stocks = new HashSet<>();
+
+        Node(String label) {
+            this.label = label;
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return keys.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ================== UPDATES ==================
+
+    /**
+     * Indexes a stock under its symbol and name, replacing what it was
+     * indexed under before.
+     */
+    public void put(int stockId, String symbol, String name) {
+        Keys updated = new Keys(normalize(symbol), tokenize(name).toArray(new String[0]));
+        lock.writeLock().lock();
+        try {
+            Keys previous = keys.put(stockId, updated);
+            if (previous != null) {
+                unindex(stockId, previous);
+            }
+            if (!updated.symbol.isEmpty()) {
+                insert(symbols, updated.symbol, stockId);
+            }
+            for (String word : updated.words) {
+                insert(words, word, stockId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int stockId) {
+        lock.writeLock().lock();
+        try {
+            Keys previous = keys.remove(stockId);
+            if (previous != null) {
+                unindex(stockId, previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void unindex(int stockId, Keys previous) {
+        if (!previous.symbol.isEmpty()) {
+            delete(symbols, previous.symbol, stockId);
+        }
+        for (String word : previous.words) {
+            delete(words, word, stockId);
+        }
+    }
+
+    // ================== SEARCH ==================
+
+    /**
+     * Stocks matching a query, each with its best match kind (EXACT_SYMBOL,
+     * SYMBOL_PREFIX or NAME_PREFIX). Matching ignores case.
+     */
+    public Map<Integer, Integer> search(String query) {
+        Map<Integer, Integer> matches = new HashMap<>();
+        String q = normalize(query);
+        if (q.isEmpty()) {
+            return matches;
+        }
+        List<String> queryWords = new ArrayList<>(tokenize(q));
+
+        lock.readLock().lock();
+        try {
+            if (q.indexOf(' ') < 0) {
+                Node node = find(symbols, q);
+                if (node != null) {
+                    for (Integer stockId : collect(node)) {
+                        matches.put(stockId, keys.get(stockId).symbol.equals(q) ? EXACT_SYMBOL : SYMBOL_PREFIX);
+                    }
+                }
+            }
+            if (!queryWords.isEmpty()) {
+                Node node = find(words, queryWords.get(0));
+                if (node != null) {
+                    for (Integer stockId : collect(node)) {
+                        if (!matches.containsKey(stockId) && matchesRest(keys.get(stockId), queryWords)) {
+                            matches.put(stockId, NAME_PREFIX);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return matches;
+    }
+
+    /**
+     * Whether the query words each prefix a different word of the name.
+     */
+    private static boolean matchesRest(Keys stock, List<String> queryWords) {
+        if (queryWords.size() == 1) {
+            return true;
+        }
+        // Longest first, so a short query word does not take the only word a longer one fits
+        List<String> longestFirst = new ArrayList<>(queryWords);
+        longestFirst.sort((a, b) -> b.length() - a.length());
+        boolean[] used = new boolean[stock.words.length];
+        for (String queryWord : longestFirst) {
+            boolean found = false;
+            for (int i = 0; i < stock.words.length && !found; i++) {
+                if (!used[i] && stock.words[i].startsWith(queryWord)) {
+                    used[i] = true;
+                    found = true;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String normalize(String text) {
+        return text != null ? text.trim().toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * Distinct lower-cased words of a name, split on anything that is not a
+     * letter or digit.
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String word : normalize(text).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    // ================== RADIX TREE ==================
+
+    private static void insert(Node root, String key, int stockId) {
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            Node child = node.children.get(key.charAt(i));
+            if (child == null) {
+                Node leaf = new Node(key.substring(i));
+                leaf.stocks.add(stockId);
+                node.children.put(key.charAt(i), leaf);
+                return;
+            }
+            int common = commonPrefix(child.label, key, i);
+            if (common < child.label.length()) {
+                // Split the edge where the key leaves it
+                Node middle = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                middle.children.put(child.label.charAt(0), child);
+                node.children.put(middle.label.charAt(0), middle);
+                child = middle;
+            }
+            node = child;
+            i += common;
+        }
+        node.stocks.add(stockId);
+    }
+
+    private static void delete(Node root, String key, int stockId) {
+        List<Node> path = new ArrayList<>();
+        path.add(root);
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            Node child = node.children.get(key.charAt(i));
+            if (child == null || !key.startsWith(child.label, i)) {
+                return;
+            }
+            node = child;
+            path.add(node);
+            i += child.label.length();
+        }
+        if (!node.stocks.remove(stockId) || path.size() == 1) {
+            return;
+        }
+        Node parent = path.get(path.size() - 2);
+        if (node.stocks.isEmpty() && node.children.isEmpty()) {
+            parent.children.remove(node.label.charAt(0));
+            if (path.size() > 2) {
+                compact(parent);
+            }
+        } else {
+            compact(node);
+        }
+    }
+
+    /**
+     * Merges a node without stocks into its only child, keeping edges
+     * compressed after a delete.
+     */
+    private static void compact(Node node) {
+        if (!node.stocks.isEmpty() || node.children.size() != 1) {
+            return;
+        }
+        Node child = node.children.values().iterator().next();
+        node.label = node.label + child.label;
+        node.children = child.children;
+        node.stocks = child.stocks;
+    }
+
+    /**
+     * The node whose subtree holds every key starting with prefix, or null.
+     */
+    private static Node find(Node root, String prefix) {
+        Node node = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            Node child = node.children.get(prefix.charAt(i));
+            if (child == null) {
+                return null;
+            }
+            int common = commonPrefix(child.label, prefix, i);
+            if (i + common == prefix.length()) {
+                return child;
+            }
+            if (common < child.label.length()) {
+                return null;
+            }
+            node = child;
+            i += common;
+        }
+        return node;
+    }
+
+    private static List<Integer> collect(Node from) {
+        List<Integer> result = new ArrayList<>();
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.push(from);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            result.addAll(node.stocks);
+            for (Node child : node.children.values()) {
+                pending.push(child);
+            }
+        }
+        return result;
+    }
+
+    private static int commonPrefix(String label, String key, int offset) {
+        int n = Math.min(label.length(), key.length() - offset);
+        int i = 0;
+        while (i < n && label.charAt(i) == key.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+}
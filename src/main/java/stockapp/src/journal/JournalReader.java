@@ -0,0 +1,127 @@
+package stockapp.src.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Sequential reader for TradeJournal segments.
+ * Reading stops at the first unused slot or the first record whose CRC
+ * does not match, which is where a crash may have torn a write.
+ */
+public class JournalReader {
+
+    /**
+     * Receives records in sequence order. The record instance is reused.
+     */
+    public interface RecordHandler {
+        void onRecord(JournalRecord record);
+    }
+
+    private JournalReader() {
+    }
+
+    /**
+     * Replays every valid record with a sequence greater than afterSequence.
+     *
+     * @return the sequence of the last record read, or afterSequence if none
+     */
+    public static long replay(File directory, long afterSequence, RecordHandler handler) throws IOException {
+        JournalRecord record = new JournalRecord();
+        CRC32C crc = new CRC32C();
+        long lastSequence = afterSequence;
+
+        File[] segments = listSegments(directory);
+        for (int i = 0; i < segments.length; i++) {
+            // Skip segments that end before the requested sequence
+            if (i + 1 < segments.length && firstSequenceOf(segments[i + 1]) <= afterSequence + 1) {
+                continue;
+            }
+            MappedByteBuffer buf = map(segments[i]);
+            for (int pos = 0; pos + TradeJournal.RECORD_SIZE <= buf.capacity(); pos += TradeJournal.RECORD_SIZE) {
+                if (!read(buf, pos, crc, record)) {
+                    if (i + 1 < segments.length) {
+                        System.err.println("WARNING: Journal segment " + segments[i].getName()
+                                + " ends early at offset " + pos);
+                    }
+                    break;
+                }
+                if (record.sequence > afterSequence) {
+                    handler.onRecord(record);
+                    lastSequence = record.sequence;
+                }
+            }
+        }
+        return lastSequence;
+    }
+
+    /**
+     * Segment files in the directory, oldest first.
+     */
+    public static File[] listSegments(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(TradeJournal.SEGMENT_PREFIX)
+                && name.endsWith(TradeJournal.SEGMENT_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(firstSequenceOf(a), firstSequenceOf(b)));
+        return files;
+    }
+
+    static long firstSequenceOf(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(TradeJournal.SEGMENT_PREFIX.length(),
+                name.length() - TradeJournal.SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Finds the end of the valid data in a segment.
+     *
+     * @return {sequence of the last valid record (0 if none), offset after it}
+     */
+    static long[] scanTail(File segment) throws IOException {
+        MappedByteBuffer buf = map(segment);
+        JournalRecord record = new JournalRecord();
+        CRC32C crc = new CRC32C();
+        long lastSequence = 0;
+        int pos = 0;
+        while (pos + TradeJournal.RECORD_SIZE <= buf.capacity() && read(buf, pos, crc, record)) {
+            lastSequence = record.sequence;
+            pos += TradeJournal.RECORD_SIZE;
+        }
+        return new long[] { lastSequence, pos };
+    }
+
+    private static boolean read(MappedByteBuffer buf, int pos, CRC32C crc, JournalRecord record) {
+        byte type = buf.get(pos + TradeJournal.OFFSET_TYPE);
+        if (type == 0) {
+            return false;
+        }
+        if (buf.getInt(pos + TradeJournal.OFFSET_CRC) != TradeJournal.checksum(crc, buf, pos)) {
+            return false;
+        }
+        record.type = type;
+        record.side = buf.get(pos + TradeJournal.OFFSET_SIDE);
+        record.sequence = buf.getLong(pos + TradeJournal.OFFSET_SEQUENCE);
+        record.timestamp = buf.getLong(pos + TradeJournal.OFFSET_TIMESTAMP);
+        record.userId = buf.getInt(pos + TradeJournal.OFFSET_USER);
+        record.stockId = buf.getInt(pos + TradeJournal.OFFSET_STOCK);
+        record.transactionId = buf.getInt(pos + TradeJournal.OFFSET_TRANSACTION);
+        record.quantity = buf.getInt(pos + TradeJournal.OFFSET_QUANTITY);
+        record.price = buf.getLong(pos + TradeJournal.OFFSET_PRICE);
+        record.balanceAfter = buf.getLong(pos + TradeJournal.OFFSET_BALANCE);
+        record.positionAfter = buf.getInt(pos + TradeJournal.OFFSET_POSITION_QTY);
+        record.avgPriceAfter = buf.getLong(pos + TradeJournal.OFFSET_POSITION_AVG);
+        return true;
+    }
+
+    private static MappedByteBuffer map(File segment) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "r"); FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
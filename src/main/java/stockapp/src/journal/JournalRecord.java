@@ -0,0 +1,67 @@
+package stockapp.src.journal;
+
+import java.math.BigDecimal;
+
+/**
+ * One decoded journal record. JournalReader reuses a single instance for
+ * every record it visits, so handlers must copy out what they keep.
+ */
+public class JournalRecord {
+
+    byte type;
+    byte side;
+    long sequence;
+    long timestamp;
+    int userId;
+    int stockId;
+    int transactionId;
+    int quantity;
+    long price;
+    long balanceAfter;
+    int positionAfter;
+    long avgPriceAfter;
+
+    public byte getType() { return type; }
+    public byte getSide() { return side; }
+    public long getSequence() { return sequence; }
+    public long getTimestamp() { return timestamp; }
+    public int getUserId() { return userId; }
+    public int getStockId() { return stockId; }
+    public int getTransactionId() { return transactionId; }
+    public int getQuantity() { return quantity; }
+
+    /** Price scaled by TradeJournal.PRICE_SCALE. */
+    public long getScaledPrice() { return price; }
+    public long getScaledBalanceAfter() { return balanceAfter; }
+    public int getPositionAfter() { return positionAfter; }
+    public long getScaledAvgPriceAfter() { return avgPriceAfter; }
+
+    public BigDecimal getPrice() { return TradeJournal.unscale(price); }
+    public BigDecimal getBalanceAfter() { return TradeJournal.unscale(balanceAfter); }
+
+    public String getTypeName() {
+        switch (type) {
+            case TradeJournal.TYPE_ORDER: return "ORDER";
+            case TradeJournal.TYPE_FILL: return "FILL";
+            case TradeJournal.TYPE_PRICE: return "PRICE";
+            case TradeJournal.TYPE_ROLLBACK: return "ROLLBACK";
+            default: return "UNKNOWN(" + type + ")";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JournalRecord{" +
+                "seq=" + sequence +
+                ", type=" + getTypeName() +
+                ", side=" + side +
+                ", userId=" + userId +
+                ", stockId=" + stockId +
+                ", transactionId=" + transactionId +
+                ", quantity=" + quantity +
+                ", price=" + getPrice() +
+                ", balanceAfter=" + getBalanceAfter() +
+                ", positionAfter=" + positionAfter +
+                '}';
+    }
+}
@@ -0,0 +1,269 @@
+package stockapp.src.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, memory-mapped journal of trade events.
+ *
+ * Every order, fill, price change and rollback is appended as a fixed-size
+ * binary record to the current segment file. Segments are pre-sized files
+ * mapped into memory, so an append is a handful of absolute puts into the
+ * mapping plus a CRC, with no per-event allocation. When a segment is full
+ * a new one is started; segment files are named after the sequence number
+ * of their first record.
+ *
+ * Records carry absolute "after" values (balance after, position after,
+ * price), so replaying them in order rebuilds balances, positions and prices
+ * without the database. See JournalReader and JournalReplayTool.
+ *
+ * Record layout (RECORD_SIZE bytes, big-endian):
+ * <pre>
+ *  0 int  crc32c of bytes 4..RECORD_SIZE
+ *  4 byte type (0 marks unused space)
+ *  5 byte side
+ *  8 long sequence
+ * 16 long timestamp (epoch millis)
+ * 24 int  user id
+ * 28 int  stock id
+ * 32 int  transaction id
+ * 36 int  quantity
+ * 40 long price (scaled by PRICE_SCALE)
+ * 48 long balance after (scaled)
+ * 56 int  position quantity after
+ * 64 long position average price after (scaled)
+ * </pre>
+ *
+ * The journal directory defaults to ./journal and can be changed with the
+ * stockapp.journal.dir system property.
+ */
+public class TradeJournal {
+
+    public static final int RECORD_SIZE = 80;
+    public static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final long PRICE_SCALE = 10_000L;
+
+    public static final byte TYPE_ORDER = 1;
+    public static final byte TYPE_FILL = 2;
+    public static final byte TYPE_PRICE = 3;
+    public static final byte TYPE_ROLLBACK = 4;
+
+    public static final byte SIDE_NONE = 0;
+    public static final byte SIDE_BUY = 1;
+    public static final byte SIDE_SELL = 2;
+
+    static final String SEGMENT_PREFIX = "trade-";
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    static final int OFFSET_CRC = 0;
+    static final int OFFSET_TYPE = 4;
+    static final int OFFSET_SIDE = 5;
+    static final int OFFSET_SEQUENCE = 8;
+    static final int OFFSET_TIMESTAMP = 16;
+    static final int OFFSET_USER = 24;
+    static final int OFFSET_STOCK = 28;
+    static final int OFFSET_TRANSACTION = 32;
+    static final int OFFSET_QUANTITY = 36;
+    static final int OFFSET_PRICE = 40;
+    static final int OFFSET_BALANCE = 48;
+    static final int OFFSET_POSITION_QTY = 56;
+    static final int OFFSET_POSITION_AVG = 64;
+
+    private static TradeJournal instance;
+
+    private final File directory;
+    private final CRC32C crc = new CRC32C();
+
+    private MappedByteBuffer segment;
+    private int writePosition;
+    private long nextSequence = 1;
+    private boolean failed;
+
+    TradeJournal(File directory) {
+        this.directory = directory;
+    }
+
+    public static synchronized TradeJournal getInstance() {
+        if (instance == null) {
+            instance = new TradeJournal(defaultDirectory());
+        }
+        return instance;
+    }
+
+    public static File defaultDirectory() {
+        return new File(System.getProperty("stockapp.journal.dir", "journal"));
+    }
+
+    /**
+     * Rounds half up to four decimals rather than truncating.
+     *
+     * @throws ArithmeticException if the value does not fit in a long
+     */
+    public static long scale(BigDecimal value) {
+        return value == null ? 0L : value.setScale(4, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static long scale(double value) {
+        return Math.round(value * PRICE_SCALE);
+    }
+
+    public static BigDecimal unscale(long value) {
+        return BigDecimal.valueOf(value, 4);
+    }
+
+    /**
+     * Sequence number that the next appended record will get.
+     */
+    public synchronized long getNextSequence() {
+        ensureOpen();
+        return nextSequence;
+    }
+
+    // ================== EVENT HELPERS ==================
+
+    public void recordOrder(byte side, int userId, int stockId, int quantity, BigDecimal price) {
+        append(TYPE_ORDER, side, userId, stockId, 0, quantity, scale(price), 0L, 0, 0L);
+    }
+
+    public void recordFill(byte side, int userId, int stockId, int transactionId, int quantity, BigDecimal price,
+            BigDecimal balanceAfter, int positionAfter, double avgPriceAfter) {
+        append(TYPE_FILL, side, userId, stockId, transactionId, quantity, scale(price), scale(balanceAfter),
+                positionAfter, scale(avgPriceAfter));
+    }
+
+    public void recordPrice(int stockId, BigDecimal price) {
+        append(TYPE_PRICE, SIDE_NONE, 0, stockId, 0, 0, scale(price), 0L, 0, 0L);
+    }
+
+    /**
+     * A rollback that only refunds the user records the balance after; the
+     * position fields are -1 ("unchanged").
+     */
+    public void recordRollback(int userId, int stockId, int transactionId, int quantity, BigDecimal price,
+            BigDecimal balanceAfter) {
+        recordRollback(userId, stockId, transactionId, quantity, price, balanceAfter, -1, -1.0);
+    }
+
+    /**
+     * A rollback that also reverses the position records the position after.
+     */
+    public void recordRollback(int userId, int stockId, int transactionId, int quantity, BigDecimal price,
+            BigDecimal balanceAfter, int positionAfter, double avgPriceAfter) {
+        append(TYPE_ROLLBACK, SIDE_NONE, userId, stockId, transactionId, quantity, scale(price), scale(balanceAfter),
+                positionAfter, positionAfter < 0 ? -1L : scale(avgPriceAfter));
+    }
+
+    // ================== APPEND ==================
+
+    /**
+     * Appends one record. Journal failures are logged and disable the
+     * journal; they never fail the trade that triggered them.
+     */
+    public synchronized void append(byte type, byte side, int userId, int stockId, int transactionId, int quantity,
+            long price, long balanceAfter, int positionAfter, long avgPriceAfter) {
+        if (failed) {
+            return;
+        }
+        try {
+            ensureOpen();
+            if (writePosition + RECORD_SIZE > SEGMENT_SIZE) {
+                roll();
+            }
+
+            MappedByteBuffer buf = segment;
+            int pos = writePosition;
+            buf.put(pos + OFFSET_SIDE, side);
+            buf.putLong(pos + OFFSET_SEQUENCE, nextSequence);
+            buf.putLong(pos + OFFSET_TIMESTAMP, System.currentTimeMillis());
+            buf.putInt(pos + OFFSET_USER, userId);
+            buf.putInt(pos + OFFSET_STOCK, stockId);
+            buf.putInt(pos + OFFSET_TRANSACTION, transactionId);
+            buf.putInt(pos + OFFSET_QUANTITY, quantity);
+            buf.putLong(pos + OFFSET_PRICE, price);
+            buf.putLong(pos + OFFSET_BALANCE, balanceAfter);
+            buf.putInt(pos + OFFSET_POSITION_QTY, positionAfter);
+            buf.putLong(pos + OFFSET_POSITION_AVG, avgPriceAfter);
+            // Type and CRC go in last, so a torn write reads as unused space or a bad CRC
+            buf.put(pos + OFFSET_TYPE, type);
+            buf.putInt(pos + OFFSET_CRC, checksum(crc, buf, pos));
+
+            writePosition = pos + RECORD_SIZE;
+            nextSequence++;
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            System.err.println("ERROR: Trade journal disabled after write failure: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Forces written records to disk.
+     */
+    public synchronized void sync() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    /**
+     * CRC32C over bytes 4..RECORD_SIZE of the record at pos. Moves the
+     * buffer's position and limit temporarily instead of slicing, so no
+     * buffer objects are allocated.
+     */
+    static int checksum(CRC32C crc, MappedByteBuffer buf, int pos) {
+        crc.reset();
+        buf.limit(pos + RECORD_SIZE).position(pos + OFFSET_TYPE);
+        crc.update(buf);
+        buf.limit(buf.capacity()).position(0);
+        return (int) crc.getValue();
+    }
+
+    // ================== SEGMENTS ==================
+
+    private void ensureOpen() {
+        if (segment != null) {
+            return;
+        }
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Cannot create journal directory " + directory);
+            }
+            File[] segments = JournalReader.listSegments(directory);
+            if (segments.length == 0) {
+                openSegment(new File(directory, segmentName(nextSequence)), 0);
+                return;
+            }
+
+            // Continue after the last valid record of the newest segment
+            File last = segments[segments.length - 1];
+            long[] tail = JournalReader.scanTail(last);
+            nextSequence = tail[0] > 0 ? tail[0] + 1 : JournalReader.firstSequenceOf(last);
+            openSegment(last, (int) tail[1]);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open trade journal in " + directory, e);
+        }
+    }
+
+    private void roll() throws IOException {
+        segment.force();
+        openSegment(new File(directory, segmentName(nextSequence)), 0);
+    }
+
+    private void openSegment(File file, int position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+        writePosition = position;
+        System.out.println("Trade journal writing to " + file.getPath() + " at offset " + position);
+    }
+
+    static String segmentName(long firstSequence) {
+        return String.format("%s%016d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX);
+    }
+}
@@ -0,0 +1,63 @@
+package stockapp.src.models;
+
+import java.math.BigDecimal;
+
+/**
+ * One buy or sell leg of a basket order.
+ * price and transactionId are filled in when the basket executes.
+ */
+public class BasketLeg {
+    private int stockId;
+    private String type;          // BUY or SELL
+    private int quantity;
+    private String symbol;
+    private BigDecimal price;     // Execution price
+    private int transactionId;
+
+    public BasketLeg(int stockId, String type, int quantity) {
+        this.stockId = stockId;
+        this.type = type;
+        this.quantity = quantity;
+    }
+
+    public boolean isBuy() {
+        return "BUY".equals(type);
+    }
+
+    // Getters and Setters
+    public int getStockId() {
+        return stockId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(String symbol) {
+        this.symbol = symbol;
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public void setPrice(BigDecimal price) {
+        this.price = price;
+    }
+
+    public int getTransactionId() {
+        return transactionId;
+    }
+
+    public void setTransactionId(int transactionId) {
+        this.transactionId = transactionId;
+    }
+}
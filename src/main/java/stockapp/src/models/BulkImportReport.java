@@ -0,0 +1,86 @@
+package stockapp.src.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk user/holdings import.
+ * lastCommittedLine can be passed back as resumeFrom to continue an
+ * interrupted import without re-sending rows that were already written.
+ */
+public class BulkImportReport {
+
+    // Cap on reported row errors so a bad file can't blow up the response
+    public static final int MAX_REPORTED_ERRORS = 1000;
+
+    private int rowsRead;
+    private int usersImported;
+    private int positionsImported;
+    private int rowsFailed;
+    private int rowsSkipped;
+    private long lastCommittedLine;
+    private long elapsedMillis;
+    private final List<RowError> errors = new ArrayList<>();
+
+    public void addError(long line, String message) {
+        rowsFailed++;
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(new RowError(line, message));
+        }
+    }
+
+    public int getRowsRead() { return rowsRead; }
+    public void incrementRowsRead() { rowsRead++; }
+
+    public int getUsersImported() { return usersImported; }
+    public void addUsersImported(int count) { usersImported += count; }
+
+    public int getPositionsImported() { return positionsImported; }
+    public void addPositionsImported(int count) { positionsImported += count; }
+
+    public int getRowsFailed() { return rowsFailed; }
+
+    public int getRowsSkipped() { return rowsSkipped; }
+    public void incrementRowsSkipped() { rowsSkipped++; }
+
+    public long getLastCommittedLine() { return lastCommittedLine; }
+    public void setLastCommittedLine(long lastCommittedLine) { this.lastCommittedLine = lastCommittedLine; }
+
+    public long getElapsedMillis() { return elapsedMillis; }
+    public void setElapsedMillis(long elapsedMillis) { this.elapsedMillis = elapsedMillis; }
+
+    public double getRowsPerSecond() {
+        return elapsedMillis > 0 ? usersImported * 1000.0 / elapsedMillis : usersImported;
+    }
+
+    public List<RowError> getErrors() { return errors; }
+
+    /**
+     * A single rejected input row.
+     */
+    public static class RowError {
+        private final long line;
+        private final String message;
+
+        public RowError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        public long getLine() { return line; }
+        public String getMessage() { return message; }
+    }
+
+    @Override
+    public String toString() {
+        return "BulkImportReport{" +
+                "rowsRead=" + rowsRead +
+                ", usersImported=" + usersImported +
+                ", positionsImported=" + positionsImported +
+                ", rowsFailed=" + rowsFailed +
+                ", rowsSkipped=" + rowsSkipped +
+                ", lastCommittedLine=" + lastCommittedLine +
+                ", elapsedMillis=" + elapsedMillis +
+                '}';
+    }
+}
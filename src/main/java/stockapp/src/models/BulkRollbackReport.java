@@ -0,0 +1,100 @@
+package stockapp.src.models;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress and outcome of a bulk rollback.
+ * Transactions are reversed newest first, so lastTransactionId is the lowest
+ * transaction id in a committed chunk and can be passed back as beforeId to
+ * continue an interrupted rollback.
+ * skipped lists the first MAX_SKIPPED_LISTED transactions that could not be
+ * reversed, with the reason; transactionsSkipped counts them all.
+ */
+public class BulkRollbackReport {
+
+    public static final int MAX_SKIPPED_LISTED = 1000;
+
+    private final int jobId;
+    private final String filter;
+    private final boolean dryRun;
+    private volatile boolean done;
+    private volatile String error;
+    private volatile int transactionsRolledBack;
+    private volatile int usersAffected;
+    private volatile int chunksCommitted;
+    private volatile int transactionsSkipped;
+    private final List<String> skipped = new ArrayList<>();
+    private volatile BigDecimal netCompensation = BigDecimal.ZERO;
+    private volatile int lastTransactionId;
+    private volatile long elapsedMillis;
+
+    public BulkRollbackReport(int jobId, String filter, boolean dryRun) {
+        this.jobId = jobId;
+        this.filter = filter;
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Adds one committed (or, for a dry run, computed) chunk.
+     */
+    public synchronized void addChunk(int transactions, BigDecimal compensation, List<String> skippedInChunk,
+            int lastId) {
+        transactionsRolledBack += transactions;
+        netCompensation = netCompensation.add(compensation);
+        transactionsSkipped += skippedInChunk.size();
+        for (String entry : skippedInChunk) {
+            if (skipped.size() < MAX_SKIPPED_LISTED) {
+                skipped.add(entry);
+            }
+        }
+        lastTransactionId = lastId;
+        chunksCommitted++;
+    }
+
+    public int getJobId() { return jobId; }
+    public String getFilter() { return filter; }
+    public boolean isDryRun() { return dryRun; }
+
+    public boolean isDone() { return done; }
+    public void setDone(boolean done) { this.done = done; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+
+    public int getTransactionsRolledBack() { return transactionsRolledBack; }
+
+    public int getUsersAffected() { return usersAffected; }
+    public void setUsersAffected(int usersAffected) { this.usersAffected = usersAffected; }
+
+    public int getChunksCommitted() { return chunksCommitted; }
+
+    public int getTransactionsSkipped() { return transactionsSkipped; }
+
+    public synchronized List<String> getSkipped() { return new ArrayList<>(skipped); }
+
+    public BigDecimal getNetCompensation() { return netCompensation; }
+
+    public int getLastTransactionId() { return lastTransactionId; }
+
+    public long getElapsedMillis() { return elapsedMillis; }
+    public void setElapsedMillis(long elapsedMillis) { this.elapsedMillis = elapsedMillis; }
+
+    @Override
+    public String toString() {
+        return "BulkRollbackReport{" +
+                "jobId=" + jobId +
+                ", filter='" + filter + '\'' +
+                ", dryRun=" + dryRun +
+                ", done=" + done +
+                ", transactionsRolledBack=" + transactionsRolledBack +
+                ", usersAffected=" + usersAffected +
+                ", chunksCommitted=" + chunksCommitted +
+                ", transactionsSkipped=" + transactionsSkipped +
+                ", netCompensation=" + netCompensation +
+                ", lastTransactionId=" + lastTransactionId +
+                (error != null ? ", error='" + error + '\'' : "") +
+                '}';
+    }
+}
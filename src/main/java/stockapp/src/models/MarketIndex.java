@@ -0,0 +1,69 @@
+package stockapp.src.models;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Model class for composite market indices. The value of an index is the
+ * sum of units * price over its constituents, divided by the divisor.
+ */
+public class MarketIndex {
+
+    public enum Weighting {
+        /** One unit of every constituent; expensive stocks weigh more. */
+        PRICE,
+        /** Units are shares outstanding; large companies weigh more. */
+        CAP
+    }
+
+    private int id;
+    private String symbol;
+    private String name;
+    private Weighting weighting;
+    private BigDecimal baseValue;
+    private Double divisor;
+    private LocalDateTime createdAt;
+    // stock id -> units, in the order the constituents were given
+    private Map<Integer, Long> units = new LinkedHashMap<>();
+
+    public MarketIndex() {}
+
+    public MarketIndex(String symbol, String name, Weighting weighting, BigDecimal baseValue) {
+        this.symbol = symbol;
+        this.name = name;
+        this.weighting = weighting;
+        this.baseValue = baseValue;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    // Getters and Setters
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+
+    public String getSymbol() { return symbol; }
+    public void setSymbol(String symbol) { this.symbol = symbol; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public Weighting getWeighting() { return weighting; }
+    public void setWeighting(Weighting weighting) { this.weighting = weighting; }
+
+    public BigDecimal getBaseValue() { return baseValue; }
+    public void setBaseValue(BigDecimal baseValue) { this.baseValue = baseValue; }
+
+    /**
+     * Null until the index is first valued, when it is set so the index
+     * starts at its base value.
+     */
+    public Double getDivisor() { return divisor; }
+    public void setDivisor(Double divisor) { this.divisor = divisor; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public Map<Integer, Long> getUnits() { return units; }
+    public void setUnits(Map<Integer, Long> units) { this.units = units; }
+}
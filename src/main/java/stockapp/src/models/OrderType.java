@@ -0,0 +1,41 @@
+package stockapp.src.models;
+
+/**
+ * Enum for how an order is executed. MARKET orders fill at once; the others
+ * rest as PENDING transactions until the price crosses their trigger and
+ * are then filled as market orders.
+ */
+public enum OrderType {
+    MARKET("Market"),
+    STOP_LOSS("Stop-loss"),
+    TAKE_PROFIT("Take-profit"),
+    TRAILING_STOP("Trailing stop");
+
+    private final String displayName;
+
+    OrderType(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Whether an order of this type on the given side fires when the price
+     * rises to its trigger (rather than falls to it). A stop buys on the
+     * way up and sells on the way down; a take-profit does the opposite.
+     */
+    public boolean triggersOnRise(boolean buy) {
+        return this == TAKE_PROFIT ? !buy : buy;
+    }
+
+    public static OrderType fromString(String value) {
+        for (OrderType type : OrderType.values()) {
+            if (type.name().equalsIgnoreCase(value)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Invalid OrderType: " + value);
+    }
+}
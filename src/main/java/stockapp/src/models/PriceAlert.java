@@ -0,0 +1,64 @@
+package stockapp.src.models;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Model class for user price alerts. An alert fires once, when the stock's
+ * price reaches the threshold from the given side.
+ */
+public class PriceAlert {
+
+    public enum Direction {
+        /** Fires when the price rises to or above the threshold. */
+        ABOVE,
+        /** Fires when the price falls to or below the threshold. */
+        BELOW
+    }
+
+    private int id;
+    private int userId;
+    private int stockId;
+    private Direction direction;
+    private BigDecimal threshold;
+    private LocalDateTime createdAt;
+    private LocalDateTime triggeredAt;
+    private BigDecimal triggeredPrice;
+
+    public PriceAlert() {}
+
+    public PriceAlert(int userId, int stockId, Direction direction, BigDecimal threshold) {
+        this.userId = userId;
+        this.stockId = stockId;
+        this.direction = direction;
+        this.threshold = threshold;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    // Getters and Setters
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+
+    public int getUserId() { return userId; }
+    public void setUserId(int userId) { this.userId = userId; }
+
+    public int getStockId() { return stockId; }
+    public void setStockId(int stockId) { this.stockId = stockId; }
+
+    public Direction getDirection() { return direction; }
+    public void setDirection(Direction direction) { this.direction = direction; }
+
+    public BigDecimal getThreshold() { return threshold; }
+    public void setThreshold(BigDecimal threshold) { this.threshold = threshold; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getTriggeredAt() { return triggeredAt; }
+    public void setTriggeredAt(LocalDateTime triggeredAt) { this.triggeredAt = triggeredAt; }
+
+    public BigDecimal getTriggeredPrice() { return triggeredPrice; }
+    public void setTriggeredPrice(BigDecimal triggeredPrice) { this.triggeredPrice = triggeredPrice; }
+
+    public boolean isTriggered() { return triggeredAt != null; }
+}
@@ -0,0 +1,49 @@
+package stockapp.src.models;
+
+import java.sql.Timestamp;
+import java.util.Set;
+
+/**
+ * Selects the COMPLETED transactions a bulk rollback applies to.
+ * Unset (null) criteria match everything; at least one must be set.
+ */
+public class RollbackFilter {
+    private Integer stockId;
+    private Timestamp from;           // Inclusive
+    private Timestamp to;             // Exclusive
+    private Set<Integer> userIds;
+    private Set<Integer> transactionIds;
+
+    public boolean isEmpty() {
+        return stockId == null && from == null && to == null
+                && (userIds == null || userIds.isEmpty())
+                && (transactionIds == null || transactionIds.isEmpty());
+    }
+
+    // Getters and Setters
+    public Integer getStockId() { return stockId; }
+    public void setStockId(Integer stockId) { this.stockId = stockId; }
+
+    public Timestamp getFrom() { return from; }
+    public void setFrom(Timestamp from) { this.from = from; }
+
+    public Timestamp getTo() { return to; }
+    public void setTo(Timestamp to) { this.to = to; }
+
+    public Set<Integer> getUserIds() { return userIds; }
+    public void setUserIds(Set<Integer> userIds) { this.userIds = userIds; }
+
+    public Set<Integer> getTransactionIds() { return transactionIds; }
+    public void setTransactionIds(Set<Integer> transactionIds) { this.transactionIds = transactionIds; }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (stockId != null) sb.append("stock #").append(stockId).append(' ');
+        if (from != null) sb.append("from ").append(from).append(' ');
+        if (to != null) sb.append("to ").append(to).append(' ');
+        if (userIds != null && !userIds.isEmpty()) sb.append(userIds.size()).append(" users ");
+        if (transactionIds != null && !transactionIds.isEmpty()) sb.append(transactionIds.size()).append(" transactions ");
+        return sb.toString().trim();
+    }
+}
@@ -0,0 +1,55 @@
+package stockapp.src.models;
+
+import java.time.LocalDateTime;
+
+/**
+ * A scheduled window during which a stock cannot be traded.
+ * Status moves SCHEDULED -> ACTIVE -> FINISHED, or to CANCELLED.
+ */
+public class TradingHalt {
+
+    public static final String SCHEDULED = "SCHEDULED";
+    public static final String ACTIVE = "ACTIVE";
+    public static final String FINISHED = "FINISHED";
+    public static final String CANCELLED = "CANCELLED";
+
+    private final int id;
+    private final int stockId;
+    private final int adminId;
+    private final String reason;
+    private final LocalDateTime startsAt;
+    private final LocalDateTime endsAt;
+    private volatile String status = SCHEDULED;
+
+    public TradingHalt(int id, int stockId, int adminId, String reason, LocalDateTime startsAt, LocalDateTime endsAt) {
+        this.id = id;
+        this.stockId = stockId;
+        this.adminId = adminId;
+        this.reason = reason;
+        this.startsAt = startsAt;
+        this.endsAt = endsAt;
+    }
+
+    // Getters and Setters
+    public int getId() { return id; }
+    public int getStockId() { return stockId; }
+    public int getAdminId() { return adminId; }
+    public String getReason() { return reason; }
+    public LocalDateTime getStartsAt() { return startsAt; }
+    public LocalDateTime getEndsAt() { return endsAt; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    @Override
+    public String toString() {
+        return "TradingHalt{" +
+                "id=" + id +
+                ", stockId=" + stockId +
+                ", reason='" + reason + '\'' +
+                ", startsAt=" + startsAt +
+                ", endsAt=" + endsAt +
+                ", status=" + status +
+                '}';
+    }
+}
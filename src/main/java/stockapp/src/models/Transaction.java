@@ -12,6 +12,9 @@ public class Transaction {
     private String type;          //buy or sell
     private TransactionStatus status;
     private Timestamp completedAt;
+    private OrderType orderType = OrderType.MARKET;
+    private BigDecimal triggerPrice;  //Resting orders only; for trailing stops the initial trigger
+    private BigDecimal trailAmount;   //Trailing stops only
 
     // Constructor for the transaction ( When reading from the database)
     public Transaction(int id, int userID, int stockID, int quantity, BigDecimal price
@@ -115,6 +118,25 @@ public class Transaction {
         this.completedAt = completedAt;
     }
 
+    public OrderType getOrderType() {
+        return orderType;
+    }
+    public void setOrderType(OrderType orderType) {
+        this.orderType = orderType;
+    }
+    public BigDecimal getTriggerPrice() {
+        return triggerPrice;
+    }
+    public void setTriggerPrice(BigDecimal triggerPrice) {
+        this.triggerPrice = triggerPrice;
+    }
+    public BigDecimal getTrailAmount() {
+        return trailAmount;
+    }
+    public void setTrailAmount(BigDecimal trailAmount) {
+        this.trailAmount = trailAmount;
+    }
+
     // Alias for created_at timestamp
     public Timestamp getCreatedAt() {
         return timestamp;